@@ -0,0 +1,31 @@
+package mat.mat.mat.multirepo.benchmark;
+
+import org.openjdk.jmh.Main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs JMH with JSON results written to jmh-result.json by default, so runs of different versions
+ * can be compared. Any -rf or -rff given on the command line wins.
+ */
+public class BenchmarkMain {
+
+    private BenchmarkMain() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        if (!arguments.contains("-rf")){
+            arguments.add("-rf");
+            arguments.add("json");
+        }
+        if (!arguments.contains("-rff")){
+            arguments.add("-rff");
+            arguments.add("jmh-result.json");
+        }
+        Main.main(arguments.toArray(new String[0]));
+    }
+
+}
@@ -0,0 +1,133 @@
+package mat.mat.mat.multirepo.benchmark;
+
+import mat.mat.mat.multirepo.annotation.WriteAcknowledgement;
+import mat.mat.mat.multirepo.benchmark.model.Person;
+import mat.mat.mat.multirepo.benchmark.model.PersonEntity;
+import mat.mat.mat.multirepo.benchmark.model.PersonEntityRepository;
+import mat.mat.mat.multirepo.benchmark.model.PersonRepository;
+import mat.mat.mat.multirepo.benchmark.model.PersonTransformer;
+import mat.mat.mat.multirepo.proxy.MultiRepositoryExecutors;
+import mat.mat.mat.multirepo.proxy.MultiRepositoryProxy;
+import mat.mat.mat.multirepo.proxy.ParallelWriteStrategy;
+import mat.mat.mat.multirepo.proxy.SequentialWriteStrategy;
+import mat.mat.mat.multirepo.proxy.WriteStrategy;
+import mat.mat.mat.multirepo.transformer.ClassToClass;
+import mat.mat.mat.multirepo.transformer.JpaTransformer;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End to end saves through the proxy into two or three H2 databases, against a save into one of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutSaveBenchmark {
+
+    @Param({"2", "3"})
+    private int repositories;
+
+    @Param({"SEQUENTIAL", "PARALLEL"})
+    private String writeMode;
+
+    private final AtomicLong ids = new AtomicLong();
+    private final List<H2Store> stores = new ArrayList<>();
+    private final List<PersonEntityRepository> entityRepositories = new ArrayList<>();
+    private ExecutorService executor;
+    private PersonTransformer transformer;
+    private JpaTransformerCache transformerCache;
+    private PersonRepository personRepository;
+
+    @Setup
+    public void setup(){
+        transformer = new PersonTransformer();
+        transformerCache = new JpaTransformerCache();
+        transformerCache.registerTransformer(ClassToClass.of(transformer), transformer);
+
+        final List<JpaRepository> targetRepositories = new ArrayList<>();
+        final List<JpaTransformer> targetTransformers = new ArrayList<>();
+        for (int i = 0; i < repositories; i++){
+            final H2Store store = new H2Store("fanout" + i);
+            final PersonEntityRepository repository = store.repository(PersonEntityRepository.class);
+            stores.add(store);
+            entityRepositories.add(repository);
+            targetRepositories.add(repository);
+            targetTransformers.add(transformer);
+        }
+
+        executor = MultiRepositoryExecutors.newExecutor("benchmark-");
+        final WriteStrategy writeStrategy = "PARALLEL".equals(writeMode)
+                ? new ParallelWriteStrategy("PersonRepository", executor, WriteAcknowledgement.ALL, 30000)
+                : new SequentialWriteStrategy();
+
+        final MultiRepositoryProxy proxy = MultiRepositoryProxy.builder()
+                .name("PersonRepository")
+                .targetRepositories(targetRepositories)
+                .targetTransformers(targetTransformers)
+                .sourceInterface(PersonRepository.class)
+                .transformerCache(transformerCache)
+                .writeStrategy(writeStrategy)
+                .build();
+        personRepository = (PersonRepository) Proxy.newProxyInstance(PersonRepository.class.getClassLoader(), new Class[] {PersonRepository.class}, proxy);
+    }
+
+    //keeps the tables from growing over the whole run
+    @TearDown(Level.Iteration)
+    public void clear(){
+        for (final PersonEntityRepository repository : entityRepositories){
+            repository.deleteAllInBatch();
+        }
+    }
+
+    @TearDown
+    public void close(){
+        executor.shutdown();
+        for (final H2Store store : stores){
+            store.close();
+        }
+    }
+
+    @Benchmark
+    public PersonEntity saveDirect(){
+        return entityRepositories.get(0).save(transformer.transformForward(person(), transformerCache));
+    }
+
+    @Benchmark
+    public Object saveFanOut(){
+        return personRepository.save(person());
+    }
+
+    private Person person(){
+        final long id = ids.incrementAndGet();
+        final Person person = new Person();
+        person.setId(id);
+        person.setName("name" + id);
+        person.setEmail("name" + id + "@example.com");
+        person.setAge(42);
+        return person;
+    }
+
+}
@@ -0,0 +1,77 @@
+package mat.mat.mat.multirepo.benchmark;
+
+import com.zaxxer.hikari.HikariDataSource;
+import mat.mat.mat.multirepo.benchmark.model.PersonEntity;
+import org.hibernate.jpa.HibernatePersistenceProvider;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.Properties;
+
+/**
+ * One in-memory H2 database with its own persistence unit, transaction manager and Spring Data
+ * repository, wired by hand so a benchmark can hold several without an application context.
+ */
+public class H2Store implements AutoCloseable {
+
+    private final HikariDataSource dataSource;
+    private final EntityManagerFactory entityManagerFactory;
+    private final EntityManager entityManager;
+    private final JpaTransactionManager transactionManager;
+
+    public H2Store(final String name) {
+        final HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setPoolName(name);
+
+        final Properties jpaProperties = new Properties();
+        jpaProperties.setProperty("hibernate.hbm2ddl.auto", "create-drop");
+        jpaProperties.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+
+        final LocalContainerEntityManagerFactoryBean factoryBean = new LocalContainerEntityManagerFactoryBean();
+        factoryBean.setPersistenceUnitName(name);
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setPersistenceProviderClass(HibernatePersistenceProvider.class);
+        factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factoryBean.setPackagesToScan(PersonEntity.class.getPackage().getName());
+        factoryBean.setJpaProperties(jpaProperties);
+        factoryBean.afterPropertiesSet();
+
+        this.dataSource = dataSource;
+        this.entityManagerFactory = factoryBean.getObject();
+        this.entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+        this.transactionManager = new JpaTransactionManager(entityManagerFactory);
+    }
+
+    //a repository whose @Transactional methods run in this store's transactions, as in a Spring context
+    public <T extends JpaRepository> T repository(final Class<T> repositoryInterface){
+        final JpaRepositoryFactory factory = new JpaRepositoryFactory(entityManager);
+        factory.addRepositoryProxyPostProcessor((proxyFactory, repositoryInformation) ->
+                proxyFactory.addAdvice(new TransactionInterceptor(transactionManager, new AnnotationTransactionAttributeSource())));
+        return factory.getRepository(repositoryInterface);
+    }
+
+    public EntityManager getEntityManager(){
+        return entityManager;
+    }
+
+    public JpaTransactionManager getTransactionManager(){
+        return transactionManager;
+    }
+
+    @Override
+    public void close() {
+        entityManagerFactory.close();
+        dataSource.close();
+    }
+
+}
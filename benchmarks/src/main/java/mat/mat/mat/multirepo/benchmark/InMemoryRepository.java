@@ -0,0 +1,46 @@
+package mat.mat.mat.multirepo.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Optional;
+
+/**
+ * Stands in for a Spring Data repository proxy, answering from a single stored entity so that
+ * benchmarks measure the multi-repository layer rather than a datastore.
+ */
+public class InMemoryRepository implements InvocationHandler {
+
+    private final Object entity;
+
+    private InMemoryRepository(final Object entity) {
+        this.entity = entity;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> T create(final Class<T> repositoryInterface, final Object entity){
+        return (T) Proxy.newProxyInstance(repositoryInterface.getClassLoader(), new Class[] {repositoryInterface}, new InMemoryRepository(entity));
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+        switch (method.getName()){
+            case "toString":
+                return "InMemoryRepository";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "findById":
+                return Optional.of(entity);
+            case "save":
+                return args[0];
+            default:
+                if (method.getName().startsWith("find")){
+                    return entity;
+                }
+                return null;
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package mat.mat.mat.multirepo.benchmark;
+
+import mat.mat.mat.multirepo.annotation.JdbcWrites;
+import mat.mat.mat.multirepo.benchmark.model.Person;
+import mat.mat.mat.multirepo.benchmark.model.PersonEntityRepository;
+import mat.mat.mat.multirepo.benchmark.model.PersonRepository;
+import mat.mat.mat.multirepo.benchmark.model.PersonTransformer;
+import mat.mat.mat.multirepo.proxy.MultiRepositoryProxy;
+import mat.mat.mat.multirepo.transformer.ClassToClass;
+import mat.mat.mat.multirepo.transformer.JpaTransformer;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import javax.persistence.EntityManager;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Saves fanned out to two H2 databases, the second written through JPA or with JDBC batches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JdbcWriteBenchmark {
+
+    @Param({"JPA", "INSERT", "UPSERT"})
+    private String jdbcWrites;
+
+    @Param({"1", "100"})
+    private int entities;
+
+    private final AtomicLong ids = new AtomicLong();
+    private final List<H2Store> stores = new ArrayList<>();
+    private final List<PersonEntityRepository> entityRepositories = new ArrayList<>();
+    private PersonRepository personRepository;
+
+    @Setup
+    public void setup(){
+        final PersonTransformer transformer = new PersonTransformer();
+        final JpaTransformerCache transformerCache = new JpaTransformerCache();
+        transformerCache.registerTransformer(ClassToClass.of(transformer), transformer);
+
+        final List<JpaRepository> targetRepositories = new ArrayList<>();
+        final List<JpaTransformer> targetTransformers = new ArrayList<>();
+        final List<EntityManager> targetEntityManagers = new ArrayList<>();
+        for (int i = 0; i < 2; i++){
+            final H2Store store = new H2Store("jdbc" + i);
+            final PersonEntityRepository repository = store.repository(PersonEntityRepository.class);
+            stores.add(store);
+            entityRepositories.add(repository);
+            targetRepositories.add(repository);
+            targetTransformers.add(transformer);
+            targetEntityManagers.add(store.getEntityManager());
+        }
+
+        final MultiRepositoryProxy proxy = MultiRepositoryProxy.builder()
+                .name("PersonRepository")
+                .targetRepositories(targetRepositories)
+                .targetTransformers(targetTransformers)
+                .targetEntityManagers(targetEntityManagers)
+                .sourceInterface(PersonRepository.class)
+                .transformerCache(transformerCache)
+                .bulkChunkSize(1000)
+                .jdbcWrites(JdbcWrites.valueOf(jdbcWrites))
+                .jdbcBatchSize(500)
+                .build();
+        personRepository = (PersonRepository) Proxy.newProxyInstance(PersonRepository.class.getClassLoader(), new Class[] {PersonRepository.class}, proxy);
+    }
+
+    //keeps the tables from growing over the whole run
+    @TearDown(Level.Iteration)
+    public void clear(){
+        for (final PersonEntityRepository repository : entityRepositories){
+            repository.deleteAllInBatch();
+        }
+    }
+
+    @TearDown
+    public void close(){
+        for (final H2Store store : stores){
+            store.close();
+        }
+    }
+
+    @Benchmark
+    public Object saveAll(){
+        final List<Person> people = new ArrayList<>(entities);
+        for (int i = 0; i < entities; i++){
+            people.add(person());
+        }
+        return personRepository.saveAll(people);
+    }
+
+    private Person person(){
+        final long id = ids.incrementAndGet();
+        final Person person = new Person();
+        person.setId(id);
+        person.setName("name" + id);
+        person.setEmail("name" + id + "@example.com");
+        person.setAge(42);
+        return person;
+    }
+
+}
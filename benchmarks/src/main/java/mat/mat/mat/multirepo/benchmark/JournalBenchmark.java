@@ -0,0 +1,180 @@
+package mat.mat.mat.multirepo.benchmark;
+
+import mat.mat.mat.multirepo.benchmark.model.Person;
+import mat.mat.mat.multirepo.benchmark.model.PersonEntityRepository;
+import mat.mat.mat.multirepo.benchmark.model.PersonRepository;
+import mat.mat.mat.multirepo.benchmark.model.PersonTransformer;
+import mat.mat.mat.multirepo.journal.Journal;
+import mat.mat.mat.multirepo.journal.JournalCodec;
+import mat.mat.mat.multirepo.journal.JournalSettings;
+import mat.mat.mat.multirepo.proxy.JournalWriteStrategy;
+import mat.mat.mat.multirepo.proxy.MultiRepositoryProxy;
+import mat.mat.mat.multirepo.proxy.SequentialWriteStrategy;
+import mat.mat.mat.multirepo.proxy.WriteStrategy;
+import mat.mat.mat.multirepo.transformer.ClassToClass;
+import mat.mat.mat.multirepo.transformer.JpaTransformer;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.transaction.ChainedTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends to the replication journal, one thread and eight, fsync per batch of concurrent appends
+ * against fsync on an interval. Then a transaction saving through a multi repository over two H2
+ * databases, chained over both against journaled with only the primary in the transaction.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Append {
+
+        @Param({"0", "10"})
+        private long syncIntervalMillis;
+
+        private final byte[] record = new byte[256];
+        private Path directory;
+        private Journal journal;
+
+        @Setup
+        public void setup() throws IOException {
+            directory = Files.createTempDirectory("journal-benchmark");
+            journal = Journal.open(directory, "append", JournalSettings.builder().syncIntervalMillis(syncIntervalMillis).build());
+        }
+
+        @TearDown
+        public void close() throws IOException {
+            journal.close();
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Commit {
+
+        private final AtomicLong ids = new AtomicLong();
+        private Path directory;
+        private H2Store primary;
+        private H2Store secondary;
+        private List<PersonEntityRepository> entityRepositories;
+        private JournalWriteStrategy journal;
+        private PersonRepository chainedRepository;
+        private PersonRepository journaledRepository;
+        private TransactionTemplate chainedTransaction;
+        private TransactionTemplate primaryTransaction;
+
+        @Setup
+        public void setup() throws IOException {
+            directory = Files.createTempDirectory("journal-benchmark");
+            primary = new H2Store("journalPrimary");
+            secondary = new H2Store("journalSecondary");
+            entityRepositories = Arrays.asList(primary.repository(PersonEntityRepository.class), secondary.repository(PersonEntityRepository.class));
+
+            final PersonTransformer transformer = new PersonTransformer();
+            final JpaTransformerCache transformerCache = new JpaTransformerCache();
+            transformerCache.registerTransformer(ClassToClass.of(transformer), transformer);
+
+            final JournalSettings settings = JournalSettings.builder().directory(directory.toString()).build();
+            journal = new JournalWriteStrategy("PersonRepository", (List) entityRepositories, Journal.open(directory, "PersonRepository", settings), new JournalCodec(), settings);
+
+            final MultiRepositoryProxy chained = proxy(new SequentialWriteStrategy(), transformer, transformerCache);
+            final MultiRepositoryProxy journaled = proxy(journal, transformer, transformerCache);
+            journal.bind(journaled, transformerCache);
+
+            chainedRepository = (PersonRepository) Proxy.newProxyInstance(PersonRepository.class.getClassLoader(), new Class[] {PersonRepository.class}, chained);
+            journaledRepository = (PersonRepository) Proxy.newProxyInstance(PersonRepository.class.getClassLoader(), new Class[] {PersonRepository.class}, journaled);
+            chainedTransaction = new TransactionTemplate(new ChainedTransactionManager(new PlatformTransactionManager[] {primary.getTransactionManager(), secondary.getTransactionManager()}));
+            primaryTransaction = new TransactionTemplate(primary.getTransactionManager());
+        }
+
+        private MultiRepositoryProxy proxy(final WriteStrategy writeStrategy, final PersonTransformer transformer, final JpaTransformerCache transformerCache){
+            return MultiRepositoryProxy.builder()
+                    .name("PersonRepository")
+                    .targetRepositories((List) entityRepositories)
+                    .targetTransformers(Arrays.<JpaTransformer>asList(transformer, transformer))
+                    .sourceInterface(PersonRepository.class)
+                    .transformerCache(transformerCache)
+                    .writeStrategy(writeStrategy)
+                    .build();
+        }
+
+        //keeps the tables from growing over the whole run
+        @TearDown(Level.Iteration)
+        public void clear(){
+            for (final PersonEntityRepository repository : entityRepositories){
+                repository.deleteAllInBatch();
+            }
+        }
+
+        @TearDown
+        public void close() throws IOException {
+            journal.stop();
+            primary.close();
+            secondary.close();
+            FileSystemUtils.deleteRecursively(directory);
+        }
+
+        private Person person(){
+            final long id = ids.incrementAndGet();
+            final Person person = new Person();
+            person.setId(id);
+            person.setName("name" + id);
+            person.setEmail("name" + id + "@example.com");
+            person.setAge(42);
+            return person;
+        }
+    }
+
+    @Benchmark
+    public long append(final Append state){
+        return state.journal.append(state.record);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long appendConcurrent(final Append state){
+        return state.journal.append(state.record);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object commitChained(final Commit state){
+        return state.chainedTransaction.execute(status -> state.chainedRepository.save(state.person()));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object commitJournaled(final Commit state){
+        return state.primaryTransaction.execute(status -> state.journaledRepository.save(state.person()));
+    }
+
+}
@@ -0,0 +1,125 @@
+package mat.mat.mat.multirepo.benchmark;
+
+import mat.mat.mat.multirepo.benchmark.model.Person;
+import mat.mat.mat.multirepo.benchmark.model.PersonEntity;
+import mat.mat.mat.multirepo.benchmark.model.PersonEntityRepository;
+import mat.mat.mat.multirepo.benchmark.model.PersonRepository;
+import mat.mat.mat.multirepo.benchmark.model.PersonRepository_MultiRepository;
+import mat.mat.mat.multirepo.benchmark.model.PersonTransformer;
+import mat.mat.mat.multirepo.proxy.MultiRepositoryProxy;
+import mat.mat.mat.multirepo.transformer.ClassToClass;
+import mat.mat.mat.multirepo.transformer.JpaTransformer;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyDispatchBenchmark {
+
+    private static final Long ID = 1L;
+
+    private PersonEntityRepository entityRepository;
+    private PersonRepository personRepository;
+    private PersonRepository generatedRepository;
+    private PersonTransformer transformer;
+    private JpaTransformerCache transformerCache;
+    private Person person;
+
+    @Setup
+    public void setup(){
+        final PersonEntity entity = new PersonEntity();
+        entity.setId(ID);
+        entity.setName("name");
+        entity.setEmail("name@example.com");
+        entity.setAge(42);
+
+        person = new Person();
+        person.setId(ID);
+        person.setName("name");
+        person.setEmail("name@example.com");
+        person.setAge(42);
+
+        entityRepository = InMemoryRepository.create(PersonEntityRepository.class, entity);
+        transformer = new PersonTransformer();
+        transformerCache = new JpaTransformerCache();
+        transformerCache.registerTransformer(ClassToClass.of(transformer), transformer);
+
+        final List<JpaRepository> repositories = Collections.singletonList(entityRepository);
+        final List<JpaTransformer> transformers = Collections.singletonList(transformer);
+        final MultiRepositoryProxy proxy = new MultiRepositoryProxy("PersonRepository", repositories, transformers, PersonRepository.class, transformerCache);
+
+        personRepository = (PersonRepository) Proxy.newProxyInstance(PersonRepository.class.getClassLoader(), new Class[] {PersonRepository.class}, proxy);
+        generatedRepository = new PersonRepository_MultiRepository(proxy);
+    }
+
+    @Benchmark
+    public Optional<PersonEntity> readDirect(){
+        return entityRepository.findById(ID);
+    }
+
+    @Benchmark
+    public Optional<Object> readProxied(){
+        return personRepository.findById(ID);
+    }
+
+    @Benchmark
+    public Optional<Object> readGenerated(){
+        return generatedRepository.findById(ID);
+    }
+
+    @Benchmark
+    public Person readTransformedDirect(){
+        return transformer.transformBackward(entityRepository.findByName("name"), transformerCache);
+    }
+
+    @Benchmark
+    public Person readTransformedProxied(){
+        return personRepository.findByName("name");
+    }
+
+    @Benchmark
+    public void writeDirect(){
+        entityRepository.deleteById(ID);
+    }
+
+    @Benchmark
+    public void writeProxied(){
+        personRepository.deleteById(ID);
+    }
+
+    @Benchmark
+    public void writeGenerated(){
+        generatedRepository.deleteById(ID);
+    }
+
+    @Benchmark
+    public PersonEntity writeTransformedDirect(){
+        return entityRepository.save(transformer.transformForward(person, transformerCache));
+    }
+
+    @Benchmark
+    public Object writeTransformedProxied(){
+        return personRepository.save(person);
+    }
+
+}
@@ -0,0 +1,114 @@
+package mat.mat.mat.multirepo.benchmark;
+
+import mat.mat.mat.multirepo.benchmark.model.Person;
+import mat.mat.mat.multirepo.benchmark.model.PersonEntity;
+import mat.mat.mat.multirepo.benchmark.model.PersonTransformer;
+import mat.mat.mat.multirepo.benchmark.model.Team;
+import mat.mat.mat.multirepo.benchmark.model.TeamEntity;
+import mat.mat.mat.multirepo.benchmark.model.TeamTransformer;
+import mat.mat.mat.multirepo.transformer.ClassToClass;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Flat {
+
+        private final PersonTransformer transformer = new PersonTransformer();
+        private final JpaTransformerCache transformerCache = new JpaTransformerCache();
+        private Person person;
+        private PersonEntity entity;
+
+        @Setup
+        public void setup(){
+            transformerCache.registerTransformer(ClassToClass.of(transformer), transformer);
+            person = person(1);
+            entity = transformer.transformForward(person, transformerCache);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Nested {
+
+        @Param({"10", "1000", "100000"})
+        private int members;
+
+        //the default threshold against one no collection reaches, to compare parallel and sequential conversion
+        @Param({"2048", "2147483647"})
+        private int parallelThreshold;
+
+        private final PersonTransformer personTransformer = new PersonTransformer();
+        private final TeamTransformer teamTransformer = new TeamTransformer();
+        private JpaTransformerCache transformerCache;
+        private Team team;
+        private TeamEntity entity;
+
+        @Setup
+        public void setup(){
+            transformerCache = new JpaTransformerCache(parallelThreshold, ForkJoinPool.commonPool());
+            transformerCache.registerTransformer(ClassToClass.of(personTransformer), personTransformer);
+            transformerCache.registerTransformer(ClassToClass.of(teamTransformer), teamTransformer);
+
+            final List<Person> people = new ArrayList<>(members);
+            for (int i = 0; i < members; i++){
+                people.add(person(i));
+            }
+            team = new Team();
+            team.setId(1L);
+            team.setName("team");
+            team.setMembers(people);
+            entity = teamTransformer.transformForward(team, transformerCache);
+        }
+    }
+
+    @Benchmark
+    public PersonEntity flatForward(final Flat flat){
+        return flat.transformer.transformForward(flat.person, flat.transformerCache);
+    }
+
+    @Benchmark
+    public Person flatBackward(final Flat flat){
+        return flat.transformer.transformBackward(flat.entity, flat.transformerCache);
+    }
+
+    @Benchmark
+    public TeamEntity nestedForward(final Nested nested){
+        return nested.teamTransformer.transformForward(nested.team, nested.transformerCache);
+    }
+
+    @Benchmark
+    public Team nestedBackward(final Nested nested){
+        return nested.teamTransformer.transformBackward(nested.entity, nested.transformerCache);
+    }
+
+    private static Person person(final long id){
+        final Person person = new Person();
+        person.setId(id);
+        person.setName("name" + id);
+        person.setEmail("name" + id + "@example.com");
+        person.setAge(42);
+        return person;
+    }
+
+}
@@ -0,0 +1,71 @@
+package mat.mat.mat.multirepo.benchmark;
+
+import mat.mat.mat.multirepo.benchmark.model.Person;
+import mat.mat.mat.multirepo.benchmark.model.PersonEntity;
+import mat.mat.mat.multirepo.benchmark.model.PersonTransformer;
+import mat.mat.mat.multirepo.benchmark.model.TeamEntity;
+import mat.mat.mat.multirepo.benchmark.model.TeamTransformer;
+import mat.mat.mat.multirepo.transformer.ClassToClass;
+import mat.mat.mat.multirepo.transformer.JpaTransformer;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transformer lookups from many threads at once: exact matches, matches through a supertype and misses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class TransformerCacheBenchmark {
+
+    private static final ClassToClass EXACT = ClassToClass.builder().classA(Person.class).classB(PersonEntity.class).build();
+    private static final ClassToClass SUPERTYPE = ClassToClass.builder().classA(Employee.class).classB(PersonEntity.class).build();
+    private static final ClassToClass MISSING = ClassToClass.builder().classA(Person.class).classB(TeamEntity.class).build();
+
+    private JpaTransformerCache transformerCache;
+
+    public static class Employee extends Person {
+    }
+
+    @Setup
+    public void setup(){
+        transformerCache = new JpaTransformerCache();
+        final PersonTransformer personTransformer = new PersonTransformer();
+        final TeamTransformer teamTransformer = new TeamTransformer();
+        transformerCache.registerTransformer(ClassToClass.of(personTransformer), personTransformer);
+        transformerCache.registerTransformer(ClassToClass.of(teamTransformer), teamTransformer);
+    }
+
+    @Benchmark
+    public Optional<JpaTransformer> exact(){
+        return transformerCache.transformerForClass(EXACT);
+    }
+
+    @Benchmark
+    public Optional<JpaTransformer> supertype(){
+        return transformerCache.transformerForClass(SUPERTYPE);
+    }
+
+    @Benchmark
+    public Optional<JpaTransformer> missing(){
+        return transformerCache.transformerForClass(MISSING);
+    }
+
+}
@@ -0,0 +1,13 @@
+package mat.mat.mat.multirepo.benchmark.model;
+
+import lombok.Data;
+
+@Data
+public class Person {
+
+    private Long id;
+    private String name;
+    private String email;
+    private int age;
+
+}
@@ -0,0 +1,18 @@
+package mat.mat.mat.multirepo.benchmark.model;
+
+import lombok.Data;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+@Data
+@Entity
+public class PersonEntity {
+
+    @Id
+    private Long id;
+    private String name;
+    private String email;
+    private int age;
+
+}
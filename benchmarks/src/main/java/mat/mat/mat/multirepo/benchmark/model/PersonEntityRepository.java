@@ -0,0 +1,9 @@
+package mat.mat.mat.multirepo.benchmark.model;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface PersonEntityRepository extends JpaRepository<PersonEntity, Long> {
+
+    PersonEntity findByName(String name);
+
+}
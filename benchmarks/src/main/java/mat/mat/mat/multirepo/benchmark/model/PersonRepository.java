@@ -0,0 +1,21 @@
+package mat.mat.mat.multirepo.benchmark.model;
+
+import mat.mat.mat.multirepo.annotation.MultiRepository;
+
+import java.util.List;
+import java.util.Optional;
+
+@MultiRepository(jpaRepositories = {PersonEntityRepository.class}, jpaTransformers = {PersonTransformer.class})
+public interface PersonRepository {
+
+    Person findByName(String name);
+
+    Optional<Object> findById(Object id);
+
+    Object save(Object person);
+
+    List saveAll(Iterable people);
+
+    void deleteById(Object id);
+
+}
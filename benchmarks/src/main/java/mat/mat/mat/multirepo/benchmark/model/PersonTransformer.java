@@ -0,0 +1,6 @@
+package mat.mat.mat.multirepo.benchmark.model;
+
+import mat.mat.mat.multirepo.transformer.JpaTransformer;
+
+public class PersonTransformer implements JpaTransformer<Person, PersonEntity> {
+}
@@ -0,0 +1,14 @@
+package mat.mat.mat.multirepo.benchmark.model;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class Team {
+
+    private Long id;
+    private String name;
+    private List<Person> members;
+
+}
@@ -0,0 +1,22 @@
+package mat.mat.mat.multirepo.benchmark.model;
+
+import lombok.Data;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.OneToMany;
+import java.util.List;
+
+@Data
+@Entity
+public class TeamEntity {
+
+    @Id
+    private Long id;
+    private String name;
+    @OneToMany
+    @JoinColumn(name = "team_id")
+    private List<PersonEntity> members;
+
+}
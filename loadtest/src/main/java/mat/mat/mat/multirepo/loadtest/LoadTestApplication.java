@@ -0,0 +1,20 @@
+package mat.mat.mat.multirepo.loadtest;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+
+/**
+ * Drives one multi repository over three in-memory H2 stores with injected latency and failures, then
+ * exits. Any loadtest property can be given on the command line, as --loadtest.rate=2000 or
+ * --loadtest.stores.replica.failure-rate=0.01.
+ */
+@SpringBootApplication
+@EnableConfigurationProperties(LoadTestProperties.class)
+public class LoadTestApplication {
+
+    public static void main(final String[] args) {
+        System.exit(SpringApplication.exit(SpringApplication.run(LoadTestApplication.class, args)));
+    }
+
+}
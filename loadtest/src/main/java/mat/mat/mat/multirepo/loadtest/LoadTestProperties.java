@@ -0,0 +1,107 @@
+package mat.mat.mat.multirepo.loadtest;
+
+import lombok.Data;
+import mat.mat.mat.multirepo.loadtest.inject.LatencyModel;
+import mat.mat.mat.multirepo.loadtest.workload.Arrivals;
+import mat.mat.mat.multirepo.loadtest.workload.Operation;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@ConfigurationProperties(prefix = "loadtest")
+public class LoadTestProperties {
+
+    /**
+     * Bean name of the multi repository driven, CustomerRepository or ResilientCustomerRepository.
+     */
+    private String repository = "CustomerRepository";
+
+    /**
+     * Operations started per second, whether or not the earlier ones have finished.
+     */
+    private double rate = 500;
+
+    private Arrivals arrivals = Arrivals.POISSON;
+
+    /**
+     * Threads running operations. Operations started while all of them are busy wait for one, and their
+     * latency includes the wait.
+     */
+    private int concurrency = 64;
+
+    /**
+     * Operations waiting for a thread past which new ones are dropped and counted instead of started.
+     */
+    private int maxBacklog = 100000;
+
+    /**
+     * Latencies of the first seconds are left out of the results.
+     */
+    private long warmupSeconds = 10;
+
+    private long durationSeconds = 60;
+
+    private long reportIntervalSeconds = 5;
+
+    /**
+     * Customers saved before the run, the ids and emails the operations pick from.
+     */
+    private int entities = 10000;
+
+    /**
+     * Relative weight of each operation in the workload.
+     */
+    private Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+
+    /**
+     * Directory of the interval histogram log and the percentile distributions.
+     */
+    private String outputDirectory = "target/loadtest";
+
+    /**
+     * Latency and failures injected into each store, by store name: primary, replica and archive.
+     */
+    private Map<String, Store> stores = new HashMap<>();
+
+    public Store getStore(final String name){
+        return stores.computeIfAbsent(name, key -> new Store());
+    }
+
+    @Data
+    public static class Store {
+
+        private int poolSize = 10;
+
+        /**
+         * Latency added to every statement the store executes.
+         */
+        private LatencyModel latency = LatencyModel.NONE;
+
+        /**
+         * Latency of FIXED, median latency of LOGNORMAL.
+         */
+        private double latencyMillis = 0;
+
+        /**
+         * Spread of LOGNORMAL latencies, the standard deviation of their logarithm.
+         */
+        private double sigma = 0.5;
+
+        /**
+         * Statements executed within stallMillis of every stallEveryMillis wait for the stall to end, 0 for no stalls.
+         */
+        private long stallEveryMillis = 0;
+
+        private long stallMillis = 0;
+
+        /**
+         * Share of statements failing with a transient SQL exception after their latency.
+         */
+        private double failureRate = 0;
+
+    }
+
+}
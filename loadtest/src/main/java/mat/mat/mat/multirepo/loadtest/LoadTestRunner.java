@@ -0,0 +1,76 @@
+package mat.mat.mat.multirepo.loadtest;
+
+import mat.mat.mat.multirepo.loadtest.inject.FaultInjector;
+import mat.mat.mat.multirepo.loadtest.model.Customer;
+import mat.mat.mat.multirepo.loadtest.model.CustomerRepository;
+import mat.mat.mat.multirepo.loadtest.model.Customers;
+import mat.mat.mat.multirepo.loadtest.workload.OpenWorkload;
+import mat.mat.mat.multirepo.loadtest.workload.Results;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+@Component
+public class LoadTestRunner implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadTestRunner.class);
+
+    private static final int LOAD_CHUNK_SIZE = 1000;
+
+    private final LoadTestProperties properties;
+    private final BeanFactory beanFactory;
+    private final CustomerRepository customerRepository;
+    private final List<FaultInjector> injectors;
+
+    public LoadTestRunner(final LoadTestProperties properties, final BeanFactory beanFactory, final CustomerRepository customerRepository, final List<FaultInjector> injectors) {
+        this.properties = properties;
+        this.beanFactory = beanFactory;
+        this.customerRepository = customerRepository;
+        this.injectors = injectors;
+    }
+
+    @Override
+    public void run(final ApplicationArguments args) throws Exception {
+
+        final Customers customers = beanFactory.getBean(properties.getRepository(), Customers.class);
+        load();
+
+        //from here on the stores are as slow and unreliable as configured
+        for (final FaultInjector injector : injectors){
+            injector.enable();
+        }
+        try (Results results = new Results(new File(properties.getOutputDirectory()))){
+            new OpenWorkload(customers, properties, results).run();
+            results.summarize(System.out);
+        } finally {
+            for (final FaultInjector injector : injectors){
+                injector.disable();
+            }
+        }
+
+        for (final FaultInjector injector : injectors){
+            logger.info("{}: {} statements, {} injected failures", injector.getName(), injector.getStatements(), injector.getFailures());
+        }
+    }
+
+    //through the plain multi repository, whose writes have no timeout to trip over with large chunks
+    private void load(){
+        logger.info("Loading {} customers", properties.getEntities());
+        final List<Customer> chunk = new ArrayList<>(LOAD_CHUNK_SIZE);
+        for (long id = 1; id <= properties.getEntities(); id++){
+            chunk.add(OpenWorkload.customer(id, 0));
+            if (chunk.size() == LOAD_CHUNK_SIZE || id == properties.getEntities()){
+                customerRepository.saveAll(chunk);
+                chunk.clear();
+            }
+        }
+    }
+
+}
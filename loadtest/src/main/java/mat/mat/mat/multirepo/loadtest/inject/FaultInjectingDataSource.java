@@ -0,0 +1,79 @@
+package mat.mat.mat.multirepo.loadtest.inject;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A data source whose statements go through a {@link FaultInjector} before they execute. It wraps the pool,
+ * so a delayed statement holds its connection as a slow store would, and callers waiting on a full pool
+ * see the delay as well.
+ */
+public class FaultInjectingDataSource extends DelegatingDataSource implements AutoCloseable {
+
+    private final FaultInjector injector;
+
+    public FaultInjectingDataSource(final DataSource dataSource, final FaultInjector injector) {
+        super(dataSource);
+        this.injector = injector;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(Connection.class, super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        return wrap(Connection.class, super.getConnection(username, password));
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (getTargetDataSource() instanceof AutoCloseable){
+            ((AutoCloseable) getTargetDataSource()).close();
+        }
+    }
+
+    private <T> T wrap(final Class<T> type, final T target){
+        return type.cast(Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {type}, new Handler(target)));
+    }
+
+    private class Handler implements InvocationHandler {
+
+        private final Object target;
+
+        private Handler(final Object target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+
+            if (target instanceof Statement && method.getName().startsWith("execute")){
+                injector.inject();
+            }
+
+            final Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e){
+                throw e.getCause();
+            }
+
+            //statements, prepared statements and callable statements alike
+            if (result instanceof Statement && method.getReturnType().isInterface() && Statement.class.isAssignableFrom(method.getReturnType())){
+                return wrap((Class<Statement>) method.getReturnType(), (Statement) result);
+            }
+            return result;
+        }
+    }
+
+}
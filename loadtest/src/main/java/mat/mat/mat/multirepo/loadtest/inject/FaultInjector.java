@@ -0,0 +1,103 @@
+package mat.mat.mat.multirepo.loadtest.inject;
+
+import lombok.Getter;
+import mat.mat.mat.multirepo.loadtest.LoadTestProperties;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delays, and fails some of, the statements of one store. Off until enabled, so the data the workload reads
+ * is loaded at full speed. Stalls are periodic from the moment the injector is enabled, and hold every
+ * statement started during one until it ends, as a store pausing for a failover or a collection would.
+ */
+public class FaultInjector {
+
+    @Getter
+    private final String name;
+    private final LatencyModel latency;
+    private final long latencyNanos;
+    private final double sigma;
+    private final long stallEveryNanos;
+    private final long stallNanos;
+    private final double failureRate;
+
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile long enabledAt = -1;
+
+    public FaultInjector(final String name, final LoadTestProperties.Store settings) {
+        this.name = name;
+        this.latency = settings.getLatency();
+        this.latencyNanos = (long) (settings.getLatencyMillis() * TimeUnit.MILLISECONDS.toNanos(1));
+        this.sigma = settings.getSigma();
+        this.stallEveryNanos = TimeUnit.MILLISECONDS.toNanos(settings.getStallEveryMillis());
+        this.stallNanos = TimeUnit.MILLISECONDS.toNanos(Math.min(settings.getStallMillis(), settings.getStallEveryMillis()));
+        this.failureRate = settings.getFailureRate();
+    }
+
+    public void enable(){
+        enabledAt = System.nanoTime();
+    }
+
+    public void disable(){
+        enabledAt = -1;
+    }
+
+    //on the thread executing the statement, before it is sent to the store
+    public void inject() throws SQLException {
+
+        final long enabledAt = this.enabledAt;
+        if (enabledAt < 0){
+            return;
+        }
+        statements.increment();
+
+        final long now = System.nanoTime();
+        long delay = sample();
+        if (stallEveryNanos > 0){
+            final long phase = (now - enabledAt) % stallEveryNanos;
+            if (phase < stallNanos){
+                delay += stallNanos - phase;
+            }
+        }
+        sleep(now + delay);
+
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate){
+            failures.increment();
+            throw new SQLTransientConnectionException("Failure injected into " + name);
+        }
+    }
+
+    public long getStatements(){
+        return statements.sum();
+    }
+
+    public long getFailures(){
+        return failures.sum();
+    }
+
+    private long sample(){
+        switch (latency){
+            case FIXED:
+                return latencyNanos;
+            case LOGNORMAL:
+                return (long) (latencyNanos * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+            default:
+                return 0;
+        }
+    }
+
+    //parks until the deadline however often the thread is woken early, unless it is interrupted
+    private static void sleep(final long deadline){
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()){
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+}
@@ -0,0 +1,14 @@
+package mat.mat.mat.multirepo.loadtest.inject;
+
+public enum LatencyModel {
+
+    //nothing added
+    NONE,
+
+    //latencyMillis on every statement
+    FIXED,
+
+    //latencies whose logarithm is normal, with a median of latencyMillis and a spread of sigma
+    LOGNORMAL
+
+}
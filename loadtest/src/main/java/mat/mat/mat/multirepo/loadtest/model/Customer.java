@@ -0,0 +1,13 @@
+package mat.mat.mat.multirepo.loadtest.model;
+
+import lombok.Data;
+
+@Data
+public class Customer {
+
+    private Long id;
+    private String name;
+    private String email;
+    private int orders;
+
+}
@@ -0,0 +1,15 @@
+package mat.mat.mat.multirepo.loadtest.model;
+
+import mat.mat.mat.multirepo.annotation.MultiRepository;
+import mat.mat.mat.multirepo.loadtest.store.archive.ArchiveCustomerRepository;
+import mat.mat.mat.multirepo.loadtest.store.archive.ArchiveCustomerTransformer;
+import mat.mat.mat.multirepo.loadtest.store.primary.PrimaryCustomerRepository;
+import mat.mat.mat.multirepo.loadtest.store.primary.PrimaryCustomerTransformer;
+import mat.mat.mat.multirepo.loadtest.store.replica.ReplicaCustomerRepository;
+import mat.mat.mat.multirepo.loadtest.store.replica.ReplicaCustomerTransformer;
+
+//the defaults: reads from the primary store, writes to each store in turn
+@MultiRepository(jpaRepositories = {PrimaryCustomerRepository.class, ReplicaCustomerRepository.class, ArchiveCustomerRepository.class},
+        jpaTransformers = {PrimaryCustomerTransformer.class, ReplicaCustomerTransformer.class, ArchiveCustomerTransformer.class})
+public interface CustomerRepository extends Customers {
+}
@@ -0,0 +1,18 @@
+package mat.mat.mat.multirepo.loadtest.model;
+
+import java.util.Optional;
+
+/**
+ * The operations of the workload, shared by the multi repositories it can drive.
+ */
+public interface Customers {
+
+    Optional<Customer> findById(Object id);
+
+    Customer findByEmail(String email);
+
+    Customer save(Object customer);
+
+    Iterable<Customer> saveAll(Iterable customers);
+
+}
@@ -0,0 +1,21 @@
+package mat.mat.mat.multirepo.loadtest.model;
+
+import mat.mat.mat.multirepo.annotation.MultiRepository;
+import mat.mat.mat.multirepo.annotation.ReadRouting;
+import mat.mat.mat.multirepo.annotation.WriteAcknowledgement;
+import mat.mat.mat.multirepo.annotation.WriteMode;
+import mat.mat.mat.multirepo.loadtest.store.archive.ArchiveCustomerRepository;
+import mat.mat.mat.multirepo.loadtest.store.archive.ArchiveCustomerTransformer;
+import mat.mat.mat.multirepo.loadtest.store.primary.PrimaryCustomerRepository;
+import mat.mat.mat.multirepo.loadtest.store.primary.PrimaryCustomerTransformer;
+import mat.mat.mat.multirepo.loadtest.store.replica.ReplicaCustomerRepository;
+import mat.mat.mat.multirepo.loadtest.store.replica.ReplicaCustomerTransformer;
+
+//the same stores with the settings meant to keep tail latency down when one of them is slow or failing
+@MultiRepository(jpaRepositories = {PrimaryCustomerRepository.class, ReplicaCustomerRepository.class, ArchiveCustomerRepository.class},
+        jpaTransformers = {PrimaryCustomerTransformer.class, ReplicaCustomerTransformer.class, ArchiveCustomerTransformer.class},
+        readRouting = ReadRouting.LEAST_LATENCY, hedgedReads = true,
+        writeMode = WriteMode.PARALLEL, writeAcknowledgement = WriteAcknowledgement.PRIMARY, writeTimeoutMillis = 1000,
+        bulkhead = true, bulkheadCallTimeoutMillis = 1000)
+public interface ResilientCustomerRepository extends Customers {
+}
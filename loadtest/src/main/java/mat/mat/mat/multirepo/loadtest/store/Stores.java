@@ -0,0 +1,48 @@
+package mat.mat.mat.multirepo.loadtest.store;
+
+import com.zaxxer.hikari.HikariDataSource;
+import mat.mat.mat.multirepo.loadtest.LoadTestProperties;
+import mat.mat.mat.multirepo.loadtest.inject.FaultInjectingDataSource;
+import mat.mat.mat.multirepo.loadtest.inject.FaultInjector;
+import org.hibernate.jpa.HibernatePersistenceProvider;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+
+import javax.sql.DataSource;
+import java.util.Properties;
+
+/**
+ * The pieces of one in-memory H2 store, each with its own persistence unit holding the entities of one
+ * package, so the multi repositories find a different entity manager factory for each of their repositories.
+ */
+public final class Stores {
+
+    private Stores() {
+    }
+
+    public static FaultInjectingDataSource dataSource(final String name, final LoadTestProperties.Store settings, final FaultInjector injector){
+        final HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setPoolName(name);
+        dataSource.setMaximumPoolSize(settings.getPoolSize());
+        return new FaultInjectingDataSource(dataSource, injector);
+    }
+
+    public static LocalContainerEntityManagerFactoryBean entityManagerFactory(final String name, final DataSource dataSource, final Class<?> entityClass){
+        final Properties jpaProperties = new Properties();
+        jpaProperties.setProperty("hibernate.hbm2ddl.auto", "create-drop");
+        jpaProperties.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        jpaProperties.setProperty("hibernate.jdbc.batch_size", "100");
+
+        final LocalContainerEntityManagerFactoryBean factoryBean = new LocalContainerEntityManagerFactoryBean();
+        factoryBean.setPersistenceUnitName(name);
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setPersistenceProviderClass(HibernatePersistenceProvider.class);
+        factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factoryBean.setPackagesToScan(entityClass.getPackage().getName());
+        factoryBean.setJpaProperties(jpaProperties);
+        return factoryBean;
+    }
+
+}
@@ -0,0 +1,9 @@
+package mat.mat.mat.multirepo.loadtest.store.archive;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface ArchiveCustomerRepository extends JpaRepository<ArchiveCustomer, Long> {
+
+    ArchiveCustomer findByEmail(String email);
+
+}
@@ -0,0 +1,39 @@
+package mat.mat.mat.multirepo.loadtest.store.archive;
+
+import mat.mat.mat.multirepo.loadtest.LoadTestProperties;
+import mat.mat.mat.multirepo.loadtest.inject.FaultInjectingDataSource;
+import mat.mat.mat.multirepo.loadtest.inject.FaultInjector;
+import mat.mat.mat.multirepo.loadtest.store.Stores;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+
+import javax.persistence.EntityManagerFactory;
+
+@Configuration
+@EnableJpaRepositories(basePackageClasses = ArchiveCustomerRepository.class, entityManagerFactoryRef = "archiveEntityManagerFactory", transactionManagerRef = "archiveTransactionManager")
+public class ArchiveStoreConfiguration {
+
+    @Bean
+    public FaultInjector archiveFaultInjector(final LoadTestProperties properties){
+        return new FaultInjector("archive", properties.getStore("archive"));
+    }
+
+    @Bean
+    public FaultInjectingDataSource archiveDataSource(final LoadTestProperties properties, final FaultInjector archiveFaultInjector){
+        return Stores.dataSource("archive", properties.getStore("archive"), archiveFaultInjector);
+    }
+
+    @Bean
+    public LocalContainerEntityManagerFactoryBean archiveEntityManagerFactory(final FaultInjectingDataSource archiveDataSource){
+        return Stores.entityManagerFactory("archive", archiveDataSource, ArchiveCustomer.class);
+    }
+
+    @Bean
+    public JpaTransactionManager archiveTransactionManager(final EntityManagerFactory archiveEntityManagerFactory){
+        return new JpaTransactionManager(archiveEntityManagerFactory);
+    }
+
+}
@@ -0,0 +1,21 @@
+package mat.mat.mat.multirepo.loadtest.store.primary;
+
+import lombok.Data;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+@Data
+@Entity
+@Table(name = "customer", indexes = @Index(columnList = "email"))
+public class PrimaryCustomer {
+
+    @Id
+    private Long id;
+    private String name;
+    private String email;
+    private int orders;
+
+}
@@ -0,0 +1,9 @@
+package mat.mat.mat.multirepo.loadtest.store.primary;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface PrimaryCustomerRepository extends JpaRepository<PrimaryCustomer, Long> {
+
+    PrimaryCustomer findByEmail(String email);
+
+}
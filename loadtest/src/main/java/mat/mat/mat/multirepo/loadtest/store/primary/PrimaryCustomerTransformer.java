@@ -0,0 +1,9 @@
+package mat.mat.mat.multirepo.loadtest.store.primary;
+
+import mat.mat.mat.multirepo.loadtest.model.Customer;
+import mat.mat.mat.multirepo.transformer.JpaTransformer;
+import org.springframework.stereotype.Component;
+
+@Component
+public class PrimaryCustomerTransformer implements JpaTransformer<Customer, PrimaryCustomer> {
+}
@@ -0,0 +1,39 @@
+package mat.mat.mat.multirepo.loadtest.store.primary;
+
+import mat.mat.mat.multirepo.loadtest.LoadTestProperties;
+import mat.mat.mat.multirepo.loadtest.inject.FaultInjectingDataSource;
+import mat.mat.mat.multirepo.loadtest.inject.FaultInjector;
+import mat.mat.mat.multirepo.loadtest.store.Stores;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+
+import javax.persistence.EntityManagerFactory;
+
+@Configuration
+@EnableJpaRepositories(basePackageClasses = PrimaryCustomerRepository.class, entityManagerFactoryRef = "primaryEntityManagerFactory", transactionManagerRef = "primaryTransactionManager")
+public class PrimaryStoreConfiguration {
+
+    @Bean
+    public FaultInjector primaryFaultInjector(final LoadTestProperties properties){
+        return new FaultInjector("primary", properties.getStore("primary"));
+    }
+
+    @Bean
+    public FaultInjectingDataSource primaryDataSource(final LoadTestProperties properties, final FaultInjector primaryFaultInjector){
+        return Stores.dataSource("primary", properties.getStore("primary"), primaryFaultInjector);
+    }
+
+    @Bean
+    public LocalContainerEntityManagerFactoryBean primaryEntityManagerFactory(final FaultInjectingDataSource primaryDataSource){
+        return Stores.entityManagerFactory("primary", primaryDataSource, PrimaryCustomer.class);
+    }
+
+    @Bean
+    public JpaTransactionManager primaryTransactionManager(final EntityManagerFactory primaryEntityManagerFactory){
+        return new JpaTransactionManager(primaryEntityManagerFactory);
+    }
+
+}
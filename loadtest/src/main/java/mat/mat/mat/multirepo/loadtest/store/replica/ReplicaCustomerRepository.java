@@ -0,0 +1,9 @@
+package mat.mat.mat.multirepo.loadtest.store.replica;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface ReplicaCustomerRepository extends JpaRepository<ReplicaCustomer, Long> {
+
+    ReplicaCustomer findByEmail(String email);
+
+}
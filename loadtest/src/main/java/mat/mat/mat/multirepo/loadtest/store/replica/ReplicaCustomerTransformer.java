@@ -0,0 +1,9 @@
+package mat.mat.mat.multirepo.loadtest.store.replica;
+
+import mat.mat.mat.multirepo.loadtest.model.Customer;
+import mat.mat.mat.multirepo.transformer.JpaTransformer;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ReplicaCustomerTransformer implements JpaTransformer<Customer, ReplicaCustomer> {
+}
@@ -0,0 +1,39 @@
+package mat.mat.mat.multirepo.loadtest.store.replica;
+
+import mat.mat.mat.multirepo.loadtest.LoadTestProperties;
+import mat.mat.mat.multirepo.loadtest.inject.FaultInjectingDataSource;
+import mat.mat.mat.multirepo.loadtest.inject.FaultInjector;
+import mat.mat.mat.multirepo.loadtest.store.Stores;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+
+import javax.persistence.EntityManagerFactory;
+
+@Configuration
+@EnableJpaRepositories(basePackageClasses = ReplicaCustomerRepository.class, entityManagerFactoryRef = "replicaEntityManagerFactory", transactionManagerRef = "replicaTransactionManager")
+public class ReplicaStoreConfiguration {
+
+    @Bean
+    public FaultInjector replicaFaultInjector(final LoadTestProperties properties){
+        return new FaultInjector("replica", properties.getStore("replica"));
+    }
+
+    @Bean
+    public FaultInjectingDataSource replicaDataSource(final LoadTestProperties properties, final FaultInjector replicaFaultInjector){
+        return Stores.dataSource("replica", properties.getStore("replica"), replicaFaultInjector);
+    }
+
+    @Bean
+    public LocalContainerEntityManagerFactoryBean replicaEntityManagerFactory(final FaultInjectingDataSource replicaDataSource){
+        return Stores.entityManagerFactory("replica", replicaDataSource, ReplicaCustomer.class);
+    }
+
+    @Bean
+    public JpaTransactionManager replicaTransactionManager(final EntityManagerFactory replicaEntityManagerFactory){
+        return new JpaTransactionManager(replicaEntityManagerFactory);
+    }
+
+}
@@ -0,0 +1,11 @@
+package mat.mat.mat.multirepo.loadtest.workload;
+
+public enum Arrivals {
+
+    //operations start exactly 1/rate apart
+    UNIFORM,
+
+    //operations start at exponentially distributed intervals averaging 1/rate, as independent clients would
+    POISSON
+
+}
@@ -0,0 +1,148 @@
+package mat.mat.mat.multirepo.loadtest.workload;
+
+import mat.mat.mat.multirepo.loadtest.LoadTestProperties;
+import mat.mat.mat.multirepo.loadtest.model.Customer;
+import mat.mat.mat.multirepo.loadtest.model.Customers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Starts operations at the configured rate whether or not the earlier ones have finished, as independent
+ * clients would, instead of waiting for each to finish before starting the next. Operations are due at
+ * times fixed in advance and their latency is measured from then, so time spent waiting for a busy thread
+ * or behind a stalled store counts, rather than being left out by starting late.
+ */
+public class OpenWorkload {
+
+    private static final Logger logger = LoggerFactory.getLogger(OpenWorkload.class);
+
+    private final Customers customers;
+    private final LoadTestProperties properties;
+    private final Results results;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+
+    public OpenWorkload(final Customers customers, final LoadTestProperties properties, final Results results) {
+        this.customers = customers;
+        this.properties = properties;
+        this.results = results;
+
+        final Map<Operation, Integer> mix = properties.getMix();
+        this.operations = mix.keySet().toArray(new Operation[0]);
+        this.cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++){
+            total += Math.max(mix.get(operations[i]), 0);
+            cumulativeWeights[i] = total;
+        }
+        if (total == 0){
+            throw new IllegalArgumentException("loadtest.mix gives no operation a weight");
+        }
+        if (properties.getRate() <= 0){
+            throw new IllegalArgumentException("loadtest.rate must be positive");
+        }
+    }
+
+    public void run() throws InterruptedException {
+
+        final AtomicInteger threads = new AtomicInteger();
+        final ThreadPoolExecutor workers = new ThreadPoolExecutor(properties.getConcurrency(), properties.getConcurrency(), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(properties.getMaxBacklog(), 1)), runnable -> new Thread(runnable, "loadtest-" + threads.incrementAndGet()));
+        workers.prestartAllCoreThreads();
+
+        final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "loadtest-reporter"));
+        reporter.scheduleAtFixedRate(results::interval, properties.getReportIntervalSeconds(), properties.getReportIntervalSeconds(), TimeUnit.SECONDS);
+        reporter.schedule(results::startMeasuring, properties.getWarmupSeconds(), TimeUnit.SECONDS);
+
+        logger.info("Starting {} operations a second on {} threads for {}s after a {}s warmup", properties.getRate(), properties.getConcurrency(),
+                properties.getDurationSeconds(), properties.getWarmupSeconds());
+
+        final double meanIntervalNanos = 1e9 / properties.getRate();
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.SECONDS.toNanos(properties.getWarmupSeconds() + properties.getDurationSeconds());
+        double due = start;
+        while (due < end){
+            final long dueNanos = (long) due;
+            long remaining;
+            while ((remaining = dueNanos - System.nanoTime()) > 0){
+                LockSupport.parkNanos(remaining);
+            }
+
+            final Operation operation = pick();
+            try {
+                workers.execute(() -> run(operation, dueNanos));
+            } catch (RejectedExecutionException e){
+                results.recordDropped(operation);
+            }
+            due += properties.getArrivals() == Arrivals.POISSON ? -Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanIntervalNanos : meanIntervalNanos;
+        }
+
+        //the operations still waiting belong to the run, the last interval takes them in
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+        reporter.shutdown();
+        reporter.awaitTermination(1, TimeUnit.MINUTES);
+        results.interval();
+    }
+
+    private void run(final Operation operation, final long dueNanos){
+        try {
+            execute(operation);
+            results.record(operation, System.nanoTime() - dueNanos);
+        } catch (RuntimeException e){
+            results.recordError(operation, e);
+        }
+    }
+
+    private void execute(final Operation operation){
+        final long id = 1 + ThreadLocalRandom.current().nextInt(properties.getEntities());
+        switch (operation){
+            case FIND_BY_ID:
+                customers.findById(id);
+                break;
+            case FIND_BY_EMAIL:
+                customers.findByEmail(email(id));
+                break;
+            case SAVE:
+                customers.save(customer(id, ThreadLocalRandom.current().nextInt(1000)));
+                break;
+            default:
+                throw new IllegalStateException("Unknown operation " + operation);
+        }
+    }
+
+    private Operation pick(){
+        final int value = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++){
+            if (value < cumulativeWeights[i]){
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    public static Customer customer(final long id, final int orders){
+        final Customer customer = new Customer();
+        customer.setId(id);
+        customer.setName("customer" + id);
+        customer.setEmail(email(id));
+        customer.setOrders(orders);
+        return customer;
+    }
+
+    private static String email(final long id){
+        return "customer" + id + "@example.com";
+    }
+
+}
@@ -0,0 +1,19 @@
+package mat.mat.mat.multirepo.loadtest.workload;
+
+public enum Operation {
+
+    FIND_BY_ID(false),
+    FIND_BY_EMAIL(false),
+    SAVE(true);
+
+    private final boolean write;
+
+    Operation(final boolean write) {
+        this.write = write;
+    }
+
+    public boolean isWrite() {
+        return write;
+    }
+
+}
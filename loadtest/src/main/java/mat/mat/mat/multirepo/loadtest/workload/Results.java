@@ -0,0 +1,170 @@
+package mat.mat.mat.multirepo.loadtest.workload;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies of every operation, in nanoseconds from the time the operation was due to start. Each interval is
+ * logged and appended to a histogram log tagged with the operation; the intervals after the warmup add up to
+ * the totals written as percentile distributions when the run is over. Only the reporting thread takes
+ * intervals, the workload threads only record.
+ */
+public class Results implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Results.class);
+
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toNanos(10);
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final File directory;
+    private final PrintStream log;
+    private final HistogramLogWriter logWriter;
+    private final Map<Operation, Stats> stats = new EnumMap<>(Operation.class);
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final long startMillis = System.currentTimeMillis();
+    private volatile boolean measuring;
+    private long measuredFromNanos;
+    private long measuredToNanos;
+
+    public Results(final File directory) throws FileNotFoundException {
+        if (!directory.isDirectory() && !directory.mkdirs()){
+            throw new IllegalStateException("Unable to create " + directory);
+        }
+        this.directory = directory;
+        this.log = new PrintStream(new File(directory, "latency.hlog"));
+        this.logWriter = new HistogramLogWriter(log);
+        logWriter.outputLogFormatVersion();
+        logWriter.outputStartTime(startMillis);
+        logWriter.setBaseTime(startMillis);
+        logWriter.outputLegend();
+
+        for (final Operation operation : Operation.values()){
+            stats.put(operation, new Stats());
+        }
+    }
+
+    public void record(final Operation operation, final long latencyNanos){
+        stats.get(operation).recorder.recordValue(Math.min(latencyNanos, HIGHEST_LATENCY));
+    }
+
+    public void recordError(final Operation operation, final Throwable error){
+        stats.get(operation).errors.increment();
+        if (measuring){
+            errors.computeIfAbsent(error.getClass().getSimpleName(), name -> new LongAdder()).increment();
+        }
+    }
+
+    public void recordDropped(final Operation operation){
+        stats.get(operation).dropped.increment();
+    }
+
+    //drops what was recorded so far, the results start from here
+    public void startMeasuring(){
+        for (final Stats operationStats : stats.values()){
+            operationStats.interval = operationStats.recorder.getIntervalHistogram(operationStats.interval);
+            operationStats.errors.reset();
+            operationStats.dropped.reset();
+        }
+        errors.clear();
+        measuredFromNanos = System.nanoTime();
+        measuring = true;
+        logger.info("Warmup over, measuring");
+    }
+
+    public void interval(){
+        for (final Map.Entry<Operation, Stats> entry : stats.entrySet()){
+            final Stats operationStats = entry.getValue();
+            final Histogram interval = operationStats.recorder.getIntervalHistogram(operationStats.interval);
+            operationStats.interval = interval;
+            final long errors = operationStats.errors.sumThenReset();
+            final long dropped = operationStats.dropped.sumThenReset();
+            if (interval.getTotalCount() == 0 && errors == 0 && dropped == 0){
+                continue;
+            }
+
+            interval.setTag(entry.getKey().name());
+            logWriter.outputIntervalHistogram(interval);
+            logger.info("{} {}", String.format("%-14s", entry.getKey()), line(interval, (interval.getEndTimeStamp() - interval.getStartTimeStamp()) / 1000.0, errors, dropped));
+
+            if (measuring){
+                operationStats.total.add(interval);
+                operationStats.totalErrors += errors;
+                operationStats.totalDropped += dropped;
+            }
+        }
+        measuredToNanos = System.nanoTime();
+    }
+
+    //the totals of the measured intervals, on the console and as one percentile distribution file per operation
+    public void summarize(final PrintStream out) throws FileNotFoundException {
+
+        final double seconds = (measuredToNanos - measuredFromNanos) / 1e9;
+        out.println();
+        out.println(String.format("%-14s %s", "operation", "    count     ops/s   errors  dropped      p50      p99     p999      max (ms)"));
+
+        final Stats reads = new Stats();
+        final Stats writes = new Stats();
+        for (final Map.Entry<Operation, Stats> entry : stats.entrySet()){
+            final Stats operationStats = entry.getValue();
+            out.println(String.format("%-14s %s", entry.getKey(), line(operationStats.total, seconds, operationStats.totalErrors, operationStats.totalDropped)));
+            (entry.getKey().isWrite() ? writes : reads).add(operationStats);
+
+            try (PrintStream distribution = new PrintStream(new File(directory, entry.getKey().name().toLowerCase() + ".hgrm"))){
+                operationStats.total.outputPercentileDistribution(distribution, NANOS_PER_MILLI);
+            }
+        }
+        out.println(String.format("%-14s %s", "reads", line(reads.total, seconds, reads.totalErrors, reads.totalDropped)));
+        out.println(String.format("%-14s %s", "writes", line(writes.total, seconds, writes.totalErrors, writes.totalDropped)));
+
+        if (!errors.isEmpty()){
+            out.println();
+            for (final Map.Entry<String, LongAdder> error : new TreeMap<>(errors).entrySet()){
+                out.println(String.format("%-40s %d", error.getKey(), error.getValue().sum()));
+            }
+        }
+        out.println();
+        out.println("Histograms in " + directory.getAbsolutePath());
+    }
+
+    @Override
+    public void close() {
+        log.close();
+    }
+
+    private static String line(final Histogram histogram, final double seconds, final long errors, final long dropped){
+        return String.format("%9d %9.1f %8d %8d %8.3f %8.3f %8.3f %8.3f", histogram.getTotalCount(), seconds > 0 ? histogram.getTotalCount() / seconds : 0, errors, dropped,
+                histogram.getValueAtPercentile(50) / NANOS_PER_MILLI, histogram.getValueAtPercentile(99) / NANOS_PER_MILLI,
+                histogram.getValueAtPercentile(99.9) / NANOS_PER_MILLI, histogram.getMaxValue() / NANOS_PER_MILLI);
+    }
+
+    private static class Stats {
+
+        private final Recorder recorder = new Recorder(HIGHEST_LATENCY, 3);
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final Histogram total = new Histogram(HIGHEST_LATENCY, 3);
+        private Histogram interval;
+        private long totalErrors;
+        private long totalDropped;
+
+        private void add(final Stats other){
+            total.add(other.total);
+            totalErrors += other.totalErrors;
+            totalDropped += other.totalDropped;
+        }
+    }
+
+}
@@ -2,24 +2,84 @@ package mat.mat.mat.multirepo;
 
 import mat.mat.mat.multirepo.annotation.MultiRepository;
 import mat.mat.mat.multirepo.annotation.MultiRepositoryAutowiredAnnotationBeanPostProcessor;
+import mat.mat.mat.multirepo.annotation.MultiRepositoryRegistrar;
+import mat.mat.mat.multirepo.journal.JournalSettings;
+import mat.mat.mat.multirepo.metrics.MultiRepositoryEndpoint;
+import mat.mat.mat.multirepo.metrics.MultiRepositoryMetrics;
+import mat.mat.mat.multirepo.proxy.DataSourceExecutors;
 import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnEnabledEndpoint;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.util.ClassUtils;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 @Configuration
 @ConditionalOnClass({MultiRepository.class})
+@EnableConfigurationProperties(MultiRepositoryProperties.class)
 public class MultiRepositoryAnnotationConfiguration {
 
+    //a MeterBinder, bound to the meter registry once there is one
+    @Bean
+    public MultiRepositoryMetrics multiRepositoryMetrics(){
+        return new MultiRepositoryMetrics();
+    }
+
+    //owns the pool made for it, shut down with the context
+    @Bean(destroyMethod = "shutdown")
+    public JpaTransformerCache transformerCache(final Environment environment, final MultiRepositoryMetrics metrics){
+        final MultiRepositoryProperties.Transformer transformer = MultiRepositoryProperties.bind(environment).getTransformer();
+        final ForkJoinPool forkJoinPool = transformer.getParallelism() > 0 ? new ForkJoinPool(transformer.getParallelism()) : ForkJoinPool.commonPool();
+        return new JpaTransformerCache(transformer.getParallelThreshold(), forkJoinPool, metrics, transformer.getMaxDepth());
+    }
+
+    @Bean
+    public MultiRepositoryAutowiredAnnotationBeanPostProcessor multiRepositoryAutowiredAnnotationBeanPostProcessor(final ConfigurableListableBeanFactory beanFactory, final JpaTransformerCache transformerCache,
+                                                                                                                   final Environment environment, final MultiRepositoryMetrics metrics){
+        final MultiRepositoryProperties properties = MultiRepositoryProperties.bind(environment);
+
+        //the runtime scanner leaves out the interfaces the registrar has a compile time implementation for, and picks up the rest
+        final ClassLoader classLoader = beanFactory.getBeanClassLoader();
+        final Set<String> indexed = properties.getIndex().isIgnore() ? Collections.emptySet() : MultiRepositoryRegistrar.loadIndex(classLoader).entrySet().stream()
+                .filter(entry -> ClassUtils.isPresent(entry.getKey(), classLoader) && ClassUtils.isPresent(entry.getValue(), classLoader))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+        final boolean scan = properties.getIndex().isIgnore() || !properties.getIndex().isComplete();
+        return new MultiRepositoryAutowiredAnnotationBeanPostProcessor(beanFactory, transformerCache, indexed, metrics, journalSettings(properties.getJournal()),
+                new DataSourceExecutors(properties.getAsync().getQueueCapacity(), properties.getAsync().getDefaultPoolSize()), scan);
+    }
+
+    private static JournalSettings journalSettings(final MultiRepositoryProperties.Journal journal){
+        return JournalSettings.builder()
+                .directory(journal.getDirectory())
+                .segmentSize(journal.getSegmentSize())
+                .syncIntervalMillis(journal.getSyncIntervalMillis())
+                .replayBatchSize(journal.getReplayBatchSize())
+                .checkpointIntervalMillis(journal.getCheckpointIntervalMillis())
+                .maxRetries(journal.getMaxRetries())
+                .retryBackoffMillis(journal.getRetryBackoffMillis())
+                .shutdownTimeoutMillis(journal.getShutdownTimeoutMillis())
+                .build();
+    }
+
     @Bean
-    public JpaTransformerCache transformerCache(){
-        return new JpaTransformerCache();
+    @ConditionalOnEnabledEndpoint
+    public MultiRepositoryEndpoint multiRepositoryEndpoint(final MultiRepositoryMetrics metrics){
+        return new MultiRepositoryEndpoint(metrics);
     }
 
     @Bean
-    public MultiRepositoryAutowiredAnnotationBeanPostProcessor multiRepositoryAutowiredAnnotationBeanPostProcessor(final ConfigurableListableBeanFactory beanFactory, final JpaTransformerCache transformerCache){
-        return new MultiRepositoryAutowiredAnnotationBeanPostProcessor(beanFactory, transformerCache);
+    public static MultiRepositoryRegistrar multiRepositoryRegistrar(final Environment environment){
+        return new MultiRepositoryRegistrar(!MultiRepositoryProperties.bind(environment).getIndex().isIgnore());
     }
 
     @Bean
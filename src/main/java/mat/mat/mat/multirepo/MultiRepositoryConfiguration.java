@@ -1,5 +1,6 @@
 package mat.mat.mat.multirepo;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Primary;
 import org.springframework.data.transaction.ChainedTransactionManager;
@@ -9,8 +10,11 @@ import java.util.List;
 
 public class MultiRepositoryConfiguration {
 
+    //off when the multi repositories journal their secondary writes, so only the primary store takes part in transactions;
+    //its transaction manager has to be @Primary then
     @Bean
     @Primary
+    @ConditionalOnProperty(prefix = "multi-repository", name = "chained-transaction-manager", havingValue = "true", matchIfMissing = true)
     public PlatformTransactionManager transactionManager(final List<PlatformTransactionManager> transactionManagers){
         return new ChainedTransactionManager(transactionManagers.toArray(new PlatformTransactionManager[0]));
     }
@@ -0,0 +1,130 @@
+package mat.mat.mat.multirepo;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+
+@Data
+@ConfigurationProperties(prefix = "multi-repository")
+public class MultiRepositoryProperties {
+
+    private final Transformer transformer = new Transformer();
+
+    private final Index index = new Index();
+
+    private final Journal journal = new Journal();
+
+    private final Async async = new Async();
+
+    /**
+     * Make the transaction manager chaining every transaction manager the primary one. Turn it off when the
+     * multi repositories use WriteMode.JOURNAL, so transactions only hold the primary store. The transaction
+     * manager of the primary store then has to be declared @Primary, as @Transactional no longer has one to pick.
+     */
+    private boolean chainedTransactionManager = true;
+
+    //for the beans created before configuration properties binding is in place, like bean post processors
+    public static MultiRepositoryProperties bind(final Environment environment){
+        return Binder.get(environment).bind("multi-repository", MultiRepositoryProperties.class).orElseGet(MultiRepositoryProperties::new);
+    }
+
+    @Data
+    public static class Transformer {
+
+        /**
+         * Collections with at least this many elements are transformed in parallel, off by default. Parallel
+         * transforms of entities read them, and their lazy associations, from pool threads while their session
+         * is bound to the caller's, so only lower it for transforms of plain objects or fully loaded entities.
+         */
+        private int parallelThreshold = Integer.MAX_VALUE;
+
+        /**
+         * Threads of the pool used for parallel transforms, 0 uses the common fork join pool.
+         */
+        private int parallelism = 0;
+
+        /**
+         * Nested transforms of collections and associations one top-level transform may go through, deeper
+         * object graphs fail to transform.
+         */
+        private int maxDepth = 64;
+
+    }
+
+    @Data
+    public static class Index {
+
+        /**
+         * Ignore the implementations generated at compile time and scan beans for multi repositories at runtime.
+         */
+        private boolean ignore = false;
+
+        /**
+         * Every multi repository interface has an implementation generated at compile time, so beans are not
+         * scanned for the others at runtime. Has no effect when the index is ignored.
+         */
+        private boolean complete = false;
+
+    }
+
+    @Data
+    public static class Journal {
+
+        /**
+         * Directory of the journal segments and the replay checkpoints of WriteMode.JOURNAL.
+         */
+        private String directory = "multi-repository-journal";
+
+        /**
+         * Size of each memory mapped journal segment, in bytes.
+         */
+        private int segmentSize = 64 * 1024 * 1024;
+
+        /**
+         * Interval of the journal fsync. 0 makes each commit wait for the fsync of its records, one fsync
+         * covering every commit waiting at the time.
+         */
+        private long syncIntervalMillis = 0;
+
+        /**
+         * Journal records applied to a secondary repository at a time, consecutive saves in one saveAll.
+         */
+        private int replayBatchSize = 500;
+
+        /**
+         * Interval of the replay checkpoints. Records after the last checkpoint are applied again after a restart.
+         */
+        private long checkpointIntervalMillis = 1000;
+
+        /**
+         * Attempts at a failed replay before skipping it, 0 retries until it succeeds and holds back every record after it.
+         */
+        private int maxRetries = 10;
+
+        private long retryBackoffMillis = 100;
+
+        /**
+         * Time given to the replayers to catch up on shutdown.
+         */
+        private long shutdownTimeoutMillis = 30000;
+
+    }
+
+    @Data
+    public static class Async {
+
+        /**
+         * Repository calls of methods returning Mono, Flux or CompletableFuture that may wait for a thread of their
+         * datasource's executor, the ones past it fail.
+         */
+        private int queueCapacity = 10000;
+
+        /**
+         * Threads of the executor of a datasource whose pool size cannot be read.
+         */
+        private int defaultPoolSize = 10;
+
+    }
+
+}
@@ -0,0 +1,14 @@
+package mat.mat.mat.multirepo.annotation;
+
+public enum Backpressure {
+
+    //wait for space in the queue, up to the write timeout
+    BLOCK,
+
+    //discard the write
+    DROP,
+
+    //throw to the caller
+    FAIL
+
+}
@@ -0,0 +1,11 @@
+package mat.mat.mat.multirepo.annotation;
+
+public enum ConcurrencyLimit {
+
+    //scale the limit by how far latency has drifted above its long term average, growing while it has not
+    GRADIENT,
+
+    //grow the limit by one per limit calls, cut it by a tenth on each failed or timed out call
+    AIMD
+
+}
@@ -0,0 +1,59 @@
+package mat.mat.mat.multirepo.annotation;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+
+/**
+ * Base of the {@link MultiRepository} implementations generated at compile time. Calls go straight
+ * to the handler with the interface {@link Method} resolved once, as a JDK proxy would pass it.
+ */
+public abstract class GeneratedMultiRepository {
+
+    private static final Method TO_STRING = method(Object.class, "toString");
+    private static final Method EQUALS = method(Object.class, "equals", Object.class);
+    private static final Method HASH_CODE = method(Object.class, "hashCode");
+
+    private final InvocationHandler handler;
+
+    protected GeneratedMultiRepository(final InvocationHandler handler) {
+        this.handler = handler;
+    }
+
+    protected static Method method(final Class type, final String name, final Class... parameterTypes){
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e){
+            throw new IllegalStateException("Generated multi repository is out of date with " + type.getName(), e);
+        }
+    }
+
+    protected final Object invoke(final Method method, final Object... args) throws Throwable {
+        return handler.invoke(this, method, args);
+    }
+
+    @Override
+    public String toString() {
+        return (String) invokeObjectMethod(TO_STRING);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return (Boolean) invokeObjectMethod(EQUALS, obj);
+    }
+
+    @Override
+    public int hashCode() {
+        return (Integer) invokeObjectMethod(HASH_CODE);
+    }
+
+    private Object invokeObjectMethod(final Method method, final Object... args){
+        try {
+            return invoke(method, args);
+        } catch (RuntimeException | Error e){
+            throw e;
+        } catch (Throwable e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
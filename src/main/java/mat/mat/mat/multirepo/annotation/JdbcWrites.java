@@ -0,0 +1,14 @@
+package mat.mat.mat.multirepo.annotation;
+
+public enum JdbcWrites {
+
+    //save through the repository, in the persistence context
+    JPA,
+
+    //insert with JDBC batches, for repositories every entity is written to once
+    INSERT,
+
+    //insert or update with JDBC batches, through the database's own upsert
+    UPSERT
+
+}
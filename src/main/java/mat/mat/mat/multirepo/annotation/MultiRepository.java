@@ -15,4 +15,95 @@ public @interface MultiRepository {
     Class[] jpaRepositories();
     Class[] jpaTransformers();
 
+    ReadRouting readRouting() default ReadRouting.PRIMARY;
+
+    //bean name of a ReadRouter replacing readRouting
+    String readRouter() default "";
+
+    //send the read to the next repository as well when the first is slower than hedgePercentile of its reads; the first is
+    //read on the caller thread, which waits for it, so a hedge saves the wait for a failover when it fails; the reads
+    //that lose are not cancelled but run to the end, holding their connection
+    boolean hedgedReads() default false;
+    double hedgePercentile() default 0.95;
+
+    //bean name of the java.util.concurrent.Executor used for hedged and SCATTER_GATHER reads, a shared one is used when empty
+    String readExecutor() default "";
+
+    //SCATTER_GATHER reads give up on the repositories that have not answered within this time
+    long readTimeoutMillis() default 30000;
+
+    //SCATTER_GATHER reads answer from the repositories that did, as long as one did, instead of failing
+    boolean partialResults() default false;
+
+    //concurrent findById calls outside a transaction within this many microseconds of the first are read with one findAllById,
+    //up to findByIdBatchSize ids, ignored unless reads are routed to a single repository; 0 reads each on its own
+    long findByIdBatchWindowMicros() default 0;
+    int findByIdBatchSize() default 100;
+
+    //keep each entity in one repository chosen on a consistent hash ring, replacing readRouting and writeMode;
+    //reads that are not by id are scattered to every repository like SCATTER_GATHER
+    boolean sharded() default false;
+
+    //bean name of a mat.mat.mat.multirepo.shard.ShardKeyExtractor, entities are sharded by id when empty
+    String shardKeyExtractor() default "";
+
+    int shardVirtualNodes() default 128;
+
+    //how many of the first jpaRepositories were the shards before the others were added, 0 when none were;
+    //reads fall back to the previous shards until the bean named after this one plus ShardRebalancer has run
+    int shardsBeforeRebalance() default 0;
+
+    WriteMode writeMode() default WriteMode.SEQUENTIAL;
+    WriteAcknowledgement writeAcknowledgement() default WriteAcknowledgement.ALL;
+    long writeTimeoutMillis() default 30000;
+
+    //bean name of the java.util.concurrent.Executor used for PARALLEL writes, a shared one is used when empty
+    String writeExecutor() default "";
+
+    //saveAll, deleteAll and deleteInBatch are written in chunks of this many elements, 0 writes them in one call; each
+    //chunk is flushed and the persistence context cleared, detaching every entity the caller's transaction had loaded
+    int bulkChunkSize() default 0;
+
+    //save and saveAll on the repositories after the first with JDBC batches of up to jdbcBatchSize rows, by a statement derived
+    //from the entity mapping, for repositories only written through this multi repository; entities mapped in ways the
+    //statement cannot reproduce, such as generated ids, versions, inheritance, embedded values, collections or cascades, are still saved through JPA
+    JdbcWrites jdbcWrites() default JdbcWrites.JPA;
+    int jdbcBatchSize() default 500;
+
+    //leave out saves of entities unchanged since they were last written through this multi repository, for
+    //repositories nothing else writes to; fingerprints of up to changeDetectionMaxEntries ids are kept per repository
+    boolean changeDetection() default false;
+    int changeDetectionMaxEntries() default 100000;
+
+    //return domain views whose collections and associations are transformed from the entity when first read, instead
+    //of copies transformed whole; reading them after the entity's persistence context is closed fails like lazy JPA associations,
+    //so they cannot be combined with hedgedReads, SCATTER_GATHER, findById batching, @MultiRepositoryCached or async methods
+    boolean lazyReads() default false;
+
+    //give each target repository an adaptive limit on concurrent calls and a circuit breaker, rejecting calls over the
+    //limit or while the breaker is open with a BulkheadRejectedException; writes to a repository after the first whose
+    //breaker is open are handled as trippedRepository says, through a queue with the writeBehind settings when deferred
+    boolean bulkhead() default false;
+    ConcurrencyLimit bulkheadLimit() default ConcurrencyLimit.GRADIENT;
+    int bulkheadInitialLimit() default 20;
+    int bulkheadMaxLimit() default 200;
+    long bulkheadMaxWaitMillis() default 0;
+
+    //calls are not interrupted, ones slower than this count as failed, 0 for none
+    long bulkheadCallTimeoutMillis() default 0;
+
+    double circuitBreakerFailureRate() default 0.5;
+    int circuitBreakerWindow() default 50;
+    long circuitBreakerOpenMillis() default 10000;
+
+    //FAIL for sharded repositories, whatever is set
+    TrippedRepository trippedRepository() default TrippedRepository.DEFER;
+
+    int writeBehindQueueCapacity() default 10000;
+    int writeBehindBatchSize() default 500;
+    Backpressure writeBehindBackpressure() default Backpressure.BLOCK;
+    int writeBehindMaxRetries() default 5;
+    long writeBehindRetryBackoffMillis() default 100;
+    long writeBehindShutdownTimeoutMillis() default 30000;
+
 }
@@ -1,48 +1,151 @@
 package mat.mat.mat.multirepo.annotation;
 
+import mat.mat.mat.multirepo.backfill.Backfill;
+import mat.mat.mat.multirepo.bulkhead.BulkheadSettings;
+import mat.mat.mat.multirepo.cache.ReadCacheRegistry;
+import mat.mat.mat.multirepo.journal.Journal;
+import mat.mat.mat.multirepo.journal.JournalCodec;
+import mat.mat.mat.multirepo.journal.JournalSettings;
+import mat.mat.mat.multirepo.metrics.MultiRepositoryMetrics;
+import mat.mat.mat.multirepo.proxy.AsyncInvoker;
+import mat.mat.mat.multirepo.proxy.AsyncShape;
+import mat.mat.mat.multirepo.proxy.DataSourceExecutors;
+import mat.mat.mat.multirepo.proxy.LeastLatencyReadRouter;
+import mat.mat.mat.multirepo.proxy.MultiRepositoryExecutors;
 import mat.mat.mat.multirepo.proxy.MultiRepositoryProxy;
+import mat.mat.mat.multirepo.proxy.ParallelWriteStrategy;
+import mat.mat.mat.multirepo.proxy.PrimaryReadRouter;
+import mat.mat.mat.multirepo.proxy.JournalWriteStrategy;
+import mat.mat.mat.multirepo.proxy.ReadRouter;
+import mat.mat.mat.multirepo.proxy.ReactiveInvoker;
+import mat.mat.mat.multirepo.proxy.ReadStrategy;
+import mat.mat.mat.multirepo.proxy.RoundRobinReadRouter;
+import mat.mat.mat.multirepo.proxy.RoutedReadStrategy;
+import mat.mat.mat.multirepo.proxy.ScatterGatherReadStrategy;
+import mat.mat.mat.multirepo.proxy.SequentialWriteStrategy;
+import mat.mat.mat.multirepo.proxy.ShardRebalancer;
+import mat.mat.mat.multirepo.proxy.ShardedStrategy;
+import mat.mat.mat.multirepo.proxy.RepositoryBulkheads;
+import mat.mat.mat.multirepo.proxy.WriteBehindSettings;
+import mat.mat.mat.multirepo.proxy.WriteBehindWriteStrategy;
+import mat.mat.mat.multirepo.proxy.WriteStrategy;
+import mat.mat.mat.multirepo.shard.ConsistentHashRing;
+import mat.mat.mat.multirepo.shard.IdShardKeyExtractor;
+import mat.mat.mat.multirepo.shard.ShardKeyExtractor;
 import mat.mat.mat.multirepo.transformer.ClassToClass;
+import mat.mat.mat.multirepo.transformer.EntityMetadata;
 import mat.mat.mat.multirepo.transformer.JpaTransformer;
 import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.beans.factory.annotation.AutowiredAnnotationBeanPostProcessor;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.jdbc.metadata.CompositeDataSourcePoolMetadataProvider;
+import org.springframework.boot.jdbc.metadata.DataSourcePoolMetadata;
+import org.springframework.boot.jdbc.metadata.DataSourcePoolMetadataProvider;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.Lifecycle;
+import org.springframework.core.ResolvableType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.repository.Repository;
+import org.springframework.orm.jpa.EntityManagerFactoryInfo;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.ClassUtils;
 
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.*;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
 
-public class MultiRepositoryAutowiredAnnotationBeanPostProcessor extends AutowiredAnnotationBeanPostProcessor {
+public class MultiRepositoryAutowiredAnnotationBeanPostProcessor extends AutowiredAnnotationBeanPostProcessor implements DisposableBean {
 
     private static final Logger logger = LoggerFactory.getLogger(MultiRepositoryAutowiredAnnotationBeanPostProcessor.class);
 
     private final ConfigurableListableBeanFactory beanFactory;
     private final JpaTransformerCache transformerCache;
+    private final ReadCacheRegistry readCacheRegistry = new ReadCacheRegistry();
+    private final Set<String> indexed;
+    private final MultiRepositoryMetrics metrics;
+    private final JournalSettings journalSettings;
+    private final DataSourceExecutors dataSourceExecutors;
+    //false when the index covers every multi repository, so no bean needs scanning
+    private final boolean scan;
+    //whether each field type seen so far is a multi repository left to the scanner
+    private final Map<Class, Boolean> scanned = new ConcurrentHashMap<>();
+    private ExecutorService defaultExecutor;
 
     public MultiRepositoryAutowiredAnnotationBeanPostProcessor(final ConfigurableListableBeanFactory beanFactory, final JpaTransformerCache transformerCache){
+        this(beanFactory, transformerCache, Collections.emptySet(), MultiRepositoryMetrics.NONE);
+    }
+
+    public MultiRepositoryAutowiredAnnotationBeanPostProcessor(final ConfigurableListableBeanFactory beanFactory, final JpaTransformerCache transformerCache, final Set<String> indexed,
+                                                               final MultiRepositoryMetrics metrics){
+        this(beanFactory, transformerCache, indexed, metrics, JournalSettings.builder().build());
+    }
+
+    public MultiRepositoryAutowiredAnnotationBeanPostProcessor(final ConfigurableListableBeanFactory beanFactory, final JpaTransformerCache transformerCache, final Set<String> indexed,
+                                                               final MultiRepositoryMetrics metrics, final JournalSettings journalSettings){
+        this(beanFactory, transformerCache, indexed, metrics, journalSettings, new DataSourceExecutors(10000, 10));
+    }
+
+    public MultiRepositoryAutowiredAnnotationBeanPostProcessor(final ConfigurableListableBeanFactory beanFactory, final JpaTransformerCache transformerCache, final Set<String> indexed,
+                                                               final MultiRepositoryMetrics metrics, final JournalSettings journalSettings, final DataSourceExecutors dataSourceExecutors){
+        this(beanFactory, transformerCache, indexed, metrics, journalSettings, dataSourceExecutors, true);
+    }
+
+    public MultiRepositoryAutowiredAnnotationBeanPostProcessor(final ConfigurableListableBeanFactory beanFactory, final JpaTransformerCache transformerCache, final Set<String> indexed,
+                                                               final MultiRepositoryMetrics metrics, final JournalSettings journalSettings, final DataSourceExecutors dataSourceExecutors,
+                                                               final boolean scan){
         this.beanFactory = beanFactory;
         this.transformerCache = transformerCache;
+        this.indexed = indexed;
+        this.metrics = metrics;
+        this.journalSettings = journalSettings;
+        this.dataSourceExecutors = dataSourceExecutors;
+        this.scan = scan;
     }
 
     @Override
     public Object postProcessBeforeInstantiation(Class<?> beanClass, String beanName) throws BeansException {
 
+        if (!scan){
+            return super.postProcessBeforeInstantiation(beanClass, beanName);
+        }
+
         final Field[] fields = beanClass.getDeclaredFields();
 
         for (final Field field : fields){
-            if (hasMultiRepositoryAnnotationOnClass(field)){
+            //implementations generated at compile time are registered by MultiRepositoryRegistrar instead
+            if (scanned.computeIfAbsent(field.getType(), type -> type.isInterface() && !indexed.contains(type.getName()) && hasMultiRepositoryAnnotationOnClass(type))){
                 final Optional<Object> bean = getBeanForClass(field.getType());
                 if (!bean.isPresent()){
                     try {
                         createImplementation(field);
-                    } catch (Exception e){
+                    } catch (ReflectiveOperationException e){
+                        throw new BeanCreationException(field.getType().getSimpleName(), "Unable to create multi repository", e);
                     }
                 }
             }
@@ -50,8 +153,8 @@ public class MultiRepositoryAutowiredAnnotationBeanPostProcessor extends Autowir
         return super.postProcessBeforeInstantiation(beanClass, beanName);
     }
 
-    private boolean hasMultiRepositoryAnnotationOnClass(final Field field){
-        final Annotation[] annotations = field.getType().getAnnotations();
+    private boolean hasMultiRepositoryAnnotationOnClass(final Class type){
+        final Annotation[] annotations = type.getAnnotations();
         for (final Annotation annotation : annotations){
             if (annotation.annotationType().equals(MultiRepository.class)){
                 return true;
@@ -71,6 +174,21 @@ public class MultiRepositoryAutowiredAnnotationBeanPostProcessor extends Autowir
 
     private void createImplementation(final Field field) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
         final Class clazzToImplement = field.getType();
+        final String beanName = clazzToImplement.getSimpleName();
+
+        final Object implementation = Proxy.newProxyInstance(this.getClass().getClassLoader(), new Class[] {clazzToImplement}, createProxy(clazzToImplement, beanName));
+
+        beanFactory.initializeBean(implementation, beanName);
+        beanFactory.autowireBeanProperties(implementation, AutowireCapableBeanFactory.AUTOWIRE_BY_TYPE, true);
+        beanFactory.registerSingleton(beanName, implementation);
+    }
+
+    //an instance of the implementation generated by MultiRepositoryProcessor, backed by the same proxy
+    public Object createGeneratedImplementation(final Class clazzToImplement, final Class<?> generatedClass, final String beanName) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+        return BeanUtils.instantiateClass(generatedClass.getConstructor(InvocationHandler.class), createProxy(clazzToImplement, beanName));
+    }
+
+    private MultiRepositoryProxy createProxy(final Class clazzToImplement, final String beanName) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
         final Annotation annotation = clazzToImplement.getAnnotation(MultiRepository.class);
 
         final Method transformerMethod = annotation.annotationType().getMethod("jpaTransformers");
@@ -80,31 +198,275 @@ public class MultiRepositoryAutowiredAnnotationBeanPostProcessor extends Autowir
         final Class[] listOfRepositories = (Class[]) repositoryMethod.invoke(annotation);
 
 
-        final String beanName = clazzToImplement.getSimpleName();
         final List<JpaRepository> jpaRepositories = getRepositoryBeans(listOfRepositories);
         final List<JpaTransformer> jpaTransformers = getTransformerBeans(listOfTransformers);
 
         for (final JpaTransformer jpaTransformer : jpaTransformers){
-            final Class first = getGenericArgument(jpaTransformer, 0);
-            final Class second = getGenericArgument(jpaTransformer, 1);
+            transformerCache.registerTransformer(ClassToClass.of(jpaTransformer), jpaTransformer);
+        }
 
-            final ClassToClass classToClass = ClassToClass.builder()
-                    .classA(first)
-                    .classB(second)
-                    .build();
+        final MultiRepository multiRepository = (MultiRepository) annotation;
+        final CacheManager cacheManager = beanFactory.getBeanProvider(CacheManager.class).getIfAvailable();
+        //refused before a journal is opened or a queue starts its thread
+        validate(beanName, clazzToImplement, multiRepository, jpaRepositories, cacheManager);
 
-            transformerCache.registerTransformer(classToClass, jpaTransformer);
+        //registered only once the proxy is built, stopped if building it fails
+        final Map<String, Object> singletons = new LinkedHashMap<>();
+        final MultiRepositoryProxy proxy;
+        boolean built = false;
+        try {
+            proxy = buildProxy(clazzToImplement, beanName, multiRepository, jpaRepositories, jpaTransformers, cacheManager, singletons);
+            built = true;
+        } finally {
+            if (!built){
+                for (final Object singleton : singletons.values()){
+                    if (singleton instanceof Lifecycle){
+                        ((Lifecycle) singleton).stop();
+                    }
+                }
+            }
+        }
+        for (final Map.Entry<String, Object> singleton : singletons.entrySet()){
+            beanFactory.registerSingleton(singleton.getKey(), singleton.getValue());
         }
 
-        final MultiRepositoryProxy proxy = new MultiRepositoryProxy(beanName, jpaRepositories, jpaTransformers, clazzToImplement, transformerCache);
+        logger.info("MultipleRepository Candidate {} - [{}]", beanName, toSimple(listOfRepositories));
 
-        final Object implementation = Proxy.newProxyInstance(this.getClass().getClassLoader(), new Class[] {clazzToImplement}, proxy);
+        return proxy;
+    }
 
-        logger.info("MultipleRepository Candidate {} - [{}]", beanName, toSimple(listOfRepositories));
+    private void validate(final String beanName, final Class clazzToImplement, final MultiRepository multiRepository, final List<JpaRepository> jpaRepositories,
+                          final CacheManager cacheManager){
 
-        beanFactory.initializeBean(implementation, beanName);
-        beanFactory.autowireBeanProperties(implementation, AutowireCapableBeanFactory.AUTOWIRE_BY_TYPE, true);
-        beanFactory.registerSingleton(beanName, implementation);
+        //every store would generate its own id for a replayed save, so the copies would never match the primary's
+        if (!multiRepository.sharded() && multiRepository.writeMode() == WriteMode.JOURNAL){
+            rejectGeneratedIds(beanName, "WriteMode.JOURNAL", jpaRepositories);
+        }
+        //a generated id is only there once the entity is saved, too late to pick the shard to save it to
+        if (multiRepository.sharded() && multiRepository.shardKeyExtractor().isEmpty()){
+            rejectGeneratedIds(beanName, "sharded without a shardKeyExtractor", jpaRepositories);
+        }
+
+        final List<MultiRepositoryCached> cached = new ArrayList<>();
+        cached.add((MultiRepositoryCached) clazzToImplement.getAnnotation(MultiRepositoryCached.class));
+        for (final Method method : clazzToImplement.getMethods()){
+            cached.add(method.getAnnotation(MultiRepositoryCached.class));
+        }
+        for (final MultiRepositoryCached settings : cached){
+            if (cacheManager == null && settings != null && settings.enabled() && !settings.cacheName().isEmpty()){
+                throw new BeanCreationException(beanName, "Cache " + settings.cacheName() + " is used but there is no CacheManager");
+            }
+        }
+
+        //these reads transform in a read-only transaction of their own, closed before a lazy view's associations are read
+        if (multiRepository.lazyReads()){
+            final String closedReads = closedTransactionReads(clazzToImplement, multiRepository, cached);
+            if (closedReads != null){
+                throw new BeanCreationException(beanName, "lazyReads cannot be used with " + closedReads);
+            }
+        }
+    }
+
+    private String closedTransactionReads(final Class clazzToImplement, final MultiRepository multiRepository, final List<MultiRepositoryCached> cached){
+
+        if (multiRepository.hedgedReads()){
+            return "hedgedReads";
+        }
+        if (!multiRepository.sharded() && multiRepository.readRouting() == ReadRouting.SCATTER_GATHER){
+            return "ReadRouting.SCATTER_GATHER";
+        }
+        if (multiRepository.findByIdBatchWindowMicros() > 0){
+            return "findByIdBatchWindowMicros";
+        }
+        for (final MultiRepositoryCached settings : cached){
+            if (settings != null && settings.enabled()){
+                return "@MultiRepositoryCached";
+            }
+        }
+        for (final Method method : clazzToImplement.getMethods()){
+            if (AsyncShape.of(method.getReturnType()) != AsyncShape.NONE){
+                return method.getName() + " returning " + method.getReturnType().getSimpleName();
+            }
+        }
+        return null;
+    }
+
+    private MultiRepositoryProxy buildProxy(final Class clazzToImplement, final String beanName, final MultiRepository multiRepository, final List<JpaRepository> jpaRepositories,
+                                            final List<JpaTransformer> jpaTransformers, final CacheManager cacheManager, final Map<String, Object> singletons)
+            throws NoSuchMethodException, IllegalAccessException {
+
+        final ShardedStrategy sharded = multiRepository.sharded() ? getShardedStrategy(beanName, multiRepository, jpaRepositories, jpaTransformers, singletons) : null;
+        final WriteStrategy writeStrategy = sharded != null ? sharded : getWriteStrategy(beanName, multiRepository, jpaRepositories, singletons);
+        final ReadStrategy readStrategy = sharded != null ? sharded : getReadStrategy(beanName, multiRepository, jpaRepositories);
+        final List<EntityManagerFactory> entityManagerFactories = getEntityManagerFactories(jpaRepositories);
+        final RepositoryBulkheads bulkheads = multiRepository.bulkhead() ? getBulkheads(beanName, multiRepository, jpaRepositories, singletons) : null;
+
+        final MultiRepositoryProxy proxy = MultiRepositoryProxy.builder()
+                .name(beanName)
+                .targetRepositories(jpaRepositories)
+                .targetTransformers(jpaTransformers)
+                .sourceInterface(clazzToImplement)
+                .transformerCache(transformerCache)
+                .readStrategy(readStrategy)
+                .writeStrategy(writeStrategy)
+                .bulkChunkSize(multiRepository.bulkChunkSize())
+                .targetEntityManagers(getEntityManagers(entityManagerFactories))
+                .targetReadTransactions(getReadTransactions(entityManagerFactories))
+                .readCacheRegistry(readCacheRegistry)
+                .cacheManager(cacheManager)
+                .metrics(metrics)
+                .changeDetectionMaxEntries(multiRepository.changeDetection() ? multiRepository.changeDetectionMaxEntries() : 0)
+                .lazyReads(multiRepository.lazyReads())
+                .bulkheads(bulkheads)
+                .findByIdBatchWindowMicros(multiRepository.findByIdBatchWindowMicros())
+                .findByIdBatchSize(multiRepository.findByIdBatchSize())
+                .jdbcWrites(multiRepository.jdbcWrites())
+                .jdbcBatchSize(multiRepository.jdbcBatchSize())
+                .asyncInvoker(getAsyncInvoker(beanName, clazzToImplement, jpaRepositories, entityManagerFactories, readStrategy, writeStrategy))
+                .build();
+
+        if (writeStrategy instanceof JournalWriteStrategy){
+            ((JournalWriteStrategy) writeStrategy).bind(proxy, transformerCache, metrics);
+        }
+
+        //to fill a repository added to jpaRepositories from the others
+        if (sharded == null && jpaRepositories.size() > 1 && !entityManagerFactories.contains(null)){
+            singletons.put(beanName + "Backfill", new Backfill(beanName, jpaRepositories, jpaTransformers, entityManagerFactories, transformerCache));
+        }
+        return proxy;
+    }
+
+    public ReadCacheRegistry getReadCacheRegistry(){
+        return readCacheRegistry;
+    }
+
+    private ReadStrategy getReadStrategy(final String beanName, final MultiRepository multiRepository, final List<JpaRepository> jpaRepositories){
+        if (multiRepository.readRouting() == ReadRouting.SCATTER_GATHER){
+            return new ScatterGatherReadStrategy(beanName, getExecutor(multiRepository.readExecutor()), multiRepository.readTimeoutMillis(), multiRepository.partialResults(),
+                    RoutedReadStrategy.primary());
+        }
+        final Executor executor = multiRepository.hedgedReads() ? getExecutor(multiRepository.readExecutor()) : null;
+        return new RoutedReadStrategy(getReadRouter(multiRepository), multiRepository.readRouting() != ReadRouting.PRIMARY,
+                multiRepository.hedgedReads(), multiRepository.hedgePercentile(), executor);
+    }
+
+    private ShardedStrategy getShardedStrategy(final String beanName, final MultiRepository multiRepository, final List<JpaRepository> jpaRepositories,
+                                               final List<JpaTransformer> jpaTransformers, final Map<String, Object> singletons){
+
+        final List<String> shardNames = new ArrayList<>();
+        for (final JpaRepository repository : jpaRepositories){
+            shardNames.add(MultiRepositoryProxy.getInterface(repository).getSimpleName());
+        }
+
+        final int before = multiRepository.shardsBeforeRebalance();
+        final ConsistentHashRing ring = new ConsistentHashRing(shardNames, multiRepository.shardVirtualNodes());
+        final ConsistentHashRing previousRing = before > 0 && before < shardNames.size() ? new ConsistentHashRing(shardNames.subList(0, before), multiRepository.shardVirtualNodes()) : null;
+
+        final ShardKeyExtractor extractor = multiRepository.shardKeyExtractor().isEmpty()
+                ? new IdShardKeyExtractor()
+                : beanFactory.getBean(multiRepository.shardKeyExtractor(), ShardKeyExtractor.class);
+        final ReadStrategy scatter = new ScatterGatherReadStrategy(beanName, getExecutor(multiRepository.readExecutor()), multiRepository.readTimeoutMillis(), multiRepository.partialResults(),
+                RoutedReadStrategy.primary());
+
+        final ShardedStrategy sharded = new ShardedStrategy(beanName, extractor, ring, previousRing, scatter);
+        if (previousRing != null){
+            singletons.put(beanName + "ShardRebalancer", new ShardRebalancer(beanName, sharded, jpaRepositories, jpaTransformers, transformerCache));
+        }
+        return sharded;
+    }
+
+    private ReadRouter getReadRouter(final MultiRepository multiRepository){
+        if (!multiRepository.readRouter().isEmpty()){
+            return beanFactory.getBean(multiRepository.readRouter(), ReadRouter.class);
+        }
+        switch (multiRepository.readRouting()){
+            case ROUND_ROBIN:
+                return new RoundRobinReadRouter();
+            case LEAST_LATENCY:
+                return new LeastLatencyReadRouter();
+            default:
+                return new PrimaryReadRouter();
+        }
+    }
+
+    private WriteStrategy getWriteStrategy(final String beanName, final MultiRepository multiRepository, final List<JpaRepository> jpaRepositories,
+                                           final Map<String, Object> singletons) throws NoSuchMethodException, IllegalAccessException {
+        switch (multiRepository.writeMode()){
+            case PARALLEL:
+                return new ParallelWriteStrategy(beanName, getExecutor(multiRepository.writeExecutor()), multiRepository.writeAcknowledgement(), multiRepository.writeTimeoutMillis());
+            case WRITE_BEHIND:
+                final WriteBehindWriteStrategy writeBehind = new WriteBehindWriteStrategy(beanName, jpaRepositories, getWriteBehindSettings(multiRepository), metrics);
+                //registered so the context drains the queues on shutdown
+                singletons.put(beanName + "WriteBehind", writeBehind);
+                return writeBehind;
+            case JOURNAL:
+                final JournalWriteStrategy journal = new JournalWriteStrategy(beanName, jpaRepositories,
+                        Journal.open(Paths.get(journalSettings.getDirectory()), beanName, journalSettings),
+                        beanFactory.getBeanProvider(JournalCodec.class).getIfAvailable(JournalCodec::new), journalSettings);
+                //registered so the context stops the replayers and closes the journal on shutdown
+                singletons.put(beanName + "Journal", journal);
+                return journal;
+            default:
+                return new SequentialWriteStrategy();
+        }
+    }
+
+    private static void rejectGeneratedIds(final String beanName, final String feature, final List<JpaRepository> repositories){
+        for (final JpaRepository repository : repositories){
+            final Class entityClass = entityClass(repository);
+            if (entityClass != null && EntityMetadata.of(entityClass).isIdentifierGenerated()){
+                throw new BeanCreationException(beanName, feature + " needs ids assigned by the application, " + entityClass.getName() + " has a @GeneratedValue id");
+            }
+        }
+    }
+
+    private WriteBehindSettings getWriteBehindSettings(final MultiRepository multiRepository){
+        return WriteBehindSettings.builder()
+                .queueCapacity(multiRepository.writeBehindQueueCapacity())
+                .batchSize(multiRepository.writeBehindBatchSize())
+                .backpressure(multiRepository.writeBehindBackpressure())
+                .offerTimeoutMillis(multiRepository.writeTimeoutMillis())
+                .maxRetries(multiRepository.writeBehindMaxRetries())
+                .retryBackoffMillis(multiRepository.writeBehindRetryBackoffMillis())
+                .shutdownTimeoutMillis(multiRepository.writeBehindShutdownTimeoutMillis())
+                .build();
+    }
+
+    private RepositoryBulkheads getBulkheads(final String beanName, final MultiRepository multiRepository, final List<JpaRepository> jpaRepositories,
+                                             final Map<String, Object> singletons) throws NoSuchMethodException, IllegalAccessException {
+        final RepositoryBulkheads bulkheads = new RepositoryBulkheads(beanName, jpaRepositories, BulkheadSettings.builder()
+                .limit(multiRepository.bulkheadLimit())
+                .initialLimit(multiRepository.bulkheadInitialLimit())
+                .maxLimit(multiRepository.bulkheadMaxLimit())
+                .maxWaitMillis(multiRepository.bulkheadMaxWaitMillis())
+                .callTimeoutMillis(multiRepository.bulkheadCallTimeoutMillis())
+                .failureRateThreshold(multiRepository.circuitBreakerFailureRate())
+                .slidingWindowSize(multiRepository.circuitBreakerWindow())
+                .openMillis(multiRepository.circuitBreakerOpenMillis())
+                //every shard holds entities no other has
+                .tripped(multiRepository.sharded() ? TrippedRepository.FAIL : multiRepository.trippedRepository())
+                .build(), getWriteBehindSettings(multiRepository), metrics);
+        //registered so the context drains the deferred writes on shutdown
+        singletons.put(beanName + "Bulkheads", bulkheads);
+        return bulkheads;
+    }
+
+    private synchronized Executor getExecutor(final String executorBeanName){
+        if (!executorBeanName.isEmpty()){
+            return beanFactory.getBean(executorBeanName, Executor.class);
+        }
+        if (defaultExecutor == null){
+            defaultExecutor = MultiRepositoryExecutors.newExecutor("multi-repository-");
+        }
+        return defaultExecutor;
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (defaultExecutor != null){
+            defaultExecutor.shutdown();
+        }
+        dataSourceExecutors.shutdown();
     }
 
     private List<JpaRepository> getRepositoryBeans(final Class[] listOfRepositories){
@@ -115,6 +477,91 @@ public class MultiRepositoryAutowiredAnnotationBeanPostProcessor extends Autowir
         return repositories;
     }
 
+    //null unless a method returns Mono, Flux or CompletableFuture and reactor-core is on the class path
+    private AsyncInvoker getAsyncInvoker(final String beanName, final Class clazzToImplement, final List<JpaRepository> jpaRepositories, final List<EntityManagerFactory> entityManagerFactories,
+                                         final ReadStrategy readStrategy, final WriteStrategy writeStrategy){
+
+        if (Arrays.stream(clazzToImplement.getMethods()).allMatch(method -> AsyncShape.of(method.getReturnType()) == AsyncShape.NONE)
+                || !ClassUtils.isPresent("reactor.core.publisher.Mono", beanFactory.getBeanClassLoader())){
+            return null;
+        }
+
+        final DataSourcePoolMetadataProvider poolMetadata = new CompositeDataSourcePoolMetadataProvider(
+                beanFactory.getBeanProvider(DataSourcePoolMetadataProvider.class).orderedStream().collect(Collectors.toList()));
+
+        final List<ExecutorService> executors = new ArrayList<>();
+        for (int i = 0; i < jpaRepositories.size(); i++){
+            final EntityManagerFactory entityManagerFactory = entityManagerFactories.get(i);
+            final DataSource dataSource = entityManagerFactory instanceof EntityManagerFactoryInfo ? ((EntityManagerFactoryInfo) entityManagerFactory).getDataSource() : null;
+            final DataSourcePoolMetadata pool = dataSource != null ? poolMetadata.getDataSourcePoolMetadata(dataSource) : null;
+            executors.add(dataSourceExecutors.executor(dataSource, pool != null ? pool.getMax() : null, jpaRepositories.get(i)));
+        }
+        return ReactiveInvoker.create(beanName, executors, readStrategy, writeStrategy, transformerCache);
+    }
+
+    private List<EntityManager> getEntityManagers(final List<EntityManagerFactory> entityManagerFactories){
+        final List<EntityManager> entityManagers = new ArrayList<>();
+        for (final EntityManagerFactory entityManagerFactory : entityManagerFactories){
+            entityManagers.add(entityManagerFactory != null ? SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory) : null);
+        }
+        return entityManagers;
+    }
+
+    //read-only, of the transaction manager declared for each repository's entity manager factory, or of one made for it
+    private List<TransactionTemplate> getReadTransactions(final List<EntityManagerFactory> entityManagerFactories){
+        final Collection<JpaTransactionManager> declared = beanFactory.getBeansOfType(JpaTransactionManager.class).values();
+        final List<TransactionTemplate> readTransactions = new ArrayList<>();
+        for (final EntityManagerFactory entityManagerFactory : entityManagerFactories){
+            if (entityManagerFactory == null){
+                readTransactions.add(null);
+                continue;
+            }
+            final JpaTransactionManager transactionManager = declared.stream()
+                    .filter(candidate -> entityManagerFactory.equals(candidate.getEntityManagerFactory()))
+                    .findFirst()
+                    .orElseGet(() -> {
+                        final JpaTransactionManager created = new JpaTransactionManager(entityManagerFactory);
+                        created.afterPropertiesSet();
+                        return created;
+                    });
+            final TransactionTemplate readTransaction = new TransactionTemplate(transactionManager);
+            readTransaction.setReadOnly(true);
+            readTransactions.add(readTransaction);
+        }
+        return readTransactions;
+    }
+
+    private List<EntityManagerFactory> getEntityManagerFactories(final List<JpaRepository> repositories){
+        final List<EntityManagerFactory> entityManagerFactories = new ArrayList<>();
+        for (final JpaRepository repository : repositories){
+            entityManagerFactories.add(getEntityManagerFactory(repository));
+        }
+        return entityManagerFactories;
+    }
+
+    private static Class entityClass(final JpaRepository repository){
+        return ResolvableType.forClass(MultiRepositoryProxy.getInterface(repository)).as(Repository.class).resolveGeneric(0);
+    }
+
+    private EntityManagerFactory getEntityManagerFactory(final JpaRepository repository){
+
+        //the entity manager factory whose persistence unit manages the repository's entity
+        final Class entityClass = entityClass(repository);
+        if (entityClass == null){
+            return null;
+        }
+
+        for (final EntityManagerFactory entityManagerFactory : beanFactory.getBeansOfType(EntityManagerFactory.class).values()){
+            try {
+                entityManagerFactory.getMetamodel().managedType(entityClass);
+                return entityManagerFactory;
+            } catch (IllegalArgumentException e){
+                //not managed by this persistence unit
+            }
+        }
+        return null;
+    }
+
     private List<JpaTransformer> getTransformerBeans(final Class[] listOfTransformers){
         final List<JpaTransformer> transformers = new ArrayList<>();
         for (final Class repository : listOfTransformers){
@@ -131,10 +578,4 @@ public class MultiRepositoryAutowiredAnnotationBeanPostProcessor extends Autowir
         return simple;
     }
 
-    private Class getGenericArgument(final JpaTransformer jpaTransformer, final int generic){
-        final Type[] genericInterfaces = jpaTransformer.getClass().getGenericInterfaces();
-        final Type type = ((ParameterizedType)genericInterfaces[0]).getActualTypeArguments()[generic];
-        return (Class)type;
-    }
-
 }
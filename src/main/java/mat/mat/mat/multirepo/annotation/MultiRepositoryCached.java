@@ -0,0 +1,27 @@
+package mat.mat.mat.multirepo.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Caches the transformed results of reads, on a {@link MultiRepository} interface for all of its
+ * reads or on a single method. Any write through a multi repository sharing one of the target
+ * repositories invalidates the cache. Results are stored transformed back into entities and transformed
+ * again on each hit, so every caller gets its own copy; results returned untransformed, such as counts or
+ * projections, are shared and must be treated as read-only.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface MultiRepositoryCached {
+
+    boolean enabled() default true;
+
+    long maximumSize() default 10000;
+    long expireAfterWriteMillis() default 60000;
+
+    //name of a cache from the CacheManager bean to store entries in instead, e.g. an off-heap one
+    String cacheName() default "";
+
+}
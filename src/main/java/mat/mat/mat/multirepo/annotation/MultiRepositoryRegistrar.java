@@ -0,0 +1,106 @@
+package mat.mat.mat.multirepo.annotation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanClassLoaderAware;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.util.ClassUtils;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Registers a bean definition for every implementation listed in the index written by
+ * {@link mat.mat.mat.multirepo.processor.MultiRepositoryProcessor}, so none of them needs the runtime scanner.
+ */
+public class MultiRepositoryRegistrar implements BeanDefinitionRegistryPostProcessor, BeanClassLoaderAware {
+
+    public static final String INDEX = "META-INF/multi-repository.components";
+
+    private static final Logger logger = LoggerFactory.getLogger(MultiRepositoryRegistrar.class);
+
+    private final boolean enabled;
+    private ClassLoader classLoader = ClassUtils.getDefaultClassLoader();
+    private ConfigurableListableBeanFactory beanFactory;
+
+    public MultiRepositoryRegistrar(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    //interface name to generated implementation name, from every index on the class path
+    public static Map<String, String> loadIndex(final ClassLoader classLoader){
+        final Map<String, String> implementations = new LinkedHashMap<>();
+        try {
+            final Enumeration<URL> indexes = classLoader.getResources(INDEX);
+            while (indexes.hasMoreElements()){
+                final Properties index = PropertiesLoaderUtils.loadProperties(new UrlResource(indexes.nextElement()));
+                for (final String name : index.stringPropertyNames()){
+                    implementations.put(name, index.getProperty(name));
+                }
+            }
+        } catch (IOException e){
+            throw new IllegalStateException("Unable to load " + INDEX, e);
+        }
+        return implementations;
+    }
+
+    @Override
+    public void setBeanClassLoader(final ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    @Override
+    public void postProcessBeanDefinitionRegistry(final BeanDefinitionRegistry registry) throws BeansException {
+
+        if (!enabled){
+            return;
+        }
+
+        for (final Map.Entry<String, String> entry : loadIndex(classLoader).entrySet()){
+
+            final Class<?> clazzToImplement;
+            final Class<?> generatedClass;
+            try {
+                clazzToImplement = ClassUtils.forName(entry.getKey(), classLoader);
+                generatedClass = ClassUtils.forName(entry.getValue(), classLoader);
+            } catch (ClassNotFoundException | LinkageError e){
+                logger.warn("Skipping indexed multi repository {}: {}", entry.getKey(), e.toString());
+                continue;
+            }
+
+            final String beanName = clazzToImplement.getSimpleName();
+            if (registry.containsBeanDefinition(beanName)){
+                continue;
+            }
+
+            final RootBeanDefinition definition = new RootBeanDefinition(generatedClass);
+            definition.setInstanceSupplier(() -> createImplementation(clazzToImplement, generatedClass, beanName));
+            registry.registerBeanDefinition(beanName, definition);
+        }
+    }
+
+    @Override
+    public void postProcessBeanFactory(final ConfigurableListableBeanFactory beanFactory) throws BeansException {
+        this.beanFactory = beanFactory;
+    }
+
+    private Object createImplementation(final Class<?> clazzToImplement, final Class<?> generatedClass, final String beanName){
+        try {
+            return beanFactory.getBean(MultiRepositoryAutowiredAnnotationBeanPostProcessor.class).createGeneratedImplementation(clazzToImplement, generatedClass, beanName);
+        } catch (ReflectiveOperationException e){
+            throw new BeanCreationException(beanName, "Unable to create multi repository", e);
+        }
+    }
+
+}
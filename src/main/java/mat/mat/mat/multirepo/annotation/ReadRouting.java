@@ -0,0 +1,20 @@
+package mat.mat.mat.multirepo.annotation;
+
+public enum ReadRouting {
+
+    //read from the first repository only
+    PRIMARY,
+
+    //read from the first repository, then the next ones in turn when it throws
+    FAILOVER,
+
+    //spread reads over every repository in turn, failing over when one throws
+    ROUND_ROBIN,
+
+    //read from the repository with the lowest average response time, failing over when one throws
+    LEAST_LATENCY,
+
+    //send find, count and exists reads to every repository at once and merge the results, other reads go to the first repository
+    SCATTER_GATHER
+
+}
@@ -0,0 +1,14 @@
+package mat.mat.mat.multirepo.annotation;
+
+public enum TrippedRepository {
+
+    //leave the write out for that repository
+    SKIP,
+
+    //queue the write once the transaction commits and apply it once the circuit breaker lets calls through again
+    DEFER,
+
+    //throw to the caller
+    FAIL
+
+}
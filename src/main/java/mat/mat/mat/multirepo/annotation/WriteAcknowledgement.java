@@ -0,0 +1,14 @@
+package mat.mat.mat.multirepo.annotation;
+
+public enum WriteAcknowledgement {
+
+    //every repository must succeed
+    ALL,
+
+    //a majority of repositories must succeed
+    QUORUM,
+
+    //the first repository must succeed, the others are awaited up to the write timeout
+    PRIMARY
+
+}
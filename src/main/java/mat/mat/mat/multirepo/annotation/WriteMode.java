@@ -0,0 +1,19 @@
+package mat.mat.mat.multirepo.annotation;
+
+public enum WriteMode {
+
+    //write to each repository in turn on the calling thread
+    SEQUENTIAL,
+
+    //write to every repository at once on the write executor. Not transactional: each write commits on its own, outside the
+    //caller's transaction, so a rollback of the caller or a failed acknowledgement leaves the writes already made in place
+    PARALLEL,
+
+    //write to the first repository, queue the write for the others once the transaction commits
+    WRITE_BEHIND,
+
+    //write to the first repository, journal the write for the others when the transaction commits and replay it to them.
+    //Ids have to be assigned by the application, and with the chained transaction manager off another transaction manager has to be @Primary
+    JOURNAL
+
+}
@@ -0,0 +1,358 @@
+package mat.mat.mat.multirepo.backfill;
+
+import mat.mat.mat.multirepo.change.EntityFingerprint;
+import mat.mat.mat.multirepo.proxy.MultiRepositoryProxy;
+import mat.mat.mat.multirepo.transformer.EntityMetadata;
+import mat.mat.mat.multirepo.transformer.JpaTransformer;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copies what one target repository of a multi repository holds into another, for a repository added to
+ * jpaRepositories after the others had data, and compares the two. The source is split into chunks by
+ * keyset pagination on the id; workers load each chunk, transform it back to domain objects with the
+ * source's transformer and forward with the target's, and write it with one saveAll. Progress is
+ * checkpointed up to the last chunk all earlier ones are done for. The verify pass compares a checksum
+ * of the fingerprints of each chunk in both repositories and can rewrite the chunks that differ. Ids are
+ * expected to be kept by the transformers, as sharding and change detection expect.
+ */
+public class Backfill {
+
+    private static final Logger logger = LoggerFactory.getLogger(Backfill.class);
+
+    private static final int MISMATCHES_KEPT = 100;
+
+    private final String name;
+    private final List<JpaRepository> repositories;
+    private final List<JpaTransformer> transformers;
+    private final List<EntityManagerFactory> entityManagerFactories;
+    private final JpaTransformerCache transformerCache;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean stopping;
+
+    public Backfill(final String name, final List<JpaRepository> repositories, final List<JpaTransformer> transformers, final List<EntityManagerFactory> entityManagerFactories,
+                    final JpaTransformerCache transformerCache) {
+        this.name = name;
+        this.repositories = repositories;
+        this.transformers = transformers;
+        this.entityManagerFactories = entityManagerFactories;
+        this.transformerCache = transformerCache;
+    }
+
+    //source and target are indexes in jpaRepositories
+    public BackfillResult backfill(final int source, final int target, final BackfillSettings settings){
+        return run(source, target, settings, BackfillCheckpoint.Pass.COPY);
+    }
+
+    public BackfillResult verify(final int source, final int target, final BackfillSettings settings){
+        return run(source, target, settings, BackfillCheckpoint.Pass.VERIFY);
+    }
+
+    //the run in progress returns once the chunks it started are done, keeping its checkpoint
+    public void stop(){
+        stopping = true;
+    }
+
+    public boolean isRunning(){
+        return running.get();
+    }
+
+    private BackfillResult run(final int source, final int target, final BackfillSettings settings, final BackfillCheckpoint.Pass first){
+
+        if (source == target){
+            throw new IllegalArgumentException(name + " cannot backfill a repository from itself");
+        }
+        if (!running.compareAndSet(false, true)){
+            throw new IllegalStateException(name + " is already backfilling");
+        }
+        stopping = false;
+
+        try {
+            final Run run = new Run(source, target, settings);
+            final BackfillCheckpoint checkpoint = new BackfillCheckpoint(settings.getCheckpointFile(), run.sourceName, run.targetName, run.sourceQueries.getIdType());
+
+            if (checkpoint.read()){
+                if (first == BackfillCheckpoint.Pass.VERIFY && checkpoint.getPass() == BackfillCheckpoint.Pass.COPY){
+                    throw new BackfillException("Backfill checkpoint " + settings.getCheckpointFile() + " is of an unfinished copy, resume it with backfill");
+                }
+                logger.info("{} resuming the {} pass from {} to {} after id {}", name, checkpoint.getPass(), run.sourceName, run.targetName, checkpoint.getAfter());
+            } else {
+                checkpoint.write(first, null);
+            }
+
+            if (checkpoint.getPass() == BackfillCheckpoint.Pass.COPY){
+                run.pass(BackfillCheckpoint.Pass.COPY, checkpoint);
+                if (stopping || !settings.isVerify()){
+                    return run.finish(checkpoint);
+                }
+                checkpoint.write(BackfillCheckpoint.Pass.VERIFY, null);
+            }
+
+            run.pass(BackfillCheckpoint.Pass.VERIFY, checkpoint);
+            return run.finish(checkpoint);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private class Run {
+
+        private final int source;
+        private final int target;
+        private final String sourceName;
+        private final String targetName;
+        private final KeysetQueries sourceQueries;
+        private final KeysetQueries targetQueries;
+        private final BackfillSettings settings;
+        private final ThroughputLimiter limiter;
+        private final long start = System.nanoTime();
+
+        private final LongAdder copied = new LongAdder();
+        private final LongAdder verified = new LongAdder();
+        private final LongAdder mismatchedChunks = new LongAdder();
+        private final LongAdder repaired = new LongAdder();
+        private final LongAdder deleted = new LongAdder();
+        private final List<String> mismatches = Collections.synchronizedList(new ArrayList<>());
+
+        private Run(final int source, final int target, final BackfillSettings settings) {
+            this.source = source;
+            this.target = target;
+            this.sourceName = MultiRepositoryProxy.getInterface(repositories.get(source)).getSimpleName();
+            this.targetName = MultiRepositoryProxy.getInterface(repositories.get(target)).getSimpleName();
+            this.sourceQueries = new KeysetQueries(repositories.get(source), entityManagerFactories.get(source));
+            this.targetQueries = new KeysetQueries(repositories.get(target), entityManagerFactories.get(target));
+            this.settings = settings;
+            this.limiter = new ThroughputLimiter(settings.getMaxEntitiesPerSecond());
+        }
+
+        private void pass(final BackfillCheckpoint.Pass pass, final BackfillCheckpoint checkpoint){
+
+            final ExecutorService workers = Executors.newFixedThreadPool(settings.getWorkers(), threadFactory());
+            //the ids read ahead of the workers are bounded to a couple of chunks each
+            final Semaphore inFlight = new Semaphore(settings.getWorkers() * 2);
+            final Progress progress = new Progress(pass, checkpoint);
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+            Object after = checkpoint.getAfter();
+            long sequence = 0;
+            try {
+                while (!stopping && failure.get() == null){
+
+                    final List<Object> ids = sourceQueries.ids(after, settings.getChunkSize());
+                    //the last chunk has no upper bound, so the verify pass sees what the target has past the source's end
+                    final boolean end = ids.size() < settings.getChunkSize();
+                    final Object chunkAfter = after;
+                    final Object last = end ? null : ids.get(ids.size() - 1);
+                    final long chunk = sequence++;
+
+                    inFlight.acquire();
+                    workers.execute(() -> {
+                        try {
+                            if (pass == BackfillCheckpoint.Pass.COPY){
+                                copy(chunkAfter, last);
+                            } else {
+                                verify(chunkAfter, last);
+                            }
+                            progress.completed(chunk, last);
+                        } catch (Throwable e){
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+
+                    if (end){
+                        break;
+                    }
+                    after = last;
+                }
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                stopping = true;
+            } finally {
+                workers.shutdown();
+                awaitTermination(workers);
+            }
+
+            if (failure.get() != null){
+                throw new BackfillException(name + " " + pass + " pass from " + sourceName + " to " + targetName + " failed, running it again with the same checkpoint resumes it", failure.get());
+            }
+            logger.info("{} {} pass from {} to {} {}", name, pass, sourceName, targetName, stopping ? "stopped" : "done");
+        }
+
+        private void copy(final Object after, final Object last) throws Exception {
+
+            final List<Object> entities = sourceQueries.range(after, last, this::transformAll);
+            if (entities.isEmpty()){
+                return;
+            }
+
+            limiter.acquire(entities.size());
+            repositories.get(target).saveAll(entities);
+            copied.add(entities.size());
+        }
+
+        private void verify(final Object after, final Object last) throws Exception {
+
+            final List<Object> expected = sourceQueries.range(after, last, this::transformAll);
+            final Map<Object, Long> expectedFingerprints = fingerprints(expected);
+            final Map<Object, Long> actualFingerprints = targetQueries.range(after, last, this::fingerprints);
+            verified.add(expected.size());
+
+            if (checksum(expectedFingerprints) == checksum(actualFingerprints)){
+                return;
+            }
+
+            mismatchedChunks.increment();
+            if (mismatches.size() < MISMATCHES_KEPT){
+                mismatches.add("(" + (after != null ? after : "start") + ", " + (last != null ? last : "end") + "]");
+            }
+            logger.warn("{} {} differs from {} between ids {} and {}", name, targetName, sourceName, after != null ? after : "the start", last != null ? last : "the end");
+
+            if (!settings.isRepair()){
+                return;
+            }
+
+            final List<Object> changed = new ArrayList<>();
+            for (final Object entity : expected){
+                final Object id = EntityMetadata.identifier(entity);
+                if (!expectedFingerprints.get(id).equals(actualFingerprints.get(id))){
+                    changed.add(entity);
+                }
+            }
+            if (!changed.isEmpty()){
+                limiter.acquire(changed.size());
+                repositories.get(target).saveAll(changed);
+                repaired.add(changed.size());
+            }
+
+            for (final Object id : actualFingerprints.keySet()){
+                if (!expectedFingerprints.containsKey(id)){
+                    repositories.get(target).deleteById(id);
+                    deleted.increment();
+                }
+            }
+        }
+
+        //source entities as the target's
+        private List<Object> transformAll(final List<Object> entities){
+            final List<Object> transformed = new ArrayList<>(entities.size());
+            for (final Object entity : entities){
+                final Object domain = transformers.get(source).transformBackward(entity, transformerCache);
+                transformed.add(transformers.get(target).transformForward(domain, transformerCache));
+            }
+            return transformed;
+        }
+
+        private Map<Object, Long> fingerprints(final List<Object> entities){
+            final Map<Object, Long> fingerprints = new HashMap<>((int) (entities.size() / .75f) + 1);
+            for (final Object entity : entities){
+                fingerprints.put(EntityMetadata.identifier(entity), EntityFingerprint.of(entity));
+            }
+            return fingerprints;
+        }
+
+        private BackfillResult finish(final BackfillCheckpoint checkpoint){
+
+            if (!stopping){
+                checkpoint.delete();
+            }
+
+            return BackfillResult.builder()
+                    .source(sourceName)
+                    .target(targetName)
+                    .copied(copied.sum())
+                    .verified(verified.sum())
+                    .mismatchedChunks(mismatchedChunks.sum())
+                    .mismatches(new ArrayList<>(mismatches))
+                    .repaired(repaired.sum())
+                    .deleted(deleted.sum())
+                    .elapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                    .stopped(stopping)
+                    .build();
+        }
+
+        private CustomizableThreadFactory threadFactory(){
+            final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("multi-repository-backfill-" + name + "-");
+            threadFactory.setDaemon(true);
+            return threadFactory;
+        }
+    }
+
+    //order independent, so the chunk's entities can come in any order
+    private static long checksum(final Map<Object, Long> fingerprints){
+        long checksum = fingerprints.size();
+        for (final Map.Entry<Object, Long> entry : fingerprints.entrySet()){
+            checksum += EntityFingerprint.mix(EntityFingerprint.key(entry.getKey()) * 31 + entry.getValue());
+        }
+        return checksum;
+    }
+
+    private static void awaitTermination(final ExecutorService workers){
+        boolean interrupted = false;
+        while (true){
+            try {
+                if (workers.awaitTermination(1, TimeUnit.MINUTES)){
+                    break;
+                }
+            } catch (InterruptedException e){
+                interrupted = true;
+            }
+        }
+        if (interrupted){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Chunks done out of order, checkpointing the last id every chunk up to is done for.
+     */
+    private static class Progress {
+
+        private final BackfillCheckpoint.Pass pass;
+        private final BackfillCheckpoint checkpoint;
+        private final TreeMap<Long, Object> done = new TreeMap<>();
+        private long next;
+
+        private Progress(final BackfillCheckpoint.Pass pass, final BackfillCheckpoint checkpoint) {
+            this.pass = pass;
+            this.checkpoint = checkpoint;
+        }
+
+        private synchronized void completed(final long chunk, final Object last){
+
+            done.put(chunk, last);
+            if (chunk != next){
+                return;
+            }
+
+            Object after = null;
+            while (done.containsKey(next)){
+                after = done.remove(next++);
+            }
+            //the last chunk has no upper bound, the pass is over with it
+            if (after != null){
+                checkpoint.write(pass, after);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package mat.mat.mat.multirepo.backfill;
+
+import org.springframework.core.convert.support.DefaultConversionService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+/**
+ * The pass a backfill is in and the id its chunks are complete up to, as a properties file replaced
+ * atomically so a crash leaves either the previous or the new progress. Ids are kept as strings and
+ * converted back to the identifier type on resume.
+ */
+class BackfillCheckpoint {
+
+    enum Pass {
+        COPY, VERIFY
+    }
+
+    private final Path path;
+    private final Path next;
+    private final String source;
+    private final String target;
+    private final Class idType;
+
+    private Pass pass = Pass.COPY;
+    private Object after;
+
+    BackfillCheckpoint(final String path, final String source, final String target, final Class idType) {
+        this.path = path != null && !path.isEmpty() ? Paths.get(path) : null;
+        this.next = this.path != null ? this.path.resolveSibling(this.path.getFileName() + ".next") : null;
+        this.source = source;
+        this.target = target;
+        this.idType = idType;
+    }
+
+    //false when there is nothing to resume
+    boolean read(){
+
+        if (path == null || !Files.exists(path)){
+            return false;
+        }
+
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(path)){
+            properties.load(in);
+        } catch (IOException e){
+            throw new BackfillException("Cannot read backfill checkpoint " + path, e);
+        }
+
+        if (!source.equals(properties.getProperty("source")) || !target.equals(properties.getProperty("target"))){
+            throw new BackfillException("Backfill checkpoint " + path + " is from " + properties.getProperty("source") + " to " + properties.getProperty("target")
+                    + ", not from " + source + " to " + target);
+        }
+
+        pass = Pass.valueOf(properties.getProperty("pass"));
+        final String id = properties.getProperty("after");
+        after = id != null ? DefaultConversionService.getSharedInstance().convert(id, idType) : null;
+        return true;
+    }
+
+    void write(final Pass pass, final Object after){
+
+        this.pass = pass;
+        this.after = after;
+        if (path == null){
+            return;
+        }
+
+        final Properties properties = new Properties();
+        properties.setProperty("source", source);
+        properties.setProperty("target", target);
+        properties.setProperty("pass", pass.name());
+        if (after != null){
+            properties.setProperty("after", after.toString());
+        }
+
+        try {
+            try (OutputStream out = Files.newOutputStream(next, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.SYNC)){
+                properties.store(out, "multi repository backfill");
+            }
+            Files.move(next, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e){
+            throw new BackfillException("Cannot write backfill checkpoint " + path, e);
+        }
+    }
+
+    void delete(){
+        if (path == null){
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e){
+            throw new BackfillException("Cannot delete backfill checkpoint " + path, e);
+        }
+    }
+
+    Pass getPass(){
+        return pass;
+    }
+
+    Object getAfter(){
+        return after;
+    }
+
+}
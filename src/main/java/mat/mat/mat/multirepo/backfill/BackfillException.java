@@ -0,0 +1,12 @@
+package mat.mat.mat.multirepo.backfill;
+
+public class BackfillException extends RuntimeException {
+
+    public BackfillException(final String message) {
+        super(message);
+    }
+
+    public BackfillException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
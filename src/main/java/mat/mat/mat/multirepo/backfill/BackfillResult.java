@@ -0,0 +1,27 @@
+package mat.mat.mat.multirepo.backfill;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+@Getter
+@Builder
+@ToString
+public class BackfillResult {
+
+    private final String source;
+    private final String target;
+    private final long copied;
+    private final long verified;
+    private final long mismatchedChunks;
+    //id ranges of the first mismatched chunks, as (after, last]
+    private final List<String> mismatches;
+    private final long repaired;
+    private final long deleted;
+    private final long elapsedMillis;
+    //stopped before the end, a run with the same checkpoint file resumes it
+    private final boolean stopped;
+
+}
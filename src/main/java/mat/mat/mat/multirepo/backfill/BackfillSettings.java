@@ -0,0 +1,28 @@
+package mat.mat.mat.multirepo.backfill;
+
+import lombok.Builder;
+import lombok.Getter;
+
+@Getter
+@Builder
+public class BackfillSettings {
+
+    //entities read, transformed and written together, and compared together by the verify pass
+    @Builder.Default
+    private final int chunkSize = 1000;
+    @Builder.Default
+    private final int workers = 4;
+    //0 writes as fast as the workers go
+    @Builder.Default
+    private final int maxEntitiesPerSecond = 0;
+    //progress is saved there after every chunk and a run finding it resumes from it, null keeps no checkpoint
+    @Builder.Default
+    private final String checkpointFile = null;
+    //compare every chunk of both repositories once the copy is done
+    @Builder.Default
+    private final boolean verify = false;
+    //rewrite the chunks the verify pass finds different, deleting what the target has and the source has not
+    @Builder.Default
+    private final boolean repair = false;
+
+}
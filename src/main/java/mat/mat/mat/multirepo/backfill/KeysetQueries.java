@@ -0,0 +1,102 @@
+package mat.mat.mat.multirepo.backfill;
+
+import mat.mat.mat.multirepo.proxy.MultiRepositoryProxy;
+import mat.mat.mat.multirepo.transformer.EntityMetadata;
+import org.springframework.core.ResolvableType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.repository.Repository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.FlushModeType;
+import javax.persistence.TypedQuery;
+import java.util.List;
+
+/**
+ * Keyset pagination over one repository's entity: ids in order after a given one, and the entities
+ * in a range of ids (after, last]. Each query runs in an entity manager of its own, read only, so
+ * chunks can be loaded by several threads at once.
+ */
+class KeysetQueries {
+
+    private static final String READ_ONLY = "org.hibernate.readOnly";
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final Class entityClass;
+    private final String from;
+    private final String id;
+
+    KeysetQueries(final JpaRepository repository, final EntityManagerFactory entityManagerFactory) {
+
+        final Class entityClass = ResolvableType.forClass(MultiRepositoryProxy.getInterface(repository)).as(Repository.class).resolveGeneric(0);
+        final String identifierName = entityClass != null ? EntityMetadata.of(entityClass).getIdentifierName() : null;
+        if (identifierName == null){
+            throw new BackfillException("Cannot page through " + MultiRepositoryProxy.getInterface(repository).getSimpleName() + ", its entity has no @Id");
+        }
+
+        this.entityManagerFactory = entityManagerFactory;
+        this.entityClass = entityClass;
+        this.from = " from " + entityManagerFactory.getMetamodel().entity(entityClass).getName() + " e";
+        this.id = "e." + identifierName;
+    }
+
+    Class getIdType(){
+        return entityManagerFactory.getMetamodel().entity(entityClass).getIdType().getJavaType();
+    }
+
+    //up to limit ids following after, all from the first when after is null
+    List<Object> ids(final Object after, final int limit){
+        final EntityManager entityManager = open();
+        try {
+            final TypedQuery<Object> query = entityManager.createQuery("select " + id + from + where(after, null) + " order by " + id, Object.class);
+            bind(query, after, null);
+            return query.setMaxResults(limit).getResultList();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    //the entities of the range (after, last], an open end when either is null; the entity manager is
+    //open while reader runs so lazy associations load
+    <T> T range(final Object after, final Object last, final RangeReader<T> reader) throws Exception {
+        final EntityManager entityManager = open();
+        try {
+            final TypedQuery<Object> query = entityManager.createQuery("select e" + from + where(after, last) + " order by " + id, Object.class);
+            bind(query, after, last);
+            query.setHint(READ_ONLY, true);
+            return reader.read(query.getResultList());
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private EntityManager open(){
+        final EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.setFlushMode(FlushModeType.COMMIT);
+        return entityManager;
+    }
+
+    private String where(final Object after, final Object last){
+        if (after != null && last != null){
+            return " where " + id + " > :after and " + id + " <= :last";
+        }
+        if (after != null){
+            return " where " + id + " > :after";
+        }
+        return last != null ? " where " + id + " <= :last" : "";
+    }
+
+    private static void bind(final TypedQuery<Object> query, final Object after, final Object last){
+        if (after != null){
+            query.setParameter("after", after);
+        }
+        if (last != null){
+            query.setParameter("last", last);
+        }
+    }
+
+    interface RangeReader<T> {
+        T read(List<Object> entities) throws Exception;
+    }
+
+}
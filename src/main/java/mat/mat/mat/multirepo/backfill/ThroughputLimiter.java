@@ -0,0 +1,37 @@
+package mat.mat.mat.multirepo.backfill;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out permits evenly at a fixed rate, without bursts: each acquire reserves the next free slot
+ * and sleeps until it.
+ */
+class ThroughputLimiter {
+
+    private final double nanosPerPermit;
+    private long next = System.nanoTime();
+
+    //0 never waits
+    ThroughputLimiter(final int permitsPerSecond) {
+        this.nanosPerPermit = permitsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / (double) permitsPerSecond : 0;
+    }
+
+    void acquire(final int permits) throws InterruptedException {
+
+        if (nanosPerPermit == 0){
+            return;
+        }
+
+        final long wait;
+        synchronized (this){
+            final long now = System.nanoTime();
+            final long start = Math.max(next, now);
+            next = start + (long) (permits * nanosPerPermit);
+            wait = start - now;
+        }
+        if (wait > 0){
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+package mat.mat.mat.multirepo.bulkhead;
+
+/**
+ * Concurrency limit moved by the latency and outcome of completed calls. Updated under the lock of its
+ * {@link Bulkhead}, so implementations keep plain fields.
+ */
+abstract class AdaptiveLimit {
+
+    static final double BACKOFF_RATIO = 0.9;
+
+    final int minLimit;
+    final int maxLimit;
+    double limit;
+
+    AdaptiveLimit(final BulkheadSettings settings) {
+        this.minLimit = Math.max(settings.getMinLimit(), 1);
+        this.maxLimit = Math.max(settings.getMaxLimit(), minLimit);
+        this.limit = clamp(settings.getInitialLimit());
+    }
+
+    static AdaptiveLimit of(final BulkheadSettings settings){
+        switch (settings.getLimit()){
+            case AIMD:
+                return new Aimd(settings);
+            default:
+                return new Gradient(settings);
+        }
+    }
+
+    int getLimit(){
+        return (int) limit;
+    }
+
+    //a call that took rttNanos while inFlight calls were running, dropped when it failed or timed out
+    abstract void update(long rttNanos, int inFlight, boolean dropped);
+
+    double clamp(final double value){
+        return Math.min(Math.max(value, minLimit), maxLimit);
+    }
+
+    //the limit only grows while calls are using at least half of it
+    boolean applicationLimited(final int inFlight){
+        return inFlight * 2 < limit;
+    }
+
+    static final class Aimd extends AdaptiveLimit {
+
+        Aimd(final BulkheadSettings settings) {
+            super(settings);
+        }
+
+        @Override
+        void update(final long rttNanos, final int inFlight, final boolean dropped) {
+            if (dropped){
+                limit = clamp(limit * BACKOFF_RATIO);
+            } else if (!applicationLimited(inFlight)){
+                limit = clamp(limit + 1 / limit);
+            }
+        }
+    }
+
+    static final class Gradient extends AdaptiveLimit {
+
+        private static final int LONG_WINDOW = 600;
+        private static final double SMOOTHING = 0.2;
+
+        private double longRtt;
+        private long samples;
+
+        Gradient(final BulkheadSettings settings) {
+            super(settings);
+        }
+
+        @Override
+        void update(final long rttNanos, final int inFlight, final boolean dropped) {
+            if (dropped){
+                limit = clamp(limit * BACKOFF_RATIO);
+                return;
+            }
+
+            final double rtt = Math.max(rttNanos, 1);
+            samples++;
+            longRtt += (rtt - longRtt) / Math.min(samples, LONG_WINDOW);
+
+            //a long term average inflated by a past overload would keep the limit high, let it follow the recovery
+            if (longRtt > rtt * 2){
+                longRtt *= 0.95;
+            }
+
+            final double gradient = Math.max(0.5, Math.min(1.0, longRtt / rtt));
+            final double target = limit * gradient + Math.sqrt(limit);
+            if (target > limit && applicationLimited(inFlight)){
+                return;
+            }
+            limit = clamp(limit * (1 - SMOOTHING) + target * SMOOTHING);
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package mat.mat.mat.multirepo.bulkhead;
+
+import lombok.Getter;
+import mat.mat.mat.multirepo.metrics.BulkheadMetrics;
+import mat.mat.mat.multirepo.metrics.MultiRepositoryMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.NonTransientDataAccessException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls to one target repository, shared by all the methods of a multi repository. Calls over the adaptive
+ * concurrency limit and calls while the circuit breaker is open are rejected with a
+ * {@link BulkheadRejectedException} instead of queueing up on a repository that is already slow or down.
+ * Calls run on the caller thread, inside its transaction, so one slower than callTimeoutMillis is not
+ * interrupted; it counts as failed for the circuit breaker and as a drop for the limit.
+ */
+public class Bulkhead {
+
+    private static final Logger logger = LoggerFactory.getLogger(Bulkhead.class);
+
+    @Getter
+    private final String repositoryName;
+    private final long openMillis;
+    private final long maxWaitNanos;
+    private final long callTimeoutNanos;
+    private final AdaptiveLimit limit;
+    private final CircuitBreaker breaker;
+    @Getter
+    private final BulkheadMetrics metrics;
+    private int inFlight;
+
+    public Bulkhead(final String name, final String repositoryName, final BulkheadSettings settings, final MultiRepositoryMetrics metrics) {
+        this.repositoryName = repositoryName;
+        this.openMillis = settings.getOpenMillis();
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(settings.getMaxWaitMillis());
+        this.callTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(settings.getCallTimeoutMillis());
+        this.limit = AdaptiveLimit.of(settings);
+        this.breaker = new CircuitBreaker(settings);
+        this.metrics = (metrics != null ? metrics : MultiRepositoryMetrics.NONE).bulkhead(name, repositoryName, this::getLimit, this::getInFlight, this::getState);
+    }
+
+    //the start of the call, to hand back to release
+    public long acquire() throws InterruptedException {
+        long now = System.nanoTime();
+        synchronized (this){
+            if (breaker.remainingOpen(now) > 0){
+                throw rejected(true);
+            }
+
+            final long deadline = now + maxWaitNanos;
+            while (inFlight >= limit.getLimit()){
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0){
+                    throw rejected(false);
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+
+            now = System.nanoTime();
+            if (!breaker.tryAcquire(now)){
+                throw rejected(true);
+            }
+            inFlight++;
+        }
+        return now;
+    }
+
+    //failure is what the call threw, null when it succeeded
+    public void release(final long start, final Throwable failure){
+        final long end = System.nanoTime();
+        final boolean timedOut = callTimeoutNanos > 0 && end - start > callTimeoutNanos;
+        final boolean failed = timedOut || failure != null && isFailure(failure);
+
+        if (timedOut){
+            metrics.recordTimeout();
+        }
+
+        synchronized (this){
+            limit.update(end - start, inFlight, failed);
+            inFlight--;
+            if (breaker.record(failed, end)){
+                if (breaker.getState() == CircuitState.OPEN){
+                    logger.warn("Circuit breaker for {} opened for {}ms", repositoryName, openMillis);
+                } else {
+                    logger.info("Circuit breaker for {} closed", repositoryName);
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    //how long until the circuit breaker lets probes through, 0 when it lets calls through
+    public synchronized long getRemainingOpenMillis(){
+        final long remaining = breaker.remainingOpen(System.nanoTime());
+        return remaining > 0 ? Math.max(TimeUnit.NANOSECONDS.toMillis(remaining), 1) : 0;
+    }
+
+    public synchronized int getLimit(){
+        return limit.getLimit();
+    }
+
+    public synchronized int getInFlight(){
+        return inFlight;
+    }
+
+    public synchronized CircuitState getState(){
+        return breaker.getState();
+    }
+
+    //errors in the request itself, such as a constraint violation or a missing row, say nothing about the repository's health
+    private static boolean isFailure(final Throwable failure){
+        return !(failure instanceof NonTransientDataAccessException) || failure instanceof DataAccessResourceFailureException;
+    }
+
+    private BulkheadRejectedException rejected(final boolean circuitOpen){
+        metrics.recordRejected(circuitOpen);
+        return new BulkheadRejectedException(circuitOpen
+                ? "Circuit breaker for " + repositoryName + " is open"
+                : repositoryName + " is at its limit of " + limit.getLimit() + " concurrent calls", circuitOpen);
+    }
+
+}
@@ -0,0 +1,15 @@
+package mat.mat.mat.multirepo.bulkhead;
+
+import lombok.Getter;
+
+public class BulkheadRejectedException extends RuntimeException {
+
+    //rejected by the circuit breaker rather than by the concurrency limit
+    @Getter
+    private final boolean circuitOpen;
+
+    public BulkheadRejectedException(final String message, final boolean circuitOpen) {
+        super(message);
+        this.circuitOpen = circuitOpen;
+    }
+}
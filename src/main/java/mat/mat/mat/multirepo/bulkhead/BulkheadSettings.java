@@ -0,0 +1,39 @@
+package mat.mat.mat.multirepo.bulkhead;
+
+import lombok.Builder;
+import lombok.Getter;
+import mat.mat.mat.multirepo.annotation.ConcurrencyLimit;
+import mat.mat.mat.multirepo.annotation.TrippedRepository;
+
+@Getter
+@Builder
+public class BulkheadSettings {
+
+    @Builder.Default
+    private final ConcurrencyLimit limit = ConcurrencyLimit.GRADIENT;
+    @Builder.Default
+    private final int initialLimit = 20;
+    @Builder.Default
+    private final int minLimit = 1;
+    @Builder.Default
+    private final int maxLimit = 200;
+    //how long a call waits for the limit before it is rejected, 0 rejects it right away
+    @Builder.Default
+    private final long maxWaitMillis = 0;
+    //calls slower than this count as failed, 0 for none
+    @Builder.Default
+    private final long callTimeoutMillis = 0;
+    @Builder.Default
+    private final double failureRateThreshold = 0.5;
+    @Builder.Default
+    private final int slidingWindowSize = 50;
+    @Builder.Default
+    private final int minimumCalls = 20;
+    @Builder.Default
+    private final long openMillis = 10000;
+    @Builder.Default
+    private final int halfOpenCalls = 5;
+    @Builder.Default
+    private final TrippedRepository tripped = TrippedRepository.DEFER;
+
+}
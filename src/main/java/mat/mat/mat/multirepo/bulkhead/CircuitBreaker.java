@@ -0,0 +1,107 @@
+package mat.mat.mat.multirepo.bulkhead;
+
+/**
+ * Failure rate over the last slidingWindowSize calls. Opens once it reaches the threshold, lets
+ * halfOpenCalls probes through after openMillis and closes when they all succeed. Guarded by the
+ * lock of its {@link Bulkhead}.
+ */
+final class CircuitBreaker {
+
+    private final boolean[] window;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final int halfOpenCalls;
+
+    private CircuitState state = CircuitState.CLOSED;
+    private int position;
+    private int calls;
+    private int failures;
+    private long openUntil;
+    private int probes;
+    private int probeSuccesses;
+
+    CircuitBreaker(final BulkheadSettings settings) {
+        this.window = new boolean[Math.max(settings.getSlidingWindowSize(), 1)];
+        this.minimumCalls = Math.max(Math.min(settings.getMinimumCalls(), window.length), 1);
+        this.failureRateThreshold = settings.getFailureRateThreshold();
+        this.openNanos = settings.getOpenMillis() * 1000000;
+        this.halfOpenCalls = Math.max(settings.getHalfOpenCalls(), 1);
+    }
+
+    CircuitState getState(){
+        return state;
+    }
+
+    //nanos until probes are let through, 0 when calls are
+    long remainingOpen(final long now){
+        return state == CircuitState.OPEN ? Math.max(openUntil - now, 0) : 0;
+    }
+
+    boolean tryAcquire(final long now){
+        switch (state){
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - openUntil < 0){
+                    return false;
+                }
+                state = CircuitState.HALF_OPEN;
+                probes = 0;
+                probeSuccesses = 0;
+                //fall through
+            default:
+                if (probes >= halfOpenCalls){
+                    return false;
+                }
+                probes++;
+                return true;
+        }
+    }
+
+    //true when this call changed the state
+    boolean record(final boolean failed, final long now){
+        switch (state){
+            case CLOSED:
+                if (calls == window.length){
+                    failures -= window[position] ? 1 : 0;
+                } else {
+                    calls++;
+                }
+                window[position] = failed;
+                failures += failed ? 1 : 0;
+                position = (position + 1) % window.length;
+                if (calls >= minimumCalls && failures >= failureRateThreshold * calls){
+                    open(now);
+                    return true;
+                }
+                return false;
+            case HALF_OPEN:
+                if (failed){
+                    open(now);
+                    return true;
+                }
+                if (++probeSuccesses >= halfOpenCalls){
+                    close();
+                    return true;
+                }
+                return false;
+            default:
+                //calls started before it opened
+                return false;
+        }
+    }
+
+    private void open(final long now){
+        state = CircuitState.OPEN;
+        openUntil = now + openNanos;
+    }
+
+    private void close(){
+        state = CircuitState.CLOSED;
+        position = 0;
+        calls = 0;
+        failures = 0;
+    }
+
+}
@@ -0,0 +1,14 @@
+package mat.mat.mat.multirepo.bulkhead;
+
+public enum CircuitState {
+
+    //calls go through
+    CLOSED,
+
+    //calls are rejected until the open time is over
+    OPEN,
+
+    //a few probe calls go through, the others are rejected
+    HALF_OPEN
+
+}
@@ -0,0 +1,45 @@
+package mat.mat.mat.multirepo.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class CaffeineReadCacheStore implements ReadCacheStore {
+
+    private final Cache<Object, Object> cache;
+
+    public CaffeineReadCacheStore(final long maximumSize, final long expireAfterWriteMillis, final LongAdder evictions) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS)
+                .removalListener((key, value, cause) -> {
+                    if (cause.wasEvicted()){
+                        evictions.increment();
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public Object get(final Object key) {
+        return cache.getIfPresent(key);
+    }
+
+    @Override
+    public void put(final Object key, final Object value) {
+        cache.put(key, value);
+    }
+
+    @Override
+    public void remove(final Object key) {
+        cache.invalidate(key);
+    }
+
+    @Override
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+}
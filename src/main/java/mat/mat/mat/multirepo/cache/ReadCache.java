@@ -0,0 +1,94 @@
+package mat.mat.mat.multirepo.cache;
+
+import lombok.Getter;
+import mat.mat.mat.multirepo.metrics.ReadCacheMetrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cached results of one read method. Entries loaded while an invalidation happened are dropped,
+ * so a read racing a write cannot put back what the write replaced.
+ */
+public class ReadCache implements ReadCacheMetrics.Cache {
+
+    @Getter
+    private final String name;
+    //the multi repository and method, in every key of this cache
+    private final String scope;
+    private final ReadCacheStore store;
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions;
+    private final LongAdder invalidations = new LongAdder();
+
+    public ReadCache(final String name, final String scope, final ReadCacheStore store, final LongAdder evictions) {
+        this.name = name;
+        this.scope = scope;
+        this.store = store;
+        this.evictions = evictions;
+    }
+
+    public static ReadCache caffeine(final String name, final String scope, final long maximumSize, final long expireAfterWriteMillis){
+        final LongAdder evictions = new LongAdder();
+        return new ReadCache(name, scope, new CaffeineReadCacheStore(maximumSize, expireAfterWriteMillis, evictions), evictions);
+    }
+
+    public ReadCacheKey key(final Object[] args){
+        return ReadCacheKey.of(scope, args);
+    }
+
+    public Object get(final Object key){
+        final Object value = store.get(key);
+        if (value != null){
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
+    }
+
+    //current generation, to pass back to put once the value is loaded
+    public long generation(){
+        return generation.get();
+    }
+
+    public void put(final Object key, final Object value, final long loadedAt){
+        if (value == null || generation.get() != loadedAt){
+            return;
+        }
+        store.put(key, value);
+        if (generation.get() != loadedAt){
+            store.remove(key);
+        }
+    }
+
+    public void invalidateAll(){
+        generation.incrementAndGet();
+        invalidations.increment();
+        store.clear();
+    }
+
+    @Override
+    public long getHits(){
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses(){
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictions(){
+        return evictions.sum();
+    }
+
+    @Override
+    public long getInvalidations(){
+        return invalidations.sum();
+    }
+
+}
@@ -0,0 +1,45 @@
+package mat.mat.mat.multirepo.cache;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+//the method read and its arguments, so methods sharing one cache do not read each other's results
+public final class ReadCacheKey implements Serializable {
+
+    private final String method;
+    private final Object[] args;
+    private final int hash;
+
+    private ReadCacheKey(final String method, final Object[] args) {
+        this.method = method;
+        this.args = args;
+        this.hash = 31 * method.hashCode() + Arrays.deepHashCode(args);
+    }
+
+    public static ReadCacheKey of(final String method, final Object[] args){
+        return new ReadCacheKey(method, args == null ? new Object[0] : args.clone());
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other){
+            return true;
+        }
+        if (!(other instanceof ReadCacheKey)){
+            return false;
+        }
+        final ReadCacheKey key = (ReadCacheKey) other;
+        return hash == key.hash && method.equals(key.method) && Arrays.deepEquals(args, key.args);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return method + Arrays.deepToString(args);
+    }
+
+}
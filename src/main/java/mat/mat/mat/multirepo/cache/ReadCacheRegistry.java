@@ -0,0 +1,67 @@
+package mat.mat.mat.multirepo.cache;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Read caches by the repositories they read from, so a write to a repository reaches the caches of
+ * every multi repository in front of it.
+ */
+public class ReadCacheRegistry {
+
+    private final Map<JpaRepository, List<ReadCache>> caches = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    public void register(final ReadCache cache, final List<JpaRepository> repositories){
+        for (final JpaRepository repository : repositories){
+            caches.computeIfAbsent(repository, r -> new CopyOnWriteArrayList<>()).add(cache);
+        }
+    }
+
+    public List<ReadCache> getCaches(){
+        final List<ReadCache> all = new ArrayList<>();
+        synchronized (caches){
+            for (final List<ReadCache> repositoryCaches : caches.values()){
+                for (final ReadCache cache : repositoryCaches){
+                    if (!all.contains(cache)){
+                        all.add(cache);
+                    }
+                }
+            }
+        }
+        return all;
+    }
+
+    public void invalidate(final List<JpaRepository> repositories){
+        invalidateNow(repositories);
+
+        //again once the transaction ends, reads before the commit may have cached what it replaces
+        if (TransactionSynchronizationManager.isSynchronizationActive()){
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(final int status) {
+                    invalidateNow(repositories);
+                }
+            });
+        }
+    }
+
+    private void invalidateNow(final List<JpaRepository> repositories){
+        for (final JpaRepository repository : repositories){
+            final List<ReadCache> repositoryCaches = caches.get(repository);
+            if (repositoryCaches != null){
+                for (final ReadCache cache : repositoryCaches){
+                    cache.invalidateAll();
+                }
+            }
+        }
+    }
+
+}
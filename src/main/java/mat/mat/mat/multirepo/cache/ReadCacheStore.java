@@ -0,0 +1,13 @@
+package mat.mat.mat.multirepo.cache;
+
+public interface ReadCacheStore {
+
+    Object get(Object key);
+
+    void put(Object key, Object value);
+
+    void remove(Object key);
+
+    void clear();
+
+}
@@ -0,0 +1,49 @@
+package mat.mat.mat.multirepo.cache;
+
+import org.springframework.cache.Cache;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Entries of one read method in a cache of the application's CacheManager, which other methods and other
+ * users may share. The keys put here are remembered, so clearing evicts only them and leaves the rest of
+ * the cache alone.
+ */
+public class SpringReadCacheStore implements ReadCacheStore {
+
+    private final Cache cache;
+    private final Set<Object> keys = ConcurrentHashMap.newKeySet();
+
+    public SpringReadCacheStore(final Cache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public Object get(final Object key) {
+        final Cache.ValueWrapper value = cache.get(key);
+        return value == null ? null : value.get();
+    }
+
+    @Override
+    public void put(final Object key, final Object value) {
+        //remembered first, so a clear running meanwhile evicts it
+        keys.add(key);
+        cache.put(key, value);
+    }
+
+    @Override
+    public void remove(final Object key) {
+        cache.evict(key);
+        keys.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        for (final Object key : keys){
+            keys.remove(key);
+            cache.evict(key);
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+package mat.mat.mat.multirepo.change;
+
+import mat.mat.mat.multirepo.metrics.RepositoryMetrics;
+import mat.mat.mat.multirepo.transformer.EntityMetadata;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fingerprints of what was last written to one target repository, by entity id. A save whose
+ * transformed entity has the fingerprint of the last write of that id is left out. Fingerprints are
+ * recorded once the write commits, or right away outside a transaction, and dropped as soon as a
+ * delete of the id starts. Writes that do not go through the multi repository are not seen, so it
+ * only suits repositories nothing else writes to.
+ */
+public class ChangeDetector {
+
+    public enum Operation {
+        SAVE, SAVE_ALL, DELETE_BY_ID, DELETE, DELETE_ALL, CLEAR;
+
+        //deleteAll(), deleteAllInBatch and custom modifying methods drop every fingerprint
+        public static Operation of(final Method method){
+            final String name = method.getName();
+            final boolean single = method.getParameterCount() == 1;
+            final boolean iterable = single && Iterable.class.isAssignableFrom(method.getParameterTypes()[0]);
+
+            if (single && !iterable && (name.equals("save") || name.equals("saveAndFlush"))){
+                return SAVE;
+            }
+            if (iterable && name.equals("saveAll")){
+                return SAVE_ALL;
+            }
+            if (single && !iterable && name.equals("deleteById")){
+                return DELETE_BY_ID;
+            }
+            if (single && !iterable && name.equals("delete")){
+                return DELETE;
+            }
+            if (iterable && (name.equals("deleteAll") || name.equals("deleteInBatch"))){
+                return DELETE_ALL;
+            }
+            return CLEAR;
+        }
+    }
+
+    private final FingerprintTable fingerprints;
+    private final LongAdder skipped = new LongAdder();
+
+    public ChangeDetector(final int maxEntries) {
+        this.fingerprints = new FingerprintTable(maxEntries);
+    }
+
+    //the entities to write, leaving out those unchanged since their last write
+    public Changes changed(final Iterable entities, final RepositoryMetrics metrics){
+
+        final List<Object> changed = entities instanceof List ? new ArrayList<>(((List) entities).size()) : new ArrayList<>();
+        final Changes changes = new Changes(this, changed);
+
+        int unchanged = 0;
+        for (final Object entity : entities){
+            final Object id = entity != null ? EntityMetadata.identifier(entity) : null;
+            if (id == null){
+                changed.add(entity);
+                continue;
+            }
+            final long key = EntityFingerprint.key(id);
+            final long fingerprint = EntityFingerprint.of(entity);
+            if (fingerprints.matches(key, fingerprint)){
+                unchanged++;
+                continue;
+            }
+            changed.add(entity);
+            changes.add(key, fingerprint);
+        }
+
+        if (unchanged > 0){
+            skipped.add(unchanged);
+            metrics.recordSkipped(unchanged);
+        }
+        return changes;
+    }
+
+    public void deleted(final Object id){
+        if (id != null){
+            fingerprints.remove(EntityFingerprint.key(id));
+        }
+    }
+
+    public void deletedEntities(final Iterable entities){
+        for (final Object entity : entities){
+            if (entity != null){
+                deleted(EntityMetadata.identifier(entity));
+            }
+        }
+    }
+
+    public void clear(){
+        fingerprints.clear();
+    }
+
+    public long getSkipped(){
+        return skipped.sum();
+    }
+
+    public int getCapacity(){
+        return fingerprints.capacity();
+    }
+
+    /**
+     * Entities left to write after leaving out unchanged ones, with the fingerprints to record once written.
+     */
+    public static class Changes {
+
+        private final ChangeDetector detector;
+        private final List<Object> entities;
+        private long[] keys = new long[4];
+        private long[] values = new long[4];
+        private int size;
+
+        private Changes(final ChangeDetector detector, final List<Object> entities) {
+            this.detector = detector;
+            this.entities = entities;
+        }
+
+        //everything written and nothing recorded, when change detection is off
+        public static Changes all(final List<Object> entities){
+            return new Changes(null, entities);
+        }
+
+        public List<Object> getEntities(){
+            return Collections.unmodifiableList(entities);
+        }
+
+        public boolean isEmpty(){
+            return entities.isEmpty();
+        }
+
+        public void written(){
+            if (detector == null || size == 0){
+                return;
+            }
+            if (TransactionSynchronizationManager.isSynchronizationActive()){
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCommit() {
+                        record();
+                    }
+                });
+            } else {
+                record();
+            }
+        }
+
+        private void record(){
+            for (int i = 0; i < size; i++){
+                detector.fingerprints.put(keys[i], values[i]);
+            }
+        }
+
+        private void add(final long key, final long fingerprint){
+            if (size == keys.length){
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            keys[size] = key;
+            values[size] = fingerprint;
+            size++;
+        }
+
+    }
+
+}
@@ -0,0 +1,175 @@
+package mat.mat.mat.multirepo.change;
+
+import mat.mat.mat.multirepo.transformer.EntityMetadata;
+import mat.mat.mat.multirepo.transformer.JpaTransformerException;
+import org.springframework.util.ReflectionUtils;
+
+import javax.persistence.Transient;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 64-bit hash of the persistent state of an entity: its class and every field that is neither static,
+ * transient nor @Transient, read through method handles resolved once per class. Associated entities
+ * count by their id, embedded values and collections by their contents.
+ */
+public final class EntityFingerprint {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final int MAX_DEPTH = 8;
+    private static final long NULL = 0x9e3779b97f4a7c15L;
+
+    private static final ClassValue<MethodHandle[]> FIELDS = new ClassValue<MethodHandle[]>() {
+        @Override
+        protected MethodHandle[] computeValue(final Class<?> type) {
+            final List<MethodHandle> getters = new ArrayList<>();
+            for (Class clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()){
+                for (final Field field : clazz.getDeclaredFields()){
+                    if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers()) || field.isAnnotationPresent(Transient.class)){
+                        continue;
+                    }
+                    ReflectionUtils.makeAccessible(field);
+                    try {
+                        getters.add(MethodHandles.lookup().unreflectGetter(field).asType(GETTER_TYPE));
+                    } catch (IllegalAccessException e){
+                        throw new JpaTransformerException(e);
+                    }
+                }
+            }
+            return getters.toArray(new MethodHandle[0]);
+        }
+    };
+
+    private EntityFingerprint() {
+    }
+
+    public static long of(final Object entity){
+        return hash(entity, 0);
+    }
+
+    //64-bit key of an id, the value itself for integral ids
+    public static long key(final Object id){
+        if (id instanceof Long || id instanceof Integer || id instanceof Short || id instanceof Byte){
+            return ((Number) id).longValue();
+        }
+        return hash(id, 0);
+    }
+
+    private static long hash(final Object value, final int depth){
+
+        if (value == null){
+            return NULL;
+        }
+        if (value instanceof String){
+            return hash((String) value);
+        }
+        if (value instanceof Double || value instanceof Float){
+            return Double.doubleToLongBits(((Number) value).doubleValue());
+        }
+        if (value instanceof BigDecimal || value instanceof BigInteger){
+            return hash(value.toString());
+        }
+        if (value instanceof Number){
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Boolean){
+            return (Boolean) value ? 1 : 2;
+        }
+        if (value instanceof Character){
+            return (Character) value;
+        }
+        if (value instanceof Enum){
+            return hash(((Enum) value).name());
+        }
+        if (depth >= MAX_DEPTH){
+            //too deep to be worth it, or a cycle: never equal to a previous write
+            return System.nanoTime();
+        }
+        if (value.getClass().isArray()){
+            long h = Array.getLength(value);
+            for (int i = 0; i < Array.getLength(value); i++){
+                h = combine(h, hash(Array.get(value, i), depth + 1));
+            }
+            return h;
+        }
+        if (value instanceof Map){
+            //in no particular order
+            long h = ((Map) value).size();
+            for (final Object entry : ((Map) value).entrySet()){
+                h += combine(hash(((Map.Entry) entry).getKey(), depth + 1), hash(((Map.Entry) entry).getValue(), depth + 1));
+            }
+            return mix(h);
+        }
+        if (value instanceof Set){
+            long h = ((Set) value).size();
+            for (final Object element : (Set) value){
+                h += hash(element, depth + 1);
+            }
+            return mix(h);
+        }
+        if (value instanceof Iterable){
+            long h = 1;
+            for (final Object element : (Iterable) value){
+                h = combine(h, hash(element, depth + 1));
+            }
+            return h;
+        }
+
+        final Class type = value.getClass();
+        if (type.getName().startsWith("java.")){
+            return value.hashCode();
+        }
+
+        final EntityMetadata metadata = EntityMetadata.of(type);
+        if (depth > 0 && metadata.isEntity() && metadata.getIdentifier(value) != null){
+            return combine(hash(type.getName()), hash(metadata.getIdentifier(value), depth + 1));
+        }
+
+        long h = hash(type.getName());
+        for (final MethodHandle getter : FIELDS.get(type)){
+            h = combine(h, hash(get(getter, value), depth + 1));
+        }
+        return h;
+    }
+
+    private static Object get(final MethodHandle getter, final Object value){
+        try {
+            return (Object) getter.invokeExact(value);
+        } catch (Error | RuntimeException e){
+            throw e;
+        } catch (Throwable e){
+            throw new JpaTransformerException(e);
+        }
+    }
+
+    private static long hash(final String value){
+        //FNV-1a over the chars
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++){
+            h = (h ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long combine(final long h, final long value){
+        return mix(h * 31 + value);
+    }
+
+    //murmur3 finalizer
+    public static long mix(long z){
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+}
@@ -0,0 +1,98 @@
+package mat.mat.mat.multirepo.change;
+
+/**
+ * Bounded map of long keys to long fingerprints held in two arrays. Keys hash to a bucket of a few
+ * slots and a full bucket overwrites one of them, so the table never grows past its capacity and
+ * losing an entry only costs a write that could have been skipped. 0 marks an empty slot.
+ */
+class FingerprintTable {
+
+    private static final int WAYS = 4;
+    private static final int STRIPES = 64;
+
+    private final long[] keys;
+    private final long[] fingerprints;
+    private final int mask;
+    private final Object[] locks = new Object[STRIPES];
+
+    FingerprintTable(final int maxEntries) {
+        final int buckets = Integer.highestOneBit(Math.max(1, maxEntries / WAYS));
+        this.keys = new long[buckets * WAYS];
+        this.fingerprints = new long[buckets * WAYS];
+        this.mask = buckets - 1;
+        for (int i = 0; i < STRIPES; i++){
+            locks[i] = new Object();
+        }
+    }
+
+    boolean matches(final long key, final long fingerprint){
+        final int bucket = bucket(key);
+        synchronized (locks[bucket & (STRIPES - 1)]){
+            final int slot = find(bucket * WAYS, key);
+            return slot >= 0 && fingerprints[slot] == stored(fingerprint);
+        }
+    }
+
+    void put(final long key, final long fingerprint){
+        final int bucket = bucket(key);
+        final int base = bucket * WAYS;
+        final long value = stored(fingerprint);
+        synchronized (locks[bucket & (STRIPES - 1)]){
+            int slot = find(base, key);
+            for (int i = base; slot < 0 && i < base + WAYS; i++){
+                if (fingerprints[i] == 0){
+                    slot = i;
+                }
+            }
+            if (slot < 0){
+                slot = base + (int) (value & (WAYS - 1));
+            }
+            keys[slot] = key;
+            fingerprints[slot] = value;
+        }
+    }
+
+    void remove(final long key){
+        final int bucket = bucket(key);
+        synchronized (locks[bucket & (STRIPES - 1)]){
+            final int slot = find(bucket * WAYS, key);
+            if (slot >= 0){
+                fingerprints[slot] = 0;
+            }
+        }
+    }
+
+    void clear(){
+        for (int stripe = 0; stripe < STRIPES; stripe++){
+            synchronized (locks[stripe]){
+                for (int bucket = stripe; bucket <= mask; bucket += STRIPES){
+                    for (int slot = bucket * WAYS; slot < bucket * WAYS + WAYS; slot++){
+                        fingerprints[slot] = 0;
+                    }
+                }
+            }
+        }
+    }
+
+    int capacity(){
+        return keys.length;
+    }
+
+    private int find(final int base, final long key){
+        for (int slot = base; slot < base + WAYS; slot++){
+            if (fingerprints[slot] != 0 && keys[slot] == key){
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private static long stored(final long fingerprint){
+        return fingerprint != 0 ? fingerprint : 1;
+    }
+
+    private int bucket(final long key){
+        return (int) EntityFingerprint.mix(key) & mask;
+    }
+
+}
@@ -0,0 +1,240 @@
+package mat.mat.mat.multirepo.jdbc;
+
+import mat.mat.mat.multirepo.annotation.JdbcWrites;
+import org.hibernate.StatelessSession;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.Assigned;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.EntityManagerFactoryInfo;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes entities of one class with a JDBC batch statement derived once from their Hibernate mapping,
+ * bypassing the merge or persist decision, the select before insert and the dirty checking of a JPA save.
+ * Values are bound with the mapping's own types, so converters and enum mappings apply as they would
+ * through the repository. Entities written this way are not in the persistence context; a transaction
+ * that read them before sees the values it read. What the transaction's persistence context still holds
+ * is flushed first, so the batch lands after the JPA writes made before it.
+ */
+public final class JdbcEntityWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(JdbcEntityWriter.class);
+
+    private final Class entityClass;
+    private final EntityManagerFactory entityManagerFactory;
+    private final String sql;
+    private final SessionFactoryImplementor sessionFactory;
+    private final EntityPersister persister;
+    private final Column[] columns;
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+
+    private JdbcEntityWriter(final Class entityClass, final EntityManagerFactory entityManagerFactory, final String sql, final SessionFactoryImplementor sessionFactory,
+                             final EntityPersister persister, final Column[] columns, final JdbcTemplate jdbcTemplate, final int batchSize) {
+        this.entityClass = entityClass;
+        this.entityManagerFactory = entityManagerFactory;
+        this.sql = sql;
+        this.sessionFactory = sessionFactory;
+        this.persister = persister;
+        this.columns = columns;
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    //null when the mapping is one this writer cannot reproduce, saves then go through the repository
+    public static JdbcEntityWriter of(final EntityManagerFactory entityManagerFactory, final Class entityClass, final JdbcWrites mode, final int batchSize){
+
+        if (mode == JdbcWrites.JPA || !(entityManagerFactory instanceof EntityManagerFactoryInfo) || ((EntityManagerFactoryInfo) entityManagerFactory).getDataSource() == null){
+            return null;
+        }
+
+        final SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        final EntityPersister persister = sessionFactory.getMetamodel().entityPersister(entityClass);
+        final String unsupported = unsupported(persister);
+        if (unsupported != null){
+            logger.info("Saves of {} go through JPA, {}", entityClass.getSimpleName(), unsupported);
+            return null;
+        }
+
+        final AbstractEntityPersister mapping = (AbstractEntityPersister) persister;
+        final List<Column> columns = new ArrayList<>();
+        final String id = mapping.getIdentifierColumnNames()[0];
+        columns.add(new Column(id, -1, persister.getIdentifierType(), null));
+
+        final Type[] types = persister.getPropertyTypes();
+        final boolean[] insertable = persister.getPropertyInsertability();
+        for (int i = 0; i < types.length; i++){
+            final String[] names = mapping.getPropertyColumnNames(i);
+            //inverse one to ones and formulas have nothing to insert
+            if (!insertable[i] || names.length == 0){
+                continue;
+            }
+            if (types[i].isComponentType() || names.length > 1 || types[i].isEntityType() && !((EntityType) types[i]).isReferenceToPrimaryKey()){
+                logger.info("Saves of {} go through JPA, {} maps to more than one column or no primary key", entityClass.getSimpleName(), persister.getPropertyNames()[i]);
+                return null;
+            }
+            if (types[i].isEntityType()){
+                final EntityType reference = (EntityType) types[i];
+                columns.add(new Column(names[0], i, reference.getIdentifierOrUniqueKeyType(sessionFactory),
+                        sessionFactory.getMetamodel().entityPersister(reference.getAssociatedEntityName())));
+            } else {
+                columns.add(new Column(names[0], i, types[i], null));
+            }
+        }
+
+        final String sql = statement(sessionFactory.getJdbcServices().getDialect(), mode, mapping.getTableName(), id, columns);
+        if (sql == null){
+            logger.info("Saves of {} go through JPA, {} has no upsert this writer knows", entityClass.getSimpleName(), sessionFactory.getJdbcServices().getDialect());
+            return null;
+        }
+
+        return new JdbcEntityWriter(entityClass, entityManagerFactory, sql, sessionFactory, persister, columns.toArray(new Column[0]),
+                new JdbcTemplate(((EntityManagerFactoryInfo) entityManagerFactory).getDataSource()), batchSize);
+    }
+
+    public String getSql(){
+        return sql;
+    }
+
+    public void write(final Iterable entities){
+        //a delete or insert the transaction queued earlier would otherwise run after the batch, undoing it or breaking its foreign keys
+        final EntityManager transactional = EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory);
+        if (transactional != null && transactional.isJoinedToTransaction()){
+            transactional.flush();
+        }
+
+        jdbcTemplate.execute((ConnectionCallback<Object>) connection -> {
+            //only lends the mapping types the session they bind with, the connection stays the template's
+            try (StatelessSession session = sessionFactory.withStatelessOptions().connection(connection).openStatelessSession();
+                 PreparedStatement statement = connection.prepareStatement(sql)){
+                int pending = 0;
+                for (final Object entity : entities){
+                    bind(statement, entity, (SharedSessionContractImplementor) session);
+                    statement.addBatch();
+                    if (++pending == batchSize){
+                        statement.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0){
+                    statement.executeBatch();
+                }
+            }
+            return null;
+        });
+    }
+
+    private void bind(final PreparedStatement statement, final Object entity, final SharedSessionContractImplementor session) throws SQLException {
+
+        if (entity == null || entity.getClass() != entityClass){
+            throw new IllegalArgumentException("Expected an entity of " + entityClass.getName() + " but got " + (entity != null ? entity.getClass().getName() : null));
+        }
+
+        for (int i = 0; i < columns.length; i++){
+            final Column column = columns[i];
+            Object value = column.property < 0 ? persister.getIdentifier(entity, session) : persister.getPropertyValue(entity, column.property);
+            if (column.reference != null && value != null){
+                value = value instanceof HibernateProxy
+                        ? ((HibernateProxy) value).getHibernateLazyInitializer().getIdentifier()
+                        : column.reference.getIdentifier(value, session);
+            }
+            column.type.nullSafeSet(statement, value, i + 1, session);
+        }
+    }
+
+    private static String unsupported(final EntityPersister persister){
+        if (!(persister instanceof AbstractEntityPersister) || ((AbstractEntityPersister) persister).isMultiTable()){
+            return "it is mapped to more than one table";
+        }
+        if (persister.getEntityMetamodel().isPolymorphic() || persister.getEntityMetamodel().isInherited()){
+            return "it is part of an inheritance hierarchy";
+        }
+        if (!(persister.getIdentifierGenerator() instanceof Assigned) || persister.getIdentifierType().isComponentType()){
+            return "its id is generated or composite";
+        }
+        if (persister.isVersioned()){
+            return "it is versioned and a batch statement would skip the optimistic lock check";
+        }
+        //a statement for the entity's own row would leave out what the repository writes with it
+        for (final Type type : persister.getPropertyTypes()){
+            if (type.isCollectionType()){
+                return "it has collections, which a statement for its own row cannot write";
+            }
+        }
+        if (persister.getEntityMetamodel().hasCascades()){
+            return "its associations cascade";
+        }
+        return null;
+    }
+
+    private static String statement(final Dialect dialect, final JdbcWrites mode, final String table, final String id, final List<Column> columns){
+
+        final StringBuilder names = new StringBuilder();
+        final StringBuilder values = new StringBuilder();
+        for (final Column column : columns){
+            names.append(names.length() > 0 ? ", " : "").append(column.name);
+            values.append(values.length() > 0 ? ", " : "").append('?');
+        }
+
+        if (mode == JdbcWrites.INSERT){
+            return "insert into " + table + " (" + names + ") values (" + values + ")";
+        }
+        if (dialect instanceof H2Dialect){
+            return "merge into " + table + " (" + names + ") key (" + id + ") values (" + values + ")";
+        }
+
+        final StringBuilder updates = new StringBuilder();
+        final boolean postgres = dialect instanceof PostgreSQL81Dialect;
+        for (final Column column : columns.subList(1, columns.size())){
+            updates.append(updates.length() > 0 ? ", " : "").append(column.name).append(" = ")
+                    .append(postgres ? "excluded." + column.name : "values(" + column.name + ")");
+        }
+        if (postgres){
+            return "insert into " + table + " (" + names + ") values (" + values + ") on conflict (" + id + ") "
+                    + (updates.length() > 0 ? "do update set " + updates : "do nothing");
+        }
+        if (dialect instanceof MySQLDialect){
+            return "insert into " + table + " (" + names + ") values (" + values + ") on duplicate key update "
+                    + (updates.length() > 0 ? updates : id + " = " + id);
+        }
+        return null;
+    }
+
+    private static final class Column {
+
+        private final String name;
+        //index of the mapped property, -1 for the id
+        private final int property;
+        private final Type type;
+        //persister of the referenced entity when the column is a foreign key
+        private final EntityPersister reference;
+
+        private Column(final String name, final int property, final Type type, final EntityPersister reference) {
+            this.name = name;
+            this.property = property;
+            this.type = type;
+            this.reference = reference;
+        }
+    }
+
+}
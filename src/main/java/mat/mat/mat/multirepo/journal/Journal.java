@@ -0,0 +1,345 @@
+package mat.mat.mat.multirepo.journal;
+
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of records in memory mapped segment files, positions being byte offsets across all
+ * segments. An append is durable once it returns: callers appending at the same time share one fsync.
+ * With a sync interval appends return at once and are made durable on the interval instead.
+ * Each consumer reads from its own checkpoint, and segments every consumer has read past are deleted.
+ */
+public class Journal implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Journal.class);
+
+    @Getter
+    private final String name;
+    @Getter
+    private final Path directory;
+    private final JournalSettings settings;
+
+    private final ConcurrentSkipListMap<Long, JournalSegment> segments = new ConcurrentSkipListMap<>();
+    private final Map<String, Long> consumers = new ConcurrentHashMap<>();
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Condition appended = appendLock.newCondition();
+    private final CRC32 crc = new CRC32();
+    private volatile JournalSegment active;
+    private ByteBuffer activeView;
+    private int activePosition;
+    private volatile long written;
+
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition synced = syncLock.newCondition();
+    private boolean syncing;
+    private volatile long durable;
+
+    private final ScheduledExecutorService syncer;
+    private volatile boolean closed;
+
+    private Journal(final Path directory, final String name, final JournalSettings settings) throws IOException {
+        this.name = name;
+        this.directory = directory;
+        this.settings = settings;
+
+        recover();
+
+        if (settings.getSyncIntervalMillis() > 0){
+            final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("multi-repository-journal-" + name + "-");
+            threadFactory.setDaemon(true);
+            this.syncer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            this.syncer.scheduleWithFixedDelay(() -> sync(written), settings.getSyncIntervalMillis(), settings.getSyncIntervalMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            this.syncer = null;
+        }
+    }
+
+    public static Journal open(final Path directory, final String name, final JournalSettings settings){
+        try {
+            Files.createDirectories(directory);
+            return new Journal(directory, name, settings);
+        } catch (IOException e){
+            throw new JournalException("Cannot open journal " + name + " in " + directory, e);
+        }
+    }
+
+    //position after the last appended record
+    public long getWritten(){
+        return written;
+    }
+
+    //position up to which the records are on disk
+    public long getDurable(){
+        return durable;
+    }
+
+    public long append(final List<byte[]> records){
+
+        final long end;
+
+        appendLock.lock();
+        try {
+            if (closed){
+                throw new JournalException("Journal " + name + " is closed");
+            }
+            for (final byte[] record : records){
+                write(record);
+            }
+            end = active.getBase() + activePosition;
+            written = end;
+            appended.signalAll();
+        } catch (IOException e){
+            throw new JournalException("Cannot append to journal " + name, e);
+        } finally {
+            appendLock.unlock();
+        }
+
+        if (syncer == null){
+            sync(end);
+        }
+        return end;
+    }
+
+    public long append(final byte[] record){
+        return append(Collections.singletonList(record));
+    }
+
+    //reads from the consumer's checkpoint
+    public JournalReader reader(final String consumer){
+
+        final JournalCheckpoint checkpoint = new JournalCheckpoint(directory.resolve(name + "-" + consumer + JournalCheckpoint.SUFFIX));
+        long position = checkpoint.read();
+
+        if (position < segments.firstKey()){
+            //new consumer, or the checkpoint of a journal since deleted
+            position = segments.firstKey();
+        } else if (position > written){
+            logger.warn("Checkpoint {} of {} is past the end of journal {}, reading from {}", position, consumer, name, written);
+            position = written;
+        }
+
+        consumers.put(consumer, position);
+        return new JournalReader(this, consumer, checkpoint, position);
+    }
+
+    private void write(final byte[] record) throws IOException {
+
+        if (record.length > settings.getSegmentSize() - JournalSegment.HEADER){
+            throw new JournalException("Record of " + record.length + " bytes does not fit a journal segment of " + settings.getSegmentSize() + " bytes");
+        }
+        if (active.getCapacity() - activePosition < JournalSegment.HEADER + record.length){
+            roll();
+        }
+
+        crc.reset();
+        crc.update(record, 0, record.length);
+        activeView.putInt(activePosition + 4, (int) crc.getValue());
+        activeView.position(activePosition + JournalSegment.HEADER);
+        activeView.put(record);
+        //length last, a record is only seen once complete
+        activeView.putInt(activePosition, record.length);
+        activePosition += JournalSegment.HEADER + record.length;
+    }
+
+    private void roll() throws IOException {
+        if (active.getCapacity() - activePosition >= 4){
+            activeView.putInt(activePosition, JournalSegment.ROLL);
+        }
+
+        //nothing is appended to it any more, so it is made durable once here
+        active.force();
+        activate(JournalSegment.create(directory, name, active.end(), settings.getSegmentSize()), 0);
+    }
+
+    private void activate(final JournalSegment segment, final int position){
+        segments.put(segment.getBase(), segment);
+        activeView = segment.view();
+        activePosition = position;
+        active = segment;
+    }
+
+    private void sync(final long position){
+        syncLock.lock();
+        try {
+            while (durable < position){
+                if (syncing){
+                    synced.awaitUninterruptibly();
+                    continue;
+                }
+
+                //lead: one force covers every record appended so far, whoever is waiting for it
+                syncing = true;
+                final long target = written;
+                syncLock.unlock();
+                try {
+                    active.force();
+                } finally {
+                    syncLock.lock();
+                    syncing = false;
+                    synced.signalAll();
+                }
+                durable = Math.max(durable, target);
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    long awaitWritten(final long position, final long timeoutNanos) throws InterruptedException {
+        if (written > position || timeoutNanos <= 0){
+            return written;
+        }
+
+        appendLock.lock();
+        try {
+            long remaining = timeoutNanos;
+            while (written <= position && remaining > 0 && !closed){
+                remaining = appended.awaitNanos(remaining);
+            }
+            return written;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    JournalSegment segment(final long position){
+        final Map.Entry<Long, JournalSegment> entry = segments.floorEntry(position);
+        if (entry == null || position >= entry.getValue().end()){
+            throw new JournalException("Position " + position + " is not in journal " + name);
+        }
+        return entry.getValue();
+    }
+
+    //the consumer is done with everything before position
+    void release(final String consumer, final long position){
+        consumers.put(consumer, position);
+
+        final long released = Collections.min(consumers.values());
+        for (final JournalSegment segment : segments.values()){
+            if (segment.end() > released || segment == active){
+                break;
+            }
+            if (segments.remove(segment.getBase(), segment)){
+                try {
+                    segment.delete();
+                } catch (IOException e){
+                    logger.warn("Cannot delete journal segment {}", segment.getPath(), e);
+                }
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name + "-*" + JournalSegment.SUFFIX)){
+            for (final Path file : files){
+                final String fileName = file.getFileName().toString();
+                final String base = fileName.substring(name.length() + 1, fileName.length() - JournalSegment.SUFFIX.length());
+                if (base.matches("\\d+")){
+                    segments.put(Long.parseLong(base), JournalSegment.open(file, Long.parseLong(base)));
+                }
+            }
+        }
+
+        if (segments.isEmpty()){
+            activate(JournalSegment.create(directory, name, 0, settings.getSegmentSize()), 0);
+        } else {
+            //only the last segment can end in a partly written record
+            final JournalSegment last = segments.lastEntry().getValue();
+            final int end = scan(last);
+
+            if (end < 0 || last.getCapacity() - end < JournalSegment.HEADER){
+                activate(JournalSegment.create(directory, name, last.end(), settings.getSegmentSize()), 0);
+            } else {
+                activate(last, end);
+            }
+        }
+
+        written = active.getBase() + activePosition;
+        durable = written;
+        logger.info("Journal {} opened in {}, {} segments, writing at {}", name, directory, segments.size(), written);
+    }
+
+    //position after the last whole record, -1 when the segment was rolled
+    private int scan(final JournalSegment segment){
+
+        final ByteBuffer view = segment.view();
+        int position = 0;
+
+        while (segment.getCapacity() - position >= JournalSegment.HEADER){
+            final int length = view.getInt(position);
+            if (length == 0){
+                break;
+            }
+            if (length == JournalSegment.ROLL){
+                return -1;
+            }
+            if (length < 0 || length > segment.getCapacity() - position - JournalSegment.HEADER || view.getInt(position + 4) != crc(view, position + JournalSegment.HEADER, length)){
+                logger.warn("Journal {} ends in a torn record at {}, discarding it", name, segment.getBase() + position);
+                for (int i = position; i < segment.getCapacity(); i++){
+                    view.put(i, (byte) 0);
+                }
+                segment.force();
+                break;
+            }
+            position += JournalSegment.HEADER + length;
+        }
+
+        return position;
+    }
+
+    private int crc(final ByteBuffer view, final int position, final int length){
+        final ByteBuffer payload = view.duplicate();
+        payload.limit(position + length);
+        payload.position(position);
+        crc.reset();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public void close() {
+        appendLock.lock();
+        try {
+            closed = true;
+            appended.signalAll();
+        } finally {
+            appendLock.unlock();
+        }
+
+        if (syncer != null){
+            syncer.shutdown();
+        }
+        sync(written);
+
+        for (final JournalSegment segment : segments.values()){
+            try {
+                segment.close();
+            } catch (IOException e){
+                logger.warn("Cannot close journal segment {}", segment.getPath(), e);
+            }
+        }
+    }
+
+}
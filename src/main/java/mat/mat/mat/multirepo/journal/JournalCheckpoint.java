@@ -0,0 +1,51 @@
+package mat.mat.mat.multirepo.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Position a consumer has read the journal up to, replaced atomically so a crash leaves either the
+ * previous or the new position.
+ */
+class JournalCheckpoint {
+
+    static final String SUFFIX = ".checkpoint";
+
+    private final Path path;
+    private final Path next;
+
+    JournalCheckpoint(final Path path) {
+        this.path = path;
+        this.next = path.resolveSibling(path.getFileName() + ".next");
+    }
+
+    long read(){
+        if (!Files.exists(path)){
+            return 0;
+        }
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(path), StandardCharsets.US_ASCII).trim());
+        } catch (IOException | NumberFormatException e){
+            throw new JournalException("Cannot read journal checkpoint " + path, e);
+        }
+    }
+
+    void write(final long position){
+        try {
+            try (FileChannel channel = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+                channel.write(ByteBuffer.wrap(Long.toString(position).getBytes(StandardCharsets.US_ASCII)));
+                channel.force(true);
+            }
+            Files.move(next, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e){
+            throw new JournalException("Cannot write journal checkpoint " + path, e);
+        }
+    }
+
+}
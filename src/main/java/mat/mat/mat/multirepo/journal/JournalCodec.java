@@ -0,0 +1,114 @@
+package mat.mat.mat.multirepo.journal;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import mat.mat.mat.multirepo.transformer.LazyView;
+import org.springframework.util.ClassUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a repository call as JSON: the method, then each argument with its class. Arguments that
+ * are collections are written element by element, each with its class. By default objects are
+ * written field by field, so they need no getters or setters, only a no argument constructor.
+ * Declare a JournalCodec bean to use another ObjectMapper.
+ */
+public class JournalCodec {
+
+    private final ObjectMapper objectMapper;
+    private final ClassLoader classLoader;
+
+    public JournalCodec() {
+        this(new ObjectMapper()
+                .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
+                .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .findAndRegisterModules());
+    }
+
+    public JournalCodec(final ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.classLoader = ClassUtils.getDefaultClassLoader();
+    }
+
+    public byte[] encode(final String method, final Object[] args){
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)){
+            generator.writeStartObject();
+            generator.writeStringField("method", method);
+            generator.writeArrayFieldStart("args");
+            if (args != null){
+                for (final Object arg : args){
+                    writeArgument(generator, arg);
+                }
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        } catch (IOException e){
+            throw new JournalException("Cannot write the arguments of " + method + " to the journal", e);
+        }
+        return out.toByteArray();
+    }
+
+    public JournalRecord decode(final byte[] record){
+        try {
+            final JsonNode node = objectMapper.readTree(record);
+            final JsonNode argNodes = node.get("args");
+            final Object[] args = new Object[argNodes.size()];
+            for (int i = 0; i < args.length; i++){
+                args[i] = readArgument(argNodes.get(i));
+            }
+            return new JournalRecord(node.get("method").asText(), args);
+        } catch (IOException | ClassNotFoundException e){
+            throw new JournalException("Cannot read a journal record", e);
+        }
+    }
+
+    private void writeArgument(final JsonGenerator generator, final Object arg) throws IOException {
+        if (arg == null){
+            generator.writeNull();
+            return;
+        }
+
+        generator.writeStartObject();
+        if (arg instanceof Iterable){
+            generator.writeArrayFieldStart("elements");
+            for (final Object element : (Iterable) arg){
+                writeArgument(generator, element);
+            }
+            generator.writeEndArray();
+        } else {
+            //a lazy read's view is written as its domain class, loaded whole
+            final Class type = ClassUtils.getUserClass(arg);
+            LazyView.load(arg);
+            generator.writeStringField("type", type.getName());
+            generator.writeFieldName("value");
+            objectMapper.writerFor(type).writeValue(generator, arg);
+        }
+        generator.writeEndObject();
+    }
+
+    private Object readArgument(final JsonNode node) throws IOException, ClassNotFoundException {
+        if (node.isNull()){
+            return null;
+        }
+
+        if (node.has("elements")){
+            final List<Object> elements = new ArrayList<>(node.get("elements").size());
+            for (final JsonNode element : node.get("elements")){
+                elements.add(readArgument(element));
+            }
+            return elements;
+        }
+
+        return objectMapper.treeToValue(node.get("value"), ClassUtils.forName(node.get("type").asText(), classLoader));
+    }
+
+}
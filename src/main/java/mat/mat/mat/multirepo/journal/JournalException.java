@@ -0,0 +1,12 @@
+package mat.mat.mat.multirepo.journal;
+
+public class JournalException extends RuntimeException {
+
+    public JournalException(final String message) {
+        super(message);
+    }
+
+    public JournalException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
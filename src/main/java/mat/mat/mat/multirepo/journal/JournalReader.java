@@ -0,0 +1,81 @@
+package mat.mat.mat.multirepo.journal;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Cursor of one consumer over the journal. Not thread safe, each consumer reads on its own thread.
+ */
+public class JournalReader {
+
+    private final Journal journal;
+    @Getter
+    private final String consumer;
+    private final JournalCheckpoint checkpoint;
+    private final CRC32 crc = new CRC32();
+    @Getter
+    private long position;
+    private JournalSegment segment;
+    private ByteBuffer view;
+
+    JournalReader(final Journal journal, final String consumer, final JournalCheckpoint checkpoint, final long position) {
+        this.journal = journal;
+        this.consumer = consumer;
+        this.checkpoint = checkpoint;
+        this.position = position;
+    }
+
+    //the next record, or null when none is appended within the timeout
+    public byte[] next(final long timeout, final TimeUnit unit) throws InterruptedException {
+
+        final long written = journal.awaitWritten(position, unit.toNanos(timeout));
+
+        while (position < written){
+            if (segment == null || position >= segment.end()){
+                segment = journal.segment(position);
+                view = segment.view();
+            }
+
+            final int offset = (int) (position - segment.getBase());
+            if (segment.getCapacity() - offset < JournalSegment.HEADER || view.getInt(offset) == JournalSegment.ROLL){
+                position = segment.end();
+                continue;
+            }
+
+            final int length = view.getInt(offset);
+            if (length <= 0 || length > segment.getCapacity() - offset - JournalSegment.HEADER){
+                throw corrupt();
+            }
+
+            final byte[] record = new byte[length];
+            final ByteBuffer payload = view.duplicate();
+            payload.position(offset + JournalSegment.HEADER);
+            payload.get(record);
+
+            crc.reset();
+            crc.update(record, 0, length);
+            if ((int) crc.getValue() != view.getInt(offset + 4)){
+                throw corrupt();
+            }
+
+            position += JournalSegment.HEADER + length;
+            return record;
+        }
+
+        return null;
+    }
+
+    //records before position are not read again after a restart, nor kept for this consumer
+    public void checkpoint(final long position){
+        checkpoint.write(position);
+        journal.release(consumer, position);
+    }
+
+    private JournalException corrupt(){
+        return new JournalException("Corrupt record at " + position + " in journal " + journal.getName());
+    }
+
+}
@@ -0,0 +1,19 @@
+package mat.mat.mat.multirepo.journal;
+
+import lombok.Getter;
+
+/**
+ * A repository call read back from the journal.
+ */
+@Getter
+public class JournalRecord {
+
+    private final String method;
+    private final Object[] args;
+
+    public JournalRecord(final String method, final Object[] args) {
+        this.method = method;
+        this.args = args;
+    }
+
+}
@@ -0,0 +1,75 @@
+package mat.mat.mat.multirepo.journal;
+
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One memory mapped file of the journal, holding the records from its base position on.
+ * A record is its payload length, the CRC32 of the payload, then the payload. A length of 0 marks
+ * the end of what was written and ROLL that the next record is in the next segment.
+ */
+@Getter
+class JournalSegment implements Closeable {
+
+    static final int HEADER = 8;
+    static final int ROLL = -1;
+    static final String SUFFIX = ".journal";
+
+    private final Path path;
+    private final long base;
+    private final int capacity;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private JournalSegment(final Path path, final long base, final int capacity) throws IOException {
+        this.path = path;
+        this.base = base;
+        this.capacity = capacity;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    static JournalSegment create(final Path directory, final String name, final long base, final int capacity) throws IOException {
+        return new JournalSegment(directory.resolve(fileName(name, base)), base, capacity);
+    }
+
+    //an existing segment keeps its own size, whatever the current settings
+    static JournalSegment open(final Path path, final long base) throws IOException {
+        return new JournalSegment(path, base, (int) Files.size(path));
+    }
+
+    static String fileName(final String name, final long base){
+        return String.format("%s-%020d%s", name, base, SUFFIX);
+    }
+
+    long end(){
+        return base + capacity;
+    }
+
+    ByteBuffer view(){
+        return buffer.duplicate();
+    }
+
+    void force(){
+        buffer.force();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,29 @@
+package mat.mat.mat.multirepo.journal;
+
+import lombok.Builder;
+import lombok.Getter;
+
+@Getter
+@Builder
+public class JournalSettings {
+
+    @Builder.Default
+    private final String directory = "multi-repository-journal";
+    @Builder.Default
+    private final int segmentSize = 64 * 1024 * 1024;
+    //0 makes every append durable before it returns, sharing one fsync between concurrent appends
+    @Builder.Default
+    private final long syncIntervalMillis = 0;
+    @Builder.Default
+    private final int replayBatchSize = 500;
+    @Builder.Default
+    private final long checkpointIntervalMillis = 1000;
+    //0 retries a failed replay until it succeeds, holding back every record after it
+    @Builder.Default
+    private final int maxRetries = 10;
+    @Builder.Default
+    private final long retryBackoffMillis = 100;
+    @Builder.Default
+    private final long shutdownTimeoutMillis = 30000;
+
+}
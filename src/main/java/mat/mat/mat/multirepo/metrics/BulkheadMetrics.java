@@ -0,0 +1,103 @@
+package mat.mat.mat.multirepo.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Concurrency limit, calls in flight, circuit breaker state and rejections of the bulkhead of one target
+ * repository, with the writes left out or deferred while its circuit breaker was open.
+ */
+@Getter
+public class BulkheadMetrics {
+
+    private final String name;
+    private final String repositoryName;
+    private final IntSupplier limit;
+    private final IntSupplier inFlight;
+    private final Supplier<? extends Enum> state;
+    private volatile Counter limitRejections;
+    private volatile Counter openRejections;
+    private volatile Counter timeouts;
+    private volatile Counter skipped;
+    private volatile Counter deferred;
+
+    BulkheadMetrics(final String name, final String repositoryName, final IntSupplier limit, final IntSupplier inFlight, final Supplier<? extends Enum> state) {
+        this.name = name;
+        this.repositoryName = repositoryName;
+        this.limit = limit;
+        this.inFlight = inFlight;
+        this.state = state;
+    }
+
+    public void recordRejected(final boolean circuitOpen){
+        increment(circuitOpen ? openRejections : limitRejections);
+    }
+
+    public void recordTimeout(){
+        increment(timeouts);
+    }
+
+    public void recordSkipped(){
+        increment(skipped);
+    }
+
+    public void recordDeferred(){
+        increment(deferred);
+    }
+
+    private void increment(final Counter counter){
+        if (counter != null){
+            counter.increment();
+        }
+    }
+
+    void bind(final MeterRegistry registry){
+        Gauge.builder(MultiRepositoryMetrics.BULKHEAD_LIMIT, limit, IntSupplier::getAsInt)
+                .description("Concurrency limit of the target repositories")
+                .tag("repository", name)
+                .tag("target", repositoryName)
+                .register(registry);
+        Gauge.builder(MultiRepositoryMetrics.BULKHEAD_IN_FLIGHT, inFlight, IntSupplier::getAsInt)
+                .description("Calls in flight to the target repositories")
+                .tag("repository", name)
+                .tag("target", repositoryName)
+                .register(registry);
+        Gauge.builder(MultiRepositoryMetrics.BULKHEAD_STATE, state, current -> current.get().ordinal())
+                .description("Circuit breaker state of the target repositories, 0 closed, 1 open, 2 half open")
+                .tag("repository", name)
+                .tag("target", repositoryName)
+                .register(registry);
+        limitRejections = rejections(registry, "limit");
+        openRejections = rejections(registry, "open");
+        timeouts = Counter.builder(MultiRepositoryMetrics.BULKHEAD_TIMEOUTS)
+                .description("Calls to the target repositories slower than their timeout")
+                .tag("repository", name)
+                .tag("target", repositoryName)
+                .register(registry);
+        skipped = Counter.builder(MultiRepositoryMetrics.BULKHEAD_SKIPPED)
+                .description("Writes left out because the circuit breaker of the target repository was open")
+                .tag("repository", name)
+                .tag("target", repositoryName)
+                .register(registry);
+        deferred = Counter.builder(MultiRepositoryMetrics.BULKHEAD_DEFERRED)
+                .description("Writes queued because the circuit breaker of the target repository was open")
+                .tag("repository", name)
+                .tag("target", repositoryName)
+                .register(registry);
+    }
+
+    private Counter rejections(final MeterRegistry registry, final String reason){
+        return Counter.builder(MultiRepositoryMetrics.BULKHEAD_REJECTED)
+                .description("Calls to the target repositories rejected by their bulkhead")
+                .tag("repository", name)
+                .tag("target", repositoryName)
+                .tag("reason", reason)
+                .register(registry);
+    }
+
+}
@@ -0,0 +1,66 @@
+package mat.mat.mat.multirepo.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Lag and records of the replay of a journal to one target repository, and whether it has stopped.
+ * Read from the replayer when published.
+ */
+@Getter
+public class JournalMetrics {
+
+    private final String name;
+    private final String repositoryName;
+    private final Replayer replayer;
+
+    JournalMetrics(final String name, final String repositoryName, final Replayer replayer) {
+        this.name = name;
+        this.repositoryName = repositoryName;
+        this.replayer = replayer;
+    }
+
+    void bind(final MeterRegistry registry){
+        Gauge.builder(MultiRepositoryMetrics.JOURNAL_LAG, replayer, Replayer::getLag)
+                .description("Journal not yet replayed to the target repositories")
+                .baseUnit("bytes")
+                .tags("repository", name, "target", repositoryName)
+                .register(registry);
+        Gauge.builder(MultiRepositoryMetrics.JOURNAL_STOPPED, replayer, current -> current.isStopped() ? 1 : 0)
+                .description("1 once replay to the target repositories has stopped until a restart")
+                .tags("repository", name, "target", repositoryName)
+                .register(registry);
+        records(registry, "replayed", Replayer::getReplayed);
+        records(registry, "failed", Replayer::getFailed);
+        FunctionCounter.builder(MultiRepositoryMetrics.JOURNAL_RETRIES, replayer, Replayer::getRetries)
+                .description("Retried journal writes to the target repositories")
+                .tags("repository", name, "target", repositoryName)
+                .register(registry);
+    }
+
+    private void records(final MeterRegistry registry, final String outcome, final ToDoubleFunction<Replayer> count){
+        FunctionCounter.builder(MultiRepositoryMetrics.JOURNAL_WRITES, replayer, count)
+                .description("Journaled writes replayed to the target repositories, by outcome")
+                .tags("repository", name, "target", repositoryName, "outcome", outcome)
+                .register(registry);
+    }
+
+    public interface Replayer {
+
+        long getLag();
+
+        boolean isStopped();
+
+        long getReplayed();
+
+        long getFailed();
+
+        long getRetries();
+
+    }
+
+}
@@ -0,0 +1,71 @@
+package mat.mat.mat.multirepo.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of one multi repository method, the spread between its fastest and slowest repository on
+ * fan out writes, and the recorders of each of its target repositories.
+ */
+@Getter
+public class MethodMetrics {
+
+    private final String name;
+    private final String method;
+    private final List<RepositoryMetrics> targets;
+    private volatile Timer latency;
+    private volatile Timer skew;
+
+    MethodMetrics(final String name, final String method, final List<String> repositoryNames) {
+        this.name = name;
+        this.method = method;
+
+        final List<RepositoryMetrics> targets = new ArrayList<>();
+        for (final String repositoryName : repositoryNames){
+            targets.add(new RepositoryMetrics(name, method, repositoryName));
+        }
+        this.targets = Collections.unmodifiableList(targets);
+    }
+
+    public RepositoryMetrics target(final int index){
+        return targets.get(index);
+    }
+
+    public void record(final long nanos){
+        final Timer timer = latency;
+        if (timer != null){
+            timer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void recordSkew(final long fastestNanos, final long slowestNanos){
+        final Timer timer = skew;
+        if (timer != null){
+            timer.record(slowestNanos - fastestNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    void bind(final MeterRegistry registry){
+        latency = Timer.builder(MultiRepositoryMetrics.METHOD)
+                .description("Latency of multi repository methods")
+                .tag("repository", name)
+                .tag("method", method)
+                .publishPercentileHistogram()
+                .register(registry);
+        skew = Timer.builder(MultiRepositoryMetrics.FAN_OUT_SKEW)
+                .description("Time between the fastest and the slowest repository of a fan out write")
+                .tag("repository", name)
+                .tag("method", method)
+                .register(registry);
+        for (final RepositoryMetrics target : targets){
+            target.bind(registry);
+        }
+    }
+
+}
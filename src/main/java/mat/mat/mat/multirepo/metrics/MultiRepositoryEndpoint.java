@@ -0,0 +1,147 @@
+package mat.mat.mat.multirepo.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summary of the multi repository meters, grouped by multi repository and method, then by bulkhead, by transformer,
+ * by write behind queue, by journal replayer and by read cache.
+ */
+@Endpoint(id = "multirepository")
+public class MultiRepositoryEndpoint {
+
+    private final MultiRepositoryMetrics metrics;
+
+    public MultiRepositoryEndpoint(final MultiRepositoryMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @ReadOperation
+    public Map<String, Object> summary(){
+
+        final Map<String, Object> repositories = new LinkedHashMap<>();
+        for (final MethodMetrics method : metrics.getMethods()){
+
+            final Map<String, Object> targets = new LinkedHashMap<>();
+            for (final RepositoryMetrics target : method.getTargets()){
+                final Map<String, Object> summary = timer(target.getLatency());
+                summary.put("failures", count(target.getFailures()));
+                summary.put("skipped", count(target.getSkipped()));
+                targets.put(target.getRepositoryName(), summary);
+            }
+
+            final Map<String, Object> summary = timer(method.getLatency());
+            summary.put("fanOutSkew", timer(method.getSkew()));
+            summary.put("targets", targets);
+
+            ((Map<String, Object>) repositories.computeIfAbsent(method.getName(), name -> new LinkedHashMap<>())).put(method.getMethod(), summary);
+        }
+
+        final Map<String, Object> bulkheads = new LinkedHashMap<>();
+        for (final BulkheadMetrics bulkhead : metrics.getBulkheads()){
+            final Map<String, Object> rejected = new LinkedHashMap<>();
+            rejected.put("limit", count(bulkhead.getLimitRejections()));
+            rejected.put("open", count(bulkhead.getOpenRejections()));
+
+            final Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("limit", bulkhead.getLimit().getAsInt());
+            summary.put("inFlight", bulkhead.getInFlight().getAsInt());
+            summary.put("state", bulkhead.getState().get().name());
+            summary.put("rejected", rejected);
+            summary.put("timeouts", count(bulkhead.getTimeouts()));
+            summary.put("skipped", count(bulkhead.getSkipped()));
+            summary.put("deferred", count(bulkhead.getDeferred()));
+
+            ((Map<String, Object>) bulkheads.computeIfAbsent(bulkhead.getName(), name -> new LinkedHashMap<>())).put(bulkhead.getRepositoryName(), summary);
+        }
+
+        final Map<String, Object> transforms = new LinkedHashMap<>();
+        for (final TransformMetrics transform : metrics.getTransforms().values()){
+            final Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("forward", timer(transform.getForward()));
+            summary.put("backward", timer(transform.getBackward()));
+            summary.put("elements", summary(transform.getElements()));
+            transforms.put(transform.getClassToClass().getClassA().getSimpleName() + "->" + transform.getClassToClass().getClassB().getSimpleName(), summary);
+        }
+
+        final Map<String, Object> writeBehinds = new LinkedHashMap<>();
+        for (final WriteBehindMetrics writeBehind : metrics.getWriteBehinds()){
+            final WriteBehindMetrics.Queue queue = writeBehind.getQueue();
+            final Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("depth", queue.getDepth());
+            summary.put("lagMillis", queue.getLagMillis());
+            summary.put("lastFlushLagMillis", queue.getLastFlushLagMillis());
+            summary.put("enqueued", queue.getEnqueued());
+            summary.put("coalesced", queue.getCoalesced());
+            summary.put("flushed", queue.getFlushed());
+            summary.put("dropped", queue.getDropped());
+            summary.put("failed", queue.getFailed());
+            summary.put("retries", queue.getRetries());
+
+            ((Map<String, Object>) ((Map<String, Object>) writeBehinds.computeIfAbsent(writeBehind.getName(), name -> new LinkedHashMap<>()))
+                    .computeIfAbsent(writeBehind.getQueueName(), name -> new LinkedHashMap<>())).put(writeBehind.getRepositoryName(), summary);
+        }
+
+        final Map<String, Object> journals = new LinkedHashMap<>();
+        for (final JournalMetrics journal : metrics.getJournals()){
+            final JournalMetrics.Replayer replayer = journal.getReplayer();
+            final Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("lagBytes", replayer.getLag());
+            summary.put("stopped", replayer.isStopped());
+            summary.put("replayed", replayer.getReplayed());
+            summary.put("failed", replayer.getFailed());
+            summary.put("retries", replayer.getRetries());
+
+            ((Map<String, Object>) journals.computeIfAbsent(journal.getName(), name -> new LinkedHashMap<>())).put(journal.getRepositoryName(), summary);
+        }
+
+        final Map<String, Object> readCaches = new LinkedHashMap<>();
+        for (final ReadCacheMetrics readCache : metrics.getReadCaches()){
+            final ReadCacheMetrics.Cache cache = readCache.getCache();
+            final Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("hits", cache.getHits());
+            summary.put("misses", cache.getMisses());
+            summary.put("evictions", cache.getEvictions());
+            summary.put("invalidations", cache.getInvalidations());
+
+            ((Map<String, Object>) readCaches.computeIfAbsent(readCache.getName(), name -> new LinkedHashMap<>())).put(readCache.getMethod(), summary);
+        }
+
+        final Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("repositories", repositories);
+        summary.put("bulkheads", bulkheads);
+        summary.put("transforms", transforms);
+        summary.put("writeBehind", writeBehinds);
+        summary.put("journals", journals);
+        summary.put("readCaches", readCaches);
+        return summary;
+    }
+
+    private Map<String, Object> timer(final Timer timer){
+        final Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", timer != null ? timer.count() : 0);
+        summary.put("meanMillis", timer != null ? timer.mean(TimeUnit.MILLISECONDS) : 0);
+        summary.put("maxMillis", timer != null ? timer.max(TimeUnit.MILLISECONDS) : 0);
+        return summary;
+    }
+
+    private Map<String, Object> summary(final DistributionSummary distribution){
+        final Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", distribution != null ? distribution.count() : 0);
+        summary.put("mean", distribution != null ? distribution.mean() : 0);
+        summary.put("max", distribution != null ? distribution.max() : 0);
+        return summary;
+    }
+
+    private double count(final Counter counter){
+        return counter != null ? counter.count() : 0;
+    }
+
+}
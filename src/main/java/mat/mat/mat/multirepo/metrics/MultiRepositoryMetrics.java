@@ -0,0 +1,204 @@
+package mat.mat.mat.multirepo.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Source of the recorders used by proxies and transformers. Recorders are handed out before there is a
+ * registry, since proxies are built while the context starts, and get their meters once it is bound.
+ * Recording resolves nothing and allocates nothing, it only updates meters already in place.
+ */
+public class MultiRepositoryMetrics implements MeterBinder {
+
+    public static final String METHOD = "multi.repository.method";
+    public static final String TARGET = "multi.repository.target";
+    public static final String TARGET_FAILURES = "multi.repository.target.failures";
+    public static final String TARGET_SKIPPED = "multi.repository.target.skipped";
+    public static final String FAN_OUT_SKEW = "multi.repository.fanout.skew";
+    public static final String BULKHEAD_LIMIT = "multi.repository.bulkhead.limit";
+    public static final String BULKHEAD_IN_FLIGHT = "multi.repository.bulkhead.in.flight";
+    public static final String BULKHEAD_STATE = "multi.repository.bulkhead.state";
+    public static final String BULKHEAD_REJECTED = "multi.repository.bulkhead.rejected";
+    public static final String BULKHEAD_TIMEOUTS = "multi.repository.bulkhead.timeouts";
+    public static final String BULKHEAD_SKIPPED = "multi.repository.bulkhead.skipped";
+    public static final String BULKHEAD_DEFERRED = "multi.repository.bulkhead.deferred";
+    public static final String TRANSFORM = "multi.repository.transform";
+    public static final String TRANSFORM_ELEMENTS = "multi.repository.transform.elements";
+    public static final String WRITE_BEHIND_DEPTH = "multi.repository.write.behind.depth";
+    public static final String WRITE_BEHIND_LAG = "multi.repository.write.behind.lag";
+    public static final String WRITE_BEHIND_FLUSH_LAG = "multi.repository.write.behind.flush.lag";
+    public static final String WRITE_BEHIND_WRITES = "multi.repository.write.behind.writes";
+    public static final String WRITE_BEHIND_RETRIES = "multi.repository.write.behind.retries";
+    public static final String JOURNAL_LAG = "multi.repository.journal.lag";
+    public static final String JOURNAL_STOPPED = "multi.repository.journal.stopped";
+    public static final String JOURNAL_WRITES = "multi.repository.journal.writes";
+    public static final String JOURNAL_RETRIES = "multi.repository.journal.retries";
+    public static final String READ_CACHE_LOOKUPS = "multi.repository.read.cache.lookups";
+    public static final String READ_CACHE_EVICTIONS = "multi.repository.read.cache.evictions";
+    public static final String READ_CACHE_INVALIDATIONS = "multi.repository.read.cache.invalidations";
+
+    //never bound, for proxies and caches created without metrics
+    public static final MultiRepositoryMetrics NONE = new MultiRepositoryMetrics();
+
+    private final List<MethodMetrics> methods = new CopyOnWriteArrayList<>();
+    private final List<BulkheadMetrics> bulkheads = new CopyOnWriteArrayList<>();
+    private final Map<Class, TransformMetrics> transforms = new ConcurrentHashMap<>();
+    private final List<WriteBehindMetrics> writeBehinds = new CopyOnWriteArrayList<>();
+    private final List<JournalMetrics> journals = new CopyOnWriteArrayList<>();
+    private final List<ReadCacheMetrics> readCaches = new CopyOnWriteArrayList<>();
+    private volatile MeterRegistry registry;
+
+    public MethodMetrics method(final String name, final Method method, final List<String> repositoryNames){
+        final MethodMetrics metrics = new MethodMetrics(name, method.getName(), repositoryNames);
+        if (this != NONE){
+            methods.add(metrics);
+            bind(metrics);
+        }
+        return metrics;
+    }
+
+    public BulkheadMetrics bulkhead(final String name, final String repositoryName, final IntSupplier limit, final IntSupplier inFlight, final Supplier<? extends Enum> state){
+        final BulkheadMetrics metrics = new BulkheadMetrics(name, repositoryName, limit, inFlight, state);
+        if (this != NONE){
+            bulkheads.add(metrics);
+            bind(metrics);
+        }
+        return metrics;
+    }
+
+    public TransformMetrics transform(final Class transformerClass){
+        final TransformMetrics metrics = transforms.get(transformerClass);
+        if (metrics != null || this == NONE){
+            return metrics != null ? metrics : TransformMetrics.NONE;
+        }
+        return transforms.computeIfAbsent(transformerClass, clazz -> {
+            final TransformMetrics created = new TransformMetrics(clazz);
+            bind(created);
+            return created;
+        });
+    }
+
+    public WriteBehindMetrics writeBehind(final String name, final String repositoryName, final String queueName, final WriteBehindMetrics.Queue queue){
+        final WriteBehindMetrics metrics = new WriteBehindMetrics(name, repositoryName, queueName, queue);
+        if (this != NONE){
+            writeBehinds.add(metrics);
+            bind(metrics);
+        }
+        return metrics;
+    }
+
+    public JournalMetrics journal(final String name, final String repositoryName, final JournalMetrics.Replayer replayer){
+        final JournalMetrics metrics = new JournalMetrics(name, repositoryName, replayer);
+        if (this != NONE){
+            journals.add(metrics);
+            bind(metrics);
+        }
+        return metrics;
+    }
+
+    public ReadCacheMetrics readCache(final String name, final String method, final ReadCacheMetrics.Cache cache){
+        final ReadCacheMetrics metrics = new ReadCacheMetrics(name, method, cache);
+        if (this != NONE){
+            readCaches.add(metrics);
+            bind(metrics);
+        }
+        return metrics;
+    }
+
+    public List<MethodMetrics> getMethods(){
+        return Collections.unmodifiableList(methods);
+    }
+
+    public List<BulkheadMetrics> getBulkheads(){
+        return Collections.unmodifiableList(bulkheads);
+    }
+
+    public Map<Class, TransformMetrics> getTransforms(){
+        return Collections.unmodifiableMap(transforms);
+    }
+
+    public List<WriteBehindMetrics> getWriteBehinds(){
+        return Collections.unmodifiableList(writeBehinds);
+    }
+
+    public List<JournalMetrics> getJournals(){
+        return Collections.unmodifiableList(journals);
+    }
+
+    public List<ReadCacheMetrics> getReadCaches(){
+        return Collections.unmodifiableList(readCaches);
+    }
+
+    //the first registry wins, Spring Boot binds to its composite registry when there are several
+    @Override
+    public synchronized void bindTo(final MeterRegistry registry) {
+        if (this == NONE || this.registry != null){
+            return;
+        }
+        this.registry = registry;
+        for (final MethodMetrics metrics : methods){
+            metrics.bind(registry);
+        }
+        for (final BulkheadMetrics metrics : bulkheads){
+            metrics.bind(registry);
+        }
+        for (final TransformMetrics metrics : transforms.values()){
+            metrics.bind(registry);
+        }
+        for (final WriteBehindMetrics metrics : writeBehinds){
+            metrics.bind(registry);
+        }
+        for (final JournalMetrics metrics : journals){
+            metrics.bind(registry);
+        }
+        for (final ReadCacheMetrics metrics : readCaches){
+            metrics.bind(registry);
+        }
+    }
+
+    private synchronized void bind(final MethodMetrics metrics){
+        if (registry != null){
+            metrics.bind(registry);
+        }
+    }
+
+    private synchronized void bind(final BulkheadMetrics metrics){
+        if (registry != null){
+            metrics.bind(registry);
+        }
+    }
+
+    private synchronized void bind(final TransformMetrics metrics){
+        if (registry != null){
+            metrics.bind(registry);
+        }
+    }
+
+    private synchronized void bind(final WriteBehindMetrics metrics){
+        if (registry != null){
+            metrics.bind(registry);
+        }
+    }
+
+    private synchronized void bind(final JournalMetrics metrics){
+        if (registry != null){
+            metrics.bind(registry);
+        }
+    }
+
+    private synchronized void bind(final ReadCacheMetrics metrics){
+        if (registry != null){
+            metrics.bind(registry);
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package mat.mat.mat.multirepo.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Hits, misses, evictions and invalidations of the read cache of one method. Read from the cache when published.
+ */
+@Getter
+public class ReadCacheMetrics {
+
+    private final String name;
+    private final String method;
+    private final Cache cache;
+
+    ReadCacheMetrics(final String name, final String method, final Cache cache) {
+        this.name = name;
+        this.method = method;
+        this.cache = cache;
+    }
+
+    void bind(final MeterRegistry registry){
+        lookups(registry, "hit", Cache::getHits);
+        lookups(registry, "miss", Cache::getMisses);
+        FunctionCounter.builder(MultiRepositoryMetrics.READ_CACHE_EVICTIONS, cache, Cache::getEvictions)
+                .description("Entries evicted from the read caches")
+                .tags("repository", name, "method", method)
+                .register(registry);
+        FunctionCounter.builder(MultiRepositoryMetrics.READ_CACHE_INVALIDATIONS, cache, Cache::getInvalidations)
+                .description("Read caches emptied by a write")
+                .tags("repository", name, "method", method)
+                .register(registry);
+    }
+
+    private void lookups(final MeterRegistry registry, final String result, final ToDoubleFunction<Cache> count){
+        FunctionCounter.builder(MultiRepositoryMetrics.READ_CACHE_LOOKUPS, cache, count)
+                .description("Reads looked up in the read caches")
+                .tags("repository", name, "method", method, "result", result)
+                .register(registry);
+    }
+
+    public interface Cache {
+
+        long getHits();
+
+        long getMisses();
+
+        long getEvictions();
+
+        long getInvalidations();
+
+    }
+
+}
@@ -0,0 +1,76 @@
+package mat.mat.mat.multirepo.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency, failures and writes skipped as unchanged of one method on one target repository.
+ */
+@Getter
+public class RepositoryMetrics {
+
+    //never bound, for target methods created without metrics
+    public static final RepositoryMetrics NONE = new RepositoryMetrics("", "", "");
+
+    private final String name;
+    private final String method;
+    private final String repositoryName;
+    private volatile Timer latency;
+    private volatile Counter failures;
+    private volatile Counter skipped;
+
+    RepositoryMetrics(final String name, final String method, final String repositoryName) {
+        this.name = name;
+        this.method = method;
+        this.repositoryName = repositoryName;
+    }
+
+    public void record(final long nanos){
+        final Timer timer = latency;
+        if (timer != null){
+            timer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void recordFailure(final long nanos){
+        record(nanos);
+        final Counter counter = failures;
+        if (counter != null){
+            counter.increment();
+        }
+    }
+
+    public void recordSkipped(final int writes){
+        final Counter counter = skipped;
+        if (counter != null){
+            counter.increment(writes);
+        }
+    }
+
+    void bind(final MeterRegistry registry){
+        latency = Timer.builder(MultiRepositoryMetrics.TARGET)
+                .description("Latency of calls to the target repositories")
+                .tag("repository", name)
+                .tag("method", method)
+                .tag("target", repositoryName)
+                .publishPercentileHistogram()
+                .register(registry);
+        failures = Counter.builder(MultiRepositoryMetrics.TARGET_FAILURES)
+                .description("Failed calls to the target repositories")
+                .tag("repository", name)
+                .tag("method", method)
+                .tag("target", repositoryName)
+                .register(registry);
+        skipped = Counter.builder(MultiRepositoryMetrics.TARGET_SKIPPED)
+                .description("Writes left out because the entity was unchanged since its last write")
+                .tag("repository", name)
+                .tag("method", method)
+                .tag("target", repositoryName)
+                .register(registry);
+    }
+
+}
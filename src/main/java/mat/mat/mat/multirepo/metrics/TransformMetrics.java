@@ -0,0 +1,68 @@
+package mat.mat.mat.multirepo.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import mat.mat.mat.multirepo.transformer.ClassToClass;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in one transformer, per direction, and the size of the collections it is applied to.
+ */
+@Getter
+public class TransformMetrics {
+
+    public static final TransformMetrics NONE = new TransformMetrics(null);
+
+    private final ClassToClass classToClass;
+    private volatile Timer forward;
+    private volatile Timer backward;
+    private volatile DistributionSummary elements;
+
+    TransformMetrics(final Class transformerClass) {
+        this.classToClass = transformerClass != null ? ClassToClass.of(transformerClass) : null;
+    }
+
+    public void recordForward(final long nanos){
+        final Timer timer = forward;
+        if (timer != null){
+            timer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void recordBackward(final long nanos){
+        final Timer timer = backward;
+        if (timer != null){
+            timer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void recordElements(final int size){
+        final DistributionSummary summary = elements;
+        if (summary != null){
+            summary.record(size);
+        }
+    }
+
+    void bind(final MeterRegistry registry){
+        forward = timer("forward", registry);
+        backward = timer("backward", registry);
+        elements = DistributionSummary.builder(MultiRepositoryMetrics.TRANSFORM_ELEMENTS)
+                .description("Elements per collection transform")
+                .tag("from", classToClass.getClassA().getSimpleName())
+                .tag("to", classToClass.getClassB().getSimpleName())
+                .register(registry);
+    }
+
+    private Timer timer(final String direction, final MeterRegistry registry){
+        return Timer.builder(MultiRepositoryMetrics.TRANSFORM)
+                .description("Time spent transforming between domain objects and entities")
+                .tag("from", classToClass.getClassA().getSimpleName())
+                .tag("to", classToClass.getClassB().getSimpleName())
+                .tag("direction", direction)
+                .register(registry);
+    }
+
+}
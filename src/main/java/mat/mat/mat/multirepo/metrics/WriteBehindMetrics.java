@@ -0,0 +1,85 @@
+package mat.mat.mat.multirepo.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Depth, lag and writes of one queue of writes for a target repository, either its write behind queue or
+ * the queue of writes deferred while its circuit breaker is open. Read from the queue when published.
+ */
+@Getter
+public class WriteBehindMetrics {
+
+    private final String name;
+    private final String repositoryName;
+    //writeBehind or deferred
+    private final String queueName;
+    private final Queue queue;
+
+    WriteBehindMetrics(final String name, final String repositoryName, final String queueName, final Queue queue) {
+        this.name = name;
+        this.repositoryName = repositoryName;
+        this.queueName = queueName;
+        this.queue = queue;
+    }
+
+    void bind(final MeterRegistry registry){
+        Gauge.builder(MultiRepositoryMetrics.WRITE_BEHIND_DEPTH, queue, Queue::getDepth)
+                .description("Writes queued for the target repositories")
+                .tags("repository", name, "target", repositoryName, "queue", queueName)
+                .register(registry);
+        Gauge.builder(MultiRepositoryMetrics.WRITE_BEHIND_LAG, queue, Queue::getLagMillis)
+                .description("Age of the oldest write queued for the target repositories")
+                .baseUnit("milliseconds")
+                .tags("repository", name, "target", repositoryName, "queue", queueName)
+                .register(registry);
+        Gauge.builder(MultiRepositoryMetrics.WRITE_BEHIND_FLUSH_LAG, queue, Queue::getLastFlushLagMillis)
+                .description("Time between queueing and writing of the last batch written to the target repositories")
+                .baseUnit("milliseconds")
+                .tags("repository", name, "target", repositoryName, "queue", queueName)
+                .register(registry);
+        writes(registry, "enqueued", Queue::getEnqueued);
+        writes(registry, "coalesced", Queue::getCoalesced);
+        writes(registry, "flushed", Queue::getFlushed);
+        writes(registry, "dropped", Queue::getDropped);
+        writes(registry, "failed", Queue::getFailed);
+        FunctionCounter.builder(MultiRepositoryMetrics.WRITE_BEHIND_RETRIES, queue, Queue::getRetries)
+                .description("Retried writes to the target repositories")
+                .tags("repository", name, "target", repositoryName, "queue", queueName)
+                .register(registry);
+    }
+
+    private void writes(final MeterRegistry registry, final String outcome, final ToDoubleFunction<Queue> count){
+        FunctionCounter.builder(MultiRepositoryMetrics.WRITE_BEHIND_WRITES, queue, count)
+                .description("Writes queued for the target repositories, by what became of them")
+                .tags("repository", name, "target", repositoryName, "queue", queueName, "outcome", outcome)
+                .register(registry);
+    }
+
+    public interface Queue {
+
+        int getDepth();
+
+        long getLagMillis();
+
+        long getLastFlushLagMillis();
+
+        long getEnqueued();
+
+        long getCoalesced();
+
+        long getFlushed();
+
+        long getDropped();
+
+        long getFailed();
+
+        long getRetries();
+
+    }
+
+}
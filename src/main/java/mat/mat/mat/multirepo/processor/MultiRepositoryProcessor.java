@@ -0,0 +1,285 @@
+package mat.mat.mat.multirepo.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.IntersectionType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.TypeVariable;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a delegating implementation of every {@link mat.mat.mat.multirepo.annotation.MultiRepository}
+ * interface and lists it in {@value #INDEX}, so the implementations are registered without scanning beans
+ * or creating JDK proxies at startup. Interfaces it cannot implement are left to the runtime scanner.
+ */
+@SupportedAnnotationTypes(MultiRepositoryProcessor.MULTI_REPOSITORY)
+public class MultiRepositoryProcessor extends AbstractProcessor {
+
+    static final String MULTI_REPOSITORY = "mat.mat.mat.multirepo.annotation.MultiRepository";
+    //read back by MultiRepositoryRegistrar
+    static final String INDEX = "META-INF/multi-repository.components";
+    static final String SUFFIX = "_MultiRepository";
+
+    private static final String BASE_CLASS = "mat.mat.mat.multirepo.annotation.GeneratedMultiRepository";
+
+    private final Map<String, String> implementations = new LinkedHashMap<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+
+        for (final TypeElement annotation : annotations){
+            for (final Element element : roundEnv.getElementsAnnotatedWith(annotation)){
+                if (implementable(element)){
+                    generate((TypeElement) element);
+                }
+            }
+        }
+
+        if (roundEnv.processingOver() && !implementations.isEmpty()){
+            writeIndex();
+        }
+        return false;
+    }
+
+    private boolean implementable(final Element element){
+        if (element.getKind() != ElementKind.INTERFACE){
+            return false;
+        }
+        //the generated class lives in the same package, so every enclosing type has to be visible and not generic
+        for (Element enclosing = element; enclosing.getKind() != ElementKind.PACKAGE; enclosing = enclosing.getEnclosingElement()){
+            if (enclosing.getModifiers().contains(Modifier.PRIVATE) || !((TypeElement) enclosing).getTypeParameters().isEmpty()){
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "Not generating an implementation, left to the runtime scanner", element);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void generate(final TypeElement type){
+
+        final String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        final String simpleName = flatName(type) + SUFFIX;
+        final String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        final String interfaceName = type.getQualifiedName().toString();
+
+        final List<ExecutableElement> methods = abstractMethods(type);
+
+        final StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()){
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        final String generated = generatedAnnotation();
+        if (generated != null){
+            source.append('@').append(generated).append("(\"").append(MultiRepositoryProcessor.class.getName()).append("\")\n");
+        }
+        source.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+        source.append("public final class ").append(simpleName).append(" extends ").append(BASE_CLASS).append(" implements ").append(interfaceName).append(" {\n\n");
+
+        for (int i = 0; i < methods.size(); i++){
+            final ExecutableElement method = methods.get(i);
+            source.append("    private static final java.lang.reflect.Method M").append(i).append(" = method(").append(interfaceName).append(".class, \"")
+                    .append(method.getSimpleName()).append('"');
+            //erased as declared, which is how the JVM and Class.getMethod see it
+            for (final VariableElement parameter : method.getParameters()){
+                source.append(", ").append(processingEnv.getTypeUtils().erasure(parameter.asType())).append(".class");
+            }
+            source.append(");\n");
+        }
+
+        source.append("\n    public ").append(simpleName).append("(final java.lang.reflect.InvocationHandler handler) {\n        super(handler);\n    }\n");
+
+        for (int i = 0; i < methods.size(); i++){
+            appendMethod(source, type, methods.get(i), i);
+        }
+        source.append("\n}\n");
+
+        try {
+            final JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+            try (final Writer writer = file.openWriter()){
+                writer.write(source.toString());
+            }
+            implementations.put(interfaceName, qualifiedName);
+        } catch (IOException e){
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to generate " + qualifiedName + ": " + e.getMessage(), type);
+        }
+    }
+
+    private void appendMethod(final StringBuilder source, final TypeElement type, final ExecutableElement method, final int index){
+
+        final ExecutableType executableType = executableType(type, method);
+        final TypeMirror returnType = executableType.getReturnType();
+        final List<? extends TypeMirror> parameters = executableType.getParameterTypes();
+
+        source.append("\n    @Override\n    public ");
+
+        if (!executableType.getTypeVariables().isEmpty()){
+            final List<String> variables = new ArrayList<>();
+            for (final TypeVariable variable : executableType.getTypeVariables()){
+                final String bound = bound(variable.getUpperBound());
+                variables.add(bound.isEmpty() ? variable.toString() : variable + " extends " + bound);
+            }
+            source.append('<').append(String.join(", ", variables)).append("> ");
+        }
+
+        source.append(returnType).append(' ').append(method.getSimpleName()).append('(');
+        for (int i = 0; i < parameters.size(); i++){
+            if (i > 0){
+                source.append(", ");
+            }
+            final String parameter = parameters.get(i).toString();
+            final boolean varArgs = method.isVarArgs() && i == parameters.size() - 1;
+            source.append("final ").append(varArgs ? parameter.substring(0, parameter.length() - 2) + "..." : parameter).append(" arg").append(i);
+        }
+        source.append(')');
+
+        final List<TypeMirror> thrown = checkedThrows(executableType.getThrownTypes());
+        if (!executableType.getThrownTypes().isEmpty()){
+            source.append(" throws ");
+            final List<String> names = new ArrayList<>();
+            for (final TypeMirror thrownType : executableType.getThrownTypes()){
+                names.add(thrownType.toString());
+            }
+            source.append(String.join(", ", names));
+        }
+
+        source.append(" {\n        try {\n            ");
+
+        //always an explicit array, a single array argument would otherwise be spread as the varargs
+        final StringBuilder call = new StringBuilder("invoke(M").append(index);
+        if (parameters.isEmpty()){
+            call.append(", (java.lang.Object[]) null)");
+        } else {
+            call.append(", new java.lang.Object[] {");
+            for (int i = 0; i < parameters.size(); i++){
+                call.append(i > 0 ? ", arg" : "arg").append(i);
+            }
+            call.append("})");
+        }
+
+        if (returnType.getKind() == TypeKind.VOID){
+            source.append(call).append(";\n");
+        } else if (returnType.getKind().isPrimitive()){
+            source.append("return (").append(processingEnv.getTypeUtils().boxedClass((PrimitiveType) returnType).getQualifiedName()).append(") ").append(call).append(";\n");
+        } else {
+            source.append("return (").append(returnType).append(") ").append(call).append(";\n");
+        }
+
+        source.append("        } catch (java.lang.RuntimeException | java.lang.Error e) {\n            throw e;\n        }");
+        for (final TypeMirror thrownType : thrown){
+            source.append(" catch (").append(processingEnv.getTypeUtils().erasure(thrownType)).append(" e) {\n            throw e;\n        }");
+        }
+        source.append(" catch (java.lang.Throwable e) {\n            throw new java.lang.reflect.UndeclaredThrowableException(e);\n        }\n    }\n");
+    }
+
+    private List<ExecutableElement> abstractMethods(final TypeElement type){
+        final List<ExecutableElement> methods = new ArrayList<>();
+        for (final ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))){
+            if (method.getModifiers().contains(Modifier.ABSTRACT) && method.getEnclosingElement().getKind() == ElementKind.INTERFACE){
+                methods.add(method);
+            }
+        }
+        return methods;
+    }
+
+    private ExecutableType executableType(final TypeElement type, final ExecutableElement method){
+        return (ExecutableType) processingEnv.getTypeUtils().asMemberOf((DeclaredType) type.asType(), method);
+    }
+
+    //the declared checked exceptions that need their own catch, most general ones only
+    private List<TypeMirror> checkedThrows(final List<? extends TypeMirror> thrownTypes){
+
+        final TypeMirror runtimeException = processingEnv.getElementUtils().getTypeElement(RuntimeException.class.getName()).asType();
+        final TypeMirror error = processingEnv.getElementUtils().getTypeElement(Error.class.getName()).asType();
+
+        final List<TypeMirror> checked = new ArrayList<>();
+        for (final TypeMirror thrownType : thrownTypes){
+            final TypeMirror erased = processingEnv.getTypeUtils().erasure(thrownType);
+            if (processingEnv.getTypeUtils().isSubtype(erased, runtimeException) || processingEnv.getTypeUtils().isSubtype(erased, error)){
+                continue;
+            }
+            boolean covered = false;
+            for (final TypeMirror other : thrownTypes){
+                final TypeMirror otherErased = processingEnv.getTypeUtils().erasure(other);
+                if (!processingEnv.getTypeUtils().isSameType(erased, otherErased) && processingEnv.getTypeUtils().isSubtype(erased, otherErased)){
+                    covered = true;
+                }
+            }
+            if (!covered){
+                checked.add(erased);
+            }
+        }
+        return checked;
+    }
+
+    private String bound(final TypeMirror upperBound){
+        if (upperBound.getKind() == TypeKind.INTERSECTION){
+            final List<String> bounds = new ArrayList<>();
+            for (final TypeMirror bound : ((IntersectionType) upperBound).getBounds()){
+                bounds.add(bound.toString());
+            }
+            return String.join(" & ", bounds);
+        }
+        return Object.class.getName().equals(upperBound.toString()) ? "" : upperBound.toString();
+    }
+
+    private String generatedAnnotation(){
+        for (final String name : new String[] {"javax.annotation.processing.Generated", "javax.annotation.Generated"}){
+            if (processingEnv.getElementUtils().getTypeElement(name) != null){
+                return name;
+            }
+        }
+        return null;
+    }
+
+    //Outer.Inner becomes Outer_Inner, in the package of the outermost type
+    private String flatName(final TypeElement type){
+        final Element enclosing = type.getEnclosingElement();
+        if (enclosing instanceof PackageElement){
+            return type.getSimpleName().toString();
+        }
+        return flatName((TypeElement) enclosing) + "_" + type.getSimpleName();
+    }
+
+    private void writeIndex(){
+        try {
+            final FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+            try (final Writer writer = index.openWriter()){
+                for (final Map.Entry<String, String> implementation : implementations.entrySet()){
+                    writer.write(implementation.getKey() + "=" + implementation.getValue() + "\n");
+                }
+            }
+        } catch (IOException e){
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write " + INDEX + ": " + e.getMessage());
+        }
+    }
+
+}
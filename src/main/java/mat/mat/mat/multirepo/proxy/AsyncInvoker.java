@@ -0,0 +1,8 @@
+package mat.mat.mat.multirepo.proxy;
+
+public interface AsyncInvoker {
+
+    //the Mono, Flux or CompletableFuture the method returns, afterWrite runs once a write is done
+    Object invoke(MethodDispatch dispatch, Object[] args, Runnable afterWrite);
+
+}
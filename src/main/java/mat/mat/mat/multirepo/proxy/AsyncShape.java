@@ -0,0 +1,24 @@
+package mat.mat.mat.multirepo.proxy;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * What a multi repository method returns instead of waiting for the repositories, told apart by class
+ * name so nothing needs reactor-core on the class path unless a method returns one of its types.
+ */
+public enum AsyncShape {
+
+    NONE, MONO, FLUX, FUTURE;
+
+    public static AsyncShape of(final Class returnType){
+        switch (returnType.getName()){
+            case "reactor.core.publisher.Mono":
+                return MONO;
+            case "reactor.core.publisher.Flux":
+                return FLUX;
+            default:
+                return CompletableFuture.class.equals(returnType) ? FUTURE : NONE;
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package mat.mat.mat.multirepo.proxy;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One bounded executor per datasource for the repository calls of methods that do not block, with
+ * as many threads as the datasource pool has connections, so they never wait on the pool. Calls past
+ * queueCapacity waiting on a datasource are rejected.
+ */
+public class DataSourceExecutors {
+
+    private final int queueCapacity;
+    private final int defaultPoolSize;
+    private final Map<Object, ExecutorService> executors = new IdentityHashMap<>();
+
+    //defaultPoolSize is used for a datasource whose pool size cannot be read
+    public DataSourceExecutors(final int queueCapacity, final int defaultPoolSize) {
+        this.queueCapacity = queueCapacity;
+        this.defaultPoolSize = defaultPoolSize;
+    }
+
+    //dataSource may be null for a repository whose datasource is unknown, it then gets an executor of its own
+    public synchronized ExecutorService executor(final DataSource dataSource, final Integer poolSize, final Object repository){
+        return executors.computeIfAbsent(dataSource != null ? dataSource : repository, key -> {
+            final int threads = poolSize != null && poolSize > 0 ? poolSize : defaultPoolSize;
+            final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("multi-repository-db-" + executors.size() + "-");
+            threadFactory.setDaemon(true);
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(queueCapacity), threadFactory);
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        });
+    }
+
+    public synchronized void shutdown(){
+        final List<ExecutorService> shutdown = new ArrayList<>(executors.values());
+        executors.clear();
+        for (final ExecutorService executor : shutdown){
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package mat.mat.mat.multirepo.proxy;
+
+import mat.mat.mat.multirepo.metrics.MethodMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completion state of one write dispatched to every target repository at once.
+ */
+public class FanOutWrite {
+
+    private static final Logger logger = LoggerFactory.getLogger(FanOutWrite.class);
+
+    private final String name;
+    private final List<TargetMethod> targets;
+    private final MethodMetrics metrics;
+    private final Throwable[] failures;
+    private final boolean[] completed;
+    private int successes;
+    private int failed;
+    private boolean acknowledged;
+    private long fastestNanos = Long.MAX_VALUE;
+    private long slowestNanos;
+
+    public FanOutWrite(final String name, final List<TargetMethod> targets, final MethodMetrics metrics) {
+        this.name = name;
+        this.targets = targets;
+        this.metrics = metrics;
+        this.failures = new Throwable[targets.size()];
+        this.completed = new boolean[targets.size()];
+    }
+
+    public synchronized void succeeded(final int index, final long nanos){
+        completed[index] = true;
+        successes++;
+        fastestNanos = Math.min(fastestNanos, nanos);
+        slowestNanos = Math.max(slowestNanos, nanos);
+        //skew between the repositories that all answered, recorded once the last one did
+        if (successes == targets.size() && successes > 1 && metrics != null){
+            metrics.recordSkew(fastestNanos, slowestNanos);
+        }
+        notifyAll();
+    }
+
+    public synchronized void failed(final int index, final Throwable failure){
+        completed[index] = true;
+        failures[index] = failure;
+        failed++;
+        if (acknowledged){
+            logger.warn("{} write to {} failed after acknowledgement", name, targets.get(index).getRepositoryName(), failure);
+        }
+        notifyAll();
+    }
+
+    public synchronized boolean awaitAll(final long deadline) throws InterruptedException {
+        while (successes + failed < targets.size()){
+            if (!waitUntil(deadline)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized boolean awaitSuccesses(final int required, final long deadline) throws InterruptedException {
+        while (successes < required && failed <= targets.size() - required){
+            if (!waitUntil(deadline)){
+                return false;
+            }
+        }
+        return successes >= required;
+    }
+
+    public synchronized boolean awaitTarget(final int index, final long deadline) throws InterruptedException {
+        while (!completed[index]){
+            if (!waitUntil(deadline)){
+                return false;
+            }
+        }
+        return failures[index] == null;
+    }
+
+    public synchronized void acknowledge(){
+        acknowledged = true;
+    }
+
+    public synchronized Map<String, Throwable> failures(){
+        final Map<String, Throwable> byRepository = new LinkedHashMap<>();
+        for (int i = 0; i < targets.size(); i++){
+            if (failures[i] != null){
+                byRepository.put(targets.get(i).getRepositoryName(), failures[i]);
+            } else if (!completed[i]){
+                byRepository.put(targets.get(i).getRepositoryName(), new TimeoutException("No acknowledgement before the write timeout"));
+            }
+        }
+        return byRepository;
+    }
+
+    public MultiRepositoryWriteException toException(){
+        return new MultiRepositoryWriteException(name, failures());
+    }
+
+    private boolean waitUntil(final long deadline) throws InterruptedException {
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0){
+            return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        return true;
+    }
+
+}
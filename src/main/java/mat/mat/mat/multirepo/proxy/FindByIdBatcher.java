@@ -0,0 +1,180 @@
+package mat.mat.mat.multirepo.proxy;
+
+import mat.mat.mat.multirepo.transformer.EntityMetadata;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import mat.mat.mat.multirepo.transformer.LazyViewTransformer;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collects concurrent findById calls into one findAllById on the repository the reads are routed to. The
+ * first caller of a batch sends it once the window has passed or the batch is full, and transforms the
+ * entities back in the same read-only transaction, so lazy associations still load; an id asked for more
+ * than once in a window is read once and transformed once for each caller asking for it, so no two callers
+ * share an instance. Calls inside a transaction are not batched, they read through their own persistence context.
+ */
+public class FindByIdBatcher {
+
+    private final MethodDispatch findById;
+    private final MethodDispatch findAllById;
+    private final RoutedReadStrategy readStrategy;
+    private final JpaTransformerCache transformerCache;
+    private final long windowNanos;
+    private final int maxBatchSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition full = lock.newCondition();
+    private Batch current;
+
+    public FindByIdBatcher(final MethodDispatch findById, final MethodDispatch findAllById, final RoutedReadStrategy readStrategy, final JpaTransformerCache transformerCache,
+                           final long windowMicros, final int maxBatchSize) {
+        this.findById = findById;
+        this.findAllById = findAllById;
+        this.readStrategy = readStrategy;
+        this.transformerCache = transformerCache;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBatchSize = Math.max(maxBatchSize, 1);
+    }
+
+    public boolean batches(final MethodDispatch dispatch, final Object[] args){
+        return dispatch == findById && args[0] != null && !TransactionSynchronizationManager.isActualTransactionActive();
+    }
+
+    public Object load(final Object id) throws Throwable {
+
+        final Batch batch;
+        final boolean first;
+        lock.lock();
+        try {
+            first = current == null;
+            if (first){
+                current = new Batch();
+            }
+            batch = current;
+            batch.ids.merge(id, 1, Integer::sum);
+            if (batch.ids.size() >= maxBatchSize){
+                current = null;
+                full.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        //sent even when the first caller is interrupted, the others are waiting for it
+        if (first){
+            try {
+                awaitWindow(batch);
+            } finally {
+                send(batch);
+            }
+        }
+        return batch.get(id);
+    }
+
+    private void awaitWindow(final Batch batch) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = windowNanos;
+            while (current == batch && remaining > 0){
+                remaining = full.awaitNanos(remaining);
+            }
+        } finally {
+            if (current == batch){
+                current = null;
+            }
+            lock.unlock();
+        }
+    }
+
+    private void send(final Batch batch){
+        try {
+            final List<Object> ids = new ArrayList<>(batch.ids.keySet());
+            final List<TargetMethod> targets = findAllById.getTargets();
+            final int first = readStrategy.select(findAllById);
+
+            Throwable failure = null;
+            for (int attempt = 0; attempt < (readStrategy.isFailover() ? targets.size() : 1); attempt++){
+                try {
+                    read(batch, (first + attempt) % targets.size(), ids);
+                    return;
+                } catch (Throwable e){
+                    if (failure == null){
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            batch.failure = failure;
+        } finally {
+            batch.sent.countDown();
+        }
+    }
+
+    private void read(final Batch batch, final int index, final List<Object> ids) throws Throwable {
+
+        final TargetMethod target = findAllById.getTargets().get(index);
+        final TargetMethod single = findById.getTargets().get(index);
+        final LatencyTracker latency = findAllById.getLatencies().get(index);
+
+        //transformed while the entities are still attached, as findById would have returned each
+        target.inReadTransaction(() -> {
+            final long start = System.nanoTime();
+            final Object entities;
+            try {
+                entities = target.invoke(new Object[] {ids});
+            } catch (Throwable e){
+                latency.recordFailure(System.nanoTime() - start);
+                throw e;
+            }
+            latency.record(System.nanoTime() - start);
+
+            final Map<Object, Queue<Object>> results = new HashMap<>();
+            int transformed = 0;
+            for (final Object entity : (Iterable) entities){
+                final Object id = EntityMetadata.identifier(entity);
+                final Queue<Object> copies = new ConcurrentLinkedQueue<>();
+                for (int i = batch.ids.getOrDefault(id, 1); i > 0; i--){
+                    copies.add(single.transformResult(Optional.of(entity), transformerCache));
+                    transformed++;
+                }
+                results.put(id, copies);
+            }
+            transformerCache.getMetrics().transform(LazyViewTransformer.transformerClass(single.getReadTransformer())).recordElements(transformed);
+
+            batch.results = results;
+            return null;
+        });
+    }
+
+    private static class Batch {
+
+        //the callers asking for each id
+        private final Map<Object, Integer> ids = new LinkedHashMap<>();
+        private final CountDownLatch sent = new CountDownLatch(1);
+        private volatile Map<Object, Queue<Object>> results;
+        private volatile Throwable failure;
+
+        private Object get(final Object id) throws Throwable {
+            sent.await();
+            if (failure != null){
+                throw failure;
+            }
+            final Queue<Object> copies = results.get(id);
+            return copies == null ? Optional.empty() : copies.poll();
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package mat.mat.mat.multirepo.proxy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of one read sent to more than one repository, the first success wins. The reads that lose are
+ * not cancelled, they run to the end and keep their connection until then.
+ */
+public class HedgedRead {
+
+    private int launched;
+    private int failed;
+    private boolean succeeded;
+    private Object result;
+    private Throwable failure;
+
+    public synchronized void launched(){
+        launched++;
+    }
+
+    public synchronized void succeeded(final Object result){
+        if (!succeeded){
+            this.succeeded = true;
+            this.result = result;
+        }
+        notifyAll();
+    }
+
+    public synchronized void failed(final Throwable e){
+        failed++;
+        if (failure == null){
+            failure = e;
+        } else {
+            failure.addSuppressed(e);
+        }
+        notifyAll();
+    }
+
+    //wait for a success, for every launched read to fail, or for the delay to pass
+    public synchronized void await(final long delayNanos) throws InterruptedException {
+        final long deadline = System.nanoTime() + delayNanos;
+        while (!succeeded && failed < launched){
+            if (delayNanos == Long.MAX_VALUE){
+                wait();
+                continue;
+            }
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0){
+                return;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    //attempts that will never run, the executor having rejected them
+    public synchronized void abandoned(final Throwable e, final int attempts){
+        failed(e);
+        failed += attempts - 1;
+    }
+
+    //wait for a success or for all of these attempts to fail
+    public synchronized void awaitOutcome(final int attempts) throws InterruptedException {
+        while (!succeeded && failed < attempts){
+            wait();
+        }
+    }
+
+    public synchronized boolean isSucceeded(){
+        return succeeded;
+    }
+
+    public synchronized boolean isFailed(){
+        return !succeeded && failed == launched;
+    }
+
+    public synchronized Object getResult(){
+        return result;
+    }
+
+    public synchronized Throwable getFailure(){
+        return failure;
+    }
+
+}
@@ -0,0 +1,280 @@
+package mat.mat.mat.multirepo.proxy;
+
+import lombok.Getter;
+import mat.mat.mat.multirepo.change.ChangeDetector;
+import mat.mat.mat.multirepo.journal.Journal;
+import mat.mat.mat.multirepo.journal.JournalCodec;
+import mat.mat.mat.multirepo.journal.JournalException;
+import mat.mat.mat.multirepo.journal.JournalReader;
+import mat.mat.mat.multirepo.journal.JournalRecord;
+import mat.mat.mat.multirepo.journal.JournalSettings;
+import mat.mat.mat.multirepo.metrics.JournalMetrics;
+import mat.mat.mat.multirepo.transformer.EntityMetadata;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies the journal to one secondary repository in order, on its own thread. Consecutive saves are
+ * applied with a single saveAll. The position is checkpointed on an interval and after a restart the
+ * records since the last checkpoint are applied again, which repeats saves by id and ignores deletes
+ * of what is already gone.
+ */
+public class JournalReplayer implements JournalMetrics.Replayer {
+
+    private static final Logger logger = LoggerFactory.getLogger(JournalReplayer.class);
+
+    private static final long POLL_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    @Getter
+    private final String repositoryName;
+    private final int index;
+    private final JpaRepository repository;
+    private final Journal journal;
+    private final JournalReader reader;
+    private final JournalCodec codec;
+    private final Map<String, MethodDispatch> dispatches;
+    private final JpaTransformerCache transformerCache;
+    private final JournalSettings settings;
+    private final Thread replayer;
+    private volatile boolean closed;
+    private volatile boolean stopped;
+
+    //position after the last record applied
+    private volatile long applied;
+    private long checkpointed;
+
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    public JournalReplayer(final String name, final int index, final JpaRepository repository, final Journal journal, final JournalCodec codec,
+                           final Map<String, MethodDispatch> dispatches, final JpaTransformerCache transformerCache, final JournalSettings settings) {
+        this.repositoryName = MultiRepositoryProxy.getInterface(repository).getSimpleName();
+        this.index = index;
+        this.repository = repository;
+        this.journal = journal;
+        this.reader = journal.reader(repositoryName);
+        this.codec = codec;
+        this.dispatches = dispatches;
+        this.transformerCache = transformerCache;
+        this.settings = settings;
+        this.applied = reader.getPosition();
+        this.checkpointed = applied;
+
+        this.replayer = new Thread(this::replay, "multi-repository-journal-" + name + "-" + repositoryName);
+        this.replayer.setDaemon(true);
+        this.replayer.start();
+    }
+
+    @Override
+    public long getReplayed(){
+        return replayed.get();
+    }
+
+    @Override
+    public long getFailed(){
+        return failed.get();
+    }
+
+    @Override
+    public long getRetries(){
+        return retries.get();
+    }
+
+    //true once replay has given up on an unreadable journal, nothing more is applied until a restart
+    @Override
+    public boolean isStopped(){
+        return stopped;
+    }
+
+    //bytes of journal not yet applied
+    @Override
+    public long getLag(){
+        return journal.getWritten() - applied;
+    }
+
+    public long getPosition(){
+        return applied;
+    }
+
+    //applies what is left in the journal for up to timeoutMillis, the rest is applied after a restart
+    public boolean close(final long timeoutMillis){
+        closed = true;
+
+        try {
+            replayer.join(timeoutMillis);
+            if (replayer.isAlive()){
+                logger.warn("Journal replay to {} not caught up within {}ms, {} bytes left", repositoryName, timeoutMillis, getLag());
+                replayer.interrupt();
+                replayer.join(timeoutMillis);
+                return false;
+            }
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    private void replay(){
+        long lastCheckpoint = System.nanoTime();
+        try {
+            while (true){
+                final List<JournalRecord> batch = take();
+                if (batch.isEmpty() && closed){
+                    break;
+                }
+
+                apply(batch);
+                applied = reader.getPosition();
+
+                if (batch.isEmpty() || System.nanoTime() - lastCheckpoint >= TimeUnit.MILLISECONDS.toNanos(settings.getCheckpointIntervalMillis())){
+                    checkpoint();
+                    lastCheckpoint = System.nanoTime();
+                }
+            }
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e){
+            stopped = true;
+            logger.error("Journal replay to {} stopped at {}", repositoryName, applied, e);
+        } finally {
+            //checkpoint files are written through interruptible channels
+            final boolean interrupted = Thread.interrupted();
+            checkpoint();
+            if (interrupted){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private List<JournalRecord> take() throws InterruptedException {
+        final List<JournalRecord> batch = new ArrayList<>();
+        byte[] record = reader.next(closed ? 0 : POLL_MILLIS, TimeUnit.MILLISECONDS);
+        while (record != null){
+            try {
+                batch.add(codec.decode(record));
+            } catch (JournalException e){
+                //a class renamed or removed since the record was written, the records after it still apply
+                failed.incrementAndGet();
+                logger.error("Journal record for {} cannot be read, skipping it", repositoryName, e);
+            }
+            if (batch.size() >= settings.getReplayBatchSize()){
+                break;
+            }
+            record = reader.next(0, TimeUnit.MILLISECONDS);
+        }
+        return batch;
+    }
+
+    private void checkpoint(){
+        final long position = applied;
+        if (position != checkpointed){
+            reader.checkpoint(position);
+            checkpointed = position;
+        }
+    }
+
+    private void apply(final List<JournalRecord> batch) throws InterruptedException {
+
+        //by id, so a later save of the same entity replaces an earlier one
+        final Map<Object, Object> saves = new LinkedHashMap<>();
+        TargetMethod saveTarget = null;
+
+        for (final JournalRecord record : batch){
+            final MethodDispatch dispatch = dispatches.get(record.getMethod());
+            if (dispatch == null){
+                failed.incrementAndGet();
+                logger.error("Journal record for {} has no matching method, skipping it", record.getMethod());
+                continue;
+            }
+
+            final TargetMethod target = dispatch.getTargets().get(index);
+            final Object[] args;
+            try {
+                args = target.transformArgs(record.getArgs(), transformerCache);
+            } catch (RuntimeException e){
+                //a transform that failed fails again, the records after it still apply
+                failed.incrementAndGet();
+                logger.error("Journal record for {} cannot be transformed, skipping it", repositoryName, e);
+                continue;
+            }
+
+            if (isSave(target)){
+                final Object entity = args[0];
+                final Object id = EntityMetadata.identifier(entity);
+                saves.put(id != null ? id : new Object(), entity);
+                saveTarget = target;
+            } else {
+                flushSaves(saveTarget, saves);
+                retry(1, () -> invoke(target, args));
+            }
+        }
+        flushSaves(saveTarget, saves);
+    }
+
+    private void invoke(final TargetMethod target, final Object[] args) throws Throwable {
+        try {
+            target.invokePrepared(args);
+        } catch (EmptyResultDataAccessException e){
+            //deleted before the last checkpoint
+        }
+    }
+
+    private void flushSaves(final TargetMethod target, final Map<Object, Object> saves) throws InterruptedException {
+        if (saves.isEmpty()){
+            return;
+        }
+        final ChangeDetector.Changes changes = target.changed(new ArrayList<>(saves.values()));
+        saves.clear();
+        if (changes.isEmpty()){
+            return;
+        }
+        retry(changes.getEntities().size(), () -> {
+            repository.saveAll(changes.getEntities());
+            changes.written();
+        });
+    }
+
+    private void retry(final int writes, final Write write) throws InterruptedException {
+        for (int attempt = 0; ; attempt++){
+            try {
+                write.run();
+                replayed.addAndGet(writes);
+                return;
+            } catch (InterruptedException e){
+                throw e;
+            } catch (Throwable e){
+                if (settings.getMaxRetries() > 0 && attempt >= settings.getMaxRetries()){
+                    failed.addAndGet(writes);
+                    logger.error("Journal replay to {} failed after {} attempts, skipping {} writes", repositoryName, attempt + 1, writes, e);
+                    return;
+                }
+                if (attempt == 0){
+                    logger.warn("Journal replay to {} failed, retrying", repositoryName, e);
+                }
+                retries.incrementAndGet();
+                Thread.sleep(Math.min(settings.getRetryBackoffMillis() << Math.min(attempt, 16), MAX_BACKOFF_MILLIS));
+            }
+        }
+    }
+
+    private boolean isSave(final TargetMethod target){
+        return target.getMethod().getName().equals("save") && target.getMethod().getParameterCount() == 1;
+    }
+
+    private interface Write {
+        void run() throws Throwable;
+    }
+
+}
@@ -0,0 +1,160 @@
+package mat.mat.mat.multirepo.proxy;
+
+import lombok.Getter;
+import mat.mat.mat.multirepo.journal.Journal;
+import mat.mat.mat.multirepo.journal.JournalCodec;
+import mat.mat.mat.multirepo.journal.JournalSettings;
+import mat.mat.mat.multirepo.metrics.MultiRepositoryMetrics;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes to the first repository inline and journals the write for the others, so only the first
+ * repository takes part in the caller's transaction. Writes are appended when the transaction commits,
+ * all of them at once, or straight away outside a transaction. A replayer per secondary repository
+ * applies the journal. Secondary writes of a transaction that commits just before a crash, and not
+ * yet appended, are lost.
+ */
+public class JournalWriteStrategy implements WriteStrategy, SmartLifecycle {
+
+    private final String name;
+    private final List<JpaRepository> repositories;
+    @Getter
+    private final Journal journal;
+    private final JournalCodec codec;
+    private final JournalSettings settings;
+    @Getter
+    private volatile List<JournalReplayer> replayers = Collections.emptyList();
+    private volatile boolean running;
+
+    public JournalWriteStrategy(final String name, final List<JpaRepository> repositories, final Journal journal, final JournalCodec codec, final JournalSettings settings) {
+        this.name = name;
+        this.repositories = repositories;
+        this.journal = journal;
+        this.codec = codec;
+        this.settings = settings;
+        this.running = true;
+    }
+
+    //starts replaying to the secondary repositories through the proxy's methods, from their checkpoints
+    public synchronized void bind(final MultiRepositoryProxy proxy, final JpaTransformerCache transformerCache){
+        bind(proxy, transformerCache, MultiRepositoryMetrics.NONE);
+    }
+
+    public synchronized void bind(final MultiRepositoryProxy proxy, final JpaTransformerCache transformerCache, final MultiRepositoryMetrics metrics){
+
+        final Map<String, MethodDispatch> dispatches = new HashMap<>();
+        for (final MethodDispatch dispatch : proxy.getDispatches()){
+            if (dispatch.getKind() == MethodDispatch.Kind.WRITE){
+                dispatches.put(methodKey(dispatch.getMethod()), dispatch);
+            }
+        }
+
+        final List<JournalReplayer> replayers = new ArrayList<>();
+        for (int i = 1; i < repositories.size(); i++){
+            final JournalReplayer replayer = new JournalReplayer(name, i, repositories.get(i), journal, codec, dispatches, transformerCache, settings);
+            metrics.journal(name, replayer.getRepositoryName(), replayer);
+            replayers.add(replayer);
+        }
+        this.replayers = Collections.unmodifiableList(replayers);
+    }
+
+    @Override
+    public Object write(final MethodDispatch dispatch, final Object[] args, final JpaTransformerCache transformerCache) throws Throwable {
+
+        //Write. The first repository inline, the others through the journal.
+
+        final List<TargetMethod> targets = dispatch.getTargets();
+        targets.get(0).invokeTransformed(args, transformerCache);
+
+        if (targets.size() > 1){
+            append(codec.encode(methodKey(dispatch.getMethod()), args));
+        }
+
+        return null;
+    }
+
+    private void append(final byte[] record){
+        if (!TransactionSynchronizationManager.isSynchronizationActive()){
+            journal.append(record);
+            return;
+        }
+
+        PendingRecords pending = (PendingRecords) TransactionSynchronizationManager.getResource(this);
+        if (pending == null){
+            pending = new PendingRecords();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        pending.records.add(record);
+    }
+
+    static String methodKey(final Method method){
+        final StringBuilder key = new StringBuilder(method.getName()).append('(');
+        for (final Class parameterType : method.getParameterTypes()){
+            if (key.charAt(key.length() - 1) != '('){
+                key.append(',');
+            }
+            key.append(parameterType.getName());
+        }
+        return key.append(')').toString();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        final long deadline = System.currentTimeMillis() + settings.getShutdownTimeoutMillis();
+        for (final JournalReplayer replayer : replayers){
+            replayer.close(Math.max(deadline - System.currentTimeMillis(), 1));
+        }
+        journal.close();
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    //stop after the phases that might still be producing writes
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return name + " journal " + journal.getDirectory();
+    }
+
+    //the records of one transaction, appended together once it commits
+    private class PendingRecords extends TransactionSynchronizationAdapter {
+
+        private final List<byte[]> records = new ArrayList<>();
+
+        @Override
+        public void afterCommit() {
+            journal.append(records);
+        }
+
+        @Override
+        public void afterCompletion(final int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(JournalWriteStrategy.this);
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package mat.mat.mat.multirepo.proxy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Response times of one repository: an exponentially weighted moving average, and a histogram for
+ * percentiles, halved every thousand samples or every second so it follows recent behaviour. Each power
+ * of two range is split in linear sub-buckets, as HdrHistogram does, so a percentile is off by at most 1/16.
+ */
+public class LatencyTracker {
+
+    private static final double ALPHA = 0.2;
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    private static final long DECAY_EVERY = 1000;
+    private static final long DECAY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong ewmaBits = new AtomicLong(Double.doubleToLongBits(0));
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong lastDecay = new AtomicLong(System.nanoTime());
+
+    public void record(final long nanos){
+        updateEwma(nanos);
+
+        histogram.incrementAndGet(bucket(nanos));
+        final long now = System.nanoTime();
+        final long last = lastDecay.get();
+        if ((samples.incrementAndGet() % DECAY_EVERY == 0 || now - last >= DECAY_INTERVAL_NANOS) && lastDecay.compareAndSet(last, now)){
+            decay();
+        }
+    }
+
+    //a failure weighs at least twice the current average, so failing repositories are chosen less
+    public void recordFailure(final long nanos){
+        failures.incrementAndGet();
+        updateEwma(Math.max(nanos, (long) (getEwmaNanos() * 2)));
+    }
+
+    public double getEwmaNanos(){
+        return Double.longBitsToDouble(ewmaBits.get());
+    }
+
+    public long getSamples(){
+        return samples.get();
+    }
+
+    public long getFailures(){
+        return failures.get();
+    }
+
+    //upper bound of the bucket holding the percentile, 0 when there are no samples
+    public long getPercentileNanos(final double percentile){
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++){
+            total += histogram.get(i);
+        }
+        if (total == 0){
+            return 0;
+        }
+
+        final long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++){
+            seen += histogram.get(i);
+            if (seen >= rank){
+                return upperBound(i);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private void updateEwma(final long nanos){
+        long current;
+        long next;
+        do {
+            current = ewmaBits.get();
+            final double ewma = Double.longBitsToDouble(current);
+            next = Double.doubleToLongBits(ewma == 0 ? nanos : ewma + ALPHA * (nanos - ewma));
+        } while (!ewmaBits.compareAndSet(current, next));
+    }
+
+    private void decay(){
+        for (int i = 0; i < BUCKETS; i++){
+            long current;
+            do {
+                current = histogram.get(i);
+            } while (!histogram.compareAndSet(i, current, current >> 1));
+        }
+    }
+
+    //values below SUB_BUCKETS each have their own bucket, larger ones the sub-bucket of their power of two range
+    private static int bucket(final long nanos){
+        if (nanos < SUB_BUCKETS){
+            return nanos <= 0 ? 0 : (int) nanos;
+        }
+        final int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+        final int subBucket = (int) (nanos >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(final int bucket){
+        if (bucket < SUB_BUCKETS){
+            return bucket;
+        }
+        final int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        if (magnitude >= 63){
+            return Long.MAX_VALUE;
+        }
+        final long width = 1L << (magnitude - SUB_BUCKET_BITS);
+        return (1L << magnitude) + (bucket % SUB_BUCKETS) * width + width - 1;
+    }
+
+}
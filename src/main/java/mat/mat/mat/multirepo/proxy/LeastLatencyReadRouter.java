@@ -0,0 +1,24 @@
+package mat.mat.mat.multirepo.proxy;
+
+import java.util.List;
+
+public class LeastLatencyReadRouter implements ReadRouter {
+
+    @Override
+    public int select(final MethodDispatch dispatch, final List<LatencyTracker> latencies) {
+
+        //repositories without samples yet average 0, so each is tried before settling
+        int best = 0;
+        double bestLatency = Double.MAX_VALUE;
+
+        for (int i = 0; i < dispatch.getTargets().size(); i++){
+            final double latency = latencies.get(i).getEwmaNanos();
+            if (latency < bestLatency){
+                best = i;
+                bestLatency = latency;
+            }
+        }
+        return best;
+    }
+
+}
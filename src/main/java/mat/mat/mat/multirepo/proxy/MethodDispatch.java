@@ -0,0 +1,61 @@
+package mat.mat.mat.multirepo.proxy;
+
+import lombok.Getter;
+import mat.mat.mat.multirepo.cache.ReadCache;
+import mat.mat.mat.multirepo.metrics.MethodMetrics;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@Getter
+public class MethodDispatch {
+
+    public enum Kind {
+        TO_STRING, EQUALS, HASH_CODE, READ, WRITE, UNRESOLVED
+    }
+
+    private final Method method;
+    private final Kind kind;
+    private final List<TargetMethod> targets;
+    private final NoSuchMethodException unresolved;
+    private final ReadCache readCache;
+    private final MethodMetrics metrics;
+    private final AsyncShape async;
+    //response times of each target, kept per method so point reads and scans do not share percentiles
+    private final List<LatencyTracker> latencies;
+
+    private MethodDispatch(final Method method, final Kind kind, final List<TargetMethod> targets, final NoSuchMethodException unresolved, final ReadCache readCache, final MethodMetrics metrics) {
+        this.method = method;
+        this.kind = kind;
+        this.targets = targets;
+        this.unresolved = unresolved;
+        this.readCache = readCache;
+        this.metrics = metrics;
+        this.async = method != null ? AsyncShape.of(method.getReturnType()) : AsyncShape.NONE;
+
+        final List<LatencyTracker> latencies = new ArrayList<>(targets.size());
+        for (int i = 0; i < targets.size(); i++){
+            latencies.add(new LatencyTracker());
+        }
+        this.latencies = Collections.unmodifiableList(latencies);
+    }
+
+    public static MethodDispatch of(final Method method, final Kind kind, final List<TargetMethod> targets){
+        return of(method, kind, targets, null, null);
+    }
+
+    public static MethodDispatch of(final Method method, final Kind kind, final List<TargetMethod> targets, final ReadCache readCache, final MethodMetrics metrics){
+        return new MethodDispatch(method, kind, Collections.unmodifiableList(targets), null, readCache, metrics);
+    }
+
+    public static MethodDispatch unresolved(final Method method, final NoSuchMethodException e){
+        return new MethodDispatch(method, Kind.UNRESOLVED, Collections.emptyList(), e, null, null);
+    }
+
+    public TargetMethod primary(){
+        return targets.get(0);
+    }
+
+}
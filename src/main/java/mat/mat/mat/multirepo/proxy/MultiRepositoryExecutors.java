@@ -0,0 +1,27 @@
+package mat.mat.mat.multirepo.proxy;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public final class MultiRepositoryExecutors {
+
+    private MultiRepositoryExecutors() {
+    }
+
+    public static ExecutorService newExecutor(final String threadNamePrefix){
+
+        //virtual threads when running on a JVM that has them
+        try {
+            final Method virtualThreads = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtualThreads.invoke(null);
+        } catch (ReflectiveOperationException e){
+            final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(threadNamePrefix);
+            threadFactory.setDaemon(true);
+            return Executors.newCachedThreadPool(threadFactory);
+        }
+    }
+
+}
@@ -1,144 +1,350 @@
 package mat.mat.mat.multirepo.proxy;
 
-import lombok.RequiredArgsConstructor;
+import lombok.Builder;
+import mat.mat.mat.multirepo.annotation.JdbcWrites;
+import mat.mat.mat.multirepo.annotation.MultiRepositoryCached;
+import mat.mat.mat.multirepo.cache.ReadCache;
+import mat.mat.mat.multirepo.cache.ReadCacheKey;
+import mat.mat.mat.multirepo.cache.ReadCacheRegistry;
+import mat.mat.mat.multirepo.cache.SpringReadCacheStore;
+import mat.mat.mat.multirepo.change.ChangeDetector;
+import mat.mat.mat.multirepo.jdbc.JdbcEntityWriter;
+import mat.mat.mat.multirepo.metrics.MethodMetrics;
+import mat.mat.mat.multirepo.metrics.MultiRepositoryMetrics;
+import mat.mat.mat.multirepo.transformer.ClassToClass;
 import mat.mat.mat.multirepo.transformer.JpaTransformer;
 import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import org.springframework.cache.CacheManager;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.persistence.EntityManager;
 import java.lang.reflect.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 
-@RequiredArgsConstructor
 public class MultiRepositoryProxy implements InvocationHandler {
 
     private static List<String> readMethods = Arrays.asList("get", "find");
-
-    private static int FIRST_GENERIC = 0;
-    private static int SECOND_GENERIC = 1;
+    private static List<String> readPrefixes = Arrays.asList("read", "query", "search", "stream", "count", "exists");
 
     private final String name;
     private final List<JpaRepository> targetRepositories;
     private final List<JpaTransformer> targetTransformers;
     private final Class sourceInterface;
     private final JpaTransformerCache transformerCache;
+    private final ReadStrategy readStrategy;
+    private final WriteStrategy writeStrategy;
+    private final int bulkChunkSize;
+    private final List<EntityManager> targetEntityManagers;
+    private final List<TransactionTemplate> targetReadTransactions;
+    private final ReadCacheRegistry readCacheRegistry;
+    private final CacheManager cacheManager;
+    private final MultiRepositoryMetrics metrics;
+    private final List<ChangeDetector> changeDetectors;
+    private final List<JdbcEntityWriter> jdbcWriters;
+    private final AsyncInvoker asyncInvoker;
+    private final boolean lazyReads;
+    private final RepositoryBulkheads bulkheads;
+    private final Map<Method, MethodDispatch> dispatchTable;
+    private final FindByIdBatcher findByIdBatcher;
+
+    public MultiRepositoryProxy(final String name, final List<JpaRepository> targetRepositories, final List<JpaTransformer> targetTransformers, final Class sourceInterface, final JpaTransformerCache transformerCache) {
+        this(name, targetRepositories, targetTransformers, sourceInterface, transformerCache, null, null, 0, null, null, null, null, null, 0, null, false, null, 0, 0, null, 0);
+    }
+
+    //changeDetectionMaxEntries is the number of fingerprints kept per target repository, 0 turns change detection off;
+    //lazyReads returns domain views whose collections and associations are transformed when first read;
+    //bulkheads, one per target repository, limit the calls to each of them, null for no limit;
+    //findById calls within findByIdBatchWindowMicros of each other are read with one findAllById, 0 reads each on its own;
+    //jdbcWrites other than JPA saves to the repositories after the first with JDBC batches of jdbcBatchSize, it needs targetEntityManagers;
+    //targetReadTransactions are what reads on other threads than the caller's run in, one per target repository
+    @Builder
+    public MultiRepositoryProxy(final String name, final List<JpaRepository> targetRepositories, final List<JpaTransformer> targetTransformers, final Class sourceInterface, final JpaTransformerCache transformerCache,
+                                final ReadStrategy readStrategy, final WriteStrategy writeStrategy, final int bulkChunkSize, final List<EntityManager> targetEntityManagers,
+                                final List<TransactionTemplate> targetReadTransactions,
+                                final ReadCacheRegistry readCacheRegistry, final CacheManager cacheManager, final MultiRepositoryMetrics metrics, final int changeDetectionMaxEntries,
+                                final AsyncInvoker asyncInvoker, final boolean lazyReads, final RepositoryBulkheads bulkheads, final long findByIdBatchWindowMicros,
+                                final int findByIdBatchSize, final JdbcWrites jdbcWrites, final int jdbcBatchSize) {
+        this.name = name;
+        this.targetRepositories = targetRepositories;
+        this.targetTransformers = targetTransformers;
+        this.sourceInterface = sourceInterface;
+        this.transformerCache = transformerCache;
+        this.readStrategy = readStrategy != null ? readStrategy : RoutedReadStrategy.primary();
+        this.writeStrategy = writeStrategy != null ? writeStrategy : new SequentialWriteStrategy();
+        this.bulkChunkSize = bulkChunkSize;
+        this.targetEntityManagers = targetEntityManagers;
+        this.targetReadTransactions = targetReadTransactions;
+        this.readCacheRegistry = readCacheRegistry != null ? readCacheRegistry : new ReadCacheRegistry();
+        this.cacheManager = cacheManager;
+        this.metrics = metrics != null ? metrics : MultiRepositoryMetrics.NONE;
+        this.changeDetectors = new ArrayList<>();
+        for (int i = 0; changeDetectionMaxEntries > 0 && i < targetRepositories.size(); i++){
+            changeDetectors.add(new ChangeDetector(changeDetectionMaxEntries));
+        }
+        this.jdbcWriters = new ArrayList<>();
+        for (int i = 0; jdbcWrites != null && targetEntityManagers != null && i < targetRepositories.size(); i++){
+            jdbcWriters.add(i > 0 && targetEntityManagers.get(i) != null
+                    ? JdbcEntityWriter.of(targetEntityManagers.get(i).getEntityManagerFactory(), ClassToClass.of(targetTransformers.get(i)).getClassB(), jdbcWrites, jdbcBatchSize)
+                    : null);
+        }
+        this.asyncInvoker = asyncInvoker;
+        this.lazyReads = lazyReads;
+        this.bulkheads = bulkheads;
+        this.dispatchTable = buildDispatchTable();
+        this.findByIdBatcher = findByIdBatchWindowMicros > 0 ? buildFindByIdBatcher(findByIdBatchWindowMicros, findByIdBatchSize) : null;
+    }
 
     @Override
-    public Object invoke(Object proxy, Method method, Object[] args) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
 
-        if (isToString(method)){
-            return name;
+        final MethodDispatch dispatch = dispatchTable.get(method);
+
+        if (dispatch == null){
+            throw new NoSuchMethodException(method.toString());
         }
 
-        if (isModifying(method)){
-            //hande write
-            return handleWrite(proxy, method, args);
-        }else{
-            //handle read
-            return handleRead(proxy, method, args);
+        switch (dispatch.getKind()){
+            case TO_STRING:
+                return name;
+            case EQUALS:
+                return proxy == args[0];
+            case HASH_CODE:
+                return System.identityHashCode(proxy);
+            case WRITE:
+            case READ:
+                if (dispatch.getAsync() != AsyncShape.NONE){
+                    return handleAsync(dispatch, args);
+                }
+                return handleTimed(dispatch, args);
+            default:
+                throw dispatch.getUnresolved();
         }
     }
 
-    private Boolean isToString(final Method method){
-        return method.getName().equals("toString");
+    public Collection<MethodDispatch> getDispatches(){
+        return dispatchTable.values();
     }
 
-    private Boolean isModifying(final Method method){
-        return !readMethods.stream().anyMatch(method.getName()::contains);
+    //one per target repository, empty when change detection is off
+    public List<ChangeDetector> getChangeDetectors(){
+        return Collections.unmodifiableList(changeDetectors);
     }
 
-    private Object handleRead(final Object proxy, final Method method, final Object[] args) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+    private Object handleTimed(final MethodDispatch dispatch, final Object[] args) throws Throwable {
+        final long start = System.nanoTime();
+        try {
+            if (dispatch.getKind() == MethodDispatch.Kind.WRITE){
+                return handleWrite(dispatch, args);
+            }
+            if (dispatch.getReadCache() != null){
+                return handleCachedRead(dispatch, args);
+            }
+            return handleRead(dispatch, args);
+        } finally {
+            dispatch.getMetrics().record(System.nanoTime() - start);
+        }
+    }
 
-        //Read. assumption only use the first Repo/Transformer in the list.
+    private Object handleAsync(final MethodDispatch dispatch, final Object[] args){
+        if (asyncInvoker == null){
+            throw new IllegalStateException(name + "." + dispatch.getMethod().getName() + " returns " + dispatch.getAsync() + ", which needs reactor-core on the class path");
+        }
+        return asyncInvoker.invoke(dispatch, args, () -> readCacheRegistry.invalidate(targetRepositories));
+    }
 
-        final JpaRepository theRepository = targetRepositories.get(0);
-        final JpaTransformer theTransformer = targetTransformers.get(0);
-        final Class targetInterface = getInterface(theRepository);
-        final Method sourceMethod = sourceInterface.getMethod(method.getName(), method.getParameterTypes());
-        final Method targetMethod = targetInterface.getMethod(method.getName(), method.getParameterTypes());
+    private Object handleRead(final MethodDispatch dispatch, final Object[] args) throws Throwable {
 
-        final Object result = targetMethod.invoke(theRepository, args);
+        final Object result = findByIdBatcher != null && findByIdBatcher.batches(dispatch, args)
+                ? findByIdBatcher.load(args[0])
+                : readStrategy.read(dispatch, args, transformerCache);
 
         if (result == null){
             return Optional.empty();
         }
 
-        if (!hasDifferentReturnTypes(sourceMethod, targetMethod)){
-            if (compatibleJpaTransformer(theTransformer, sourceMethod.getReturnType(), targetMethod.getReturnType())){
-                return theTransformer.transformBackward(result, transformerCache);
-            }
-        }
-
         return result;
     }
 
-    private Object handleWrite(final Object proxy, final Method method, final Object[] args) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+    private Object handleCachedRead(final MethodDispatch dispatch, final Object[] args) throws Throwable {
 
-        //Write. Iterate over list of repositories and save.
+        final ReadCache readCache = dispatch.getReadCache();
+        final ReadCacheKey key = readCache.key(args);
+        //stored as new entities nobody else holds, and transformed again on each hit, so callers never share an instance
+        final TargetMethod target = dispatch.getTargets().get(0);
 
-        int index=0;
-        for (final JpaRepository repository : targetRepositories){
-            handleWrite(proxy, method, args, repository, targetTransformers.get(index));
-            index++;
+        final Object cached = readCache.get(key);
+        if (cached != null){
+            return target.getResultShape().transform(cached, target.getTransformer(), transformerCache);
         }
 
-        return null;
+        final long generation = readCache.generation();
+        final Object result = handleRead(dispatch, args);
+        readCache.put(key, target.getResultShape().transformForward(result, target.getTransformer(), transformerCache), generation);
+        return result;
     }
 
-    private Object handleWrite(final Object proxy, final Method method, final Object[] args, final JpaRepository repository, final JpaTransformer transformer) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
-
-        final Class targetInterface = getInterface(repository);
-        final Method targetMethod = targetInterface.getMethod(method.getName(), method.getParameterTypes());
-        final Object[] transformedArgs = transformArgs(args, transformer);
-        return targetMethod.invoke(repository, transformedArgs);
+    private Object handleWrite(final MethodDispatch dispatch, final Object[] args) throws Throwable {
+        try {
+            return writeStrategy.write(dispatch, args, transformerCache);
+        } finally {
+            readCacheRegistry.invalidate(targetRepositories);
+        }
     }
 
-    private Class getInterface(final JpaRepository jpaRepository){
-        return jpaRepository.getClass().getInterfaces()[0];
-    }
+    private Map<Method, MethodDispatch> buildDispatchTable(){
 
-    private boolean hasDifferentReturnTypes(final Method sourceMethod, final Method targetMethod){
-        return sourceMethod.getReturnType().equals(targetMethod.getReturnType());
-    }
+        final List<ClassToClass> transformerTypes = new ArrayList<>();
+        for (final JpaTransformer transformer : targetTransformers){
+            transformerTypes.add(ClassToClass.of(transformer));
+        }
 
-    private boolean compatibleJpaTransformer(final JpaTransformer jpaTransformer, final Class source, final Class target){
+        final Map<Method, MethodDispatch> table = new HashMap<>();
 
-        final Class first = getGenericArgument(jpaTransformer, FIRST_GENERIC);
-        final Class second = getGenericArgument(jpaTransformer, SECOND_GENERIC);
+        for (final Method method : sourceInterface.getMethods()){
+            table.put(method, buildDispatch(method, transformerTypes));
+        }
 
-        if (source.equals(first) && target.equals(second)){
-            return true;
+        try {
+            table.put(Object.class.getMethod("toString"), MethodDispatch.of(null, MethodDispatch.Kind.TO_STRING, Collections.emptyList()));
+            table.put(Object.class.getMethod("equals", Object.class), MethodDispatch.of(null, MethodDispatch.Kind.EQUALS, Collections.emptyList()));
+            table.put(Object.class.getMethod("hashCode"), MethodDispatch.of(null, MethodDispatch.Kind.HASH_CODE, Collections.emptyList()));
+        } catch (NoSuchMethodException e){
+            throw new IllegalStateException(e);
         }
 
-        return false;
+        return Collections.unmodifiableMap(table);
     }
 
-    private Class getGenericArgument(final JpaTransformer jpaTransformer, final int generic){
-        final Type[] genericInterfaces = jpaTransformer.getClass().getGenericInterfaces();
-        final Type type = ((ParameterizedType)genericInterfaces[0]).getActualTypeArguments()[generic];
-        return (Class)type;
-    }
+    //null when reads are not routed to a single repository or the interface has no findById and findAllById to batch
+    private FindByIdBatcher buildFindByIdBatcher(final long windowMicros, final int maxBatchSize){
+
+        if (!(readStrategy instanceof RoutedReadStrategy)){
+            return null;
+        }
+
+        MethodDispatch findById = null;
+        MethodDispatch findAllById = null;
+        for (final MethodDispatch dispatch : dispatchTable.values()){
+            final Method method = dispatch.getMethod();
+            if (dispatch.getKind() != MethodDispatch.Kind.READ || method.getParameterCount() != 1 || dispatch.getAsync() != AsyncShape.NONE){
+                continue;
+            }
+            if (method.getName().equals("findById") && method.getReturnType() == Optional.class){
+                findById = dispatch;
+            } else if (method.getName().equals("findAllById") && method.getParameterTypes()[0] == Iterable.class){
+                findAllById = dispatch;
+            }
+        }
 
-    private Object[] transformArgs(final Object[] args, final JpaTransformer transformer){
+        if (findById == null || findAllById == null){
+            return null;
+        }
+        return new FindByIdBatcher(findById, findAllById, (RoutedReadStrategy) readStrategy, transformerCache, windowMicros, maxBatchSize);
+    }
 
-        final List<Object> transformedArgs = new ArrayList<>();
+    private MethodDispatch buildDispatch(final Method method, final List<ClassToClass> transformerTypes){
 
-        final Class transformerInput = getGenericArgument(transformer, FIRST_GENERIC);
+        if (isToString(method)){
+            return MethodDispatch.of(method, MethodDispatch.Kind.TO_STRING, Collections.emptyList());
+        }
 
-        for (final Object arg : args){
+        final MethodDispatch.Kind kind = isModifying(method) ? MethodDispatch.Kind.WRITE : MethodDispatch.Kind.READ;
+        final List<TargetMethod> targets = new ArrayList<>();
 
-            if (arg.getClass().equals(transformerInput)) {
-                transformedArgs.add(transformer.transformForward(arg, transformerCache));
-            } else{
-                transformedArgs.add(arg);
+        final List<String> repositoryNames = new ArrayList<>();
+        for (final JpaRepository repository : targetRepositories){
+            repositoryNames.add(getInterface(repository).getSimpleName());
+        }
+        final MethodMetrics methodMetrics = metrics.method(name, method, repositoryNames);
+
+        try {
+            int index=0;
+            for (final JpaRepository repository : targetRepositories){
+                final ClassToClass transformerType = transformerTypes.get(index);
+                final Class targetInterface = getInterface(repository);
+                final Method targetMethod = targetInterface.getMethod(method.getName(), method.getParameterTypes());
+                final ResultShape resultShape = ResultShape.of(method, sourceInterface, targetMethod, targetInterface, transformerType);
+
+                targets.add(TargetMethod.builder()
+                        .index(index)
+                        .repository(repository)
+                        .repositoryName(targetInterface.getSimpleName())
+                        .transformer(targetTransformers.get(index))
+                        .transformerInput(transformerType.getClassA())
+                        .method(targetMethod)
+                        .resultShape(resultShape)
+                        .bulkChunkSize(bulkChunkSize)
+                        .entityManager(targetEntityManagers != null ? targetEntityManagers.get(index) : null)
+                        .metrics(methodMetrics.target(index))
+                        .changeDetector(changeDetectors.isEmpty() ? null : changeDetectors.get(index))
+                        .lazyReads(lazyReads)
+                        .bulkhead(bulkheads != null ? bulkheads.get(index) : null)
+                        .tripped(bulkheads != null ? bulkheads.getTripped() : null)
+                        .deferral(bulkheads != null ? bulkheads.getDeferral(index) : null)
+                        .jdbcWriter(jdbcWriters.isEmpty() ? null : jdbcWriters.get(index))
+                        .readTransaction(targetReadTransactions != null ? targetReadTransactions.get(index) : null)
+                        .build());
+                index++;
             }
+        } catch (NoSuchMethodException e){
+            return MethodDispatch.unresolved(method, e);
+        } catch (IllegalAccessException e){
+            return MethodDispatch.unresolved(method, (NoSuchMethodException) new NoSuchMethodException(method.toString()).initCause(e));
+        }
 
+        return MethodDispatch.of(method, kind, targets, kind == MethodDispatch.Kind.READ ? buildReadCache(method) : null, methodMetrics);
+    }
+
+    private ReadCache buildReadCache(final Method method){
+
+        //the method's own settings win over the interface's
+        MultiRepositoryCached cached = method.getAnnotation(MultiRepositoryCached.class);
+        if (cached == null){
+            cached = (MultiRepositoryCached) sourceInterface.getAnnotation(MultiRepositoryCached.class);
+        }
+        if (cached == null || !cached.enabled() || Stream.class.isAssignableFrom(method.getReturnType()) || AsyncShape.of(method.getReturnType()) != AsyncShape.NONE){
+            return null;
         }
 
-        return transformedArgs.toArray(new Object[0]);
+        final String cacheName = name + "." + method.getName();
+        //overloads and methods inherited by several multi repositories each get their own keys
+        final String scope = name + "#" + method.toGenericString();
+        final ReadCache readCache;
+
+        if (cached.cacheName().isEmpty()){
+            readCache = ReadCache.caffeine(cacheName, scope, cached.maximumSize(), cached.expireAfterWriteMillis());
+        } else if (cacheManager != null){
+            readCache = new ReadCache(cacheName, scope, new SpringReadCacheStore(cacheManager.getCache(cached.cacheName())), new LongAdder());
+        } else {
+            throw new IllegalStateException(cacheName + " uses cache " + cached.cacheName() + " but there is no CacheManager");
+        }
+
+        readCacheRegistry.register(readCache, targetRepositories);
+        metrics.readCache(name, method.getName(), readCache);
+        return readCache;
+    }
+
+    private Boolean isToString(final Method method){
+        return method.getName().equals("toString") && method.getParameterCount() == 0;
     }
 
+    private Boolean isModifying(final Method method){
+        return !readMethods.stream().anyMatch(method.getName()::contains)
+                && !readPrefixes.stream().anyMatch(method.getName()::startsWith);
+    }
+
+    public static Class getInterface(final JpaRepository jpaRepository){
+        return jpaRepository.getClass().getInterfaces()[0];
+    }
 
 }
@@ -0,0 +1,20 @@
+package mat.mat.mat.multirepo.proxy;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.Map;
+
+@Getter
+public class MultiRepositoryWriteException extends RuntimeException {
+
+    private final Map<String, Throwable> failures;
+
+    public MultiRepositoryWriteException(final String name, final Map<String, Throwable> failures) {
+        super(name + " write failed on " + failures.keySet());
+        this.failures = Collections.unmodifiableMap(failures);
+        for (final Throwable failure : failures.values()){
+            addSuppressed(failure);
+        }
+    }
+}
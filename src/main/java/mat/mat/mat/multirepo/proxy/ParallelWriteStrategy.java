@@ -0,0 +1,97 @@
+package mat.mat.mat.multirepo.proxy;
+
+import lombok.Getter;
+import mat.mat.mat.multirepo.annotation.WriteAcknowledgement;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes to every repository at once on the write executor and waits for the acknowledgement. The writes
+ * are not transactional: each runs in a transaction of its own on an executor thread, outside the
+ * caller's, so rolling the caller back undoes none of them. A write that fails the acknowledgement
+ * leaves the repositories that did write with the write committed.
+ */
+public class ParallelWriteStrategy implements WriteStrategy {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelWriteStrategy.class);
+
+    private final String name;
+    private final Executor executor;
+    @Getter
+    private final WriteAcknowledgement acknowledgement;
+    private final long timeoutNanos;
+
+    public ParallelWriteStrategy(final String name, final Executor executor, final WriteAcknowledgement acknowledgement, final long timeoutMillis) {
+        this.name = name;
+        this.executor = executor;
+        this.acknowledgement = acknowledgement;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    @Override
+    public Object write(final MethodDispatch dispatch, final Object[] args, final JpaTransformerCache transformerCache) throws Throwable {
+
+        //Write. Transform and save on every repository at once, then wait for the acknowledgement.
+
+        final List<TargetMethod> targets = dispatch.getTargets();
+        final FanOutWrite fanOut = new FanOutWrite(name, targets, dispatch.getMetrics());
+        final long deadline = System.nanoTime() + timeoutNanos;
+
+        for (final TargetMethod target : targets){
+            submit(fanOut, target, args, transformerCache);
+        }
+
+        try {
+            if (!acknowledged(fanOut, targets.size(), deadline)){
+                throw fanOut.toException();
+            }
+        } finally {
+            fanOut.acknowledge();
+        }
+
+        return null;
+    }
+
+    private boolean acknowledged(final FanOutWrite fanOut, final int size, final long deadline) throws InterruptedException {
+        switch (acknowledgement){
+            case QUORUM:
+                return fanOut.awaitSuccesses(size / 2 + 1, deadline);
+            case PRIMARY:
+                if (!fanOut.awaitTarget(0, deadline)){
+                    return false;
+                }
+                fanOut.awaitAll(deadline);
+                final Map<String, Throwable> failures = fanOut.failures();
+                if (!failures.isEmpty()){
+                    logger.warn("{} write acknowledged by primary, secondary failures {}", name, failures);
+                }
+                return true;
+            default:
+                return fanOut.awaitAll(deadline) && fanOut.failures().isEmpty();
+        }
+    }
+
+    private void submit(final FanOutWrite fanOut, final TargetMethod target, final Object[] args, final JpaTransformerCache transformerCache){
+        try {
+            executor.execute(() -> {
+                final long start = System.nanoTime();
+                try {
+                    target.invokeTransformed(args, transformerCache);
+                    fanOut.succeeded(target.getIndex(), System.nanoTime() - start);
+                } catch (Throwable e){
+                    fanOut.failed(target.getIndex(), e);
+                }
+            });
+        } catch (RejectedExecutionException e){
+            fanOut.failed(target.getIndex(), e);
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+package mat.mat.mat.multirepo.proxy;
+
+import lombok.Getter;
+
+@Getter
+public class PendingWrite {
+
+    private final TargetMethod target;
+    private final Object id;
+    private final boolean save;
+    private final long enqueuedNanos;
+    private Object[] args;
+
+    public PendingWrite(final TargetMethod target, final Object[] args, final Object id, final boolean save) {
+        this.target = target;
+        this.args = args;
+        this.id = id;
+        this.save = save;
+        this.enqueuedNanos = System.nanoTime();
+    }
+
+    //a later save of the same entity replaces the queued one, keeping its place and age
+    void coalesce(final Object[] args){
+        this.args = args;
+    }
+
+}
@@ -0,0 +1,12 @@
+package mat.mat.mat.multirepo.proxy;
+
+import java.util.List;
+
+public class PrimaryReadRouter implements ReadRouter {
+
+    @Override
+    public int select(final MethodDispatch dispatch, final List<LatencyTracker> latencies) {
+        return 0;
+    }
+
+}
@@ -0,0 +1,361 @@
+package mat.mat.mat.multirepo.proxy;
+
+import mat.mat.mat.multirepo.annotation.WriteAcknowledgement;
+import mat.mat.mat.multirepo.transformer.EntityMetadata;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import org.springframework.core.ResolvableType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Runs the methods returning Mono, Flux or CompletableFuture without blocking the caller. Every repository
+ * call runs on the executor of the repository's datasource. Sequential and parallel writes, routed reads and
+ * SCATTER_GATHER reads are composed from one call per repository. Reads, and the transforms of what they
+ * return, run in a read-only transaction of their repository, so lazy associations still load; a Flux over
+ * a stream is pulled inside that transaction as its elements are emitted. Other write modes and read
+ * strategies run whole on the primary repository's executor.
+ */
+public class ReactiveInvoker implements AsyncInvoker {
+
+    private final String name;
+    private final List<Scheduler> schedulers;
+    private final ReadStrategy readStrategy;
+    private final WriteStrategy writeStrategy;
+    private final JpaTransformerCache transformerCache;
+    private final Map<Method, Class> valueClasses = new ConcurrentHashMap<>();
+
+    private ReactiveInvoker(final String name, final List<Scheduler> schedulers, final ReadStrategy readStrategy, final WriteStrategy writeStrategy, final JpaTransformerCache transformerCache) {
+        this.name = name;
+        this.schedulers = schedulers;
+        this.readStrategy = readStrategy;
+        this.writeStrategy = writeStrategy;
+        this.transformerCache = transformerCache;
+    }
+
+    //executors holds the one of each target repository, in order
+    public static AsyncInvoker create(final String name, final List<ExecutorService> executors, final ReadStrategy readStrategy, final WriteStrategy writeStrategy,
+                                      final JpaTransformerCache transformerCache){
+        final Map<ExecutorService, Scheduler> shared = new IdentityHashMap<>();
+        final List<Scheduler> schedulers = new ArrayList<>();
+        for (final ExecutorService executor : executors){
+            schedulers.add(shared.computeIfAbsent(executor, Schedulers::fromExecutorService));
+        }
+        return new ReactiveInvoker(name, Collections.unmodifiableList(schedulers), readStrategy, writeStrategy, transformerCache);
+    }
+
+    @Override
+    public Object invoke(final MethodDispatch dispatch, final Object[] args, final Runnable afterWrite) {
+
+        final boolean write = dispatch.getKind() == MethodDispatch.Kind.WRITE;
+
+        if (dispatch.getAsync() == AsyncShape.FLUX){
+            return Flux.defer(() -> {
+                final long start = System.nanoTime();
+                return (write ? write(dispatch, args).flux() : readMany(dispatch, args))
+                        .doFinally(signal -> finished(dispatch, write ? afterWrite : null, start));
+            });
+        }
+
+        final Mono<Object> mono = Mono.defer(() -> {
+            final long start = System.nanoTime();
+            return (write ? write(dispatch, args) : readOne(dispatch, args))
+                    .doFinally(signal -> finished(dispatch, write ? afterWrite : null, start));
+        });
+        return dispatch.getAsync() == AsyncShape.FUTURE ? mono.toFuture() : mono;
+    }
+
+    private void finished(final MethodDispatch dispatch, final Runnable afterWrite, final long start){
+        if (afterWrite != null){
+            afterWrite.run();
+        }
+        dispatch.getMetrics().record(System.nanoTime() - start);
+    }
+
+    private Mono<Object> write(final MethodDispatch dispatch, final Object[] args){
+
+        final List<TargetMethod> targets = dispatch.getTargets();
+
+        if (writeStrategy instanceof SequentialWriteStrategy){
+            return Flux.fromIterable(targets)
+                    .concatMap(target -> call(target, () -> target.invokeTransformed(args, transformerCache)))
+                    .then(Mono.empty());
+        }
+
+        if (writeStrategy instanceof ParallelWriteStrategy && ((ParallelWriteStrategy) writeStrategy).getAcknowledgement() == WriteAcknowledgement.ALL){
+            final Map<String, Throwable> failures = new ConcurrentHashMap<>();
+            return Flux.fromIterable(targets)
+                    .flatMap(target -> call(target, () -> target.invokeTransformed(args, transformerCache))
+                            .onErrorResume(e -> {
+                                failures.put(target.getRepositoryName(), e);
+                                return Mono.empty();
+                            }), targets.size())
+                    .then(Mono.defer(() -> failures.isEmpty() ? Mono.empty() : Mono.error(new MultiRepositoryWriteException(name, failures))));
+        }
+
+        //journaled, write-behind, sharded and partly acknowledged writes keep their own rules
+        return call(schedulers.get(0), () -> writeStrategy.write(dispatch, args, transformerCache)).then(Mono.empty());
+    }
+
+    private Mono<Object> readOne(final MethodDispatch dispatch, final Object[] args){
+
+        final Method method = dispatch.getMethod();
+        final Class valueClass = valueClass(method);
+        final Optional<ScatterGatherReadStrategy.Merge> merge = isScattered(dispatch)
+                ? ScatterGatherReadStrategy.mergeOf(method.getName(), valueClass)
+                : Optional.empty();
+
+        if (merge.isPresent()){
+            return scatterOne(dispatch, args, merge.get(), valueClass);
+        }
+        if (readStrategy instanceof RoutedReadStrategy){
+            return routed(dispatch, args, (target, read) -> transformed(target, read).flux())
+                    .next()
+                    .flatMap(result -> Mono.justOrEmpty(unwrap(result, valueClass)));
+        }
+        return call(schedulers.get(0), () -> dispatch.primary().inReadTransaction(() -> readStrategy.read(dispatch, args, transformerCache)))
+                .flatMap(result -> Mono.justOrEmpty(unwrap(result, valueClass)));
+    }
+
+    private Flux<Object> readMany(final MethodDispatch dispatch, final Object[] args){
+
+        if (isScattered(dispatch) && ScatterGatherReadStrategy.mergeOf(dispatch.getMethod().getName(), List.class).isPresent()){
+            return union(dispatch, args);
+        }
+        if (readStrategy instanceof RoutedReadStrategy){
+            return routed(dispatch, args, (target, read) -> elements(target, read, element -> true, true));
+        }
+        return elements(dispatch.primary(), () -> readStrategy.read(dispatch, args, transformerCache), element -> true, false);
+    }
+
+    private Flux<Object> routed(final MethodDispatch dispatch, final Object[] args, final BiFunction<TargetMethod, Call, Flux<Object>> read){
+        final RoutedReadStrategy routed = (RoutedReadStrategy) readStrategy;
+        return attempt(dispatch, args, read, routed.select(dispatch), routed.isFailover() ? dispatch.getTargets().size() : 1, 0);
+    }
+
+    //the next repository takes over when one fails before answering anything
+    private Flux<Object> attempt(final MethodDispatch dispatch, final Object[] args, final BiFunction<TargetMethod, Call, Flux<Object>> read,
+                                 final int first, final int attempts, final int attempt){
+        final List<TargetMethod> targets = dispatch.getTargets();
+        final TargetMethod target = targets.get((first + attempt) % targets.size());
+        return Flux.defer(() -> {
+            final AtomicBoolean answered = new AtomicBoolean();
+            final Flux<Object> answer = read.apply(target, timed(target, dispatch.getLatencies(), args)).doOnNext(element -> answered.set(true));
+            return attempt + 1 < attempts
+                    ? answer.onErrorResume(e -> !answered.get(), e -> attempt(dispatch, args, read, first, attempts, attempt + 1))
+                    : answer;
+        });
+    }
+
+    private Call timed(final TargetMethod target, final List<LatencyTracker> latencies, final Object[] args){
+        final LatencyTracker latency = latencies.get(target.getIndex());
+        return () -> {
+            final long start = System.nanoTime();
+            final Object result;
+            try {
+                result = target.invoke(args);
+            } catch (Throwable e){
+                latency.recordFailure(System.nanoTime() - start);
+                throw e;
+            }
+            latency.record(System.nanoTime() - start);
+            return result;
+        };
+    }
+
+    private Mono<Object> scatterOne(final MethodDispatch dispatch, final Object[] args, final ScatterGatherReadStrategy.Merge merge, final Class valueClass){
+
+        final List<TargetMethod> targets = dispatch.getTargets();
+
+        switch (merge){
+            case SUM:
+                return scatter(targets, false, target -> transformed(target, () -> target.invoke(args)).flux())
+                        .reduce(0L, (sum, result) -> sum + ((Number) result).longValue())
+                        .map(sum -> valueClass == Integer.class ? (Object) sum.intValue() : (Object) sum);
+
+            case ANY:
+                return scatter(targets, false, target -> transformed(target, () -> target.invoke(args)).flux())
+                        .any(Boolean.TRUE::equals)
+                        .map(any -> (Object) any);
+
+            case FIRST:
+                //in repository order, the later ones are cancelled once one has it
+                return scatter(targets, true, target -> transformed(target, () -> target.invoke(args)).flux())
+                        .filter(result -> !(result instanceof Optional && !((Optional) result).isPresent()))
+                        .next()
+                        .flatMap(result -> Mono.justOrEmpty(unwrap(result, valueClass)));
+
+            default:
+                return Set.class.isAssignableFrom(valueClass)
+                        ? union(dispatch, args).collect(LinkedHashSet::new, Collection::add).map(set -> (Object) set)
+                        : union(dispatch, args).collectList().map(list -> (Object) list);
+        }
+    }
+
+    //the first repository in order keeps an entity the others return as well
+    private Flux<Object> union(final MethodDispatch dispatch, final Object[] args){
+        final Set<Object> ids = ConcurrentHashMap.newKeySet();
+        return scatter(dispatch.getTargets(), true, target -> elements(target, () -> target.invoke(args), element -> {
+            final Object id = EntityMetadata.identifier(element);
+            return id == null || ids.add(id);
+        }, true));
+    }
+
+    //each repository has readTimeoutMillis for its answer, and for each next element of a Flux
+    private <T> Flux<T> scatter(final List<TargetMethod> targets, final boolean ordered, final Function<TargetMethod, Flux<T>> ask){
+
+        final ScatterGatherReadStrategy scatter = (ScatterGatherReadStrategy) readStrategy;
+        final Map<String, Throwable> failures = new ConcurrentHashMap<>();
+        final AtomicInteger answered = new AtomicInteger();
+
+        final Function<TargetMethod, Flux<T>> guarded = target -> ask.apply(target)
+                .timeout(Duration.ofNanos(scatter.getTimeoutNanos()))
+                .doOnComplete(answered::incrementAndGet)
+                .onErrorResume(e -> {
+                    failures.put(target.getRepositoryName(), e);
+                    return scatter.isPartialResults() ? Flux.empty() : Flux.error(new MultiRepositoryReadException(name, Collections.singletonMap(target.getRepositoryName(), e)));
+                });
+
+        final Flux<T> answers = ordered
+                ? Flux.fromIterable(targets).flatMapSequential(guarded, targets.size())
+                : Flux.fromIterable(targets).flatMap(guarded, targets.size());
+
+        return answers.concatWith(Mono.defer(() -> answered.get() == 0 && !failures.isEmpty()
+                ? Mono.error(new MultiRepositoryReadException(name, failures))
+                : Mono.empty()));
+    }
+
+    //the result of the read transformed on the target's executor, inside a read-only transaction of its repository so lazy associations still load
+    private Mono<Object> transformed(final TargetMethod target, final Call read){
+        return call(target, () -> target.inReadTransaction(() -> {
+            final Object result = read.run();
+            return result == null ? null : target.transformResult(result, transformerCache);
+        }));
+    }
+
+    //the elements of the result the read returns, read, kept and transformed on the target's executor inside a read-only transaction of its repository;
+    //a stream is pulled within that transaction only as far as the subscriber has requested, and stops being pulled when it cancels
+    private Flux<Object> elements(final TargetMethod target, final Call read, final Predicate<Object> keep, final boolean transforming){
+        return Flux.create((FluxSink<Object> sink) -> {
+            //the transaction is bound to this thread, so it waits for demand rather than handing the iterator to the requesting one
+            final Object demand = new Object();
+            sink.onRequest(requested -> signal(demand));
+            sink.onCancel(() -> signal(demand));
+            try {
+                target.inReadTransaction(() -> {
+                    final Object result = read.run();
+                    try {
+                        final Iterator<Object> iterator = iterator(result);
+                        while (awaitDemand(sink, demand) && iterator.hasNext()){
+                            final Object element = iterator.next();
+                            if (element != null && keep.test(element)){
+                                sink.next(transforming ? transform(target, element) : element);
+                            }
+                        }
+                    } finally {
+                        if (result instanceof Stream){
+                            ((Stream) result).close();
+                        }
+                    }
+                    return null;
+                });
+                sink.complete();
+            } catch (Throwable e){
+                sink.error(e);
+            }
+        }).subscribeOn(schedulers.get(target.getIndex()));
+    }
+
+    private static boolean awaitDemand(final FluxSink<Object> sink, final Object demand) throws InterruptedException {
+        synchronized (demand){
+            while (sink.requestedFromDownstream() == 0 && !sink.isCancelled()){
+                demand.wait();
+            }
+        }
+        return !sink.isCancelled();
+    }
+
+    private static void signal(final Object demand){
+        synchronized (demand){
+            demand.notifyAll();
+        }
+    }
+
+    private static Iterator<Object> iterator(final Object result){
+        if (result == null){
+            return Collections.emptyIterator();
+        }
+        if (result instanceof Optional){
+            return ((Optional<Object>) result).isPresent() ? Collections.singletonList(((Optional<Object>) result).get()).iterator() : Collections.emptyIterator();
+        }
+        if (result instanceof Stream){
+            return ((Stream<Object>) result).iterator();
+        }
+        if (result instanceof Iterable){
+            return ((Iterable<Object>) result).iterator();
+        }
+        return Collections.singletonList(result).iterator();
+    }
+
+    private Object transform(final TargetMethod target, final Object element){
+        return target.getResultShape() == ResultShape.NONE ? element : target.getReadTransformer().transformBackward(element, transformerCache);
+    }
+
+    //a Mono or CompletableFuture of an entity is empty where the repository returns an empty Optional
+    private Object unwrap(final Object result, final Class valueClass){
+        return result instanceof Optional && !Optional.class.equals(valueClass) ? ((Optional) result).orElse(null) : result;
+    }
+
+    private boolean isScattered(final MethodDispatch dispatch){
+        return readStrategy instanceof ScatterGatherReadStrategy && dispatch.getTargets().size() > 1;
+    }
+
+    private Class valueClass(final Method method){
+        return valueClasses.computeIfAbsent(method, m -> ResolvableType.forMethodReturnType(m).getGeneric(0).resolve(Object.class));
+    }
+
+    private Mono<Object> call(final TargetMethod target, final Call call){
+        return call(schedulers.get(target.getIndex()), call);
+    }
+
+    private static Mono<Object> call(final Scheduler scheduler, final Call call){
+        return Mono.fromCallable(() -> {
+            try {
+                return call.run();
+            } catch (Exception | Error e){
+                throw e;
+            } catch (Throwable e){
+                throw new UndeclaredThrowableException(e);
+            }
+        }).subscribeOn(scheduler);
+    }
+
+    private interface Call {
+        Object run() throws Throwable;
+    }
+
+}
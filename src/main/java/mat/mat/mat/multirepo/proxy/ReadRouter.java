@@ -0,0 +1,10 @@
+package mat.mat.mat.multirepo.proxy;
+
+import java.util.List;
+
+public interface ReadRouter {
+
+    //index of the repository to read from first, the others follow in order when failing over or hedging
+    int select(MethodDispatch dispatch, List<LatencyTracker> latencies);
+
+}
@@ -0,0 +1,10 @@
+package mat.mat.mat.multirepo.proxy;
+
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+
+public interface ReadStrategy {
+
+    //the result transformed back by the transformer of the repository that answered, null when there is none
+    Object read(MethodDispatch dispatch, Object[] args, JpaTransformerCache transformerCache) throws Throwable;
+
+}
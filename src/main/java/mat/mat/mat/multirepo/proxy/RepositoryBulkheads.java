@@ -0,0 +1,90 @@
+package mat.mat.mat.multirepo.proxy;
+
+import lombok.Getter;
+import mat.mat.mat.multirepo.annotation.TrippedRepository;
+import mat.mat.mat.multirepo.bulkhead.Bulkhead;
+import mat.mat.mat.multirepo.bulkhead.BulkheadSettings;
+import mat.mat.mat.multirepo.metrics.MultiRepositoryMetrics;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The bulkheads of the target repositories of one multi repository and, when writes to a repository after
+ * the first are deferred while its circuit breaker is open, the queues holding them. Registered as a bean
+ * so the context drains the queues on shutdown.
+ */
+public class RepositoryBulkheads implements SmartLifecycle {
+
+    @Getter
+    private final TrippedRepository tripped;
+    private final List<Bulkhead> bulkheads;
+    private final List<WriteBehindQueue> deferrals;
+    private final long shutdownTimeoutMillis;
+    private volatile boolean running;
+
+    public RepositoryBulkheads(final String name, final List<JpaRepository> repositories, final BulkheadSettings settings, final WriteBehindSettings deferralSettings,
+                               final MultiRepositoryMetrics metrics) throws NoSuchMethodException, IllegalAccessException {
+        this.tripped = settings.getTripped();
+        this.shutdownTimeoutMillis = deferralSettings.getShutdownTimeoutMillis();
+
+        final List<Bulkhead> bulkheads = new ArrayList<>();
+        final List<WriteBehindQueue> deferrals = new ArrayList<>();
+        for (final JpaRepository repository : repositories){
+            final Bulkhead bulkhead = new Bulkhead(name, MultiRepositoryProxy.getInterface(repository).getSimpleName(), settings, metrics);
+            bulkheads.add(bulkhead);
+            final WriteBehindQueue deferral = tripped == TrippedRepository.DEFER && bulkheads.size() > 1 ? new WriteBehindQueue(name, repository, deferralSettings, bulkhead) : null;
+            if (deferral != null && metrics != null){
+                metrics.writeBehind(name, deferral.getRepositoryName(), "deferred", deferral);
+            }
+            deferrals.add(deferral);
+        }
+        this.bulkheads = Collections.unmodifiableList(bulkheads);
+        this.deferrals = Collections.unmodifiableList(deferrals);
+        this.running = true;
+    }
+
+    public Bulkhead get(final int index){
+        return bulkheads.get(index);
+    }
+
+    //null for the first repository and when tripped writes are not deferred
+    public WriteBehindQueue getDeferral(final int index){
+        return deferrals.get(index);
+    }
+
+    public List<Bulkhead> getBulkheads(){
+        return bulkheads;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        final long deadline = System.currentTimeMillis() + shutdownTimeoutMillis;
+        for (final WriteBehindQueue deferral : deferrals){
+            if (deferral != null){
+                deferral.close(Math.max(deadline - System.currentTimeMillis(), 1));
+            }
+        }
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    //stop after the phases that might still be producing writes
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+}
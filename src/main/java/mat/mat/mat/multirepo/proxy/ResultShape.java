@@ -0,0 +1,195 @@
+package mat.mat.mat.multirepo.proxy;
+
+import mat.mat.mat.multirepo.transformer.ClassToClass;
+import mat.mat.mat.multirepo.transformer.JpaTransformer;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import mat.mat.mat.multirepo.transformer.LazyViewTransformer;
+import org.springframework.core.ResolvableType;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * How a repository result is transformed back into what the multi repository method returns.
+ */
+public enum ResultShape {
+
+    //returned as is
+    NONE {
+        @Override
+        public Object transform(final Object result, final JpaTransformer transformer, final JpaTransformerCache transformerCache) {
+            return result;
+        }
+    },
+
+    SINGLE {
+        @Override
+        public Object transform(final Object result, final JpaTransformer transformer, final JpaTransformerCache transformerCache) {
+            return transformer.transformBackward(result, transformerCache);
+        }
+    },
+
+    OPTIONAL {
+        @Override
+        public Object transform(final Object result, final JpaTransformer transformer, final JpaTransformerCache transformerCache) {
+            return ((Optional<Object>) result).map(element -> transformer.transformBackward(element, transformerCache));
+        }
+    },
+
+    LIST {
+        @Override
+        public Object transform(final Object result, final JpaTransformer transformer, final JpaTransformerCache transformerCache) {
+            final Iterable elements = (Iterable) result;
+            if (elements instanceof Collection){
+                transformerCache.getMetrics().transform(LazyViewTransformer.transformerClass(transformer)).recordElements(((Collection) elements).size());
+            }
+            final List<Object> transformed = elements instanceof Collection ? new ArrayList<>(((Collection) elements).size()) : new ArrayList<>();
+            for (final Object element : elements){
+                transformed.add(transformer.transformBackward(element, transformerCache));
+            }
+            return transformed;
+        }
+    },
+
+    SET {
+        @Override
+        public Object transform(final Object result, final JpaTransformer transformer, final JpaTransformerCache transformerCache) {
+            final Collection elements = (Collection) result;
+            transformerCache.getMetrics().transform(LazyViewTransformer.transformerClass(transformer)).recordElements(elements.size());
+            final Set<Object> transformed = new LinkedHashSet<>((int) (elements.size() / .75f) + 1);
+            for (final Object element : elements){
+                transformed.add(transformer.transformBackward(element, transformerCache));
+            }
+            return transformed;
+        }
+    },
+
+    //mapped lazily, closing the returned stream closes the repository's one
+    STREAM {
+        @Override
+        public Object transform(final Object result, final JpaTransformer transformer, final JpaTransformerCache transformerCache) {
+            return ((Stream<Object>) result).map(element -> transformer.transformBackward(element, transformerCache));
+        }
+    },
+
+    //content mapped, pageable and total kept
+    PAGE {
+        @Override
+        public Object transform(final Object result, final JpaTransformer transformer, final JpaTransformerCache transformerCache) {
+            return ((Page<Object>) result).map(element -> transformer.transformBackward(element, transformerCache));
+        }
+    },
+
+    //content mapped, pageable and hasNext kept
+    SLICE {
+        @Override
+        public Object transform(final Object result, final JpaTransformer transformer, final JpaTransformerCache transformerCache) {
+            return ((Slice<Object>) result).map(element -> transformer.transformBackward(element, transformerCache));
+        }
+    };
+
+    public abstract Object transform(Object result, JpaTransformer transformer, JpaTransformerCache transformerCache);
+
+    //the other way round, a transformed result back into new entities shaped as the repository returned them
+    public Object transformForward(final Object result, final JpaTransformer transformer, final JpaTransformerCache transformerCache){
+        switch (this){
+            case SINGLE:
+                return transformer.transformForward(result, transformerCache);
+            case OPTIONAL:
+                return ((Optional<Object>) result).map(element -> transformer.transformForward(element, transformerCache));
+            case LIST:
+            case SET:
+                final Collection<Object> elements = this == SET ? new LinkedHashSet<>() : new ArrayList<>();
+                for (final Object element : (Iterable) result){
+                    elements.add(transformer.transformForward(element, transformerCache));
+                }
+                return elements;
+            case STREAM:
+                return ((Stream<Object>) result).map(element -> transformer.transformForward(element, transformerCache));
+            case PAGE:
+                return ((Page<Object>) result).map(element -> transformer.transformForward(element, transformerCache));
+            case SLICE:
+                return ((Slice<Object>) result).map(element -> transformer.transformForward(element, transformerCache));
+            default:
+                return result;
+        }
+    }
+
+    public static ResultShape of(final Method sourceMethod, final Class sourceInterface, final Method targetMethod, final Class targetInterface, final ClassToClass transformerType){
+
+        final ResolvableType targetType = ResolvableType.forMethodReturnType(targetMethod, targetInterface);
+        final ResolvableType sourceType = unwrapAsync(ResolvableType.forMethodReturnType(sourceMethod, sourceInterface), targetType);
+        final Class sourceClass = sourceType.resolve(Object.class);
+        final Class targetClass = targetType.resolve(Object.class);
+
+        if (!sourceClass.equals(targetClass) && sourceClass.equals(transformerType.getClassA()) && targetClass.equals(transformerType.getClassB())){
+            return SINGLE;
+        }
+
+        if (!elementsTransformable(sourceType, targetType, transformerType)){
+            return NONE;
+        }
+
+        if (Stream.class.equals(sourceClass) && Stream.class.isAssignableFrom(targetClass)){
+            return STREAM;
+        }
+        if (Optional.class.equals(sourceClass) && Optional.class.equals(targetClass)){
+            return OPTIONAL;
+        }
+        if (Page.class.equals(sourceClass) && Page.class.isAssignableFrom(targetClass)){
+            return PAGE;
+        }
+        if (Slice.class.equals(sourceClass) && Slice.class.isAssignableFrom(targetClass)){
+            return SLICE;
+        }
+        if (sourceClass.isAssignableFrom(LinkedHashSet.class) && Set.class.isAssignableFrom(sourceClass) && Collection.class.isAssignableFrom(targetClass)){
+            return SET;
+        }
+        if (sourceClass.isAssignableFrom(ArrayList.class) && Iterable.class.isAssignableFrom(targetClass)){
+            return LIST;
+        }
+        return NONE;
+    }
+
+    //the value of a Mono, Flux or CompletableFuture, in the target's Optional, Stream or, for a Flux, collection
+    private static ResolvableType unwrapAsync(final ResolvableType sourceType, final ResolvableType targetType){
+
+        final AsyncShape async = AsyncShape.of(sourceType.resolve(Object.class));
+        if (async == AsyncShape.NONE){
+            return sourceType;
+        }
+
+        final ResolvableType value = sourceType.getGeneric(0);
+        final Class valueClass = value.resolve(Object.class);
+        final Class targetClass = targetType.resolve(Object.class);
+
+        if (Optional.class.equals(targetClass) && !Optional.class.equals(valueClass)){
+            return ResolvableType.forClassWithGenerics(Optional.class, value);
+        }
+        if (Stream.class.isAssignableFrom(targetClass) && !Stream.class.isAssignableFrom(valueClass)){
+            return ResolvableType.forClassWithGenerics(Stream.class, value);
+        }
+        if (async == AsyncShape.FLUX && Iterable.class.isAssignableFrom(targetClass)){
+            return ResolvableType.forClassWithGenerics(List.class, value);
+        }
+        return value;
+    }
+
+    private static boolean elementsTransformable(final ResolvableType sourceType, final ResolvableType targetType, final ClassToClass transformerType){
+        if (!sourceType.hasGenerics() || !targetType.hasGenerics()){
+            return false;
+        }
+        final Class sourceElement = sourceType.getGeneric(0).resolve();
+        final Class targetElement = targetType.getGeneric(0).resolve();
+        return transformerType.getClassA().equals(sourceElement) && transformerType.getClassB().equals(targetElement);
+    }
+
+}
@@ -0,0 +1,15 @@
+package mat.mat.mat.multirepo.proxy;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RoundRobinReadRouter implements ReadRouter {
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public int select(final MethodDispatch dispatch, final List<LatencyTracker> latencies) {
+        return (next.getAndIncrement() & Integer.MAX_VALUE) % dispatch.getTargets().size();
+    }
+
+}
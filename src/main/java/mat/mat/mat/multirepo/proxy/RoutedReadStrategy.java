@@ -0,0 +1,141 @@
+package mat.mat.mat.multirepo.proxy;
+
+import lombok.Getter;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+public class RoutedReadStrategy implements ReadStrategy {
+
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
+    private final ReadRouter router;
+    @Getter
+    private final boolean failover;
+    private final boolean hedged;
+    private final double hedgePercentile;
+    private final Executor executor;
+
+    public RoutedReadStrategy(final ReadRouter router, final boolean failover, final boolean hedged, final double hedgePercentile, final Executor executor) {
+        this.router = router;
+        this.failover = failover;
+        this.hedged = hedged;
+        this.hedgePercentile = hedgePercentile;
+        this.executor = executor;
+    }
+
+    public static RoutedReadStrategy primary(){
+        return new RoutedReadStrategy(new PrimaryReadRouter(), false, false, 0, null);
+    }
+
+    @Override
+    public Object read(final MethodDispatch dispatch, final Object[] args, final JpaTransformerCache transformerCache) throws Throwable {
+
+        final List<TargetMethod> targets = dispatch.getTargets();
+        final List<LatencyTracker> latencies = dispatch.getLatencies();
+        final int first = router.select(dispatch, latencies);
+
+        //streams stay on the caller thread, they are tied to its transaction
+        if (hedged && targets.size() > 1 && latencies.get(first).getSamples() >= MIN_HEDGE_SAMPLES && targets.get(first).getResultShape() != ResultShape.STREAM){
+            return hedgedRead(targets, latencies, first, args, transformerCache);
+        }
+
+        if (!failover){
+            return read(targets.get(first), latencies, args, transformerCache);
+        }
+
+        Throwable failure = null;
+        for (int attempt = 0; attempt < targets.size(); attempt++){
+            try {
+                return read(targets.get((first + attempt) % targets.size()), latencies, args, transformerCache);
+            } catch (Throwable e){
+                if (failure == null){
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        throw failure;
+    }
+
+    //index of the repository to read from first
+    public int select(final MethodDispatch dispatch){
+        return router.select(dispatch, dispatch.getLatencies());
+    }
+
+    private Object hedgedRead(final List<TargetMethod> targets, final List<LatencyTracker> latencies, final int first, final Object[] args,
+                              final JpaTransformerCache transformerCache) throws Throwable {
+
+        //the selected repository is read on the caller thread, the next one is added off it each time the percentile
+        //passes without an answer; the reads that lose are not cancelled and run to the end
+        final long delayNanos = latencies.get(first).getPercentileNanos(hedgePercentile);
+        final int maxAttempts = failover ? targets.size() : 2;
+        final HedgedRead race = new HedgedRead();
+
+        race.launched();
+        hedge(race, targets, latencies, first, 1, maxAttempts, delayNanos, args, transformerCache);
+        attempt(race, targets.get(first), latencies, args, transformerCache);
+
+        race.awaitOutcome(maxAttempts);
+        if (race.isSucceeded()){
+            return race.getResult();
+        }
+        throw race.getFailure();
+    }
+
+    //waits off the caller thread for the earlier reads to pass the delay or fail, then reads the attempt's repository
+    private void hedge(final HedgedRead race, final List<TargetMethod> targets, final List<LatencyTracker> latencies, final int first, final int attempt,
+                       final int maxAttempts, final long delayNanos, final Object[] args, final JpaTransformerCache transformerCache){
+        if (attempt >= maxAttempts){
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    race.await(delayNanos);
+                } catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    race.abandoned(e, maxAttempts - attempt);
+                    return;
+                }
+                if (race.isSucceeded()){
+                    return;
+                }
+                race.launched();
+                hedge(race, targets, latencies, first, attempt + 1, maxAttempts, delayNanos, args, transformerCache);
+                attempt(race, targets.get((first + attempt) % targets.size()), latencies, args, transformerCache);
+            });
+        } catch (RejectedExecutionException e){
+            race.abandoned(e, maxAttempts - attempt);
+        }
+    }
+
+    private void attempt(final HedgedRead race, final TargetMethod target, final List<LatencyTracker> latencies, final Object[] args, final JpaTransformerCache transformerCache){
+        try {
+            race.succeeded(target.inReadTransaction(() -> read(target, latencies, args, transformerCache)));
+        } catch (Throwable e){
+            race.failed(e);
+        }
+    }
+
+    private Object read(final TargetMethod target, final List<LatencyTracker> latencies, final Object[] args, final JpaTransformerCache transformerCache) throws Throwable {
+
+        final LatencyTracker latency = latencies.get(target.getIndex());
+        final long start = System.nanoTime();
+        final Object result;
+
+        try {
+            result = target.invoke(args);
+        } catch (Throwable e){
+            latency.recordFailure(System.nanoTime() - start);
+            throw e;
+        }
+        latency.record(System.nanoTime() - start);
+
+        return result == null ? null : target.transformResult(result, transformerCache);
+    }
+
+}
@@ -0,0 +1,209 @@
+package mat.mat.mat.multirepo.proxy;
+
+import lombok.Getter;
+import mat.mat.mat.multirepo.transformer.EntityMetadata;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Slice;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Sends find, count and exists reads to every repository at once and merges what they return, each
+ * result transformed by its own repository's transformer. Collections are merged into one without
+ * repeating an entity id, counts are summed, exists is true when any repository says so, and an
+ * Optional or single result is the first one found in repository order. Results are transformed on the
+ * thread that read them, in a read-only transaction of their repository, so lazy associations still load. Other reads, and results that
+ * cannot be merged such as streams and pages, go to the fallback strategy.
+ */
+public class ScatterGatherReadStrategy implements ReadStrategy {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScatterGatherReadStrategy.class);
+
+    private static final List<String> scatterPrefixes = Arrays.asList("find", "count", "exists");
+
+    enum Merge {
+        UNION, SUM, ANY, FIRST
+    }
+
+    private final String name;
+    private final Executor executor;
+    @Getter
+    private final long timeoutNanos;
+    @Getter
+    private final boolean partialResults;
+    private final ReadStrategy fallback;
+    private final Map<Method, Optional<Merge>> merges = new ConcurrentHashMap<>();
+
+    //with partialResults a read answers from the repositories that did within the timeout, when at least one did
+    public ScatterGatherReadStrategy(final String name, final Executor executor, final long timeoutMillis, final boolean partialResults, final ReadStrategy fallback) {
+        this.name = name;
+        this.executor = executor;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.partialResults = partialResults;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public Object read(final MethodDispatch dispatch, final Object[] args, final JpaTransformerCache transformerCache) throws Throwable {
+
+        final List<TargetMethod> targets = dispatch.getTargets();
+        final Merge merge = targets.size() > 1 ? merges.computeIfAbsent(dispatch.getMethod(), method -> mergeOf(method.getName(), method.getReturnType())).orElse(null) : null;
+
+        if (merge == null){
+            return fallback.read(dispatch, args, transformerCache);
+        }
+
+        final ScatterRead scatter = new ScatterRead(name, targets);
+        final long deadline = System.nanoTime() + timeoutNanos;
+
+        for (final TargetMethod target : targets){
+            submit(scatter, target, merge, args, transformerCache);
+        }
+        scatter.await(deadline, merge == Merge.ANY);
+
+        if (scatter.isMatched()){
+            return Boolean.TRUE;
+        }
+
+        final Map<String, Throwable> failures = scatter.failures();
+        if (!failures.isEmpty()){
+            if (!partialResults || scatter.getSucceeded() == 0){
+                throw scatter.toException();
+            }
+            logger.debug("{} read answered without {}", name, failures.keySet());
+        }
+
+        return merge(merge, dispatch, scatter);
+    }
+
+    private void submit(final ScatterRead scatter, final TargetMethod target, final Merge merge, final Object[] args, final JpaTransformerCache transformerCache){
+        try {
+            executor.execute(() -> {
+                try {
+                    scatter.succeeded(target.getIndex(), target.inReadTransaction(() -> gather(target, merge, target.invoke(args), transformerCache)));
+                } catch (Throwable e){
+                    scatter.failed(target.getIndex(), e);
+                }
+            });
+        } catch (RejectedExecutionException e){
+            scatter.failed(target.getIndex(), e);
+        }
+    }
+
+    //what merge needs of one repository's result, transformed while its entities are still attached
+    private static Object gather(final TargetMethod target, final Merge merge, final Object result, final JpaTransformerCache transformerCache){
+        switch (merge){
+            case FIRST:
+                return result != null ? target.transformResult(result, transformerCache) : null;
+            case UNION:
+                if (result == null){
+                    return null;
+                }
+                final List<Object> ids = new ArrayList<>();
+                final List<Object> entities = new ArrayList<>();
+                for (final Object element : (Iterable) result){
+                    ids.add(element != null ? EntityMetadata.identifier(element) : null);
+                    entities.add(element);
+                }
+                return new Gathered(ids, (List<Object>) ResultShape.LIST.transform(entities, target.getReadTransformer(), transformerCache));
+            default:
+                return result;
+        }
+    }
+
+    private Object merge(final Merge merge, final MethodDispatch dispatch, final ScatterRead scatter){
+
+        final List<TargetMethod> targets = dispatch.getTargets();
+        final Class returnType = dispatch.getMethod().getReturnType();
+
+        switch (merge){
+            case SUM:
+                long sum = 0;
+                for (int i = 0; i < targets.size(); i++){
+                    if (scatter.isSucceeded(i) && scatter.getResult(i) != null){
+                        sum += ((Number) scatter.getResult(i)).longValue();
+                    }
+                }
+                return returnType == int.class || returnType == Integer.class ? (Object) (int) sum : (Object) sum;
+
+            case ANY:
+                return Boolean.FALSE;
+
+            case FIRST:
+                for (int i = 0; i < targets.size(); i++){
+                    final Object result = scatter.isSucceeded(i) ? scatter.getResult(i) : null;
+                    if (result != null && !(result instanceof Optional && !((Optional) result).isPresent())){
+                        return result;
+                    }
+                }
+                return Optional.class.equals(returnType) ? Optional.empty() : null;
+
+            default:
+                //the first repository in order keeps an entity the others return as well
+                final Collection<Object> merged = Set.class.isAssignableFrom(returnType) ? new LinkedHashSet<>() : new ArrayList<>();
+                final Set<Object> ids = new HashSet<>();
+                for (int i = 0; i < targets.size(); i++){
+                    final Gathered gathered = scatter.isSucceeded(i) ? (Gathered) scatter.getResult(i) : null;
+                    if (gathered == null){
+                        continue;
+                    }
+                    for (int element = 0; element < gathered.ids.size(); element++){
+                        final Object id = gathered.ids.get(element);
+                        if (id == null || ids.add(id)){
+                            merged.add(gathered.elements.get(element));
+                        }
+                    }
+                }
+                return merged;
+        }
+    }
+
+    //the transformed elements of one repository's result, with the ids of the entities they came from
+    private static final class Gathered {
+
+        private final List<Object> ids;
+        private final List<Object> elements;
+
+        private Gathered(final List<Object> ids, final List<Object> elements) {
+            this.ids = ids;
+            this.elements = elements;
+        }
+    }
+
+    //returnType is the value of a Mono, Flux or CompletableFuture for reads that do not block
+    static Optional<Merge> mergeOf(final String methodName, final Class returnType){
+
+        if (scatterPrefixes.stream().noneMatch(methodName::startsWith)
+                || Stream.class.isAssignableFrom(returnType) || Slice.class.isAssignableFrom(returnType)){
+            return Optional.empty();
+        }
+        if (methodName.startsWith("count") && (returnType == long.class || returnType == Long.class || returnType == int.class || returnType == Integer.class)){
+            return Optional.of(Merge.SUM);
+        }
+        if (methodName.startsWith("exists") && (returnType == boolean.class || returnType == Boolean.class)){
+            return Optional.of(Merge.ANY);
+        }
+        if (Iterable.class.isAssignableFrom(returnType)){
+            //only the collection types the merge builds
+            return returnType.isAssignableFrom(ArrayList.class) || returnType.isAssignableFrom(LinkedHashSet.class) ? Optional.of(Merge.UNION) : Optional.empty();
+        }
+        return Optional.of(Merge.FIRST);
+    }
+
+}
@@ -0,0 +1,91 @@
+package mat.mat.mat.multirepo.proxy;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Results of one read sent to every target repository at once, by repository index.
+ */
+public class ScatterRead {
+
+    private final String name;
+    private final List<TargetMethod> targets;
+    private final Object[] results;
+    private final Throwable[] failures;
+    private final boolean[] completed;
+    private int succeeded;
+    private int failed;
+    private boolean matched;
+
+    public ScatterRead(final String name, final List<TargetMethod> targets) {
+        this.name = name;
+        this.targets = targets;
+        this.results = new Object[targets.size()];
+        this.failures = new Throwable[targets.size()];
+        this.completed = new boolean[targets.size()];
+    }
+
+    public synchronized void succeeded(final int index, final Object result){
+        completed[index] = true;
+        results[index] = result;
+        succeeded++;
+        if (Boolean.TRUE.equals(result)){
+            matched = true;
+        }
+        notifyAll();
+    }
+
+    public synchronized void failed(final int index, final Throwable failure){
+        completed[index] = true;
+        failures[index] = failure;
+        failed++;
+        notifyAll();
+    }
+
+    //until every repository answered or the deadline passed, or one answered true when untilTrue
+    public synchronized void await(final long deadline, final boolean untilTrue) throws InterruptedException {
+        while (succeeded + failed < targets.size() && !(untilTrue && matched)){
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0){
+                return;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    public synchronized boolean isMatched(){
+        return matched;
+    }
+
+    public synchronized boolean isSucceeded(final int index){
+        return completed[index] && failures[index] == null;
+    }
+
+    public synchronized Object getResult(final int index){
+        return results[index];
+    }
+
+    public synchronized int getSucceeded(){
+        return succeeded;
+    }
+
+    public synchronized Map<String, Throwable> failures(){
+        final Map<String, Throwable> byRepository = new LinkedHashMap<>();
+        for (int i = 0; i < targets.size(); i++){
+            if (failures[i] != null){
+                byRepository.put(targets.get(i).getRepositoryName(), failures[i]);
+            } else if (!completed[i]){
+                byRepository.put(targets.get(i).getRepositoryName(), new TimeoutException("No result before the read timeout"));
+            }
+        }
+        return byRepository;
+    }
+
+    public MultiRepositoryReadException toException(){
+        return new MultiRepositoryReadException(name, failures());
+    }
+
+}
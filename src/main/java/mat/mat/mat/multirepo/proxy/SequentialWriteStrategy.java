@@ -0,0 +1,30 @@
+package mat.mat.mat.multirepo.proxy;
+
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+
+public class SequentialWriteStrategy implements WriteStrategy {
+
+    @Override
+    public Object write(final MethodDispatch dispatch, final Object[] args, final JpaTransformerCache transformerCache) throws Throwable {
+
+        //Write. Iterate over list of repositories and save.
+
+        long fastest = Long.MAX_VALUE;
+        long slowest = 0;
+
+        for (final TargetMethod target : dispatch.getTargets()){
+            final long start = System.nanoTime();
+            target.invokeTransformed(args, transformerCache);
+            final long elapsed = System.nanoTime() - start;
+            fastest = Math.min(fastest, elapsed);
+            slowest = Math.max(slowest, elapsed);
+        }
+
+        if (dispatch.getTargets().size() > 1){
+            dispatch.getMetrics().recordSkew(fastest, slowest);
+        }
+
+        return null;
+    }
+
+}
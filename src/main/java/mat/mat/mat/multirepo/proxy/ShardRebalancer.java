@@ -0,0 +1,133 @@
+package mat.mat.mat.multirepo.proxy;
+
+import mat.mat.mat.multirepo.transformer.EntityMetadata;
+import mat.mat.mat.multirepo.transformer.JpaTransformer;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.ResolvableType;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.repository.Repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves the entities the ring gave to added shards off their previous shards while the multi repository
+ * keeps serving. Each previous shard is read page by page in id order; an entity that moved is transformed
+ * back with its old shard's transformer and forward with its new one's, saved unless a write got there
+ * first, and deleted from the old shard once the pass over it is done. Passes repeat until one moves
+ * nothing, then reads stop falling back to the previous shards.
+ */
+public class ShardRebalancer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardRebalancer.class);
+
+    private final String name;
+    private final ShardedStrategy strategy;
+    private final List<JpaRepository> repositories;
+    private final List<JpaTransformer> transformers;
+    private final JpaTransformerCache transformerCache;
+    private final AtomicLong moved = new AtomicLong();
+
+    public ShardRebalancer(final String name, final ShardedStrategy strategy, final List<JpaRepository> repositories, final List<JpaTransformer> transformers,
+                           final JpaTransformerCache transformerCache) {
+        this.name = name;
+        this.strategy = strategy;
+        this.repositories = repositories;
+        this.transformers = transformers;
+        this.transformerCache = transformerCache;
+    }
+
+    //the number of entities moved, 0 when the shards are already balanced
+    public synchronized long rebalance(final int pageSize){
+
+        if (!strategy.isRebalancing()){
+            return 0;
+        }
+
+        long total = 0;
+        long pass;
+        do {
+            pass = 0;
+            for (int shard = 0; shard < strategy.getPreviousRing().size(); shard++){
+                pass += rebalance(shard, pageSize);
+            }
+            total += pass;
+        } while (pass > 0);
+
+        strategy.rebalanced();
+        logger.info("{} rebalanced onto {} shards, {} entities moved", name, strategy.getRing().size(), total);
+        return total;
+    }
+
+    public long getMoved(){
+        return moved.get();
+    }
+
+    public boolean isRebalancing(){
+        return strategy.isRebalancing();
+    }
+
+    private long rebalance(final int shard, final int pageSize){
+
+        final JpaRepository repository = repositories.get(shard);
+        final List<Object> movedIds = new ArrayList<>();
+
+        Page<Object> page = repository.findAll(PageRequest.of(0, pageSize, sortById(repository)));
+        while (true){
+            for (final Object entity : page){
+                final Object domain = transformers.get(shard).transformBackward(entity, transformerCache);
+                final Object key = strategy.shardKey(domain);
+                final int owner = strategy.getRing().shard(key);
+                final Object id = EntityMetadata.identifier(entity);
+                if (owner != shard && move(domain, key, shard, id, owner)){
+                    movedIds.add(id);
+                }
+            }
+            if (!page.hasNext()){
+                break;
+            }
+            page = repository.findAll(page.nextPageable());
+        }
+
+        //deleted after the pass so the pages it reads do not shift
+        for (final Object id : movedIds){
+            try {
+                repository.deleteById(id);
+            } catch (EmptyResultDataAccessException e){
+                //a write to the key removed it already
+            }
+        }
+
+        moved.addAndGet(movedIds.size());
+        return movedIds.size();
+    }
+
+    //false when a write to the key since the page was read has removed it from its old shard already
+    private boolean move(final Object domain, final Object key, final int shard, final Object id, final int owner){
+        final Object entity = transformers.get(owner).transformForward(domain, transformerCache);
+        final Object ownerId = EntityMetadata.identifier(entity);
+        synchronized (strategy.lock(key)){
+            if (id != null && !repositories.get(shard).existsById(id)){
+                return false;
+            }
+            if (ownerId == null || !repositories.get(owner).existsById(ownerId)){
+                repositories.get(owner).save(entity);
+            }
+            return true;
+        }
+    }
+
+    private static Sort sortById(final JpaRepository repository){
+        final Class entityClass = ResolvableType.forClass(MultiRepositoryProxy.getInterface(repository)).as(Repository.class).resolveGeneric(0);
+        final String identifierName = entityClass != null ? EntityMetadata.of(entityClass).getIdentifierName() : null;
+        return identifierName != null ? Sort.by(identifierName) : Sort.unsorted();
+    }
+
+}
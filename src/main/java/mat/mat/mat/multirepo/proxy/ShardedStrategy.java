@@ -0,0 +1,265 @@
+package mat.mat.mat.multirepo.proxy;
+
+import lombok.Getter;
+import mat.mat.mat.multirepo.shard.ConsistentHashRing;
+import mat.mat.mat.multirepo.shard.ShardKeyExtractor;
+import mat.mat.mat.multirepo.transformer.EntityMetadata;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps each entity in one repository, chosen by its shard key on a consistent hash ring over the
+ * repositories. Saves and deletes of an entity, and reads and deletes by id when the shard key is the
+ * id, reach only the owning repository and its transformer, and bulk writes are split by shard.
+ * Other reads are scattered to every repository, other writes go to all of them.
+ * While rebalancing onto added shards, reads by id fall back to the key's previous owner, and a write
+ * to a key that moved removes it from the previous owner, so the rebalancer never copies a stale one.
+ */
+public class ShardedStrategy implements ReadStrategy, WriteStrategy {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private static final List<String> entityMethods = Arrays.asList("save", "delete");
+    private static final List<String> entitiesMethods = Arrays.asList("saveAll", "deleteAll", "deleteInBatch");
+    private static final List<String> idMethods = Arrays.asList("findById", "existsById", "deleteById", "getOne");
+
+    enum Routing {
+        ENTITY, ENTITIES, ID, IDS, ALL
+    }
+
+    @Getter
+    private final String name;
+    @Getter
+    private final ShardKeyExtractor extractor;
+    @Getter
+    private final ConsistentHashRing ring;
+    @Getter
+    private final ConsistentHashRing previousRing;
+    private final ReadStrategy scatter;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final Map<Method, Routing> routings = new ConcurrentHashMap<>();
+    private volatile boolean rebalancing;
+
+    //previousRing is the ring before shards were added, null when there is nothing to rebalance
+    public ShardedStrategy(final String name, final ShardKeyExtractor extractor, final ConsistentHashRing ring, final ConsistentHashRing previousRing, final ReadStrategy scatter) {
+        this.name = name;
+        this.extractor = extractor;
+        this.ring = ring;
+        this.previousRing = previousRing;
+        this.scatter = scatter;
+        this.rebalancing = previousRing != null;
+        for (int i = 0; i < LOCK_STRIPES; i++){
+            locks[i] = new Object();
+        }
+    }
+
+    public boolean isRebalancing(){
+        return rebalancing;
+    }
+
+    //every entity is on its owner, reads stop falling back to the previous ring
+    public void rebalanced(){
+        rebalancing = false;
+    }
+
+    @Override
+    public Object write(final MethodDispatch dispatch, final Object[] args, final JpaTransformerCache transformerCache) throws Throwable {
+
+        final List<TargetMethod> targets = dispatch.getTargets();
+
+        switch (routing(dispatch)){
+            case ENTITY:
+                writeKeyed(targets, shardKey(args[0]), args[0], null, args, transformerCache);
+                return null;
+            case ID:
+                writeKeyed(targets, id(args[0]), null, args[0], args, transformerCache);
+                return null;
+            case ENTITIES:
+                writeSplit(targets, (Iterable) args[0], transformerCache);
+                return null;
+            default:
+                for (final TargetMethod target : targets){
+                    target.invokeTransformed(args, transformerCache);
+                }
+                return null;
+        }
+    }
+
+    @Override
+    public Object read(final MethodDispatch dispatch, final Object[] args, final JpaTransformerCache transformerCache) throws Throwable {
+
+        final List<TargetMethod> targets = dispatch.getTargets();
+
+        switch (routing(dispatch)){
+            case ID:
+                final int shard = ring.shard(id(args[0]));
+                final Object result = read(targets.get(shard), args, transformerCache);
+                final int previous = previousOwner(args[0], shard);
+                return previous < 0 || !isEmpty(result) ? result : read(targets.get(previous), args, transformerCache);
+            case IDS:
+                if (!rebalancing){
+                    return readSplit(targets, (Iterable) args[0], transformerCache);
+                }
+                return scatter.read(dispatch, args, transformerCache);
+            default:
+                return scatter.read(dispatch, args, transformerCache);
+        }
+    }
+
+    private void writeKeyed(final List<TargetMethod> targets, final Object key, final Object entity, final Object id, final Object[] args, final JpaTransformerCache transformerCache) throws Throwable {
+
+        final int shard = ring.shard(key);
+        final int previous = previousOwner(key, shard);
+
+        if (previous < 0){
+            targets.get(shard).invokeTransformed(args, transformerCache);
+            return;
+        }
+
+        synchronized (lock(key)){
+            EmptyResultDataAccessException missing = null;
+            try {
+                targets.get(shard).invokeTransformed(args, transformerCache);
+            } catch (EmptyResultDataAccessException e){
+                //a delete by id of an entity not moved yet
+                missing = e;
+            }
+
+            final TargetMethod previousTarget = targets.get(previous);
+            final boolean removed = remove(previousTarget, id != null ? id : identifier(previousTarget, entity, transformerCache));
+            if (missing != null && !removed){
+                throw missing;
+            }
+        }
+    }
+
+    private void writeSplit(final List<TargetMethod> targets, final Iterable entities, final JpaTransformerCache transformerCache) throws Throwable {
+
+        if (rebalancing){
+            for (final Object entity : entities){
+                writeKeyed(targets, shardKey(entity), entity, null, new Object[] {new ArrayList<>(Arrays.asList(entity))}, transformerCache);
+            }
+            return;
+        }
+
+        for (final Map.Entry<Integer, List<Object>> shard : split(entities, true).entrySet()){
+            targets.get(shard.getKey()).invokeTransformed(new Object[] {shard.getValue()}, transformerCache);
+        }
+    }
+
+    private Object readSplit(final List<TargetMethod> targets, final Iterable ids, final JpaTransformerCache transformerCache) throws Throwable {
+        final List<Object> results = new ArrayList<>();
+        for (final Map.Entry<Integer, List<Object>> shard : split(ids, false).entrySet()){
+            final Object result = read(targets.get(shard.getKey()), new Object[] {shard.getValue()}, transformerCache);
+            if (result != null){
+                for (final Object element : (Iterable) result){
+                    results.add(element);
+                }
+            }
+        }
+        return results;
+    }
+
+    private Map<Integer, List<Object>> split(final Iterable elements, final boolean entities){
+        final Map<Integer, List<Object>> shards = new TreeMap<>();
+        for (final Object element : elements){
+            final int shard = ring.shard(entities ? shardKey(element) : id(element));
+            shards.computeIfAbsent(shard, s -> new ArrayList<>()).add(element);
+        }
+        return shards;
+    }
+
+    private Object read(final TargetMethod target, final Object[] args, final JpaTransformerCache transformerCache) throws Throwable {
+        final Object result = target.invoke(args);
+        return result == null ? null : target.transformResult(result, transformerCache);
+    }
+
+    private boolean remove(final TargetMethod target, final Object id){
+        if (id == null){
+            return false;
+        }
+        try {
+            target.getRepository().deleteById(id);
+            return true;
+        } catch (EmptyResultDataAccessException e){
+            return false;
+        }
+    }
+
+    private Object identifier(final TargetMethod target, final Object entity, final JpaTransformerCache transformerCache){
+        final Object transformed = target.getTransformerInput().isInstance(entity) ? target.getTransformer().transformForward(entity, transformerCache) : entity;
+        return transformed != null ? EntityMetadata.identifier(transformed) : null;
+    }
+
+    //the extractor's key, which has to be there before the entity is written, unlike a generated id
+    Object shardKey(final Object entity){
+        if (entity == null){
+            throw new IllegalArgumentException(name + " cannot shard a null entity");
+        }
+        final Object key = extractor.shardKey(entity);
+        if (key == null){
+            throw new IllegalArgumentException(name + " cannot shard a " + entity.getClass().getName() + " whose shard key is null");
+        }
+        return key;
+    }
+
+    private Object id(final Object id){
+        if (id == null){
+            throw new IllegalArgumentException(name + " cannot shard a null id");
+        }
+        return id;
+    }
+
+    //owner of the key on the previous ring when it differs and entities are still being moved, -1 otherwise
+    int previousOwner(final Object key, final int shard){
+        if (!rebalancing){
+            return -1;
+        }
+        final int previous = previousRing.shard(key);
+        return previous != shard ? previous : -1;
+    }
+
+    //held while a moved key is written, here and by the rebalancer
+    Object lock(final Object key){
+        return locks[(key.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+    }
+
+    private Routing routing(final MethodDispatch dispatch){
+        return routings.computeIfAbsent(dispatch.getMethod(), this::routingOf);
+    }
+
+    private Routing routingOf(final Method method){
+
+        final String methodName = method.getName();
+        final boolean single = method.getParameterCount() == 1;
+        final boolean iterable = single && Iterable.class.isAssignableFrom(method.getParameterTypes()[0]);
+
+        if (single && !iterable && entityMethods.contains(methodName)){
+            return Routing.ENTITY;
+        }
+        if (iterable && entitiesMethods.contains(methodName)){
+            return Routing.ENTITIES;
+        }
+        if (extractor.isIdentifier() && single && !iterable && idMethods.contains(methodName)){
+            return Routing.ID;
+        }
+        if (extractor.isIdentifier() && iterable && methodName.equals("findAllById")){
+            return Routing.IDS;
+        }
+        return Routing.ALL;
+    }
+
+    private static boolean isEmpty(final Object result){
+        return result == null || Boolean.FALSE.equals(result) || (result instanceof Optional && !((Optional) result).isPresent());
+    }
+
+}
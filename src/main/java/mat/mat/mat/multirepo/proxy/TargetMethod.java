@@ -0,0 +1,339 @@
+package mat.mat.mat.multirepo.proxy;
+
+import lombok.Builder;
+import lombok.Getter;
+import mat.mat.mat.multirepo.annotation.TrippedRepository;
+import mat.mat.mat.multirepo.bulkhead.Bulkhead;
+import mat.mat.mat.multirepo.bulkhead.BulkheadRejectedException;
+import mat.mat.mat.multirepo.change.ChangeDetector;
+import mat.mat.mat.multirepo.jdbc.JdbcEntityWriter;
+import mat.mat.mat.multirepo.metrics.RepositoryMetrics;
+import mat.mat.mat.multirepo.transformer.EntityMetadata;
+import mat.mat.mat.multirepo.transformer.JpaTransformer;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import mat.mat.mat.multirepo.transformer.LazyViewTransformer;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A repository method resolved once at proxy creation. The handle is bound to the repository
+ * and spread over an Object[] so it can be called straight from the proxy arguments.
+ */
+@Getter
+public class TargetMethod {
+
+    private static final MethodType SPREAD_TYPE = MethodType.methodType(Object.class, Object[].class);
+    private static final List<String> bulkMethods = Arrays.asList("saveAll", "deleteAll", "deleteInBatch");
+
+    private final int index;
+    private final JpaRepository repository;
+    private final String repositoryName;
+    private final JpaTransformer transformer;
+    //the transformer of read results, a LazyViewTransformer over it for lazy reads
+    private final JpaTransformer readTransformer;
+    private final Class transformerInput;
+    private final Method method;
+    private final MethodHandle handle;
+    private final boolean transformingArgs;
+    private final ResultShape resultShape;
+    private final boolean bulk;
+    private final int bulkChunkSize;
+    private final EntityManager entityManager;
+    private final RepositoryMetrics metrics;
+    private final ChangeDetector changeDetector;
+    private final ChangeDetector.Operation operation;
+    private final Bulkhead bulkhead;
+    //what becomes of writes while the bulkhead's circuit breaker is open, FAIL for the first repository
+    private final TrippedRepository tripped;
+    private final WriteBehindQueue deferral;
+    //writes save and saveAll instead of the repository, null for other methods
+    private final JdbcEntityWriter jdbcWriter;
+    //read-only transaction of the repository's transaction manager, null when it has none
+    private final TransactionTemplate readTransaction;
+
+    @Builder
+    public TargetMethod(final int index, final JpaRepository repository, final String repositoryName, final JpaTransformer transformer, final Class transformerInput, final Method method, final ResultShape resultShape,
+                        final int bulkChunkSize, final EntityManager entityManager, final RepositoryMetrics metrics, final ChangeDetector changeDetector,
+                        final boolean lazyReads, final Bulkhead bulkhead, final TrippedRepository tripped, final WriteBehindQueue deferral,
+                        final JdbcEntityWriter jdbcWriter, final TransactionTemplate readTransaction) throws IllegalAccessException {
+        this.index = index;
+        this.repository = repository;
+        this.repositoryName = repositoryName;
+        this.transformer = transformer;
+        this.readTransformer = lazyReads ? LazyViewTransformer.of(transformer) : transformer;
+        this.transformerInput = transformerInput;
+        this.method = method;
+        this.handle = MethodHandles.publicLookup()
+                .unreflect(method)
+                .bindTo(repository)
+                .asSpreader(Object[].class, method.getParameterCount())
+                .asType(SPREAD_TYPE);
+        this.transformingArgs = acceptsTransformerInput(method, transformerInput);
+        this.resultShape = resultShape != null ? resultShape : ResultShape.NONE;
+        this.bulk = isBulk(method);
+        this.bulkChunkSize = bulkChunkSize;
+        this.entityManager = entityManager;
+        this.metrics = metrics != null ? metrics : RepositoryMetrics.NONE;
+        this.changeDetector = changeDetector;
+        this.operation = ChangeDetector.Operation.of(method);
+        this.bulkhead = bulkhead;
+        this.tripped = tripped != null && index > 0 ? tripped : TrippedRepository.FAIL;
+        this.deferral = this.tripped == TrippedRepository.DEFER ? deferral : null;
+        this.jdbcWriter = operation == ChangeDetector.Operation.SAVE || operation == ChangeDetector.Operation.SAVE_ALL ? jdbcWriter : null;
+        this.readTransaction = readTransaction;
+    }
+
+    //runs a read off the caller's thread in a read-only transaction of this repository, transforms included,
+    //so the entities stay attached until their lazy associations are copied
+    public Object inReadTransaction(final Call call) throws Throwable {
+        if (readTransaction == null){
+            return call.call();
+        }
+        final Throwable[] failure = new Throwable[1];
+        final Object result = readTransaction.execute(status -> {
+            try {
+                return call.call();
+            } catch (Throwable e){
+                failure[0] = e;
+                status.setRollbackOnly();
+                return null;
+            }
+        });
+        if (failure[0] != null){
+            throw failure[0];
+        }
+        return result;
+    }
+
+    public Object invoke(final Object[] args) throws Throwable {
+        final long permit = bulkhead != null ? bulkhead.acquire() : 0;
+        final long start = System.nanoTime();
+        final Object result;
+        try {
+            result = jdbcWriter != null ? writeJdbc(args) : (Object) handle.invokeExact(args);
+        } catch (Throwable e){
+            metrics.recordFailure(System.nanoTime() - start);
+            if (bulkhead != null){
+                bulkhead.release(permit, e);
+            }
+            throw e;
+        }
+        metrics.record(System.nanoTime() - start);
+        if (bulkhead != null){
+            bulkhead.release(permit, null);
+        }
+        return result;
+    }
+
+    //the entity or entities written, as save and saveAll return them
+    private Object writeJdbc(final Object[] args){
+        jdbcWriter.write(operation == ChangeDetector.Operation.SAVE ? Collections.singletonList(args[0]) : (Iterable) args[0]);
+        return args[0];
+    }
+
+    public Object invokeTransformed(final Object[] args, final JpaTransformerCache transformerCache) throws Throwable {
+        if (isChunked(args)){
+            return invokeChunked((Iterable) args[0], true, transformerCache);
+        }
+        return write(transformArgs(args, transformerCache));
+    }
+
+    //invoke with arguments already passed through transformArgs
+    public Object invokePrepared(final Object[] args) throws Throwable {
+        if (isChunked(args)){
+            return invokeChunked((Iterable) args[0], false, null);
+        }
+        return write(args);
+    }
+
+    //the prepared entities a bulk save still has to write, all of them when change detection is off
+    public ChangeDetector.Changes changed(final List<Object> entities){
+        return changeDetector != null ? changeDetector.changed(entities, metrics) : ChangeDetector.Changes.all(entities);
+    }
+
+    public Object[] transformArgs(final Object[] args, final JpaTransformerCache transformerCache){
+
+        if (bulk && args[0] != null){
+            return new Object[] {transformElements((Iterable) args[0], transformerCache)};
+        }
+
+        if (!transformingArgs){
+            return args;
+        }
+
+        final Object[] transformedArgs = new Object[args.length];
+
+        for (int i = 0; i < args.length; i++){
+            final Object arg = args[i];
+
+            //a lazy read's view is a subclass of the transformer input
+            if (transformerInput.isInstance(arg)) {
+                transformedArgs[i] = transformer.transformForward(arg, transformerCache);
+            } else {
+                transformedArgs[i] = arg;
+            }
+        }
+
+        return transformedArgs;
+    }
+
+    public Object transformResult(final Object result, final JpaTransformerCache transformerCache){
+        return resultShape.transform(result, readTransformer, transformerCache);
+    }
+
+    private boolean isChunked(final Object[] args){
+        return bulk && bulkChunkSize > 0 && args[0] != null;
+    }
+
+    private List<Object> transformElements(final Iterable elements, final JpaTransformerCache transformerCache){
+        if (elements instanceof Collection){
+            transformerCache.getMetrics().transform(transformer.getClass()).recordElements(((Collection) elements).size());
+        }
+        final List<Object> transformed = elements instanceof Collection ? new ArrayList<>(((Collection) elements).size()) : new ArrayList<>();
+        for (final Object element : elements){
+            transformed.add(transformElement(element, transformerCache));
+        }
+        return transformed;
+    }
+
+    private Object transformElement(final Object element, final JpaTransformerCache transformerCache){
+        if (transformerInput.isInstance(element)){
+            return transformer.transformForward(element, transformerCache);
+        }
+        return element;
+    }
+
+    private Object invokeChunked(final Iterable elements, final boolean transforming, final JpaTransformerCache transformerCache) throws Throwable {
+
+        //write chunk by chunk, flushing and clearing the persistence context in between so it stays small
+        final List<Object> results = new ArrayList<>();
+        final Iterator iterator = elements.iterator();
+
+        while (iterator.hasNext()){
+            final List<Object> chunk = new ArrayList<>(bulkChunkSize);
+            while (iterator.hasNext() && chunk.size() < bulkChunkSize){
+                final Object element = iterator.next();
+                chunk.add(transforming ? transformElement(element, transformerCache) : element);
+            }
+
+            final Object result = write(new Object[] {chunk});
+            if (result instanceof Collection){
+                results.addAll((Collection) result);
+            }
+
+            if (iterator.hasNext()){
+                flushAndClear();
+            }
+        }
+
+        return method.getReturnType() == void.class ? null : results;
+    }
+
+    private Object write(final Object[] args) throws Throwable {
+
+        //writes queued earlier have to land first
+        if (deferring() && deferral.isPending()){
+            return defer(args);
+        }
+
+        try {
+            return writeChanged(args);
+        } catch (BulkheadRejectedException e){
+            if (!e.isCircuitOpen() || tripped == TrippedRepository.FAIL || tripped == TrippedRepository.DEFER && !deferring()){
+                throw e;
+            }
+            if (tripped == TrippedRepository.SKIP){
+                bulkhead.getMetrics().recordSkipped();
+                return null;
+            }
+            return defer(args);
+        }
+    }
+
+    //not for the writes the deferral's drainer applies, nor once it is closed and writes are applied on the caller thread
+    private boolean deferring(){
+        return deferral != null && !deferral.isDrainer() && !deferral.isClosed();
+    }
+
+    private Object defer(final Object[] args) throws Throwable {
+        final boolean save = operation == ChangeDetector.Operation.SAVE;
+        deferral.offer(this, args, save ? EntityMetadata.identifier(args[0]) : null, save);
+        bulkhead.getMetrics().recordDeferred();
+        return null;
+    }
+
+    private Object writeChanged(final Object[] args) throws Throwable {
+
+        if (changeDetector == null){
+            return invoke(args);
+        }
+
+        switch (operation){
+            case SAVE:
+            case SAVE_ALL:
+                if (args[0] == null){
+                    break;
+                }
+                final ChangeDetector.Changes changes = changeDetector.changed(operation == ChangeDetector.Operation.SAVE ? Collections.singletonList(args[0]) : (Iterable) args[0], metrics);
+                if (changes.isEmpty()){
+                    return null;
+                }
+                final Object result = invoke(operation == ChangeDetector.Operation.SAVE ? args : new Object[] {changes.getEntities()});
+                changes.written();
+                return result;
+            case DELETE_BY_ID:
+                changeDetector.deleted(args[0]);
+                break;
+            case DELETE:
+                changeDetector.deleted(args[0] != null ? EntityMetadata.identifier(args[0]) : null);
+                break;
+            case DELETE_ALL:
+                if (args[0] != null){
+                    changeDetector.deletedEntities((Iterable) args[0]);
+                }
+                break;
+            default:
+                changeDetector.clear();
+        }
+        return invoke(args);
+    }
+
+    private void flushAndClear(){
+        repository.flush();
+        if (entityManager != null){
+            entityManager.clear();
+        }
+    }
+
+    private static boolean isBulk(final Method method){
+        return bulkMethods.contains(method.getName())
+                && method.getParameterCount() == 1
+                && Iterable.class.isAssignableFrom(method.getParameterTypes()[0]);
+    }
+
+    public interface Call {
+        Object call() throws Throwable;
+    }
+
+    private static boolean acceptsTransformerInput(final Method method, final Class transformerInput){
+        for (final Class parameterType : method.getParameterTypes()){
+            if (parameterType.isAssignableFrom(transformerInput)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,429 @@
+package mat.mat.mat.multirepo.proxy;
+
+import lombok.Getter;
+import mat.mat.mat.multirepo.bulkhead.Bulkhead;
+import mat.mat.mat.multirepo.change.ChangeDetector;
+import mat.mat.mat.multirepo.metrics.WriteBehindMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of writes for one secondary repository, drained by its own thread.
+ * Consecutive saves are flushed with a single saveAll, and a save of an entity that is still
+ * queued replaces the queued one. With a bulkhead, flushes wait while its circuit breaker is open and
+ * go through it like any other call to the repository. Writes offered inside a transaction are held until
+ * it commits and dropped if it rolls back, so the secondary never gets a write the first repository undid.
+ */
+public class WriteBehindQueue implements WriteBehindMetrics.Queue {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+    private static final MethodType SAVE_ALL_TYPE = MethodType.methodType(Object.class, Iterable.class);
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    @Getter
+    private final String repositoryName;
+    private final WriteBehindSettings settings;
+    private final MethodHandle saveAll;
+    private final Bulkhead bulkhead;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Deque<PendingWrite> queue = new ArrayDeque<>();
+    private final Map<Object, PendingWrite> queuedSaves = new HashMap<>();
+    private final Thread drainer;
+    private volatile boolean closed;
+    private boolean flushing;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private volatile long lastFlushLagNanos;
+
+    public WriteBehindQueue(final String name, final JpaRepository repository, final WriteBehindSettings settings) throws NoSuchMethodException, IllegalAccessException {
+        this(name, repository, settings, null);
+    }
+
+    public WriteBehindQueue(final String name, final JpaRepository repository, final WriteBehindSettings settings, final Bulkhead bulkhead) throws NoSuchMethodException, IllegalAccessException {
+        final Class repositoryInterface = MultiRepositoryProxy.getInterface(repository);
+
+        this.repositoryName = repositoryInterface.getSimpleName();
+        this.settings = settings;
+        this.saveAll = MethodHandles.publicLookup()
+                .unreflect(repositoryInterface.getMethod("saveAll", Iterable.class))
+                .bindTo(repository)
+                .asType(SAVE_ALL_TYPE);
+        this.bulkhead = bulkhead;
+
+        this.drainer = new Thread(this::drain, "multi-repository-write-behind-" + name + "-" + repositoryName);
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    public void offer(final TargetMethod target, final Object[] args, final Object id, final boolean save) throws Throwable {
+        if (TransactionSynchronizationManager.isSynchronizationActive()){
+            held(true).writes.add(new PendingWrite(target, args, id, save));
+            return;
+        }
+        offerNow(target, args, id, save);
+    }
+
+    private void offerNow(final TargetMethod target, final Object[] args, final Object id, final boolean save) throws Throwable {
+        if (!enqueue(target, args, id, save)){
+            //nothing left to drain it, apply it on the caller thread
+            target.invokePrepared(args);
+        }
+    }
+
+    //false when the queue is closed, checked under the lock so the drainer cannot have seen it empty and left
+    private boolean enqueue(final TargetMethod target, final Object[] args, final Object id, final boolean save) throws InterruptedException {
+        lock.lock();
+        try {
+            if (closed){
+                return false;
+            }
+
+            if (save && id != null){
+                final PendingWrite queued = queuedSaves.get(id);
+                if (queued != null){
+                    queued.coalesce(args);
+                    coalesced.incrementAndGet();
+                    return true;
+                }
+            }
+
+            if (!awaitCapacity()){
+                return true;
+            }
+            //waiting for capacity let go of the lock
+            if (closed){
+                return false;
+            }
+
+            final PendingWrite write = new PendingWrite(target, args, id, save);
+            queue.addLast(write);
+            if (save && id != null){
+                queuedSaves.put(id, write);
+            } else if (!save){
+                //keep later saves ordered after this write
+                queuedSaves.clear();
+            }
+            enqueued.incrementAndGet();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean awaitCapacity() throws InterruptedException {
+        if (queue.size() < settings.getQueueCapacity()){
+            return true;
+        }
+
+        switch (settings.getBackpressure()){
+            case DROP:
+                dropped.incrementAndGet();
+                logger.warn("Write behind queue for {} is full, dropping write", repositoryName);
+                return false;
+            case FAIL:
+                throw new WriteBehindQueueFullException(repositoryName, settings.getQueueCapacity());
+            default:
+                long remaining = TimeUnit.MILLISECONDS.toNanos(settings.getOfferTimeoutMillis());
+                while (queue.size() >= settings.getQueueCapacity()){
+                    if (remaining <= 0){
+                        throw new WriteBehindQueueFullException(repositoryName, settings.getQueueCapacity());
+                    }
+                    remaining = notFull.awaitNanos(remaining);
+                }
+                return true;
+        }
+    }
+
+    @Override
+    public int getDepth(){
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //age of the oldest queued write
+    @Override
+    public long getLagMillis(){
+        lock.lock();
+        try {
+            final PendingWrite oldest = queue.peekFirst();
+            return oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.getEnqueuedNanos());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //time between queueing and writing for the last flushed batch
+    @Override
+    public long getLastFlushLagMillis(){
+        return TimeUnit.NANOSECONDS.toMillis(lastFlushLagNanos);
+    }
+
+    @Override
+    public long getEnqueued(){
+        return enqueued.get();
+    }
+
+    @Override
+    public long getCoalesced(){
+        return coalesced.get();
+    }
+
+    @Override
+    public long getFlushed(){
+        return flushed.get();
+    }
+
+    @Override
+    public long getDropped(){
+        return dropped.get();
+    }
+
+    @Override
+    public long getFailed(){
+        return failed.get();
+    }
+
+    @Override
+    public long getRetries(){
+        return retries.get();
+    }
+
+    //whether writes offered now would land after ones still queued, being flushed or held for the current transaction
+    public boolean isPending(){
+        if (TransactionSynchronizationManager.isSynchronizationActive() && held(false) != null){
+            return true;
+        }
+        lock.lock();
+        try {
+            return !queue.isEmpty() || flushing;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed(){
+        return closed;
+    }
+
+    public boolean isDrainer(){
+        return Thread.currentThread() == drainer;
+    }
+
+    public boolean close(final long timeoutMillis){
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            drainer.join(timeoutMillis);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
+        if (drainer.isAlive()){
+            logger.warn("Write behind queue for {} not drained within {}ms, {} writes left", repositoryName, timeoutMillis, getDepth());
+            drainer.interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    private void drain(){
+        try {
+            List<PendingWrite> batch;
+            while (!(batch = take()).isEmpty()){
+                try {
+                    flush(batch);
+                } finally {
+                    flushed();
+                }
+            }
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<PendingWrite> take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty() && !closed){
+                notEmpty.await();
+            }
+
+            final List<PendingWrite> batch = new ArrayList<>(Math.min(queue.size(), settings.getBatchSize()));
+            while (!queue.isEmpty() && batch.size() < settings.getBatchSize()){
+                final PendingWrite write = queue.pollFirst();
+                if (write.getId() != null && queuedSaves.get(write.getId()) == write){
+                    queuedSaves.remove(write.getId());
+                }
+                batch.add(write);
+            }
+            flushing = !batch.isEmpty();
+            notFull.signalAll();
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushed(){
+        lock.lock();
+        try {
+            flushing = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flush(final List<PendingWrite> batch) throws InterruptedException {
+
+        final List<Object> saves = new ArrayList<>(batch.size());
+        TargetMethod saveTarget = null;
+
+        for (final PendingWrite write : batch){
+            if (write.isSave()){
+                saves.add(write.getArgs()[0]);
+                saveTarget = write.getTarget();
+            } else {
+                flushSaves(saveTarget, saves);
+                retry(1, () -> write.getTarget().invokePrepared(write.getArgs()));
+            }
+        }
+        flushSaves(saveTarget, saves);
+
+        lastFlushLagNanos = System.nanoTime() - batch.get(0).getEnqueuedNanos();
+    }
+
+    private void flushSaves(final TargetMethod target, final List<Object> saves) throws InterruptedException {
+        if (saves.isEmpty()){
+            return;
+        }
+        final ChangeDetector.Changes changes = target.changed(new ArrayList<>(saves));
+        saves.clear();
+        if (changes.isEmpty()){
+            return;
+        }
+        retry(changes.getEntities().size(), () -> {
+            final long start = bulkhead != null ? bulkhead.acquire() : 0;
+            try {
+                final Object saved = (Object) saveAll.invokeExact((Iterable) changes.getEntities());
+            } catch (Throwable e){
+                if (bulkhead != null){
+                    bulkhead.release(start, e);
+                }
+                throw e;
+            }
+            if (bulkhead != null){
+                bulkhead.release(start, null);
+            }
+            changes.written();
+        });
+    }
+
+    private void retry(final int writes, final Write write) throws InterruptedException {
+        for (int attempt = 0; ; attempt++){
+            awaitBulkhead();
+            try {
+                write.run();
+                flushed.addAndGet(writes);
+                return;
+            } catch (InterruptedException e){
+                throw e;
+            } catch (Throwable e){
+                if (attempt >= settings.getMaxRetries()){
+                    failed.addAndGet(writes);
+                    logger.error("Write behind to {} failed after {} attempts, discarding {} writes", repositoryName, attempt + 1, writes, e);
+                    return;
+                }
+                retries.incrementAndGet();
+                Thread.sleep(Math.min(settings.getRetryBackoffMillis() << Math.min(attempt, 16), MAX_BACKOFF_MILLIS));
+            }
+        }
+    }
+
+    //a repository behind an open circuit breaker is waited for, not retried
+    private void awaitBulkhead() throws InterruptedException {
+        long remaining;
+        while (bulkhead != null && (remaining = bulkhead.getRemainingOpenMillis()) > 0){
+            Thread.sleep(remaining);
+        }
+    }
+
+    private HeldWrites held(final boolean create){
+        HeldWrites held = (HeldWrites) TransactionSynchronizationManager.getResource(this);
+        if (held == null && create){
+            held = new HeldWrites();
+            TransactionSynchronizationManager.bindResource(this, held);
+            TransactionSynchronizationManager.registerSynchronization(held);
+        }
+        return held;
+    }
+
+    //the writes offered in one transaction, queued in order once it commits
+    private class HeldWrites extends TransactionSynchronizationAdapter {
+
+        private final List<PendingWrite> writes = new ArrayList<>();
+
+        @Override
+        public void afterCommit() {
+            for (final PendingWrite write : writes){
+                try {
+                    offerNow(write.getTarget(), write.getArgs(), write.getId(), write.isSave());
+                } catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    failed.incrementAndGet();
+                    logger.error("Interrupted queueing a committed write behind to {}, discarding it", repositoryName);
+                } catch (Throwable e){
+                    //the first repository has committed, there is no caller left to fail
+                    failed.incrementAndGet();
+                    logger.error("Queueing a committed write behind to {} failed, discarding it", repositoryName, e);
+                }
+            }
+        }
+
+        @Override
+        public void afterCompletion(final int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(WriteBehindQueue.this);
+        }
+    }
+
+    private interface Write {
+        void run() throws Throwable;
+    }
+
+}
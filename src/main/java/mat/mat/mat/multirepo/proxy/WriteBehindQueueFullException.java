@@ -0,0 +1,8 @@
+package mat.mat.mat.multirepo.proxy;
+
+public class WriteBehindQueueFullException extends RuntimeException {
+
+    public WriteBehindQueueFullException(final String repositoryName, final int capacity) {
+        super("Write behind queue for " + repositoryName + " is full (" + capacity + ")");
+    }
+}
@@ -0,0 +1,26 @@
+package mat.mat.mat.multirepo.proxy;
+
+import lombok.Builder;
+import lombok.Getter;
+import mat.mat.mat.multirepo.annotation.Backpressure;
+
+@Getter
+@Builder
+public class WriteBehindSettings {
+
+    @Builder.Default
+    private final int queueCapacity = 10000;
+    @Builder.Default
+    private final int batchSize = 500;
+    @Builder.Default
+    private final Backpressure backpressure = Backpressure.BLOCK;
+    @Builder.Default
+    private final long offerTimeoutMillis = 30000;
+    @Builder.Default
+    private final int maxRetries = 5;
+    @Builder.Default
+    private final long retryBackoffMillis = 100;
+    @Builder.Default
+    private final long shutdownTimeoutMillis = 30000;
+
+}
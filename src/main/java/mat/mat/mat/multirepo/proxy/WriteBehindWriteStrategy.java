@@ -0,0 +1,94 @@
+package mat.mat.mat.multirepo.proxy;
+
+import lombok.Getter;
+import mat.mat.mat.multirepo.metrics.MultiRepositoryMetrics;
+import mat.mat.mat.multirepo.transformer.EntityMetadata;
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class WriteBehindWriteStrategy implements WriteStrategy, SmartLifecycle {
+
+    private final String name;
+    @Getter
+    private final List<WriteBehindQueue> queues;
+    private final long shutdownTimeoutMillis;
+    private volatile boolean running;
+
+    public WriteBehindWriteStrategy(final String name, final List<JpaRepository> repositories, final WriteBehindSettings settings) throws NoSuchMethodException, IllegalAccessException {
+        this(name, repositories, settings, MultiRepositoryMetrics.NONE);
+    }
+
+    public WriteBehindWriteStrategy(final String name, final List<JpaRepository> repositories, final WriteBehindSettings settings,
+                                    final MultiRepositoryMetrics metrics) throws NoSuchMethodException, IllegalAccessException {
+        this.name = name;
+        this.shutdownTimeoutMillis = settings.getShutdownTimeoutMillis();
+
+        final List<WriteBehindQueue> queues = new ArrayList<>();
+        for (final JpaRepository repository : repositories.subList(1, repositories.size())){
+            final WriteBehindQueue queue = new WriteBehindQueue(name, repository, settings);
+            metrics.writeBehind(name, queue.getRepositoryName(), "writeBehind", queue);
+            queues.add(queue);
+        }
+        this.queues = Collections.unmodifiableList(queues);
+        this.running = true;
+    }
+
+    @Override
+    public Object write(final MethodDispatch dispatch, final Object[] args, final JpaTransformerCache transformerCache) throws Throwable {
+
+        //Write. The first repository inline, the others through their queue.
+
+        final List<TargetMethod> targets = dispatch.getTargets();
+        targets.get(0).invokeTransformed(args, transformerCache);
+
+        for (int i = 1; i < targets.size(); i++){
+            final TargetMethod target = targets.get(i);
+            final Object[] transformedArgs = target.transformArgs(args, transformerCache);
+            final boolean save = isSave(target);
+            final Object id = save ? EntityMetadata.identifier(transformedArgs[0]) : null;
+            queues.get(i - 1).offer(target, transformedArgs, id, save);
+        }
+
+        return null;
+    }
+
+    private boolean isSave(final TargetMethod target){
+        return target.getMethod().getName().equals("save") && target.getMethod().getParameterCount() == 1;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        final long deadline = System.currentTimeMillis() + shutdownTimeoutMillis;
+        for (final WriteBehindQueue queue : queues){
+            queue.close(Math.max(deadline - System.currentTimeMillis(), 1));
+        }
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    //stop after the phases that might still be producing writes
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return name + " write behind " + queues.size() + " queues";
+    }
+
+}
@@ -0,0 +1,9 @@
+package mat.mat.mat.multirepo.proxy;
+
+import mat.mat.mat.multirepo.transformer.JpaTransformerCache;
+
+public interface WriteStrategy {
+
+    Object write(MethodDispatch dispatch, Object[] args, JpaTransformerCache transformerCache) throws Throwable;
+
+}
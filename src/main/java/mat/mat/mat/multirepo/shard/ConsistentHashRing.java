@@ -0,0 +1,70 @@
+package mat.mat.mat.multirepo.shard;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Consistent hash ring over named shards, each placed at virtualNodes points. A key belongs to the
+ * shard of the first point at or after its hash, so adding a shard only moves the keys it takes over.
+ * Points depend on the shard names alone, not on their order.
+ */
+public class ConsistentHashRing {
+
+    @Getter
+    private final List<String> shardNames;
+    private final long[] points;
+    private final int[] shards;
+
+    public ConsistentHashRing(final List<String> shardNames, final int virtualNodes) {
+        if (shardNames.isEmpty() || virtualNodes < 1){
+            throw new IllegalArgumentException("A hash ring needs at least one shard and one virtual node, got " + shardNames + " and " + virtualNodes);
+        }
+        this.shardNames = Collections.unmodifiableList(shardNames);
+
+        final int size = shardNames.size() * virtualNodes;
+        final long[] unsorted = new long[size];
+        final Integer[] order = new Integer[size];
+        for (int shard = 0; shard < shardNames.size(); shard++){
+            for (int node = 0; node < virtualNodes; node++){
+                final int i = shard * virtualNodes + node;
+                unsorted[i] = mix(((long) shardNames.get(shard).hashCode() << 32) | node);
+                order[i] = i;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(unsorted[a], unsorted[b]));
+
+        this.points = new long[size];
+        this.shards = new int[size];
+        for (int i = 0; i < size; i++){
+            points[i] = unsorted[order[i]];
+            shards[i] = order[i] / virtualNodes;
+        }
+    }
+
+    //index in shardNames of the shard owning the key
+    public int shard(final Object key){
+        if (key == null){
+            throw new IllegalArgumentException("A shard key must not be null");
+        }
+        int point = Arrays.binarySearch(points, mix(key.hashCode()));
+        if (point < 0){
+            point = -point - 1;
+        }
+        return shards[point == points.length ? 0 : point];
+    }
+
+    public int size(){
+        return shardNames.size();
+    }
+
+    //murmur3 finalizer, spreads consecutive ids over the ring
+    private static long mix(long z){
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+}
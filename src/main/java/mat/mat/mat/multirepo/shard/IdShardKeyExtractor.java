@@ -0,0 +1,55 @@
+package mat.mat.mat.multirepo.shard;
+
+import mat.mat.mat.multirepo.transformer.EntityMetadata;
+import mat.mat.mat.multirepo.transformer.JpaTransformerException;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Shards by id: the @Id or @EmbeddedId of an entity, or the field named id of a domain object.
+ */
+public class IdShardKeyExtractor implements ShardKeyExtractor {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final ClassValue<MethodHandle> ID_FIELDS = new ClassValue<MethodHandle>() {
+        @Override
+        protected MethodHandle computeValue(final Class<?> type) {
+            final Field field = ReflectionUtils.findField(type, "id");
+            if (field == null){
+                throw new IllegalArgumentException(type.getName() + " has neither an @Id nor an id field to shard by");
+            }
+            ReflectionUtils.makeAccessible(field);
+            try {
+                return MethodHandles.lookup().unreflectGetter(field).asType(GETTER_TYPE);
+            } catch (IllegalAccessException e){
+                throw new JpaTransformerException(e);
+            }
+        }
+    };
+
+    @Override
+    public Object shardKey(final Object entity) {
+        final EntityMetadata metadata = EntityMetadata.of(entity.getClass());
+        if (metadata.hasIdentifier()){
+            return metadata.getIdentifier(entity);
+        }
+        try {
+            return (Object) ID_FIELDS.get(entity.getClass()).invokeExact(entity);
+        } catch (Error | RuntimeException e){
+            throw e;
+        } catch (Throwable e){
+            throw new JpaTransformerException(e);
+        }
+    }
+
+    @Override
+    public boolean isIdentifier() {
+        return true;
+    }
+
+}
@@ -0,0 +1,17 @@
+package mat.mat.mat.multirepo.shard;
+
+/**
+ * Picks what a sharded multi repository hashes to choose the repository of an entity. The key's
+ * hashCode must be the same in every JVM, as numbers, strings, UUIDs and value classes have.
+ */
+public interface ShardKeyExtractor {
+
+    //the shard key of an entity or domain object passed to save or delete
+    Object shardKey(Object entity);
+
+    //whether the shard key is the id, so reads and deletes by id reach a single repository
+    default boolean isIdentifier(){
+        return false;
+    }
+
+}
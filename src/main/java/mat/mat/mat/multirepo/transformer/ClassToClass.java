@@ -2,14 +2,39 @@ package mat.mat.mat.multirepo.transformer;
 
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.ToString;
 
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+
 @Builder
+@Getter
 @EqualsAndHashCode
 @ToString
 public class ClassToClass {
 
+    private static final int FIRST_GENERIC = 0;
+    private static final int SECOND_GENERIC = 1;
+
     private Class classA;
     private Class classB;
 
+    public static ClassToClass of(final JpaTransformer jpaTransformer){
+        return of(jpaTransformer.getClass());
+    }
+
+    public static ClassToClass of(final Class transformerClass){
+        return ClassToClass.builder()
+                .classA(getGenericArgument(transformerClass, FIRST_GENERIC))
+                .classB(getGenericArgument(transformerClass, SECOND_GENERIC))
+                .build();
+    }
+
+    private static Class getGenericArgument(final Class transformerClass, final int generic){
+        final Type[] genericInterfaces = transformerClass.getGenericInterfaces();
+        final Type type = ((ParameterizedType)genericInterfaces[0]).getActualTypeArguments()[generic];
+        return (Class)type;
+    }
+
 }
@@ -0,0 +1,188 @@
+package mat.mat.mat.multirepo.transformer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Transforms the elements of a collection, or the values of a map, into a new one of the same kind.
+ * Large ones are split over the transformer cache's fork join pool, keeping the element order.
+ */
+public final class CollectionConversion {
+
+    private static final int PARALLEL_CHUNK = 256;
+
+    public enum Kind {
+        LIST, SET, SORTED_SET, MAP, SORTED_MAP
+    }
+
+    private CollectionConversion() {
+    }
+
+    //the kind of collection to build for a field declared as the given type, null when none fits
+    public static Kind kindOf(final Class declaredType){
+        if (SortedSet.class.isAssignableFrom(declaredType) && declaredType.isAssignableFrom(TreeSet.class)){
+            return Kind.SORTED_SET;
+        }
+        if (Set.class.isAssignableFrom(declaredType) && declaredType.isAssignableFrom(LinkedHashSet.class)){
+            return Kind.SET;
+        }
+        if (declaredType.isAssignableFrom(ArrayList.class)){
+            return Kind.LIST;
+        }
+        if (SortedMap.class.isAssignableFrom(declaredType) && declaredType.isAssignableFrom(TreeMap.class)){
+            return Kind.SORTED_MAP;
+        }
+        if (Map.class.isAssignableFrom(declaredType) && declaredType.isAssignableFrom(LinkedHashMap.class)){
+            return Kind.MAP;
+        }
+        return null;
+    }
+
+    public static int size(final Object source){
+        return source instanceof Map ? ((Map) source).size() : ((Collection) source).size();
+    }
+
+    public static Object convert(final Object source, final Kind kind, final UnaryOperator<Object> transform, final JpaTransformerCache transformerCache){
+        if (kind == Kind.MAP || kind == Kind.SORTED_MAP){
+            return convertMap((Map) source, kind, transform, transformerCache);
+        }
+        return convertCollection((Collection) source, kind, transform, transformerCache);
+    }
+
+    private static Collection convertCollection(final Collection source, final Kind kind, final UnaryOperator<Object> transform, final JpaTransformerCache transformerCache){
+
+        final Object[] elements = source.toArray();
+        final Object[] transformed = transformAll(elements, transform, transformerCache);
+
+        final Collection<Object> target;
+        switch (kind){
+            case SORTED_SET:
+                target = new TreeSet<>(comparator(source, elements, transformed));
+                break;
+            case SET:
+                target = new LinkedHashSet<>(capacity(transformed.length));
+                break;
+            default:
+                target = new ArrayList<>(transformed.length);
+        }
+
+        for (final Object element : transformed){
+            target.add(element);
+        }
+        return target;
+    }
+
+    private static Map convertMap(final Map<Object, Object> source, final Kind kind, final UnaryOperator<Object> transform, final JpaTransformerCache transformerCache){
+
+        final Object[] keys = new Object[source.size()];
+        final Object[] values = new Object[source.size()];
+        int i = 0;
+        for (final Map.Entry<Object, Object> entry : source.entrySet()){
+            keys[i] = entry.getKey();
+            values[i] = entry.getValue();
+            i++;
+        }
+
+        final Object[] transformed = transformAll(values, transform, transformerCache);
+        //keys are not transformed, so the source's comparator still applies to them
+        final Map<Object, Object> target = kind == Kind.SORTED_MAP
+                ? new TreeMap<>(source instanceof SortedMap ? ((SortedMap) source).comparator() : null)
+                : new LinkedHashMap<>(capacity(keys.length));
+
+        for (int j = 0; j < keys.length; j++){
+            target.put(keys[j], transformed[j]);
+        }
+        return target;
+    }
+
+    //the source's comparator when the elements kept their classes, a comparator of entities cannot order domain objects
+    private static Comparator comparator(final Collection source, final Object[] elements, final Object[] transformed){
+        if (!(source instanceof SortedSet) || ((SortedSet) source).comparator() == null){
+            return null;
+        }
+        for (int i = 0; i < elements.length; i++){
+            if (elements[i] != null && transformed[i] != null && elements[i].getClass() != transformed[i].getClass()){
+                return null;
+            }
+        }
+        return ((SortedSet) source).comparator();
+    }
+
+    private static Object[] transformAll(final Object[] elements, final UnaryOperator<Object> transform, final JpaTransformerCache transformerCache){
+
+        final Object[] transformed = new Object[elements.length];
+
+        if (elements.length >= transformerCache.getParallelThreshold()){
+            final TransformationSession session = TransformationSession.current();
+            transformerCache.getForkJoinPool().invoke(new TransformTask(elements, transformed, transform, session != null ? session.fork() : null, 0, elements.length));
+        } else {
+            for (int i = 0; i < elements.length; i++){
+                transformed[i] = transformOne(elements[i], transform);
+            }
+        }
+        return transformed;
+    }
+
+    private static Object transformOne(final Object element, final UnaryOperator<Object> transform){
+        return element == null ? null : transform.apply(element);
+    }
+
+    private static int capacity(final int size){
+        return (int) (size / .75f) + 1;
+    }
+
+    private static class TransformTask extends RecursiveAction {
+
+        private final Object[] elements;
+        private final Object[] transformed;
+        private final UnaryOperator<Object> transform;
+        private final TransformationSession session;
+        private final int from;
+        private final int to;
+
+        private TransformTask(final Object[] elements, final Object[] transformed, final UnaryOperator<Object> transform, final TransformationSession session,
+                              final int from, final int to) {
+            this.elements = elements;
+            this.transformed = transformed;
+            this.transform = transform;
+            this.session = session;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_CHUNK){
+                //each chunk gets its own fork, as the thread running it may run another one meanwhile
+                if (session != null){
+                    session.fork().run(this::transformChunk);
+                } else {
+                    transformChunk();
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new TransformTask(elements, transformed, transform, session, from, middle),
+                    new TransformTask(elements, transformed, transform, session, middle, to));
+        }
+
+        private void transformChunk() {
+            for (int i = from; i < to; i++){
+                transformed[i] = transformOne(elements[i], transform);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,285 @@
+package mat.mat.mat.multirepo.transformer;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import javax.persistence.Entity;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Copy of one class into another, compiled to method handles once. Mirrors what the reflective
+ * defaults on {@link JpaTransformer} do: construct the target, copy matching bean properties and
+ * transform collections and maps of domain objects into ones of {@link Entity}s, or back.
+ */
+public class CopyPlan {
+
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final Transform FORWARD = (transformer, value, transformerCache) -> transformer.transformForward(value, transformerCache);
+    private static final Transform BACKWARD = (transformer, value, transformerCache) -> transformer.transformBackward(value, transformerCache);
+
+    private final MethodHandle constructor;
+    private final MethodHandle[] getters;
+    private final MethodHandle[] setters;
+    private final AssociationCopy[] associations;
+
+    private CopyPlan(final MethodHandle constructor, final List<MethodHandle> getters, final List<MethodHandle> setters, final List<AssociationCopy> associations) {
+        this.constructor = constructor;
+        this.getters = getters.toArray(new MethodHandle[0]);
+        this.setters = setters.toArray(new MethodHandle[0]);
+        this.associations = associations.toArray(new AssociationCopy[0]);
+    }
+
+    public static CopyPlan forward(final Class source, final Class target) throws NoSuchMethodException, IllegalAccessException, NoSuchFieldException {
+        return build(source, target);
+    }
+
+    public static CopyPlan backward(final Class source, final Class target) throws NoSuchMethodException, IllegalAccessException, NoSuchFieldException {
+        return build(source, target);
+    }
+
+    public Object copy(final Object source, final JpaTransformerCache transformerCache) throws Throwable {
+
+        final Object target = (Object) constructor.invokeExact();
+
+        //registered before anything it refers to is transformed, so cycles come back to it
+        final Object registered = TransformationSession.register(source, target);
+        if (registered != target) {
+            return registered;
+        }
+
+        copyProperties(source, target);
+
+        for (final AssociationCopy association : associations) {
+            association.copy(source, target, transformerCache);
+        }
+
+        return target;
+    }
+
+    //the bean properties only, leaving out the collections and associations to transform
+    void copyProperties(final Object source, final Object target) throws Throwable {
+        for (int i = 0; i < getters.length; i++) {
+            setters[i].invokeExact(target, (Object) getters[i].invokeExact(source));
+        }
+    }
+
+    AssociationCopy[] getAssociations() {
+        return associations;
+    }
+
+    private static CopyPlan build(final Class source, final Class target) throws NoSuchMethodException, IllegalAccessException, NoSuchFieldException {
+
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        final Constructor constructor = target.getDeclaredConstructor();
+        ReflectionUtils.makeAccessible(constructor);
+
+        final List<AssociationCopy> associations = entityCollections(lookup, source, target);
+        final Set<String> collectionNames = new HashSet<>();
+        for (final AssociationCopy collection : associations) {
+            collectionNames.add(collection.name);
+        }
+        associations.addAll(entityReferences(lookup, source, target));
+
+        //same selection as BeanUtils.copyProperties
+        final List<MethodHandle> getters = new ArrayList<>();
+        final List<MethodHandle> setters = new ArrayList<>();
+
+        for (final PropertyDescriptor targetPd : BeanUtils.getPropertyDescriptors(target)) {
+            final Method writeMethod = targetPd.getWriteMethod();
+            if (writeMethod == null || collectionNames.contains(targetPd.getName())) {
+                continue;
+            }
+            final PropertyDescriptor sourcePd = BeanUtils.getPropertyDescriptor(source, targetPd.getName());
+            if (sourcePd == null || sourcePd.getReadMethod() == null) {
+                continue;
+            }
+            final Method readMethod = sourcePd.getReadMethod();
+            if (ClassUtils.isAssignable(writeMethod.getParameterTypes()[0], readMethod.getReturnType())) {
+                ReflectionUtils.makeAccessible(readMethod);
+                ReflectionUtils.makeAccessible(writeMethod);
+                getters.add(lookup.unreflect(readMethod).asType(GETTER_TYPE));
+                setters.add(lookup.unreflect(writeMethod).asType(SETTER_TYPE));
+            }
+        }
+
+        return new CopyPlan(lookup.unreflectConstructor(constructor).asType(CONSTRUCTOR_TYPE), getters, setters, associations);
+    }
+
+    private static List<AssociationCopy> entityCollections(final MethodHandles.Lookup lookup, final Class source, final Class target) throws IllegalAccessException {
+
+        final List<AssociationCopy> collections = new ArrayList<>();
+
+        for (final Field sourceField : source.getDeclaredFields()) {
+
+            final boolean map = Map.class.isAssignableFrom(sourceField.getType());
+            if (Modifier.isStatic(sourceField.getModifiers()) || !(map || Collection.class.isAssignableFrom(sourceField.getType()))) {
+                continue;
+            }
+
+            final Field targetField = findDeclaredField(target, sourceField.getName());
+            if (targetField == null) {
+                continue;
+            }
+
+            final Class sourceElement = EntityMetadata.of(source).getElementType(sourceField.getName());
+            final Class targetElement = EntityMetadata.of(target).getElementType(targetField.getName());
+            if (sourceElement == null || targetElement == null) {
+                continue;
+            }
+
+            final boolean forward = !isEntity(sourceElement) && isEntity(targetElement);
+            final boolean backward = isEntity(sourceElement) && !isEntity(targetElement);
+
+            //from Domain to an Entity (a -> b, forward), or from an Entity to a Domain (b -> a, backward)
+            if (forward || backward) {
+                ReflectionUtils.makeAccessible(sourceField);
+                ReflectionUtils.makeAccessible(targetField);
+
+                final ClassToClass elementType = forward
+                        ? ClassToClass.builder().classA(sourceElement).classB(targetElement).build()
+                        : ClassToClass.builder().classA(targetElement).classB(sourceElement).build();
+                collections.add(new AssociationCopy(sourceField.getName(), elementType, forward, true, CollectionConversion.kindOf(targetField.getType()),
+                        lookup.unreflectGetter(sourceField).asType(GETTER_TYPE),
+                        lookup.unreflectSetter(targetField).asType(SETTER_TYPE)));
+            }
+        }
+
+        return collections;
+    }
+
+    private static List<AssociationCopy> entityReferences(final MethodHandles.Lookup lookup, final Class source, final Class target) throws IllegalAccessException {
+
+        final List<AssociationCopy> references = new ArrayList<>();
+
+        for (final Field sourceField : source.getDeclaredFields()) {
+
+            final Field targetField = findDeclaredField(target, sourceField.getName());
+            if (Modifier.isStatic(sourceField.getModifiers()) || targetField == null) {
+                continue;
+            }
+
+            //a single @Entity on one side and a domain object on the other
+            final boolean forward = !isEntity(sourceField.getType()) && isEntity(targetField.getType());
+            final boolean backward = isEntity(sourceField.getType()) && !isEntity(targetField.getType());
+
+            if (forward || backward) {
+                ReflectionUtils.makeAccessible(sourceField);
+                ReflectionUtils.makeAccessible(targetField);
+
+                final ClassToClass referenceType = forward
+                        ? ClassToClass.builder().classA(sourceField.getType()).classB(targetField.getType()).build()
+                        : ClassToClass.builder().classA(targetField.getType()).classB(sourceField.getType()).build();
+                references.add(new AssociationCopy(sourceField.getName(), referenceType, forward, false, null,
+                        lookup.unreflectGetter(sourceField).asType(GETTER_TYPE),
+                        lookup.unreflectSetter(targetField).asType(SETTER_TYPE)));
+            }
+        }
+
+        return references;
+    }
+
+    private static Field findDeclaredField(final Class clazz, final String name) {
+        try {
+            return clazz.getDeclaredField(name);
+        } catch (NoSuchFieldException e) {
+            return null;
+        }
+    }
+
+    private static boolean isEntity(final Class clazz) {
+        return EntityMetadata.of(clazz).isEntity();
+    }
+
+    //a collection or map of entities or domain objects, or a single one
+    static class AssociationCopy {
+
+        private final String name;
+        private final ClassToClass type;
+        private final boolean forward;
+        private final boolean collection;
+        private final CollectionConversion.Kind kind;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+        //kept, so copying an association allocates nothing but what it copies
+        private final Transform transform;
+
+        private AssociationCopy(final String name, final ClassToClass type, final boolean forward, final boolean collection, final CollectionConversion.Kind kind,
+                                final MethodHandle getter, final MethodHandle setter) {
+            this.name = name;
+            this.type = type;
+            this.forward = forward;
+            this.collection = collection;
+            this.kind = kind;
+            this.getter = getter;
+            this.setter = setter;
+            this.transform = forward ? FORWARD : BACKWARD;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        private void copy(final Object source, final Object target, final JpaTransformerCache transformerCache) throws Throwable {
+            copy(source, target, transformerCache, transform);
+        }
+
+        //transform turns one entity or domain object of the association into the other with the transformer found for it
+        void copy(final Object source, final Object target, final JpaTransformerCache transformerCache, final Transform transform) throws Throwable {
+
+            final Object value = (Object) getter.invokeExact(source);
+
+            if (value == null) {
+                if (collection) {
+                    setter.invokeExact(target, (Object) null);
+                }
+                return;
+            }
+
+            if (collection && kind == null) {
+                throw new Exception("Unknown collection type");
+            }
+
+            final Optional<JpaTransformer> transformer = transformerCache.transformerForClass(type);
+            if (!transformer.isPresent()) {
+                if (collection) {
+                    throw new Exception("Unable to convert, please provide a transformer for this conversion");
+                }
+                //left unset without a transformer, as the bean copy leaves it
+                return;
+            }
+
+            final JpaTransformer associationTransformer = transformer.get();
+            if (!collection) {
+                setter.invokeExact(target, transform.apply(associationTransformer, value, transformerCache));
+                return;
+            }
+
+            transformerCache.getMetrics().transform(associationTransformer.getClass()).recordElements(CollectionConversion.size(value));
+            setter.invokeExact(target, CollectionConversion.convert(value, kind, element -> transform.apply(associationTransformer, element, transformerCache), transformerCache));
+        }
+    }
+
+    //one entity or domain object of an association into the other
+    interface Transform {
+        Object apply(JpaTransformer transformer, Object value, JpaTransformerCache transformerCache);
+    }
+
+}
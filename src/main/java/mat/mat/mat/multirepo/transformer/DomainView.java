@@ -0,0 +1,202 @@
+package mat.mat.mat.multirepo.transformer;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.cglib.core.SpringNamingPolicy;
+import org.springframework.cglib.proxy.Callback;
+import org.springframework.cglib.proxy.Enhancer;
+import org.springframework.cglib.proxy.MethodInterceptor;
+import org.springframework.cglib.proxy.MethodProxy;
+import org.springframework.cglib.proxy.NoOp;
+import org.springframework.util.ReflectionUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Generated subclass of a transformer's domain class standing in for the backward transform of an entity.
+ * The bean properties are copied when the view is built; each collection and association is transformed
+ * from the entity the first time its getter is called, so lazy JPA associations nobody reads are never
+ * loaded. Setting one first keeps the value set. Elements are views themselves, one per entity in the graph.
+ * Views implement {@link LazyView}, which loads everything left, as a forward transform needs.
+ */
+final class DomainView {
+
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+    private static final MethodType CALLBACKS_TYPE = MethodType.methodType(void.class, Callback[].class);
+
+    //empty when the domain class cannot be subclassed, the transformer builds it itself or there is nothing to defer
+    private static final ClassValue<Optional<DomainView>> VIEWS = new ClassValue<Optional<DomainView>>() {
+        @Override
+        protected Optional<DomainView> computeValue(final Class<?> transformerClass) {
+            try {
+                return Optional.ofNullable(build(transformerClass));
+            } catch (Exception e) {
+                throw new JpaTransformerException(e);
+            }
+        }
+    };
+
+    private final Class entityClass;
+    private final CopyPlan plan;
+    private final CopyPlan.AssociationCopy[] associations;
+    //getter names to the index of their association, setter names to its complement
+    private final Map<String, Integer> methods;
+    private final MethodHandle constructor;
+    private final MethodHandle setCallbacks;
+
+    private DomainView(final Class entityClass, final CopyPlan plan, final Map<String, Integer> methods, final MethodHandle constructor, final MethodHandle setCallbacks) {
+        this.entityClass = entityClass;
+        this.plan = plan;
+        this.associations = plan.getAssociations();
+        this.methods = methods;
+        this.constructor = constructor;
+        this.setCallbacks = setCallbacks;
+    }
+
+    static DomainView of(final JpaTransformer transformer) {
+        return VIEWS.get(transformer.getClass()).orElse(null);
+    }
+
+    boolean accepts(final Object entity) {
+        return entityClass.isInstance(entity);
+    }
+
+    //graph holds the views already built from the entities of the same top-level transform
+    Object view(final Object entity, final JpaTransformerCache transformerCache, final Map<Object, Object> graph) throws Throwable {
+
+        final Loader loader = new Loader(entity, transformerCache, graph);
+
+        final Object view;
+        setCallbacks.invokeExact(new Callback[]{NoOp.INSTANCE, loader});
+        try {
+            view = (Object) constructor.invokeExact();
+        } finally {
+            setCallbacks.invokeExact((Callback[]) null);
+        }
+
+        graph.put(entity, view);
+        plan.copyProperties(entity, view);
+        loader.ready();
+        return view;
+    }
+
+    private static DomainView build(final Class transformerClass) throws ReflectiveOperationException {
+
+        final ClassToClass classToClass = ClassToClass.of(transformerClass);
+        final Class domainClass = classToClass.getClassA();
+        final CopyPlan plan = TransformerPlan.of(transformerClass).getBackward();
+
+        if (plan == null || plan.getAssociations().length == 0 || Modifier.isFinal(domainClass.getModifiers()) || domainClass.isInterface()) {
+            return null;
+        }
+
+        final Map<String, Integer> methods = new HashMap<>();
+        final CopyPlan.AssociationCopy[] associations = plan.getAssociations();
+        for (int i = 0; i < associations.length; i++) {
+            final PropertyDescriptor property = BeanUtils.getPropertyDescriptor(domainClass, associations[i].getName());
+            //a getter that cannot be overridden would read the field before it is transformed
+            if (property == null || !overridable(property.getReadMethod())) {
+                return null;
+            }
+            methods.put(property.getReadMethod().getName(), i);
+            if (overridable(property.getWriteMethod())) {
+                methods.put(property.getWriteMethod().getName(), ~i);
+            }
+        }
+
+        final Enhancer enhancer = new Enhancer();
+        enhancer.setSuperclass(domainClass);
+        enhancer.setInterfaces(new Class[]{LazyView.class});
+        enhancer.setClassLoader(domainClass.getClassLoader());
+        enhancer.setNamingPolicy(SpringNamingPolicy.INSTANCE);
+        enhancer.setUseFactory(false);
+        enhancer.setUseCache(false);
+        enhancer.setCallbackTypes(new Class[]{NoOp.class, MethodInterceptor.class});
+        enhancer.setCallbackFilter(method -> method.getDeclaringClass() == LazyView.class || index(methods, method) != null ? 1 : 0);
+        final Class viewClass = enhancer.createClass();
+
+        final Constructor viewConstructor = viewClass.getDeclaredConstructor();
+        ReflectionUtils.makeAccessible(viewConstructor);
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        return new DomainView(classToClass.getClassB(), plan, methods,
+                lookup.unreflectConstructor(viewConstructor).asType(CONSTRUCTOR_TYPE),
+                lookup.findStatic(viewClass, "CGLIB$SET_THREAD_CALLBACKS", CALLBACKS_TYPE));
+    }
+
+    private static Integer index(final Map<String, Integer> methods, final Method method) {
+        final Integer index = methods.get(method.getName());
+        if (index == null || method.getParameterCount() != (index >= 0 ? 0 : 1)) {
+            return null;
+        }
+        return index;
+    }
+
+    private static boolean overridable(final Method method) {
+        return method != null && !Modifier.isFinal(method.getModifiers()) && !Modifier.isPrivate(method.getModifiers());
+    }
+
+    private class Loader implements MethodInterceptor {
+
+        private Object entity;
+        private final JpaTransformerCache transformerCache;
+        private final Map<Object, Object> graph;
+        private final boolean[] loaded = new boolean[associations.length];
+        private int pending = associations.length;
+        //calls from the domain class's constructor find nothing to load yet
+        private boolean ready;
+
+        private Loader(final Object entity, final JpaTransformerCache transformerCache, final Map<Object, Object> graph) {
+            this.entity = entity;
+            this.transformerCache = transformerCache;
+            this.graph = graph;
+        }
+
+        @Override
+        public Object intercept(final Object view, final Method method, final Object[] args, final MethodProxy methodProxy) throws Throwable {
+            if (method.getDeclaringClass() == LazyView.class) {
+                loadAll(view);
+                return null;
+            }
+            load(view, methods.get(method.getName()));
+            return methodProxy.invokeSuper(view, args);
+        }
+
+        private synchronized void loadAll(final Object view) throws Throwable {
+            for (int i = 0; i < associations.length; i++) {
+                load(view, i);
+            }
+        }
+
+        private synchronized void ready() {
+            ready = true;
+        }
+
+        private synchronized void load(final Object view, final int index) throws Throwable {
+
+            final int association = index >= 0 ? index : ~index;
+            if (!ready || loaded[association]) {
+                return;
+            }
+
+            if (index >= 0) {
+                associations[association].copy(entity, view, transformerCache,
+                        (transformer, value, cache) -> LazyViewTransformer.transformBackward(transformer, value, cache, graph));
+            }
+            loaded[association] = true;
+
+            //nothing left to read from the entity
+            if (--pending == 0) {
+                entity = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+package mat.mat.mat.multirepo.transformer;
+
+import org.springframework.util.ReflectionUtils;
+
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-class metadata read once from the JPA mapping annotations and the declared field types.
+ */
+public class EntityMetadata {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final ClassValue<EntityMetadata> METADATA = new ClassValue<EntityMetadata>() {
+        @Override
+        protected EntityMetadata computeValue(final Class<?> type) {
+            return new EntityMetadata(type);
+        }
+    };
+
+    private final boolean entity;
+    private final MethodHandle identifier;
+    private final String identifierName;
+    private final boolean identifierGenerated;
+    private final List<Class> hierarchy;
+    private final Map<String, Class> elementTypes;
+
+    private EntityMetadata(final Class type) {
+        this.entity = type.isAnnotationPresent(Entity.class);
+        final Field identifierField = identifierField(type);
+        this.identifier = identifierField != null ? getter(identifierField) : null;
+        this.identifierName = identifierField != null ? identifierField.getName() : null;
+        this.identifierGenerated = identifierField != null && identifierField.isAnnotationPresent(GeneratedValue.class);
+        this.hierarchy = hierarchy(type);
+        this.elementTypes = elementTypes(type);
+    }
+
+    public static EntityMetadata of(final Class type){
+        return METADATA.get(type);
+    }
+
+    //the @Id or @EmbeddedId value, null when the class has none or it is not yet assigned
+    public static Object identifier(final Object entity){
+        return of(entity.getClass()).getIdentifier(entity);
+    }
+
+    public boolean isEntity(){
+        return entity;
+    }
+
+    //the class itself, then its superclasses, then its interfaces, nearest first
+    public List<Class> getHierarchy(){
+        return hierarchy;
+    }
+
+    //element type of a declared collection field, or value type of a map field, null when not a class
+    public Class getElementType(final String field){
+        return elementTypes.get(field);
+    }
+
+    public boolean hasIdentifier(){
+        return identifier != null;
+    }
+
+    //name of the @Id or @EmbeddedId field, null when the class has none
+    public String getIdentifierName(){
+        return identifierName;
+    }
+
+    //true when the @Id field is @GeneratedValue, so each store assigns its own
+    public boolean isIdentifierGenerated(){
+        return identifierGenerated;
+    }
+
+    public Object getIdentifier(final Object entity){
+        if (identifier == null){
+            return null;
+        }
+        try {
+            return (Object) identifier.invokeExact(entity);
+        } catch (Error | RuntimeException e){
+            throw e;
+        } catch (Throwable e){
+            throw new JpaTransformerException(e);
+        }
+    }
+
+    private static Field identifierField(final Class type){
+        for (Class clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()){
+            for (final Field field : clazz.getDeclaredFields()){
+                if (field.isAnnotationPresent(Id.class) || field.isAnnotationPresent(EmbeddedId.class)){
+                    return field;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static MethodHandle getter(final Field field){
+        ReflectionUtils.makeAccessible(field);
+        try {
+            return MethodHandles.lookup().unreflectGetter(field).asType(GETTER_TYPE);
+        } catch (IllegalAccessException e){
+            throw new JpaTransformerException(e);
+        }
+    }
+
+    private static List<Class> hierarchy(final Class type){
+        final List<Class> classes = new ArrayList<>();
+        for (Class clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()){
+            classes.add(clazz);
+        }
+        final Set<Class> interfaces = new LinkedHashSet<>();
+        for (int i = 0; i < classes.size(); i++){
+            collectInterfaces(classes.get(i), interfaces);
+        }
+        classes.addAll(interfaces);
+        return Collections.unmodifiableList(classes);
+    }
+
+    private static void collectInterfaces(final Class type, final Set<Class> interfaces){
+        for (final Class anInterface : type.getInterfaces()){
+            if (interfaces.add(anInterface)){
+                collectInterfaces(anInterface, interfaces);
+            }
+        }
+    }
+
+    private static Map<String, Class> elementTypes(final Class type){
+        final Map<String, Class> types = new HashMap<>();
+        for (final Field field : type.getDeclaredFields()){
+            if (Modifier.isStatic(field.getModifiers()) || !(field.getGenericType() instanceof ParameterizedType)){
+                continue;
+            }
+            final Type[] arguments = ((ParameterizedType) field.getGenericType()).getActualTypeArguments();
+            final Type element = Map.class.isAssignableFrom(field.getType()) ? arguments[1]
+                    : Collection.class.isAssignableFrom(field.getType()) ? arguments[0] : null;
+            if (element instanceof Class){
+                types.put(field.getName(), (Class) element);
+            }
+        }
+        return types;
+    }
+
+}
@@ -1,36 +1,90 @@
 package mat.mat.mat.multirepo.transformer;
 
 import org.springframework.beans.BeanUtils;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
 
 import javax.persistence.Entity;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.UnaryOperator;
 
 public interface JpaTransformer<A, B> {
 
     default B transformForward(final A a, final JpaTransformerCache transformerCache) {
+
+        //reached again through a shared reference or a cycle
+        final TransformationSession session = TransformationSession.current(transformerCache);
+        final Object transformed = session.transformed(a);
+        if (transformed != null) {
+            return (B) transformed;
+        }
+
+        final long start = System.nanoTime();
         try {
+            session.enter();
+            //the fields of a view's unread associations are still empty
+            LazyView.load(a);
+            final CopyPlan plan = TransformerPlan.of(this).getForward();
+            if (plan != null) {
+                return (B) plan.copy(a, transformerCache);
+            }
             final B b = buildB();
+            final Object registered = TransformationSession.register(a, b);
+            if (registered != b) {
+                return (B) registered;
+            }
             copy(a, b, transformerCache);
             return b;
-        } catch (Exception e) {
+        } catch (Error | JpaTransformerException e) {
+            throw e;
+        } catch (Throwable e) {
             throw new JpaTransformerException(e);
+        } finally {
+            session.exit();
+            if (transformerCache != null) {
+                transformerCache.getMetrics().transform(getClass()).recordForward(System.nanoTime() - start);
+            }
         }
     }
 
     default A transformBackward(final B b, final JpaTransformerCache transformerCache) {
+
+        //reached again through a shared reference or a cycle
+        final TransformationSession session = TransformationSession.current(transformerCache);
+        final Object transformed = session.transformed(b);
+        if (transformed != null) {
+            return (A) transformed;
+        }
+
+        final long start = System.nanoTime();
         try {
+            session.enter();
+            final CopyPlan plan = TransformerPlan.of(this).getBackward();
+            if (plan != null) {
+                return (A) plan.copy(b, transformerCache);
+            }
             final A a = buildA();
-            BeanUtils.copyProperties(b, a);
+            final Object registered = TransformationSession.register(b, a);
+            if (registered != a) {
+                return (A) registered;
+            }
+            copy(b, a, transformerCache);
             return a;
-        } catch (Exception e) {
+        } catch (Error | JpaTransformerException e) {
+            throw e;
+        } catch (Throwable e) {
             throw new JpaTransformerException(e);
+        } finally {
+            session.exit();
+            if (transformerCache != null) {
+                transformerCache.getMetrics().transform(getClass()).recordBackward(System.nanoTime() - start);
+            }
         }
     }
 
@@ -52,50 +106,77 @@ public interface JpaTransformer<A, B> {
         BeanUtils.copyProperties(a, b);
 
         //look for fields that are @Entity, or Collections of an @Entity
-        final Field[] aFields = a.getClass().getDeclaredFields();
+        //the domain class of a lazy view rather than the view's generated subclass
+        final Field[] aFields = ClassUtils.getUserClass(a).getDeclaredFields();
 
         for (final Field field : aFields) {
             field.setAccessible(true);
-            if (field.get(a) instanceof Collection) {
+            if (field.get(a) instanceof Collection || field.get(a) instanceof Map) {
 
                 final Field bField = b.getClass().getDeclaredField(field.getName());
-                final Type aListType = ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
-                final Type bListType = ((ParameterizedType) bField.getGenericType()).getActualTypeArguments()[0];
+                final int generic = field.get(a) instanceof Map ? 1 : 0;
+                final Type aListType = ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[generic];
+                final Type bListType = ((ParameterizedType) bField.getGenericType()).getActualTypeArguments()[generic];
 
-                //from Domain to an Entity (a -> b, forward)
-                if (!typeHasEntityAnnotation(aListType) && typeHasEntityAnnotation(bListType)) {
-                    final ClassToClass aToB = ClassToClass.builder().classA((Class) aListType).classB((Class) bListType).build();
-                    final Optional<JpaTransformer> transformerForType = transformerCache.transformerForClass(aToB);
+                final boolean forward = !typeHasEntityAnnotation(aListType) && typeHasEntityAnnotation(bListType);
+                final boolean backward = typeHasEntityAnnotation(aListType) && !typeHasEntityAnnotation(bListType);
 
-                    if (transformerForType.isPresent()) {
-                        bField.setAccessible(true);
-                        final Collection collection = convertCollectionForward((Collection) field.get(a), (Collection) bField.get(b), transformerForType.get(), transformerCache);
-                        bField.set(b, collection);
-                        bField.setAccessible(false);
-                    } else {
+                //from Domain to an Entity (a -> b, forward), or from an Entity to a Domain (b -> a, backward)
+                if (forward || backward) {
+                    final ClassToClass elementType = forward
+                            ? ClassToClass.builder().classA((Class) aListType).classB((Class) bListType).build()
+                            : ClassToClass.builder().classA((Class) bListType).classB((Class) aListType).build();
+                    final Optional<JpaTransformer> transformerForType = transformerCache.transformerForClass(elementType);
+
+                    if (!transformerForType.isPresent()) {
                         throw new Exception("Unable to convert, please provide a transformer for this conversion");
                     }
 
+                    final CollectionConversion.Kind kind = CollectionConversion.kindOf(bField.getType());
+                    if (kind == null) {
+                        throw new Exception("Unknown collection type");
+                    }
+
+                    final JpaTransformer transformer = transformerForType.get();
+                    final UnaryOperator<Object> transform = forward
+                            ? element -> transformer.transformForward(element, transformerCache)
+                            : element -> transformer.transformBackward(element, transformerCache);
 
-                }//from Entity to an Domain (b -> a, backward)
-                else if (typeHasEntityAnnotation(aListType) && !typeHasEntityAnnotation(bListType)) {
-                    System.out.println("backward");
+                    transformerCache.getMetrics().transform(transformer.getClass()).recordElements(CollectionConversion.size(field.get(a)));
+                    bField.setAccessible(true);
+                    bField.set(b, CollectionConversion.convert(field.get(a), kind, transform, transformerCache));
+                    bField.setAccessible(false);
                 }
 
-            } else {
-                typeHasEntityAnnotation(field.getType());
+            } else if (field.get(a) != null) {
+
+                //a single @Entity in a and a domain object in b, or the other way round
+                final Field bField = ReflectionUtils.findField(b.getClass(), field.getName());
+                final boolean forward = bField != null && !typeHasEntityAnnotation(field.getType()) && typeHasEntityAnnotation(bField.getType());
+                final boolean backward = bField != null && typeHasEntityAnnotation(field.getType()) && !typeHasEntityAnnotation(bField.getType());
+
+                if (forward || backward) {
+                    final ClassToClass referenceType = forward
+                            ? ClassToClass.builder().classA(field.getType()).classB(bField.getType()).build()
+                            : ClassToClass.builder().classA(bField.getType()).classB(field.getType()).build();
+                    final Optional<JpaTransformer> transformerForType = transformerCache.transformerForClass(referenceType);
+
+                    //left unset without a transformer, as the bean copy leaves it
+                    if (transformerForType.isPresent()) {
+                        bField.setAccessible(true);
+                        bField.set(b, forward
+                                ? transformerForType.get().transformForward(field.get(a), transformerCache)
+                                : transformerForType.get().transformBackward(field.get(a), transformerCache));
+                        bField.setAccessible(false);
+                    }
+                }
             }
             field.setAccessible(false);
         }
     }
 
     default boolean typeHasEntityAnnotation(final Type type) {
-        final Annotation[] annotations = ((Class) type).getAnnotations();
-
-        if (annotations.length > 0) {
-            return annotationsContainEntity(annotations);
-        }
-        return false;
+        return type instanceof Class && EntityMetadata.of((Class) type).isEntity();
     }
 
     default boolean annotationsContainEntity(final Annotation[] annotations) {
@@ -109,18 +190,11 @@ public interface JpaTransformer<A, B> {
 
     default Collection convertCollectionForward(final Collection sourceACollection, final Collection existingBCollection, final JpaTransformer transformer, final JpaTransformerCache transformerCache) throws Exception {
 
-        Collection newBCollection;
-
-        if (existingBCollection instanceof List) {
-            newBCollection = new ArrayList<>();
-        } else {
+        final CollectionConversion.Kind kind = existingBCollection != null ? CollectionConversion.kindOf(existingBCollection.getClass()) : CollectionConversion.Kind.LIST;
+        if (kind == null || kind == CollectionConversion.Kind.MAP || kind == CollectionConversion.Kind.SORTED_MAP) {
             throw new Exception("Unknown collection type");
         }
 
-        for (final Object obj : sourceACollection) {
-            newBCollection.add(transformer.transformForward(obj, transformerCache));
-        }
-
-        return newBCollection;
+        return (Collection) CollectionConversion.convert(sourceACollection, kind, element -> transformer.transformForward(element, transformerCache), transformerCache);
     }
 }
@@ -1,19 +1,111 @@
 package mat.mat.mat.multirepo.transformer;
 
-import java.util.HashMap;
+import lombok.Getter;
+import mat.mat.mat.multirepo.metrics.MultiRepositoryMetrics;
+
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
+/**
+ * Registry of transformers by the pair of classes they convert. Lookups with no exact match fall back
+ * to the supertypes and interfaces of both classes, nearest first. Every answer, including a missing
+ * transformer, is memoized until the next registration, so resolving is a single map read once warm.
+ */
 public class JpaTransformerCache {
 
-    private final Map<ClassToClass, JpaTransformer> jpaTransformerCache = new HashMap<>();
+    //off, see MultiRepositoryProperties.Transformer.parallelThreshold
+    private static final int DEFAULT_PARALLEL_THRESHOLD = Integer.MAX_VALUE;
+    static final int DEFAULT_MAX_DEPTH = 64;
+
+    private final Map<ClassToClass, JpaTransformer> jpaTransformerCache = new ConcurrentHashMap<>();
+
+    //replaced on every registration, so a lookup never sees an answer older than the registrations it follows
+    private volatile Map<ClassToClass, Optional<JpaTransformer>> resolved = new ConcurrentHashMap<>();
+
+    //collections with at least this many elements are transformed on the fork join pool
+    @Getter
+    private final int parallelThreshold;
+    //nested transforms one top-level transform may go through before it fails
+    @Getter
+    private final int maxDepth;
+    @Getter
+    private final ForkJoinPool forkJoinPool;
+    @Getter
+    private final MultiRepositoryMetrics metrics;
+
+    public JpaTransformerCache(){
+        this(DEFAULT_PARALLEL_THRESHOLD, ForkJoinPool.commonPool());
+    }
+
+    public JpaTransformerCache(final int parallelThreshold, final ForkJoinPool forkJoinPool){
+        this(parallelThreshold, forkJoinPool, MultiRepositoryMetrics.NONE);
+    }
+
+    public JpaTransformerCache(final int parallelThreshold, final ForkJoinPool forkJoinPool, final MultiRepositoryMetrics metrics){
+        this(parallelThreshold, forkJoinPool, metrics, DEFAULT_MAX_DEPTH);
+    }
+
+    public JpaTransformerCache(final int parallelThreshold, final ForkJoinPool forkJoinPool, final MultiRepositoryMetrics metrics, final int maxDepth){
+        this.parallelThreshold = parallelThreshold;
+        this.maxDepth = maxDepth;
+        this.forkJoinPool = forkJoinPool;
+        this.metrics = metrics;
+    }
+
+    //shuts down the fork join pool, unless it is the common one, for a cache that owns its pool
+    public void shutdown(){
+        if (forkJoinPool != ForkJoinPool.commonPool()){
+            forkJoinPool.shutdown();
+        }
+    }
 
     public void registerTransformer(final ClassToClass clazz, final JpaTransformer transformer){
         jpaTransformerCache.put(clazz, transformer);
+        resolved = new ConcurrentHashMap<>();
     }
 
     public Optional<JpaTransformer> transformerForClass(final ClassToClass clazz){
-        return Optional.ofNullable(jpaTransformerCache.get(clazz));
+
+        final Map<ClassToClass, Optional<JpaTransformer>> current = resolved;
+
+        final Optional<JpaTransformer> transformer = current.get(clazz);
+        if (transformer != null){
+            return transformer;
+        }
+        return current.computeIfAbsent(clazz, this::resolve);
+    }
+
+    private Optional<JpaTransformer> resolve(final ClassToClass clazz){
+
+        final JpaTransformer exact = jpaTransformerCache.get(clazz);
+        if (exact != null){
+            return Optional.of(exact);
+        }
+
+        //the source side may be a subclass of what a transformer takes, but what it produces must fit the target:
+        //the same class, or failing that the one registered subclass of it
+        for (final Class classA : EntityMetadata.of(clazz.getClassA()).getHierarchy()){
+            final JpaTransformer transformer = jpaTransformerCache.get(ClassToClass.builder().classA(classA).classB(clazz.getClassB()).build());
+            if (transformer != null){
+                return Optional.of(transformer);
+            }
+
+            JpaTransformer producingSubclass = null;
+            int matches = 0;
+            for (final Map.Entry<ClassToClass, JpaTransformer> entry : jpaTransformerCache.entrySet()){
+                if (entry.getKey().getClassA() == classA && clazz.getClassB().isAssignableFrom(entry.getKey().getClassB())){
+                    producingSubclass = entry.getValue();
+                    matches++;
+                }
+            }
+            if (matches == 1){
+                return Optional.of(producingSubclass);
+            }
+        }
+
+        return Optional.empty();
     }
 
 }
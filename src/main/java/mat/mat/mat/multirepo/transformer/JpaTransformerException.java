@@ -5,4 +5,8 @@ public class JpaTransformerException extends RuntimeException {
     public JpaTransformerException(Throwable throwable) {
         super(throwable);
     }
+
+    public JpaTransformerException(String message) {
+        super(message);
+    }
 }
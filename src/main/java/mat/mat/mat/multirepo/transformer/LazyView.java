@@ -0,0 +1,18 @@
+package mat.mat.mat.multirepo.transformer;
+
+/**
+ * Implemented by the views lazy reads return. Until a collection or association of a view is read, its
+ * field is not set, so a view is loaded whole before anything copies it field by field.
+ */
+public interface LazyView {
+
+    //transforms every collection and association not read yet, while the entity's persistence context is still open
+    void loadLazyView();
+
+    static void load(final Object object) {
+        if (object instanceof LazyView) {
+            ((LazyView) object).loadLazyView();
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package mat.mat.mat.multirepo.transformer;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Transformer whose backward transform returns a {@link DomainView} of the entity instead of a copy,
+ * transforming its collections and associations when they are first read. Forward transforms are the
+ * delegate's. Associations read after the persistence context that loaded the entity is closed fail
+ * the way lazy JPA associations do.
+ */
+public final class LazyViewTransformer implements JpaTransformer<Object, Object> {
+
+    @Getter
+    private final JpaTransformer delegate;
+
+    private LazyViewTransformer(final JpaTransformer delegate) {
+        this.delegate = delegate;
+    }
+
+    //the transformer itself when its domain class cannot have views
+    public static JpaTransformer of(final JpaTransformer transformer) {
+        return transformer != null && DomainView.of(transformer) != null ? new LazyViewTransformer(transformer) : transformer;
+    }
+
+    public static Class transformerClass(final JpaTransformer transformer) {
+        return transformer instanceof LazyViewTransformer ? ((LazyViewTransformer) transformer).delegate.getClass() : transformer.getClass();
+    }
+
+    @Override
+    public Object transformForward(final Object a, final JpaTransformerCache transformerCache) {
+        return delegate.transformForward(a, transformerCache);
+    }
+
+    @Override
+    public Object transformBackward(final Object b, final JpaTransformerCache transformerCache) {
+        return transformBackward(delegate, b, transformerCache, Collections.synchronizedMap(new IdentityHashMap<>()));
+    }
+
+    static Object transformBackward(final JpaTransformer transformer, final Object entity, final JpaTransformerCache transformerCache, final Map<Object, Object> graph) {
+
+        final Object viewed = entity != null ? graph.get(entity) : null;
+        if (viewed != null) {
+            return viewed;
+        }
+
+        final DomainView view = DomainView.of(transformer);
+        if (view == null || !view.accepts(entity)) {
+            return transformer.transformBackward(entity, transformerCache);
+        }
+
+        final long start = System.nanoTime();
+        try {
+            return view.view(entity, transformerCache, graph);
+        } catch (Error | RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new JpaTransformerException(e);
+        } finally {
+            if (transformerCache != null) {
+                transformerCache.getMetrics().transform(transformer.getClass()).recordBackward(System.nanoTime() - start);
+            }
+        }
+    }
+
+}
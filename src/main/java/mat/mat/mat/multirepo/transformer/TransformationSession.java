@@ -0,0 +1,94 @@
+package mat.mat.mat.multirepo.transformer;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Identity map of the objects transformed by one top-level transformForward or transformBackward call,
+ * source to target. A target is registered as soon as it is constructed, before anything it refers to is
+ * transformed, so an object reached again through a shared reference or a cycle is transformed once and
+ * the cycle is rebuilt in the target graph. Parallel collection transforms carry the session to the fork
+ * join pool through {@link #fork()}.
+ */
+public final class TransformationSession {
+
+    private static final ThreadLocal<TransformationSession> CURRENT = new ThreadLocal<>();
+
+    private final Map<Object, Object> transformed;
+    private final int maxDepth;
+    private final boolean forked;
+    private int depth;
+
+    private TransformationSession(final Map<Object, Object> transformed, final int maxDepth, final int depth, final boolean forked) {
+        this.transformed = transformed;
+        this.maxDepth = maxDepth;
+        this.depth = depth;
+        this.forked = forked;
+    }
+
+    //the session of the calling thread, a new one for a top-level transform
+    static TransformationSession current(final JpaTransformerCache transformerCache){
+        final TransformationSession session = CURRENT.get();
+        if (session != null){
+            return session;
+        }
+        final TransformationSession created = new TransformationSession(Collections.synchronizedMap(new IdentityHashMap<>()),
+                transformerCache != null ? transformerCache.getMaxDepth() : JpaTransformerCache.DEFAULT_MAX_DEPTH, 0, false);
+        CURRENT.set(created);
+        return created;
+    }
+
+    //null outside a transform
+    static TransformationSession current(){
+        return CURRENT.get();
+    }
+
+    Object transformed(final Object source){
+        return source != null ? transformed.get(source) : null;
+    }
+
+    //the target to go on with: the one given, or the one another thread registered for the source first
+    static Object register(final Object source, final Object target){
+        final TransformationSession session = CURRENT.get();
+        if (session == null){
+            return target;
+        }
+        final Object registered = session.transformed.putIfAbsent(source, target);
+        return registered != null ? registered : target;
+    }
+
+    //paired with exit() even when it throws
+    void enter(){
+        if (++depth > maxDepth){
+            throw new JpaTransformerException("object graph deeper than " + maxDepth + " transforms, raise multi-repository.transformer.max-depth if it is not a runaway recursion");
+        }
+    }
+
+    void exit(){
+        if (--depth == 0 && !forked){
+            CURRENT.remove();
+        }
+    }
+
+    //a session for another thread sharing this one's identity map, at its depth
+    TransformationSession fork(){
+        return new TransformationSession(transformed, maxDepth, depth, true);
+    }
+
+    //runs the task with this session as the thread's current one
+    void run(final Runnable task){
+        final TransformationSession previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            task.run();
+        } finally {
+            if (previous != null){
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+package mat.mat.mat.multirepo.transformer;
+
+import lombok.Getter;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Compiled forward/backward {@link CopyPlan}s for a {@link JpaTransformer} class, each built on first use.
+ * A direction is left without a plan when the transformer overrides the reflective hooks it relies on,
+ * so that custom {@code buildA}/{@code buildB}/{@code copy} implementations keep being honoured, or when
+ * its target class cannot be compiled into one, e.g. without a no-arg constructor; the transformer's own
+ * {@code buildA}/{@code buildB} and {@code copy} are used for that direction then.
+ */
+public class TransformerPlan {
+
+    private static final ClassValue<TransformerPlan> PLANS = new ClassValue<TransformerPlan>() {
+        @Override
+        protected TransformerPlan computeValue(final Class<?> transformerClass) {
+            try {
+                return new TransformerPlan(transformerClass);
+            } catch (Exception e) {
+                throw new JpaTransformerException(e);
+            }
+        }
+    };
+
+    @Getter
+    private final ClassToClass classToClass;
+    private final boolean customForward;
+    private final boolean customBackward;
+    //null until first used, empty when the direction has no plan
+    private volatile Optional<CopyPlan> forward;
+    private volatile Optional<CopyPlan> backward;
+
+    private TransformerPlan(final Class transformerClass) throws NoSuchMethodException {
+        this.classToClass = ClassToClass.of(transformerClass);
+        this.customForward = overrides(transformerClass, "buildB")
+                || overrides(transformerClass, "copy", Object.class, Object.class, JpaTransformerCache.class)
+                || overrides(transformerClass, "typeHasEntityAnnotation", Type.class)
+                || overrides(transformerClass, "convertCollectionForward", Collection.class, Collection.class, JpaTransformer.class, JpaTransformerCache.class);
+        this.customBackward = overrides(transformerClass, "buildA");
+    }
+
+    public CopyPlan getForward(){
+        Optional<CopyPlan> plan = forward;
+        if (plan == null){
+            //built twice at worst, by threads racing for the first transform
+            plan = Optional.ofNullable(customForward ? null : build(true));
+            forward = plan;
+        }
+        return plan.orElse(null);
+    }
+
+    public CopyPlan getBackward(){
+        Optional<CopyPlan> plan = backward;
+        if (plan == null){
+            plan = Optional.ofNullable(customBackward ? null : build(false));
+            backward = plan;
+        }
+        return plan.orElse(null);
+    }
+
+    private CopyPlan build(final boolean forward){
+        try {
+            return forward
+                    ? CopyPlan.forward(classToClass.getClassA(), classToClass.getClassB())
+                    : CopyPlan.backward(classToClass.getClassB(), classToClass.getClassA());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    public static TransformerPlan of(final JpaTransformer transformer){
+        return PLANS.get(transformer.getClass());
+    }
+
+    static TransformerPlan of(final Class transformerClass){
+        return PLANS.get(transformerClass);
+    }
+
+    private static boolean overrides(final Class transformerClass, final String name, final Class... parameterTypes) throws NoSuchMethodException {
+        final Method method = transformerClass.getMethod(name, parameterTypes);
+        return method.getDeclaringClass() != JpaTransformer.class;
+    }
+
+}